@@ -0,0 +1,1003 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Connection backed by a non-blocking socket channel.
+ * <p>
+ * All network I/O is done by the {@link EventLoop} the channel has been
+ * registered with. Data received from the client is collected in an input
+ * buffer, and data sent to the client is collected in an output buffer.
+ * <p>
+ * Commands are executed by a task running in a worker thread. The task is
+ * only scheduled if a complete line has been received, so an idle connection
+ * does not occupy any thread. While a command is executed, the worker thread
+ * may block to wait for more data (for example, the message sent after an
+ * SMTP {@code DATA} command).
+ * <p>
+ * SSL/TLS is implemented with an {@link SSLEngine}. Encrypted data is
+ * collected in a separate network input buffer and decrypted into the input
+ * buffer. The handshake is driven by the event loop, but delegated tasks of
+ * the engine (which may take a while) are executed by a separate SSL/TLS
+ * executor. With implicit SSL/TLS, the task is only started after the
+ * handshake has finished, so a client which does not complete the handshake
+ * does not occupy a worker thread. If the handshake does not finish in time,
+ * the connection fails.
+ */
+class ChannelConnection extends MailConnection implements EventLoop.Handler {
+
+	private static final Logger logger = Logger.getLogger(ChannelConnection.class.getName());
+
+	private static final int INPUT_BUFFER_SIZE = 4 * 1024;
+	private static final int OUTPUT_BUFFER_SIZE = 4 * 1024;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final SocketChannel channel;
+	private final EventLoop eventLoop;
+
+	/**
+	 * Executor for delegated tasks of the SSLEngine and handshake timeouts.
+	 * Never used for the task, so that a handshake can finish even if all
+	 * worker threads are busy.
+	 */
+	private final ScheduledExecutorService tlsExecutor;
+	private final long handshakeTimeout;
+	private final InetSocketAddress localAddress;
+	private final InetSocketAddress remoteAddress;
+
+	/**
+	 * Lock protecting all buffers and the state of this connection.
+	 * Note: a lock is used instead of synchronized blocks so that waiting
+	 * virtual threads do not pin their carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signaled when new input data is available or the input has ended.
+	 */
+	private final Condition readable = lock.newCondition();
+
+	/**
+	 * Signaled when output data has been sent to the client.
+	 */
+	private final Condition writable = lock.newCondition();
+
+	/**
+	 * Signaled when the SSL/TLS handshake has finished.
+	 */
+	private final Condition handshaken = lock.newCondition();
+
+	/**
+	 * Signaled when the delegated tasks of the SSLEngine have completed.
+	 */
+	private final Condition delegated = lock.newCondition();
+
+	/**
+	 * Plain input data received from the client (in read mode).
+	 */
+	private ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE).flip();
+
+	/**
+	 * Encrypted input data received from the client (in write mode).
+	 * Only used if SSL/TLS has been started.
+	 */
+	private ByteBuffer networkInput;
+
+	/**
+	 * Output data to send to the client (in write mode).
+	 * If SSL/TLS has been started, this buffer contains encrypted data.
+	 */
+	private ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+	private SSLEngine engine;
+	private boolean handshaking = false;
+	private long handshakeStartTime = 0;
+	private Future<?> handshakeTimer;
+	private Consumer<SSLSession> handshakeCallback;
+
+	/**
+	 * Flag telling that delegated tasks of the SSLEngine are running in the
+	 * SSL/TLS executor. The SSLEngine is not used until they have completed.
+	 */
+	private boolean delegating = false;
+
+	/**
+	 * Selection key of the channel. Set after the channel has been
+	 * registered with the event loop.
+	 */
+	private SelectionKey key;
+	private int interestOps = 0;
+
+	/**
+	 * Flag telling that more input data could not be received because the
+	 * input buffer is full.
+	 */
+	private boolean stalled = false;
+
+	private boolean eof = false;
+	private IOException failure = null;
+	private boolean closed = false;
+
+	private Executor executor;
+	private Runnable task;
+
+	/**
+	 * Flag telling that the task has been scheduled or is running.
+	 */
+	private boolean busy = false;
+
+	/**
+	 * Flag telling that the task has to be started to greet the client.
+	 * With implicit SSL/TLS, this is delayed until the handshake has finished.
+	 */
+	private boolean greeting = false;
+
+	private final InputStream inputStream = new ChannelInputStream();
+	private final OutputStream outputStream = new ChannelOutputStream();
+
+	ChannelConnection(SocketChannel channel, EventLoop eventLoop, ScheduledExecutorService tlsExecutor, long handshakeTimeout) throws IOException {
+		Assert.isNotNull(channel, "channel");
+		Assert.isNotNull(eventLoop, "eventLoop");
+		Assert.isNotNull(tlsExecutor, "tlsExecutor");
+		Assert.isInRange(handshakeTimeout, 1, Long.MAX_VALUE, "handshakeTimeout");
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		this.tlsExecutor = tlsExecutor;
+		this.handshakeTimeout = handshakeTimeout;
+		this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+		this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Start executing the given task for this connection.
+	 * The task is executed immediately (to greet the client), or after the
+	 * SSL/TLS handshake if implicit SSL/TLS has been enabled, and again
+	 * whenever a complete line has been received while the connection has
+	 * been idle. The task must call {@link #hasInput()} until it returns
+	 * {@code false} before it returns.
+	 *
+	 * @param key      Selection key of the registered channel.
+	 * @param executor Executor for the task.
+	 * @param task     Task handling commands.
+	 */
+	void start(SelectionKey key, Executor executor, Runnable task) {
+		Assert.isNotNull(key, "key");
+		Assert.isNotNull(executor, "executor");
+		Assert.isNotNull(task, "task");
+		lock.lock();
+		try {
+			this.key = key;
+			this.interestOps = key.interestOps();
+			this.executor = executor;
+			this.task = task;
+			updateInterestOps();
+
+			// run task to greet the client
+			greeting = true;
+			schedule();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Check if there is more input to handle. This method is called by the
+	 * task after every command. If there is no more input (no complete line
+	 * received yet), the connection is marked as idle, and the task must
+	 * return. It is scheduled again as soon as more input is available.
+	 *
+	 * @return {@code true} if there is more input to handle.
+	 */
+	boolean hasInput() {
+		lock.lock();
+		try {
+			if (isReady()) {
+				return true;
+			}
+			busy = false;
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Handle selected events. Called by the event loop.
+	 *
+	 * @param key Selection key.
+	 */
+	@Override
+	public void handle(SelectionKey key) {
+		lock.lock();
+		try {
+			if (closed || !key.isValid()) {
+				return;
+			}
+			if (key.isWritable()) {
+				writeOutput();
+				if (engine != null) {
+					processTLS();
+					writeOutput();
+				}
+			}
+			if (key.isReadable()) {
+				readInput();
+			}
+			updateInterestOps();
+		} catch (IOException e) {
+			fail(e);
+		} catch (CancelledKeyException e) {
+			// connection has been closed concurrently
+		} catch (RuntimeException e) {
+			// fail only this connection, and keep the event loop running
+			fail(new IOException(e));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// SSL/TLS -----------------------------------------------------------------
+
+	/**
+	 * Enable SSL/TLS without waiting for the handshake to finish.
+	 * This is used for implicit SSL/TLS where the handshake starts as soon as
+	 * the client has connected.
+	 *
+	 * @param protocol SSL/TLS protocol.
+	 * @throws IOException If SSL/TLS cannot be initialized.
+	 */
+	void initTLS(String protocol) throws IOException {
+		Assert.isNotEmpty(protocol, "protocol");
+		lock.lock();
+		try {
+			if (engine != null) {
+				throw new IOException("TLS already started");
+			}
+
+			SSLContext context = SSLUtils.getSSLContext(protocol);
+			SSLEngine engine = context.createSSLEngine(remoteAddress.getHostString(), remoteAddress.getPort());
+			engine.setUseClientMode(false);
+
+			// disable all other SSL/TLS protocols
+			engine.setEnabledProtocols(new String[] { protocol });
+
+			SSLSession sslSession = engine.getSession();
+			int applicationBufferSize = sslSession.getApplicationBufferSize();
+			int packetBufferSize = sslSession.getPacketBufferSize();
+
+			// unread plain input (if any) is already encrypted
+			// and must be moved to the network input buffer
+			networkInput = ByteBuffer.allocate(Math.max(packetBufferSize, input.remaining()));
+			networkInput.put(input);
+
+			// make sure that buffers are big enough for a complete TLS record
+			input = ByteBuffer.allocate(2 * applicationBufferSize).flip();
+			if (output.capacity() < packetBufferSize) {
+				output = ByteBuffer.allocate(packetBufferSize).put(output.flip());
+			}
+
+			this.engine = engine;
+			this.handshaking = true;
+			this.handshakeStartTime = System.currentTimeMillis();
+			logger.fine("[SSL/TLS handshake]");
+			engine.beginHandshake();
+			try {
+				handshakeTimer = tlsExecutor.schedule(this::handshakeTimeout, handshakeTimeout, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				throw new IOException("SSL/TLS handshake rejected by executor", e);
+			}
+
+			// process input which has already been received
+			processTLS();
+			writeOutput();
+			updateInterestOps();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	void startTLS(String protocol, Consumer<SSLSession> callback) throws IOException {
+		Assert.isNotNull(callback, "callback");
+		lock.lock();
+		try {
+			// the worker does not wait for the handshake: the task returns
+			// (no input to handle yet), and is scheduled again as soon as the
+			// client has sent the next command over the encrypted connection
+			handshakeCallback = callback;
+			initTLS(protocol);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	SSLSession getSSLSession() throws IOException {
+		lock.lock();
+		try {
+			if (engine == null) {
+				return null;
+			}
+			awaitHandshake();
+			return engine.getSession();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void awaitHandshake() throws IOException {
+		lock.lock();
+		try {
+			while (handshaking) {
+				checkFailure();
+				if (closed || eof) {
+					throw new IOException("SSL/TLS handshake failed: connection closed");
+				}
+				await(handshaken);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Run the SSLEngine until it needs more data from the client, or until
+	 * no more data can be sent or received because a buffer is full.
+	 */
+	private void processTLS() throws IOException {
+		while (true) {
+			SSLEngineResult.HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
+			if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+				if (!delegating) {
+					startDelegatedTasks();
+				}
+				// wait for delegated tasks to complete
+				return;
+			} else if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+				SSLEngineResult result = engine.wrap(EMPTY, output);
+				checkHandshakeFinished(result);
+				if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					if (output.position() == 0) {
+						// packet size has changed
+						output = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+						continue;
+					}
+					writeOutput();
+					if (output.position() > 0) {
+						// wait until output has been sent to the client
+						return;
+					}
+				} else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					eof = true;
+					return;
+				}
+			} else if (!unwrapInput()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decrypt data from the network input buffer into the input buffer.
+	 *
+	 * @return {@code true} if some progress has been made.
+	 */
+	private boolean unwrapInput() throws SSLException {
+		if (eof) {
+			return false;
+		}
+
+		networkInput.flip();
+		input.compact();
+		SSLEngineResult result;
+		try {
+			result = engine.unwrap(networkInput, input);
+		} finally {
+			input.flip();
+			networkInput.compact();
+		}
+		checkHandshakeFinished(result);
+
+		if (result.bytesProduced() > 0) {
+			readable.signalAll();
+			schedule();
+		}
+
+		switch (result.getStatus()) {
+			case BUFFER_UNDERFLOW:
+				// wait for more data from the client
+				return false;
+			case BUFFER_OVERFLOW:
+				// wait until worker has read data from input buffer
+				stalled = true;
+				schedule();
+				return false;
+			case CLOSED:
+				eof = true;
+				readable.signalAll();
+				schedule();
+				return false;
+			default:
+				return result.bytesConsumed() > 0 || result.bytesProduced() > 0 || result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+		}
+	}
+
+	/**
+	 * Run the delegated tasks of the SSLEngine in the SSL/TLS executor, so
+	 * that the event loop is not blocked. When all tasks have completed,
+	 * the SSLEngine is run again.
+	 */
+	private void startDelegatedTasks() throws IOException {
+		delegating = true;
+		try {
+			tlsExecutor.execute(this::completeDelegatedTasks);
+		} catch (RejectedExecutionException e) {
+			delegating = false;
+			throw new IOException("SSL/TLS task rejected by executor", e);
+		}
+	}
+
+	/**
+	 * Called by the SSL/TLS executor to run the delegated tasks of the
+	 * SSLEngine.
+	 */
+	private void completeDelegatedTasks() {
+		RuntimeException exception = null;
+		try {
+			runDelegatedTasks();
+		} catch (RuntimeException e) {
+			exception = e;
+		}
+
+		lock.lock();
+		try {
+			delegating = false;
+			delegated.signalAll();
+			if (closed) {
+				return;
+			}
+			if (exception != null) {
+				throw new SSLException("SSL/TLS task failed", exception);
+			}
+			processTLS();
+			writeOutput();
+			updateInterestOps();
+		} catch (IOException e) {
+			fail(e);
+		} catch (CancelledKeyException e) {
+			// connection has been closed concurrently
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void runDelegatedTasks() {
+		while (true) {
+			Runnable delegatedTask = engine.getDelegatedTask();
+			if (delegatedTask == null) {
+				break;
+			}
+			delegatedTask.run();
+		}
+	}
+
+	private void checkHandshakeFinished(SSLEngineResult result) {
+		if (!handshaking) return;
+		if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+				|| result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+			handshaking = false;
+			handshakeTimer.cancel(false);
+			handshaken.signalAll();
+			handshakeCompleted(engine.getSession(), handshakeStartTime);
+			if (handshakeCallback != null) {
+				handshakeCallback.accept(engine.getSession());
+				handshakeCallback = null;
+			}
+
+			// greet the client (implicit SSL/TLS)
+			schedule();
+		}
+	}
+
+	/**
+	 * Called by the SSL/TLS executor if the handshake has not finished in time.
+	 */
+	private void handshakeTimeout() {
+		lock.lock();
+		try {
+			if (handshaking && !closed && failure == null) {
+				fail(new SSLException("SSL/TLS handshake timed out"));
+				updateInterestOps();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// network I/O -------------------------------------------------------------
+
+	/**
+	 * Read data from the channel. Called by the event loop.
+	 */
+	private void readInput() throws IOException {
+		int len;
+		if (engine == null) {
+			if (input.remaining() == input.capacity()) {
+				// input buffer is full
+				stalled = true;
+				schedule();
+				return;
+			}
+			input.compact();
+			try {
+				len = channel.read(input);
+			} finally {
+				input.flip();
+			}
+			if (len > 0) {
+				readable.signalAll();
+			}
+		} else {
+			len = channel.read(networkInput);
+			if (len > 0) {
+				processTLS();
+				writeOutput();
+			}
+		}
+
+		if (len < 0) {
+			// client has closed the connection
+			eof = true;
+			handshaken.signalAll();
+			readable.signalAll();
+		}
+
+		schedule();
+	}
+
+	/**
+	 * Send data from the output buffer to the client, without blocking.
+	 */
+	private void writeOutput() throws IOException {
+		if (output.position() == 0 || closed) {
+			return;
+		}
+		output.flip();
+		try {
+			channel.write(output);
+		} finally {
+			output.compact();
+		}
+		writable.signalAll();
+	}
+
+	private void updateInterestOps() {
+		if (key == null || !key.isValid()) {
+			return;
+		}
+
+		int ops = 0;
+		if (!eof && canRead()) {
+			ops |= SelectionKey.OP_READ;
+		}
+		if (output.position() > 0) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+
+		if (ops != interestOps) {
+			interestOps = ops;
+			key.interestOps(ops);
+			if (!eventLoop.inEventLoop()) {
+				// make sure that the selector picks up the change
+				key.selector().wakeup();
+			}
+		}
+	}
+
+	private boolean canRead() {
+		if (engine == null) {
+			return input.remaining() < input.capacity();
+		} else {
+			return networkInput.hasRemaining();
+		}
+	}
+
+	// task scheduling ---------------------------------------------------------
+
+	/**
+	 * Schedule the task if it is not running yet and there is input to handle
+	 * or the client has to be greeted.
+	 */
+	private void schedule() {
+		if (busy || task == null || closed) {
+			return;
+		}
+		if (greeting) {
+			if (handshaking && !eof && failure == null) {
+				// wait for SSL/TLS handshake to finish
+				return;
+			}
+			greeting = false;
+		} else if (!isReady()) {
+			return;
+		}
+		busy = true;
+		execute();
+	}
+
+	private void execute() {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.log(Level.WARNING, e, () -> "Connection task rejected by executor:");
+			busy = false;
+			closeQuietly();
+		}
+	}
+
+	/**
+	 * Check if there is input the task has to handle.
+	 */
+	private boolean isReady() {
+		return eof || failure != null || stalled || containsLineFeed(input);
+	}
+
+	private static boolean containsLineFeed(ByteBuffer buffer) {
+		int limit = buffer.limit();
+		for (int i = buffer.position(); i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called by the worker after data has been read from the input buffer.
+	 */
+	private void resumeInput() throws IOException {
+		if (!stalled) {
+			return;
+		}
+		int free = input.capacity() - input.remaining();
+		if (free < input.capacity() / 2) {
+			return;
+		}
+		stalled = false;
+		if (engine != null) {
+			processTLS();
+			writeOutput();
+		}
+		updateInterestOps();
+	}
+
+	// helper methods ----------------------------------------------------------
+
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+		eof = true;
+		readable.signalAll();
+		writable.signalAll();
+		handshaken.signalAll();
+		delegated.signalAll();
+		schedule();
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException(failure.getMessage(), failure);
+		}
+	}
+
+	private void checkWritable() throws IOException {
+		checkFailure();
+		if (closed) {
+			throw new IOException("Connection closed");
+		}
+	}
+
+	private void await(Condition condition) throws InterruptedIOException {
+		try {
+			condition.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for client");
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	// MailConnection ----------------------------------------------------------
+
+	@Override
+	InputStream getInputStream() {
+		return inputStream;
+	}
+
+	@Override
+	OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+
+			// send close_notify alert (best effort)
+			if (engine != null && failure == null) {
+				engine.closeOutbound();
+				try {
+					while (!engine.isOutboundDone()) {
+						SSLEngineResult result = engine.wrap(EMPTY, output);
+						if (result.getStatus() != SSLEngineResult.Status.OK) {
+							break;
+						}
+					}
+					writeOutput();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+
+			closed = true;
+			if (handshakeTimer != null) {
+				handshakeTimer.cancel(false);
+			}
+			readable.signalAll();
+			writable.signalAll();
+			handshaken.signalAll();
+			delegated.signalAll();
+
+		} finally {
+			lock.unlock();
+		}
+
+		channel.close();
+	}
+
+	/**
+	 * Input stream for plain input data. Data which has not been read yet
+	 * stays in the input buffer.
+	 */
+	private class ChannelInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			lock.lock();
+			try {
+				if (!awaitInput()) {
+					return -1;
+				}
+				int b = input.get() & 0xFF;
+				resumeInput();
+				return b;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			lock.lock();
+			try {
+				if (!awaitInput()) {
+					return -1;
+				}
+				int len = Math.min(length, input.remaining());
+				input.get(buffer, offset, len);
+				resumeInput();
+				return len;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int available() {
+			lock.lock();
+			try {
+				return input.remaining();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Wait until input data is available.
+		 *
+		 * @return {@code false} if the end of the input has been reached.
+		 */
+		private boolean awaitInput() throws IOException {
+			while (!input.hasRemaining()) {
+				if (eof || closed) {
+					return false;
+				}
+				await(readable);
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			ChannelConnection.this.close();
+		}
+
+	}
+
+	/**
+	 * Output stream for plain output data. Data is collected in the output
+	 * buffer and sent to the client by the event loop. Writing blocks if the
+	 * output buffer is full.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			lock.lock();
+			try {
+				if (engine != null) {
+					awaitHandshake();
+				}
+				ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+				while (source.hasRemaining()) {
+					checkWritable();
+					if (engine == null) {
+						if (output.hasRemaining()) {
+							int len = Math.min(source.remaining(), output.remaining());
+							ByteBuffer slice = source.slice();
+							slice.limit(len);
+							output.put(slice);
+							source.position(source.position() + len);
+							continue;
+						}
+					} else {
+						SSLEngineResult result = engine.wrap(source, output);
+						if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+							throw new IOException("Connection closed");
+						} else if (result.getStatus() == SSLEngineResult.Status.OK) {
+							if (result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+								processTLS();
+								while (delegating) {
+									checkWritable();
+									await(delegated);
+								}
+							}
+							continue;
+						} else if (output.position() == 0) {
+							// packet size has changed
+							output = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+							continue;
+						}
+					}
+					// output buffer is full
+					awaitOutput();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			lock.lock();
+			try {
+				while (output.position() > 0) {
+					awaitOutput();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Try to send the output data, and wait until some data has been
+		 * sent if the channel is not ready.
+		 */
+		private void awaitOutput() throws IOException {
+			checkWritable();
+			int position = output.position();
+			writeOutput();
+			if (output.position() < position) {
+				// some data has been sent
+				return;
+			}
+			// wait for event loop to send data
+			updateInterestOps();
+			await(writable);
+			checkWritable();
+		}
+
+		@Override
+		public void close() throws IOException {
+			ChannelConnection.this.close();
+		}
+
+	}
+
+}
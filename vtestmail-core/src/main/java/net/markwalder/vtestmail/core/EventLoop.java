@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Thread waiting for I/O events on a set of non-blocking channels with a
+ * {@link Selector}. Ready channels are passed to the {@link Handler}
+ * registered together with the channel.
+ * <p>
+ * Handlers are called by the event loop thread and must never block.
+ * An exception thrown by a handler or a task is logged, and the channel of
+ * the handler is closed, but the event loop continues to run, so that
+ * other channels are not affected.
+ */
+class EventLoop implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(EventLoop.class.getName());
+
+	/**
+	 * Handler for I/O events of a channel.
+	 */
+	@FunctionalInterface
+	interface Handler {
+
+		/**
+		 * Handle the ready operations of the given key.
+		 *
+		 * @param key Selection key.
+		 * @throws IOException If an I/O error occurs.
+		 */
+		void handle(SelectionKey key) throws IOException;
+
+	}
+
+	/**
+	 * Callback invoked by the event loop after a channel has been registered.
+	 */
+	@FunctionalInterface
+	interface Registration {
+
+		/**
+		 * Called with the key of the registered channel.
+		 *
+		 * @param key Selection key.
+		 */
+		void registered(SelectionKey key);
+
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+
+	/**
+	 * Tasks submitted by other threads, executed by the event loop thread.
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean running = true;
+
+	EventLoop(String name) throws IOException {
+		Assert.isNotEmpty(name, "name");
+		this.selector = Selector.open();
+		this.thread = new Thread(this::run);
+		this.thread.setDaemon(true);
+		this.thread.setName(name);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Check if the current thread is the thread of this event loop.
+	 *
+	 * @return {@code true} if called by the event loop thread.
+	 */
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Register a channel with this event loop.
+	 * The channel is registered asynchronously by the event loop thread.
+	 *
+	 * @param channel      Non-blocking channel.
+	 * @param ops          Initial interest operations.
+	 * @param handler      Handler for I/O events.
+	 * @param registration Callback invoked after the channel has been
+	 *                     registered, or {@code null}.
+	 */
+	void register(SelectableChannel channel, int ops, Handler handler, Registration registration) {
+		Assert.isNotNull(channel, "channel");
+		Assert.isNotNull(handler, "handler");
+		execute(() -> {
+			try {
+				SelectionKey key = channel.register(selector, ops, handler);
+				if (registration != null) {
+					registration.registered(key);
+				}
+			} catch (IOException | RuntimeException e) {
+				logger.log(Level.WARNING, e, () -> "Failed to register channel:");
+				closeQuietly(channel);
+			}
+		});
+	}
+
+	/**
+	 * Execute the given task in the event loop thread.
+	 *
+	 * @param task Task.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, e, () -> "Unexpected I/O error in event loop:");
+				break;
+			}
+
+			// execute submitted tasks
+			while (true) {
+				Runnable task = tasks.poll();
+				if (task == null) break;
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, e, () -> "Unexpected error in event loop task:");
+				}
+			}
+
+			// handle I/O events
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Handler handler = (Handler) key.attachment();
+				try {
+					handler.handle(key);
+				} catch (CancelledKeyException e) {
+					// channel has been closed concurrently
+				} catch (IOException e) {
+					if (running) {
+						logger.log(Level.WARNING, e, () -> "Unexpected I/O error in event loop:");
+					}
+					closeQuietly(key.channel());
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, e, () -> "Unexpected error in event loop:");
+					if (handler instanceof Closeable) {
+						closeQuietly((Closeable) handler);
+					}
+					closeQuietly(key.channel());
+				}
+			}
+		}
+
+		// close all channels still registered
+		List<SelectionKey> keys;
+		try {
+			keys = new ArrayList<>(selector.keys());
+		} catch (RuntimeException e) {
+			keys = List.of();
+		}
+		for (SelectionKey key : keys) {
+			Object handler = key.attachment();
+			if (handler instanceof Closeable) {
+				closeQuietly((Closeable) handler);
+			}
+			closeQuietly(key.channel());
+		}
+		closeQuietly(selector);
+	}
+
+	/**
+	 * Stop this event loop and close all registered channels.
+	 * Waits up to 5 seconds for the event loop thread to terminate.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		if (!inEventLoop()) {
+			try {
+				thread.join(5 * 1000L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+}
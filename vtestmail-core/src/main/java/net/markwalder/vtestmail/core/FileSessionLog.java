@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Session log writing all entries to a file. No entries are kept in memory;
+ * {@link #getEntries()} reads them back from the file.
+ * <p>
+ * Every entry is stored as a header line, followed by the text of the entry
+ * (ISO-8859-1) and a LF. The header line has the format
+ * {@code <direction><type> <timestamp> <bytes> <length>}, where direction is
+ * {@code C} (client) or {@code S} (server), type is {@code L} (line) or
+ * {@code D} (data), and length is the length of the text.
+ * <p>
+ * Unless the file should be kept, it is deleted together with the log.
+ */
+class FileSessionLog extends SessionLog {
+
+	private static final Logger logger = Logger.getLogger(FileSessionLog.class.getName());
+
+	private final Path file;
+	private final boolean keepFile;
+	private OutputStream stream;
+	private boolean deleted = false;
+
+	FileSessionLog(Path file, boolean keepFile, Clock clock) throws IOException {
+		super(clock);
+		Assert.isNotNull(file, "file");
+		this.file = file;
+		this.keepFile = keepFile;
+		this.stream = new BufferedOutputStream(Files.newOutputStream(file));
+	}
+
+	/**
+	 * Get the file this log is written to.
+	 *
+	 * @return Log file.
+	 */
+	Path getFile() {
+		return file;
+	}
+
+	@Override
+	synchronized void add(Entry entry) {
+		if (stream == null) return;
+
+		String text = entry.getText();
+		String header = (entry.getDirection() == Direction.CLIENT ? "C" : "S") + (entry.isLine() ? "L" : "D")
+				+ " " + entry.getTimestampMillis() + " " + entry.getBytes() + " " + text.length() + "\n";
+		try {
+			stream.write(header.getBytes(ISO_8859_1));
+			stream.write(text.getBytes(ISO_8859_1));
+			stream.write('\n');
+		} catch (IOException e) {
+			logger.log(Level.WARNING, e, () -> "Failed to write session log: " + file);
+			closeStream();
+		}
+	}
+
+	@Override
+	synchronized void close() {
+		closeStream();
+	}
+
+	@Override
+	synchronized void delete() {
+		closeStream();
+		if (keepFile || deleted) return;
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, e, () -> "Failed to delete session log: " + file);
+		}
+		deleted = true;
+	}
+
+	private void closeStream() {
+		if (stream == null) return;
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		stream = null;
+	}
+
+	@Override
+	public synchronized List<Entry> getEntries() {
+		List<Entry> entries = new ArrayList<>();
+		if (deleted) return entries;
+		try {
+			if (stream != null) {
+				stream.flush();
+			}
+			try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+				while (true) {
+					Entry entry = readEntry(input);
+					if (entry == null) break;
+					entries.add(entry);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, e, () -> "Failed to read session log: " + file);
+		}
+		return entries;
+	}
+
+	private static Entry readEntry(InputStream input) throws IOException {
+
+		// read header line
+		StringBuilder header = new StringBuilder();
+		while (true) {
+			int b = input.read();
+			if (b < 0) {
+				return null; // end of file
+			} else if (b == '\n') {
+				break;
+			}
+			header.append((char) b);
+		}
+
+		String[] fields = header.toString().split(" ");
+		Direction direction = fields[0].charAt(0) == 'C' ? Direction.CLIENT : Direction.SERVER;
+		boolean line = fields[0].charAt(1) == 'L';
+		long timestamp = Long.parseLong(fields[1]);
+		long bytes = Long.parseLong(fields[2]);
+		int length = Integer.parseInt(fields[3]);
+
+		// read text and skip LF
+		byte[] text = input.readNBytes(length);
+		if (text.length < length || input.read() != '\n') {
+			throw new IOException("Unexpected end of file");
+		}
+		return new Entry(direction, timestamp, new String(text, ISO_8859_1), line, bytes);
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Counter for full and resumed TLS handshakes of a server.
+ * <p>
+ * A handshake has resumed a previous session if the server has already
+ * counted a full handshake for a session with the same ID. TLS 1.3 assigns
+ * a new ID to every resumed session, but keeps the creation time of the
+ * original session. Therefore, a handshake has also resumed a previous
+ * session if the session has been created before the handshake started.
+ * <p>
+ * Only the IDs of the most recent full handshakes are kept.
+ */
+class HandshakeCounter {
+
+	/**
+	 * Maximum number of session IDs kept.
+	 */
+	static final int MAX_SESSION_IDS = 10000;
+
+	private final AtomicLong fullHandshakes = new AtomicLong();
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+
+	/**
+	 * IDs of sessions established by full handshakes, from oldest to newest.
+	 */
+	private final Map<ByteBuffer, Boolean> sessionIds = new LinkedHashMap<>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+			return size() > MAX_SESSION_IDS;
+		}
+	};
+
+	long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+	long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+	/**
+	 * Count a completed TLS handshake.
+	 *
+	 * @param session   SSL/TLS session.
+	 * @param startTime Time when the handshake started (in milliseconds).
+	 */
+	void handshakeCompleted(SSLSession session, long startTime) {
+		if (isResumed(session, startTime)) {
+			resumedHandshakes.incrementAndGet();
+		} else {
+			fullHandshakes.incrementAndGet();
+		}
+	}
+
+	private boolean isResumed(SSLSession session, long startTime) {
+		ByteBuffer sessionId = ByteBuffer.wrap(session.getId().clone());
+		synchronized (sessionIds) {
+			if (sessionIds.containsKey(sessionId)) {
+				return true;
+			} else if (session.getCreationTime() < startTime) {
+				return true;
+			}
+			sessionIds.put(sessionId, Boolean.TRUE);
+			return false;
+		}
+	}
+
+}
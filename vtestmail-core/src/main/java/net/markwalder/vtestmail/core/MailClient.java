@@ -14,20 +14,15 @@
 
 package net.markwalder.vtestmail.core;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 import net.markwalder.vtestmail.utils.Assert;
-import net.markwalder.vtestmail.utils.LineReader;
+import net.markwalder.vtestmail.utils.LineScanner;
 
 /**
  * Mail client connection.
@@ -43,70 +38,90 @@ public abstract class MailClient {
 	protected static final Charset CHARSET = StandardCharsets.ISO_8859_1;
 
 	private final String continuation;
-	private final StringBuilder log;
+	private final SessionLog log;
 
-	private Socket socket;
-	private LineReader reader;
-	private BufferedWriter writer;
+	private final MailConnection connection;
+	private LineScanner scanner;
+	private OutputStream outputStream;
 
-	protected MailClient(Socket socket, String continuation, StringBuilder log) throws IOException {
-		Assert.isNotNull(socket, "socket");
+	/**
+	 * Buffer for data to be sent to the client. Lines are encoded directly
+	 * into this buffer, and message content is copied into it without any
+	 * char conversion.
+	 */
+	private final byte[] buffer = new byte[8192];
+	private int count = 0;
+
+	/**
+	 * Maximum length of a line sent by the client, or 0 for no limit.
+	 */
+	private int maxLineLength = 0;
+
+	/**
+	 * Number of nested responses started with {@link #beginResponse()}.
+	 * While a response is in progress, lines are not sent immediately.
+	 */
+	private int responseDepth = 0;
+
+	/**
+	 * Flag telling that lines have been written, but not flushed yet.
+	 */
+	private boolean pendingOutput = false;
+
+	protected MailClient(MailConnection connection, String continuation, SessionLog log) throws IOException {
+		Assert.isNotNull(connection, "connection");
 		Assert.isNotEmpty(continuation, "continuation");
 		Assert.isNotNull(log, "log");
 
+		this.connection = connection;
 		this.continuation = continuation;
 		this.log = log;
 
 		// open reader and writer
-		useSocket(socket);
+		openStreams();
 	}
 
 	public void startTLS(String protocol, MailSession session) throws IOException {
 		Assert.isNotEmpty(protocol, "protocol");
 		Assert.isNotNull(session, "session");
 
-		if (socket instanceof SSLSocket) {
-			throw new IOException("TLS already started");
-		}
+		// send pending response before handshake
+		flush();
 
-		// get server address and port
-		String address = socket.getInetAddress().getHostAddress();
-		int port = socket.getPort();
+		// switch connection to SSL/TLS
+		// and update connection data in session after the handshake
+		connection.startTLS(protocol, session::setSSLSession);
 
-		// create a new SSL socket wrapping the existing socket
-		SSLSocketFactory sslSocketFactory = SSLUtils.createSSLSocketFactory(protocol);
-		SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, address, port, true);
+		// continue using encrypted connection
+		openStreams();
+	}
 
-		// disable all other SSL/TLS protocols
-		// note: since Java 11.0.19, SSLv3 must be enabled explicitly
-		// see: https://bugs.openjdk.org/browse/JDK-8190492
-		sslSocket.setEnabledProtocols(new String[] { protocol });
+	private void openStreams() throws IOException {
 
-		// initiate handshake
-		logger.fine("[SSL/TLS handshake]");
-		sslSocket.setUseClientMode(false);
-		sslSocket.startHandshake();
+		// create scanner to read commands from client
+		// note: data buffered by a previous scanner is discarded
+		// (a client must not send data before the TLS handshake)
+		this.scanner = new LineScanner(connection.getInputStream());
+		this.scanner.setMaxLineLength(maxLineLength);
 
-		// continue using SSL socket
-		useSocket(sslSocket);
+		// write responses to client
+		this.outputStream = connection.getOutputStream();
 
-		// update socket data in session
-		session.setSocketData(sslSocket);
 	}
 
-	private void useSocket(Socket socket) throws IOException {
-
-		// remember socket
-		this.socket = socket;
-
-		// create reader to read commands from client
-		InputStream inputStream = socket.getInputStream();
-		this.reader = new LineReader(new InputStreamReader(inputStream, CHARSET));
-
-		// create writer to write responses to client
-		OutputStream outputStream = socket.getOutputStream();
-		this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, CHARSET));
+	void setMaxLineLength(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+		this.scanner.setMaxLineLength(maxLineLength);
+	}
 
+	/**
+	 * Check if a complete line sent by the client has already been received
+	 * and can be read without blocking.
+	 *
+	 * @return {@code true} if a complete line is available.
+	 */
+	boolean hasBufferedLine() {
+		return scanner.hasLine();
 	}
 
 	/**
@@ -114,13 +129,18 @@ public abstract class MailClient {
 	 *
 	 * @return Line of text sent by client, or {@code null} if the client has
 	 * closed the connection.
-	 * @throws IOException If an I/O error occurs.
+	 * @throws IOException If an I/O error occurs, or if the line is longer
+	 *                     than the maximum line length.
 	 */
 	public String readLine() throws IOException {
-		String line = reader.readLine();
+
+		// client may wait for a response before it sends the next line
+		flush();
+
+		String line = scanner.readLine();
 		if (line == null) return null;
 		logger.fine(() -> "Client: " + line + CRLF_MARKER);
-		log.append(line).append(LF);
+		log.addLine(SessionLog.Direction.CLIENT, line);
 		return line;
 	}
 
@@ -132,14 +152,68 @@ public abstract class MailClient {
 	 * @throws IOException If an I/O error occurs.
 	 */
 	public String readChars(long len) throws IOException {
-		String chars = reader.readChars(len);
+
+		// client may wait for a response before it sends more data
+		flush();
+
+		String chars = scanner.readChars(len);
 		logger.fine(() -> "Client: " + chars);
-		log.append(chars);
+		log.addData(SessionLog.Direction.CLIENT, chars);
 		return chars;
 	}
 
+	/**
+	 * Start a response which may consist of many lines.
+	 * Until the response is ended with {@link #endResponse()}, lines written
+	 * with {@link #writeLine(String)} are collected and sent to the client in
+	 * large blocks instead of one line at a time. Responses can be nested;
+	 * lines are sent when the outermost response ends.
+	 * Pending lines are also sent before data is read from the client.
+	 */
+	public void beginResponse() {
+		responseDepth++;
+	}
+
+	/**
+	 * End a response started with {@link #beginResponse()}, and send all
+	 * pending lines to the client if this is the outermost response.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void endResponse() throws IOException {
+		if (responseDepth == 0) {
+			throw new IllegalStateException("No response in progress");
+		}
+		responseDepth--;
+		if (responseDepth == 0) {
+			flush();
+		}
+	}
+
+	/**
+	 * Send all pending lines to the client.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void flush() throws IOException {
+		if (pendingOutput) {
+			pendingOutput = false;
+			writeBuffer();
+			outputStream.flush();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		if (count > 0) {
+			outputStream.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
 	/**
 	 * Send a line of text to the client, followed by a CRLF line break.
+	 * If a response has been started with {@link #beginResponse()}, the line
+	 * is only sent when the response ends.
 	 *
 	 * @param line Line of text to send.
 	 * @throws IOException If an I/O error occurs.
@@ -147,10 +221,70 @@ public abstract class MailClient {
 	public void writeLine(String line) throws IOException {
 		Assert.isNotNull(line, "line");
 		logger.fine(() -> "Server: " + line + CRLF_MARKER);
-		log.append(line).append(LF);
-		writer.write(line);
-		writer.write(CRLF);
-		writer.flush();
+		log.addLine(SessionLog.Direction.SERVER, line);
+		write(line);
+		write(CRLF);
+		endLine();
+	}
+
+	/**
+	 * Send a line of data to the client, followed by a CRLF line break.
+	 * The data is sent as is, without any char conversion.
+	 * If a response has been started with {@link #beginResponse()}, the line
+	 * is only sent when the response ends.
+	 *
+	 * @param prefix Text to send before the data, or an empty string.
+	 * @param line   Data to send (all remaining bytes), without CRLF.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	protected void writeLine(String prefix, ByteBuffer line) throws IOException {
+		Assert.isNotNull(prefix, "prefix");
+		Assert.isNotNull(line, "line");
+		if (logger.isLoggable(Level.FINE)) {
+			String text = prefix + CHARSET.decode(line.duplicate());
+			logger.fine("Server: " + text + CRLF_MARKER);
+		}
+		log.addLine(SessionLog.Direction.SERVER, prefix, line);
+		write(prefix);
+		write(line);
+		write(CRLF);
+		endLine();
+	}
+
+	private void endLine() throws IOException {
+		pendingOutput = true;
+		if (responseDepth == 0) {
+			flush();
+		}
+	}
+
+	/**
+	 * Encode the given text with ISO-8859-1 into the output buffer.
+	 * Characters which cannot be encoded are replaced with '?'.
+	 */
+	private void write(String text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			if (count == buffer.length) {
+				writeBuffer();
+			}
+			char chr = text.charAt(i);
+			buffer[count++] = chr <= 0xFF ? (byte) chr : (byte) '?';
+		}
+	}
+
+	/**
+	 * Copy all remaining bytes of the given data into the output buffer.
+	 */
+	private void write(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			if (count == buffer.length) {
+				writeBuffer();
+			}
+			int length = Math.min(data.remaining(), buffer.length - count);
+			data.get(buffer, count, length);
+			count += length;
+		}
 	}
 
 	public void writeContinue(String message) throws IOException {
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Network connection between a mail server and a mail client.
+ * A connection is either backed by a blocking {@link java.net.Socket}, or by
+ * a non-blocking {@link java.nio.channels.SocketChannel} served by an event
+ * loop of the server.
+ */
+public abstract class MailConnection implements Closeable {
+
+	/**
+	 * Listener for completed TLS handshakes.
+	 */
+	@FunctionalInterface
+	interface HandshakeListener {
+
+		/**
+		 * Called after a TLS handshake has been completed.
+		 *
+		 * @param session   SSL/TLS session.
+		 * @param startTime Time when the handshake started (in milliseconds).
+		 */
+		void handshakeCompleted(SSLSession session, long startTime);
+
+	}
+
+	private volatile HandshakeListener handshakeListener = null;
+
+	MailConnection() {
+		// only implemented in this package
+	}
+
+	void setHandshakeListener(HandshakeListener handshakeListener) {
+		this.handshakeListener = handshakeListener;
+	}
+
+	/**
+	 * Notify the handshake listener about a completed TLS handshake.
+	 *
+	 * @param session   SSL/TLS session.
+	 * @param startTime Time when the handshake started (in milliseconds).
+	 */
+	void handshakeCompleted(SSLSession session, long startTime) {
+		HandshakeListener listener = handshakeListener;
+		if (listener != null) {
+			listener.handshakeCompleted(session, startTime);
+		}
+	}
+
+	/**
+	 * Get an input stream for data sent by the client.
+	 * A new input stream may be returned after TLS has been started.
+	 *
+	 * @return Input stream for data sent by the client.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	abstract InputStream getInputStream() throws IOException;
+
+	/**
+	 * Get an output stream for data sent to the client.
+	 * A new output stream may be returned after TLS has been started.
+	 *
+	 * @return Output stream for data sent to the client.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	abstract OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Switch to an encrypted connection and perform the TLS handshake with
+	 * the client (server side). The given callback is called with the
+	 * SSL/TLS session once the handshake has been completed. A blocking
+	 * connection completes the handshake before this method returns. A
+	 * non-blocking connection completes the handshake in the background,
+	 * so that no worker thread has to wait for the client.
+	 *
+	 * @param protocol SSL/TLS protocol.
+	 * @param callback Callback for the completed handshake.
+	 * @throws IOException If TLS has already been started or the handshake
+	 *                     fails.
+	 */
+	abstract void startTLS(String protocol, Consumer<SSLSession> callback) throws IOException;
+
+	/**
+	 * Get the SSL/TLS session of this connection. If the handshake has not
+	 * been completed yet, this method waits until the handshake is done.
+	 *
+	 * @return SSL/TLS session, or {@code null} if the connection is not
+	 * encrypted.
+	 * @throws IOException If the handshake fails.
+	 */
+	abstract SSLSession getSSLSession() throws IOException;
+
+	/**
+	 * Get the local address and port of this connection (server side).
+	 *
+	 * @return Local address.
+	 */
+	public abstract InetSocketAddress getLocalAddress();
+
+	/**
+	 * Get the remote address and port of this connection (client side).
+	 *
+	 * @return Remote address.
+	 */
+	public abstract InetSocketAddress getRemoteAddress();
+
+	/**
+	 * Check if this connection has been closed.
+	 *
+	 * @return {@code true} if this connection has been closed.
+	 */
+	public abstract boolean isClosed();
+
+	/**
+	 * Close this connection. Closing an already closed connection has no
+	 * effect.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	@Override
+	public abstract void close() throws IOException;
+
+}
@@ -14,24 +14,41 @@
 
 package net.markwalder.vtestmail.core;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.Security;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocket;
 import net.markwalder.vtestmail.auth.AuthType;
 import net.markwalder.vtestmail.auth.Authenticator;
 import net.markwalder.vtestmail.auth.CramMd5Authenticator;
@@ -39,8 +56,11 @@ import net.markwalder.vtestmail.auth.DigestMd5Authenticator;
 import net.markwalder.vtestmail.auth.LoginAuthenticator;
 import net.markwalder.vtestmail.auth.PlainAuthenticator;
 import net.markwalder.vtestmail.auth.XOauth2Authenticator;
+import net.markwalder.vtestmail.store.Mailbox;
+import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.utils.Assert;
+import net.markwalder.vtestmail.utils.LineTooLongException;
 
 /**
  * Skeleton for a simulated/virtual SMTP, IMAP, or POP3 server.
@@ -69,6 +89,12 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 	protected Clock clock = Clock.systemUTC();
 
 	private int port = 0; // 0 = select a free port
+	private int backlog = 50;
+	private int listeners = 1;
+	private int maxLineLength = 0; // 0 = no limit
+	private boolean tcpNoDelay = true;
+	private int sendBufferSize = 0; // 0 = system default
+	private SessionLogPolicy sessionLogPolicy = SessionLogPolicy.unbounded();
 	private boolean useSSL = false;
 	private String sslProtocol = "TLSv1.2";
 	private boolean authenticationRequired = false;
@@ -84,15 +110,89 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 	 */
 	private final LinkedList<String> authTypes = new LinkedList<>();
 
-	private ServerSocket serverSocket;
-	private Thread thread;
-	protected C client;
-	protected S session;
+	/**
+	 * Executor used to handle client connections.
+	 * If {@code null}, connections are handled one after another by the
+	 * server thread.
+	 */
+	private Executor executor = null;
+
+	private boolean useVirtualThreads = false;
+	private int maxThreads = 100;
+
+	/**
+	 * Executor created and owned by this server.
+	 * It is created when the server is started and shut down when the server
+	 * is stopped.
+	 */
+	private volatile ExecutorService ownedExecutor = null;
+
+	private boolean useNIO = false;
+	private int eventLoopCount = 1;
+
+	/**
+	 * Event loops serving non-blocking client connections.
+	 * Only used if NIO has been enabled.
+	 */
+	private volatile EventLoop[] eventLoops = null;
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+	/**
+	 * Executor for SSL/TLS tasks of non-blocking connections (delegated
+	 * tasks and handshake timeouts). Separate from the executor for commands,
+	 * so that SSL/TLS handshakes can finish even if all worker threads are
+	 * busy. Only used if NIO has been enabled.
+	 */
+	private volatile ScheduledExecutorService tlsExecutor = null;
+
+	private long handshakeTimeout = 30 * 1000L;
+
+	/**
+	 * Listening socket. If multiple listeners have been configured, this is
+	 * the first listening socket.
+	 */
+	private volatile ServerSocket serverSocket;
+
+	/**
+	 * All listening sockets.
+	 */
+	private volatile ServerSocket[] serverSockets = new ServerSocket[0];
+
+	/**
+	 * Number of accepted connections per listening socket.
+	 */
+	private volatile AtomicLongArray acceptCounts = new AtomicLongArray(0);
+
+	/**
+	 * Number of full and resumed TLS handshakes.
+	 */
+	private final HandshakeCounter handshakeCounter = new HandshakeCounter();
+
+	/**
+	 * Threads accepting new connections (one per listening socket).
+	 * Only used if NIO has not been enabled.
+	 */
+	private final List<Thread> threads = new ArrayList<>();
 
 	/**
 	 * History of sessions handled by this server.
 	 */
-	private final List<S> sessions = new ArrayList<>();
+	private final SessionHistory<S> history = new SessionHistory<>();
+
+	/**
+	 * Sessions of currently connected clients, with the connection of each client.
+	 */
+	private final Map<S, MailConnection> activeSessions = new ConcurrentHashMap<>();
+
+	/**
+	 * Listeners notified about server events.
+	 */
+	private final List<MailServerListener<T, S>> eventListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Most recently opened session.
+	 */
+	private volatile S lastSession;
 
 	/**
 	 * Flag used to tell the worker thread to stop processing new connections.
@@ -166,7 +266,32 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 
 	// TODO: set cipher suites?
 
+	/**
+	 * Check if clients must authenticate before they can execute commands.
+	 * <p>
+	 * Note: before the server supported multiple sessions, this method also
+	 * returned {@code false} once the (single) client had been authenticated.
+	 * It now only returns the configured setting.
+	 *
+	 * @return {@code true} if authentication is required, {@code false} otherwise.
+	 * @deprecated Use {@link #isAuthenticationRequired(MailSession)} to check
+	 * if the client of a specific session must authenticate.
+	 */
+	@Deprecated
 	public boolean isAuthenticationRequired() {
+		return authenticationRequired;
+	}
+
+	/**
+	 * Check if the client of the given session must authenticate before it
+	 * can execute a command.
+	 *
+	 * @param session Session of the client.
+	 * @return {@code true} if authentication is required and the client has
+	 * not been authenticated yet, {@code false} otherwise.
+	 */
+	public boolean isAuthenticationRequired(MailSession session) {
+		Assert.isNotNull(session, "session");
 		return authenticationRequired && session.getUsername() == null;
 	}
 
@@ -228,33 +353,161 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 	public void start() throws IOException {
 		logger.fine(() -> "Starting " + protocol + " server ...");
 
-		// open a server socket on a free port
+		stop.set(false);
+
+		// check if multiple listeners are supported
+		int listeners = this.listeners;
+		if (listeners > 1 && !isReusePortSupported()) {
+			logger.warning(() -> "SO_REUSEPORT not supported. Using a single listener.");
+			listeners = 1;
+		}
+		acceptCounts = new AtomicLongArray(listeners);
+
+		if (useNIO) {
+			startNonBlocking(listeners);
+		} else {
+			startBlocking(listeners);
+		}
+
+		logger.fine(() -> protocol + " server started");
+	}
+
+	private void startBlocking(int listeners) throws IOException {
+
+		// open server sockets on a free port
 		ServerSocketFactory factory;
 		if (useSSL) {
-			factory = SSLUtils.createSSLServerSocketFactory(sslProtocol);
+			factory = SSLUtils.getSSLServerSocketFactory(sslProtocol);
 		} else {
 			factory = ServerSocketFactory.getDefault();
 		}
-		InetAddress localhost = InetAddress.getLoopbackAddress();
-		serverSocket = factory.createServerSocket(port, 1, localhost);
+		ServerSocket[] serverSockets = new ServerSocket[listeners];
+		try {
+			for (int i = 0; i < listeners; i++) {
+				ServerSocket serverSocket = factory.createServerSocket();
+				serverSockets[i] = serverSocket;
+				if (listeners > 1) {
+					// let the kernel distribute connections across listeners
+					serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				}
+				serverSocket.bind(getBindAddress(serverSockets), backlog);
 
-		if (serverSocket instanceof SSLServerSocket) {
-			SSLServerSocket sslServerSocket = (SSLServerSocket) serverSocket;
+				if (serverSocket instanceof SSLServerSocket) {
+					SSLServerSocket sslServerSocket = (SSLServerSocket) serverSocket;
 
-			// disable all other SSL/TLS protocols
-			sslServerSocket.setEnabledProtocols(new String[] { sslProtocol });
+					// disable all other SSL/TLS protocols
+					sslServerSocket.setEnabledProtocols(new String[] { sslProtocol });
 
-			// TODO: enable/disable cipher suites?
-			// sslServerSocket.setEnabledCipherSuites(...);
+					// TODO: enable/disable cipher suites?
+					// sslServerSocket.setEnabledCipherSuites(...);
+				}
+			}
+		} catch (IOException e) {
+			closeAll(serverSockets);
+			throw e;
 		}
+		this.serverSocket = serverSockets[0];
+		this.serverSockets = serverSockets;
 
-		// start a new thread to handle client connections
-		thread = new Thread(this::run);
-		thread.setDaemon(true);
-		thread.setName(protocol + "-server-localhost-" + getPort());
-		thread.start();
+		// create executor for virtual threads (if enabled)
+		if (executor == null && useVirtualThreads) {
+			createOwnedExecutor();
+		}
 
-		logger.fine(() -> protocol + " server started");
+		// start a new thread per listener to handle client connections
+		for (int i = 0; i < listeners; i++) {
+			ServerSocket serverSocket = serverSockets[i];
+			int listener = i;
+			Thread thread = new Thread(() -> run(serverSocket, listener));
+			thread.setDaemon(true);
+			thread.setName(protocol + "-server-localhost-" + getPort() + (i == 0 ? "" : "-" + i));
+			thread.start();
+			threads.add(thread);
+		}
+	}
+
+	private void startNonBlocking(int listeners) throws IOException {
+
+		// open non-blocking server socket channels on a free port
+		ServerSocketChannel[] serverChannels = new ServerSocketChannel[listeners];
+		ServerSocket[] serverSockets = new ServerSocket[listeners];
+		try {
+			for (int i = 0; i < listeners; i++) {
+				ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				serverChannels[i] = serverChannel;
+				serverSockets[i] = serverChannel.socket();
+				if (listeners > 1) {
+					// let the kernel distribute connections across listeners
+					serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				}
+				serverChannel.bind(getBindAddress(serverSockets), backlog);
+				serverChannel.configureBlocking(false);
+			}
+		} catch (IOException e) {
+			closeAll(serverSockets);
+			throw e;
+		}
+		this.serverSocket = serverSockets[0];
+		this.serverSockets = serverSockets;
+
+		// commands are always executed by worker threads
+		if (executor == null) {
+			createOwnedExecutor();
+		}
+
+		// SSL/TLS tasks are executed by a small separate pool
+		int tlsThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		tlsExecutor = ThreadUtils.createScheduledExecutor(protocol + "-tls-localhost-" + getPort() + "-", tlsThreads);
+
+		// start event loops (at least one per listener)
+		EventLoop[] eventLoops = new EventLoop[Math.max(eventLoopCount, listeners)];
+		for (int i = 0; i < eventLoops.length; i++) {
+			eventLoops[i] = new EventLoop(protocol + "-server-localhost-" + getPort() + (i == 0 ? "" : "-" + i));
+			eventLoops[i].start();
+		}
+		this.eventLoops = eventLoops;
+
+		// accept new connections of every listener in its own event loop
+		for (int i = 0; i < listeners; i++) {
+			ServerSocketChannel serverChannel = serverChannels[i];
+			int listener = i;
+			eventLoops[i].register(serverChannel, SelectionKey.OP_ACCEPT, key -> acceptConnections(serverChannel, listener), null);
+		}
+	}
+
+	/**
+	 * Get the address to bind the next listening socket to. The first socket
+	 * is bound to the configured port, all other sockets are bound to the
+	 * same port as the first socket.
+	 *
+	 * @param serverSockets Listening sockets (not yet bound sockets are ignored).
+	 * @return Bind address.
+	 */
+	private InetSocketAddress getBindAddress(ServerSocket[] serverSockets) {
+		InetAddress localhost = InetAddress.getLoopbackAddress();
+		ServerSocket first = serverSockets[0];
+		if (first != null && first.isBound()) {
+			return new InetSocketAddress(localhost, first.getLocalPort());
+		}
+		return new InetSocketAddress(localhost, port);
+	}
+
+	/**
+	 * Create an executor for client connections which is owned by this
+	 * server. Virtual threads are used if enabled and supported, otherwise
+	 * a bounded pool of platform threads is used.
+	 */
+	private void createOwnedExecutor() {
+		String prefix = protocol + "-client-localhost-" + getPort() + "-";
+		if (useVirtualThreads) {
+			ownedExecutor = ThreadUtils.createVirtualThreadExecutor(prefix);
+			if (ownedExecutor == null) {
+				logger.fine(() -> "Virtual threads not supported. Using up to " + maxThreads + " platform threads.");
+			}
+		}
+		if (ownedExecutor == null) {
+			ownedExecutor = ThreadUtils.createPlatformThreadExecutor(prefix, maxThreads);
+		}
 	}
 
 	/**
@@ -294,40 +547,435 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 		this.port = port;
 	}
 
+	/**
+	 * Get the maximum number of pending connections which have not been
+	 * accepted by the server yet.
+	 *
+	 * @return Listen backlog of the server socket.
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Set the maximum number of pending connections which have not been
+	 * accepted by the server yet. Note that the operating system may silently
+	 * limit this value. This method has no effect if the server has already
+	 * been started.
+	 *
+	 * @param backlog Listen backlog of the server socket.
+	 */
+	public void setBacklog(int backlog) {
+		Assert.isInRange(backlog, 1, Integer.MAX_VALUE, "backlog");
+		this.backlog = backlog;
+	}
+
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+	/**
+	 * Set the maximum length of a line sent by a client (without CRLF).
+	 * This applies to commands and to message data. If a client sends a
+	 * longer line, the server responds with an error and closes the
+	 * connection. Literals sent by IMAP clients are not limited.
+	 * This method has no effect on already connected clients.
+	 *
+	 * @param maxLineLength Maximum line length, or 0 for no limit (default).
+	 */
+	public void setMaxLineLength(int maxLineLength) {
+		Assert.isInRange(maxLineLength, 0, Integer.MAX_VALUE - 2, "maxLineLength");
+		this.maxLineLength = maxLineLength;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * Enable or disable TCP_NODELAY on client connections.
+	 * Responses are sent in one block per command, so Nagle's algorithm
+	 * only delays responses and is disabled by default.
+	 * This method has no effect on already connected clients.
+	 *
+	 * @param tcpNoDelay {@code true} to disable Nagle's algorithm (default).
+	 */
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Set the size of the socket send buffer (SO_SNDBUF) of client
+	 * connections. A larger buffer may speed up large responses like
+	 * downloads of big messages.
+	 * This method has no effect on already connected clients.
+	 *
+	 * @param sendBufferSize Size in bytes, or 0 for the system default (default).
+	 */
+	public void setSendBufferSize(int sendBufferSize) {
+		Assert.isInRange(sendBufferSize, 0, Integer.MAX_VALUE, "sendBufferSize");
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	public SessionLogPolicy getSessionLogPolicy() {
+		return sessionLogPolicy;
+	}
+
+	/**
+	 * Set the policy for session logs. By default, all data exchanged in a
+	 * session is kept in memory. For long-running servers, consider a
+	 * bounded ring buffer, a log file, or disabling the session log.
+	 * This method has no effect on already connected clients.
+	 *
+	 * @param sessionLogPolicy Session log policy.
+	 * @see SessionLogPolicy#unbounded()
+	 * @see SessionLogPolicy#ringBuffer(int)
+	 * @see SessionLogPolicy#file(java.nio.file.Path)
+	 * @see SessionLogPolicy#disabled()
+	 */
+	public void setSessionLogPolicy(SessionLogPolicy sessionLogPolicy) {
+		Assert.isNotNull(sessionLogPolicy, "sessionLogPolicy");
+		this.sessionLogPolicy = sessionLogPolicy;
+	}
+
+	public int getMaxSessions() {
+		return history.getMaxSessions();
+	}
+
+	/**
+	 * Set the maximum number of sessions kept in the history of this server.
+	 * If the limit is exceeded, the oldest sessions are evicted. Sessions of
+	 * connected clients are never evicted.
+	 *
+	 * @param maxSessions Maximum number of sessions, or 0 for no limit (default).
+	 * @see #getSessions()
+	 */
+	public void setMaxSessions(int maxSessions) {
+		history.setMaxSessions(maxSessions);
+	}
+
+	public Duration getMaxSessionAge() {
+		return history.getMaxAge();
+	}
+
+	/**
+	 * Set how long sessions are kept in the history of this server after the
+	 * client has disconnected.
+	 *
+	 * @param maxSessionAge Maximum age, or {@code null} for no limit (default).
+	 * @see #getSessions()
+	 */
+	public void setMaxSessionAge(Duration maxSessionAge) {
+		history.setMaxAge(maxSessionAge);
+	}
+
+	public long getMaxSessionBytes() {
+		return history.getMaxBytes();
+	}
+
+	/**
+	 * Set the maximum size of all sessions kept in the history of this server.
+	 * The size of a session is estimated by the number of bytes exchanged
+	 * between client and server. The size of the session of a connected
+	 * client is updated when the client disconnects. If the limit is
+	 * exceeded, the oldest sessions are evicted. Sessions of connected clients
+	 * are never evicted.
+	 *
+	 * @param maxSessionBytes Maximum size in bytes, or 0 for no limit (default).
+	 * @see #getSessions()
+	 */
+	public void setMaxSessionBytes(long maxSessionBytes) {
+		history.setMaxBytes(maxSessionBytes);
+	}
+
+	public int getMaxSessionSummaries() {
+		return history.getMaxSummaries();
+	}
+
+	/**
+	 * Set the maximum number of summaries kept for sessions which have been
+	 * evicted from the history. A summary contains client address, timings,
+	 * authentication, and the number of commands and bytes exchanged.
+	 *
+	 * @param maxSessionSummaries Maximum number of summaries, or 0 to not
+	 *                            keep any summaries (default).
+	 * @see #getSessionSummaries()
+	 */
+	public void setMaxSessionSummaries(int maxSessionSummaries) {
+		history.setMaxSummaries(maxSessionSummaries);
+	}
+
+	public int getListeners() {
+		return listeners;
+	}
+
+	/**
+	 * Set the number of listening sockets. If greater than one, all sockets
+	 * are bound to the same port with {@code SO_REUSEPORT}, and the operating
+	 * system distributes new connections across them (Linux). Every listener
+	 * accepts connections in its own thread (or event loop if NIO has been
+	 * enabled), so bursts of new connections are not limited by a single
+	 * accept loop. If {@code SO_REUSEPORT} is not supported, a single
+	 * listener is used.
+	 * This method has no effect if the server has already been started.
+	 *
+	 * @param listeners Number of listening sockets.
+	 * @see #getAcceptCounts()
+	 */
+	public void setListeners(int listeners) {
+		Assert.isInRange(listeners, 1, 1024, "listeners");
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Get the number of connections accepted by every listening socket
+	 * since the server has been started. This can be used to verify that
+	 * connections are evenly distributed across multiple listeners.
+	 *
+	 * @return Number of accepted connections, one entry per listener.
+	 */
+	public long[] getAcceptCounts() {
+		AtomicLongArray acceptCounts = this.acceptCounts;
+		long[] result = new long[acceptCounts.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = acceptCounts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of full TLS handshakes performed by this server,
+	 * for implicit SSL/TLS connections and for STARTTLS.
+	 *
+	 * @return Number of full handshakes.
+	 */
+	public long getFullHandshakes() {
+		return handshakeCounter.getFullHandshakes();
+	}
+
+	/**
+	 * Get the number of TLS handshakes in which a client has resumed a
+	 * previous TLS session, for implicit SSL/TLS connections and for
+	 * STARTTLS.
+	 *
+	 * @return Number of resumed handshakes.
+	 */
+	public long getResumedHandshakes() {
+		return handshakeCounter.getResumedHandshakes();
+	}
+
+	/**
+	 * Check if multiple listening sockets can be bound to the same port
+	 * ({@code SO_REUSEPORT}).
+	 *
+	 * @return {@code true} if {@code SO_REUSEPORT} is supported.
+	 */
+	public static boolean isReusePortSupported() {
+		try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+			return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set the executor used to handle client connections. Every accepted
+	 * connection is handled as a separate task with its own client and
+	 * session, so multiple clients can be served at the same time.
+	 * If set to {@code null} (the default), connections are handled one after
+	 * another by the server thread, and a client has to wait until the
+	 * previous client has disconnected.
+	 * The executor is not shut down when the server is stopped.
+	 * This method has no effect if the server has already been started.
+	 *
+	 * @param executor Executor for client connections, or {@code null}.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public boolean isUseVirtualThreads() {
+		return useVirtualThreads;
+	}
+
+	/**
+	 * Handle every client connection in its own virtual thread.
+	 * Virtual threads are cheap to create and do not occupy a platform
+	 * thread while waiting for the next command of a client, so a server can
+	 * hold thousands of idle connections.
+	 * If the Java runtime does not support virtual threads (Java 20 or
+	 * older), connections are handled by a bounded pool of platform threads
+	 * instead (see {@link #setMaxThreads(int)}).
+	 * This setting is ignored if an executor has been set with
+	 * {@link #setExecutor(Executor)}.
+	 * This method has no effect if the server has already been started.
+	 *
+	 * @param useVirtualThreads {@code true} to use virtual threads.
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Set the maximum number of platform threads used to handle client
+	 * connections if virtual threads have been enabled, but are not
+	 * supported by the Java runtime. If all threads are busy, new
+	 * connections have to wait until another client disconnects.
+	 * If NIO has been enabled, this is the maximum number of commands
+	 * executed at the same time.
+	 *
+	 * @param maxThreads Maximum number of platform threads.
+	 */
+	public void setMaxThreads(int maxThreads) {
+		Assert.isInRange(maxThreads, 1, Integer.MAX_VALUE, "maxThreads");
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Check if the Java runtime supports virtual threads.
+	 *
+	 * @return {@code true} if virtual threads are supported (Java 21 or greater).
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return ThreadUtils.isVirtualThreadSupported();
+	}
+
+	public boolean isUseNIO() {
+		return useNIO;
+	}
+
+	/**
+	 * Serve clients with non-blocking I/O. Connections are multiplexed on a
+	 * small number of event loop threads (see {@link #setEventLoops(int)}),
+	 * and a worker thread is only needed while a command is executed.
+	 * Idle connections do not occupy any thread, so a server can hold
+	 * thousands of open connections.
+	 * Commands are executed by the executor set with
+	 * {@link #setExecutor(Executor)}, or by virtual threads (if enabled), or
+	 * by a bounded pool of platform threads (see {@link #setMaxThreads(int)}).
+	 * Note that {@link #handleCommands(MailSession, MailClient)} is not called
+	 * for non-blocking connections.
+	 * This method has no effect if the server has already been started.
+	 *
+	 * @param useNIO {@code true} to use non-blocking I/O.
+	 */
+	public void setUseNIO(boolean useNIO) {
+		this.useNIO = useNIO;
+	}
+
+	public int getEventLoops() {
+		return eventLoopCount;
+	}
+
+	/**
+	 * Set the number of event loop threads used to serve non-blocking
+	 * connections. New connections are distributed round-robin.
+	 * This setting is ignored if NIO has not been enabled.
+	 * This method has no effect if the server has already been started.
+	 *
+	 * @param eventLoops Number of event loop threads.
+	 */
+	public void setEventLoops(int eventLoops) {
+		Assert.isInRange(eventLoops, 1, 1024, "eventLoops");
+		this.eventLoopCount = eventLoops;
+	}
+
+	public long getHandshakeTimeout() {
+		return handshakeTimeout;
+	}
+
+	/**
+	 * Set the maximum time for a client to complete the SSL/TLS handshake.
+	 * The connection is closed if the handshake has not finished in time.
+	 * This setting is ignored if NIO has not been enabled.
+	 *
+	 * @param handshakeTimeout Timeout in milliseconds.
+	 */
+	public void setHandshakeTimeout(long handshakeTimeout) {
+		Assert.isInRange(handshakeTimeout, 1, Long.MAX_VALUE, "handshakeTimeout");
+		this.handshakeTimeout = handshakeTimeout;
+	}
+
 	public void stop() throws IOException {
 		logger.fine(() -> "Stopping " + protocol + " server ...");
 
-		// signal thread to stop
+		// signal threads to stop
 		stop.set(true);
 
-		// close server socket
-		if (serverSocket != null) {
-			serverSocket.close();
-			serverSocket = null;
+		// close server sockets
+		closeAll(serverSockets);
+		serverSockets = new ServerSocket[0];
+		serverSocket = null;
+
+		// close connections of all active clients
+		for (MailConnection connection : activeSessions.values()) {
+			closeQuietly(connection);
 		}
 
-		// wait for thread to have stopped (max 5 seconds)
-		if (thread != null) {
+		// stop event loops (closes all remaining connections)
+		if (eventLoops != null) {
+			for (EventLoop eventLoop : eventLoops) {
+				eventLoop.close();
+			}
+			eventLoops = null;
+		}
+
+		// wait for threads to have stopped (max 5 seconds each)
+		for (Thread thread : threads) {
 			thread.interrupt();
 			try {
 				thread.join(5 * 1000L);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 			}
-			thread = null;
+		}
+		threads.clear();
+
+		// shut down executor owned by this server
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+			ownedExecutor = null;
+		}
+		if (tlsExecutor != null) {
+			tlsExecutor.shutdownNow();
+			tlsExecutor = null;
 		}
 
 		logger.fine(() -> protocol + " server stopped");
 	}
 
+	/**
+	 * Stop the server and delete the session log files of all sessions in
+	 * the history, unless the session log policy keeps them.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 * @see SessionLogPolicy#file(java.nio.file.Path, boolean)
+	 */
 	@Override
 	public void close() throws IOException {
 		stop();
+		history.deleteSessionLogs();
 	}
 
-	protected void run() {
-
-		stop.set(false);
+	/**
+	 * Accept and handle new connections until the server is stopped.
+	 *
+	 * @param serverSocket Listening socket.
+	 * @param listener     Index of the listening socket.
+	 */
+	private void run(ServerSocket serverSocket, int listener) {
 
 		// while the server has not been stopped ...
 		while (!stop.get()) {
@@ -342,111 +990,358 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 			// }
 
 			// check if the server is still listening
-			if (serverSocket == null || !serverSocket.isBound() || serverSocket.isClosed()) {
+			if (!serverSocket.isBound() || serverSocket.isClosed()) {
 				break;
 			}
 
-			try (Socket socket = serverSocket.accept()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (!stop.get()) { // ignore exception if server has been stopped
+					logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " I/O error:");
+				}
+				continue;
+			}
+			acceptCounts.incrementAndGet(listener);
+
+			Executor executor = this.executor != null ? this.executor : ownedExecutor;
+			if (executor == null) {
+				// handle connection in server thread
+				handleConnection(socket);
+			} else {
+				// handle connection in a separate task
+				try {
+					executor.execute(() -> handleConnection(socket));
+				} catch (RejectedExecutionException e) {
+					logger.log(Level.WARNING, e, () -> protocol + " connection rejected by executor:");
+					closeQuietly(socket);
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Handle a single client connection from start to end.
+	 * A new session and client is created for every connection.
+	 *
+	 * @param socket Socket connected to the client.
+	 */
+	private void handleConnection(Socket socket) {
 
-				logger.fine(() -> protocol + " connection from " + getClientInfo(socket));
+		S session = null;
+		try (socket) {
 
-				session = createSession();
-				client = createClient(socket, session.log); // client writes to session log
+			socket.setTcpNoDelay(tcpNoDelay);
+			if (sendBufferSize > 0) {
+				socket.setSendBufferSize(sendBufferSize);
+			}
 
-				// collect information about server and client
-				session.setSocketData(socket);
+			SocketConnection connection = new SocketConnection(socket);
+			connection.setHandshakeListener(handshakeCounter::handshakeCompleted);
+			connection.startHandshake(); // only if socket uses SSL/TLS
 
-				// add session to history
-				synchronized (sessions) {
-					sessions.add(session);
-				}
+			session = createSession();
+			session.setSessionLog(sessionLogPolicy.createLog(protocol, clock));
+			C client = createClient(connection, session.getSessionLog()); // client writes to session log
+			client.setMaxLineLength(maxLineLength);
 
-				// greet client
-				handleNewClient();
+			// add session to history and remember session as active
+			openSession(session, connection);
 
-				// receive commands and execute them
-				handleCommands();
+			// greet client
+			handleNewClient(session, client);
 
-			} catch (IOException e) {
+			// receive commands and execute them
+			handleCommands(session, client);
 
+		} catch (IOException e) {
+
+			if (!stop.get()) { // ignore exception if server has been stopped
+				logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " I/O error:");
+			}
+
+		} finally {
+
+			// discard session
+			if (session != null) {
+				endSession(session);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Accept all pending connections. Called by the event loop of the
+	 * listener.
+	 *
+	 * @param serverChannel Server socket channel.
+	 * @param listener      Index of the listening socket.
+	 */
+	private void acceptConnections(ServerSocketChannel serverChannel, int listener) {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
 				if (!stop.get()) { // ignore exception if server has been stopped
 					logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " I/O error:");
 				}
+				return;
+			}
+			if (channel == null) {
+				// no more pending connections
+				return;
+			}
+			acceptCounts.incrementAndGet(listener);
+			handleChannel(channel);
+		}
+	}
 
-			} finally {
+	/**
+	 * Prepare a new non-blocking client connection, and register it with
+	 * the next event loop.
+	 *
+	 * @param channel Socket channel connected to the client.
+	 */
+	private void handleChannel(SocketChannel channel) {
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+			if (sendBufferSize > 0) {
+				channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+			}
 
-				// discard session
-				if (session != null) {
-					// make sure that session is closed
-					// (test code may wait for this)
-					if (!session.isClosed()) {
-						session.close();
-					}
-					session = null;
+			// select event loop (round-robin)
+			EventLoop[] eventLoops = this.eventLoops;
+			EventLoop eventLoop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+
+			ChannelConnection connection = new ChannelConnection(channel, eventLoop, tlsExecutor, handshakeTimeout);
+			connection.setHandshakeListener(handshakeCounter::handshakeCompleted);
+			if (useSSL) {
+				// handshake is performed by the event loop,
+				// and the client is greeted after the handshake
+				connection.initTLS(sslProtocol);
+			}
+
+			S session = createSession();
+			session.setSessionLog(sessionLogPolicy.createLog(protocol, clock));
+			C client = createClient(connection, session.getSessionLog()); // client writes to session log
+			client.setMaxLineLength(maxLineLength);
+
+			Executor executor = this.executor != null ? this.executor : ownedExecutor;
+			Runnable task = new ConnectionTask(connection, session, client);
+			eventLoop.register(channel, SelectionKey.OP_READ, connection, key -> connection.start(key, executor, task));
+
+		} catch (IOException e) {
+			if (!stop.get()) { // ignore exception if server has been stopped
+				logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " I/O error:");
+			}
+			closeQuietly(channel);
+		} catch (RuntimeException e) {
+			// close only this connection, but keep accepting connections
+			logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " error:");
+			closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * Task executing the commands of a non-blocking client connection.
+	 * The task runs whenever a complete line has been received and returns
+	 * as soon as no more input is available.
+	 */
+	private class ConnectionTask implements Runnable {
+
+		private final ChannelConnection connection;
+		private final S session;
+		private final C client;
+
+		private boolean started = false;
+
+		ConnectionTask(ChannelConnection connection, S session, C client) {
+			this.connection = connection;
+			this.session = session;
+			this.client = client;
+		}
+
+		@Override
+		public void run() {
+			try {
+
+				if (!started) {
+					started = true;
+
+					// add session to history and remember session as active
+					openSession(session, connection);
+
+					// greet client
+					handleNewClient(session, client);
 				}
 
-				// discard client
-				client = null;
+				// receive commands and execute them
+				// note: check lines already buffered by the client first
+				while (client.hasBufferedLine() || connection.hasInput()) {
+					boolean quit = handleNextCommand(session, client);
+					if (quit) {
+						closeSession(session, connection);
+						return;
+					}
+				}
 
+			} catch (IOException e) {
+				if (!stop.get()) { // ignore exception if server has been stopped
+					logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " I/O error:");
+				}
+				closeSession(session, connection);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, e, () -> "Unexpected " + protocol + " error:");
+				closeSession(session, connection);
 			}
+		}
+
+	}
+
+	/**
+	 * Add a new session to the history and remember it as active.
+	 *
+	 * @param session    Session of the client.
+	 * @param connection Connection to the client.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private void openSession(S session, MailConnection connection) throws IOException {
+
+		// collect information about server and client
+		session.setConnectionData(connection);
 
+		logger.fine(() -> protocol + " connection from " + getClientInfo(session));
+
+		// add session to history
+		session.setStartTime(clock.instant());
+		history.add(session, clock.instant());
+
+		// remember session as active
+		activeSessions.put(session, connection);
+		lastSession = session;
+
+		fireEvent(listener -> listener.sessionOpened(session));
+	}
+
+	/**
+	 * Discard an active session and close the connection to the client.
+	 *
+	 * @param session    Session of the client.
+	 * @param connection Connection to the client.
+	 */
+	private void closeSession(S session, MailConnection connection) {
+		endSession(session);
+		closeQuietly(connection);
+	}
+
+	/**
+	 * Discard an active session after the connection to the client has been
+	 * closed, or is about to be closed.
+	 *
+	 * @param session Session of the client.
+	 */
+	private void endSession(S session) {
+
+		// update session history
+		session.setEndTime(clock.instant());
+		history.sessionEnded(session, clock.instant());
+
+		activeSessions.remove(session);
+		session.getSessionLog().close();
+
+		// make sure that session is closed
+		// (test code may wait for this)
+		if (!session.isClosed()) {
+			session.close();
 		}
 
+		fireEvent(listener -> listener.sessionClosed(session));
 	}
 
-	protected abstract C createClient(Socket socket, StringBuilder log) throws IOException;
+	protected abstract C createClient(MailConnection connection, SessionLog log) throws IOException;
 
 	protected abstract S createSession();
 
-	protected abstract void handleNewClient() throws IOException;
+	protected abstract void handleNewClient(S session, C client) throws IOException;
 
 	/**
 	 * Receive commands from client and execute them.
 	 *
+	 * @param session Session of the client.
+	 * @param client  Client connection.
 	 * @throws IOException If an I/O error occurs.
 	 */
-	protected void handleCommands() throws IOException {
+	protected void handleCommands(S session, C client) throws IOException {
 
 		// read and handle client commands
 		while (true) {
+			boolean quit = handleNextCommand(session, client);
+			if (quit) {
+				// stop waiting for new commands and close the connection
+				// (if not already closed by the client)
+				return;
+			}
+		}
 
-			String command = null;
-			try {
+	}
 
-				// read next command from client
-				command = readCommand();
-				if (command == null) {
+	/**
+	 * Receive the next command from the client and execute it.
+	 *
+	 * @param session Session of the client.
+	 * @param client  Client connection.
+	 * @return {@code true} if the client has closed the connection or the
+	 * session has been closed (with a QUIT or LOGOUT command).
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private boolean handleNextCommand(S session, C client) throws IOException {
 
-					// client has closed the connection
-					logger.fine(() -> protocol + " client closed connection");
+		// collect all response lines and send them in one block
+		client.beginResponse();
 
-					// stop waiting for new commands
-					return;
+		String command = null;
+		try {
 
-				} else if (command.isEmpty()) {
-					// TODO: how should an empty line be handled?
-					//  (sent after failed authentication)
-					continue;
-				}
+			// read next command from client
+			command = readCommand(session, client);
+			if (command == null) {
 
-				// TODO: implement command listener
+				// client has closed the connection
+				logger.fine(() -> protocol + " client closed connection");
 
-				// execute command
-				handleCommand(command);
+				// stop waiting for new commands
+				return true;
 
-			} catch (MailException e) {
-				handleException(command, e);
+			} else if (command.isEmpty()) {
+				// TODO: how should an empty line be handled?
+				//  (sent after failed authentication)
+				return false;
 			}
 
-			// check if the session has been closed (with a QUIT or LOGOUT command)
-			boolean quit = session.isClosed();
-			if (quit) {
-				// stop waiting for new commands and close the connection
-				// (if not already closed by the client)
-				return;
-			}
+			// execute command
+			session.incrementCommandCount();
+			handleCommand(command, session, client);
+
+		} catch (MailException e) {
+			handleException(command, e, session, client);
+		} catch (LineTooLongException e) {
+			logger.fine(() -> protocol + " client sent a line which is too long");
+			handleLineTooLong(session, client);
+
+			// stop waiting for new commands and close the connection
+			return true;
+		} finally {
+			client.endResponse();
 		}
 
+		// check if the session has been closed (with a QUIT or LOGOUT command)
+		return session.isClosed();
 	}
 
 	/**
@@ -455,40 +1350,240 @@ public abstract class MailServer<T extends MailCommand, S extends MailSession, C
 	 * Subclasses like {@link net.markwalder.vtestmail.imap.ImapServer ImapServer}
 	 * may override this method to read commands with multiple lines.
 	 *
+	 * @param session Session of the client.
+	 * @param client  Client connection.
 	 * @return The command, or {@code null} if the client has closed the connection.
 	 * @throws E           If a protocol error occurs.
 	 * @throws IOException If an I/O error occurs.
 	 */
-	protected String readCommand() throws E, IOException {
+	protected String readCommand(S session, C client) throws E, IOException {
 		return client.readLine();
 	}
 
-	protected abstract void handleCommand(String line) throws E, IOException;
+	protected abstract void handleCommand(String line, S session, C client) throws E, IOException;
 
-	protected void handleException(String line, MailException e) throws IOException {
+	protected void handleException(String line, MailException e, S session, C client) throws IOException {
 		client.writeError(e.getMessage());
 	}
 
+	/**
+	 * Handle a line sent by the client which is longer than the maximum line
+	 * length. The connection is closed after this method has returned.
+	 *
+	 * @param session Session of the client.
+	 * @param client  Client connection.
+	 * @throws IOException If an I/O error occurs.
+	 * @see #setMaxLineLength(int)
+	 */
+	protected void handleLineTooLong(S session, C client) throws IOException {
+		client.writeError("Line too long");
+	}
+
+	/**
+	 * Get the session of the most recently connected client, if this client
+	 * is still connected.
+	 *
+	 * @return Most recent active session, or {@code null} if no client is
+	 * connected.
+	 */
 	public S getActiveSession() {
-		return session;
+		S session = lastSession;
+		if (session != null && activeSessions.containsKey(session)) {
+			return session;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the sessions of all currently connected clients.
+	 * The returned collection is a read-only view which is updated whenever
+	 * a client connects or disconnects. The order of sessions is undefined.
+	 *
+	 * @return Sessions of all active clients.
+	 */
+	public Collection<S> getActiveSessions() {
+		return Collections.unmodifiableSet(activeSessions.keySet());
 	}
 
+	/**
+	 * Get the sessions in the history of this server, from oldest to newest.
+	 * The returned list is a read-only snapshot. It is only copied if the
+	 * history has changed since the last call.
+	 *
+	 * @return Sessions in the history.
+	 * @see #setMaxSessions(int)
+	 * @see #setMaxSessionAge(Duration)
+	 * @see #setMaxSessionBytes(long)
+	 */
 	public List<S> getSessions() {
-		synchronized (sessions) {
-			return new ArrayList<>(sessions);
+		return history.getSessions(clock.instant());
+	}
+
+	/**
+	 * Get summaries of the sessions which have been evicted from the history.
+	 * Summaries are only kept if enabled with
+	 * {@link #setMaxSessionSummaries(int)}.
+	 *
+	 * @return Summaries of evicted sessions, from oldest to newest.
+	 */
+	public List<MailSessionSummary> getSessionSummaries() {
+		return history.getSummaries();
+	}
+
+	/**
+	 * Add a listener which is notified about server events.
+	 *
+	 * @param listener Listener.
+	 */
+	public void addListener(MailServerListener<T, S> listener) {
+		Assert.isNotNull(listener, "listener");
+		eventListeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener added with {@link #addListener(MailServerListener)}.
+	 *
+	 * @param listener Listener.
+	 */
+	public void removeListener(MailServerListener<T, S> listener) {
+		eventListeners.remove(listener);
+	}
+
+	/**
+	 * Get a future which is completed when the next client connects.
+	 * Call this method before the client connects, and wait for the future
+	 * afterwards, to avoid missing the event.
+	 *
+	 * @return Future completed with the new session.
+	 */
+	public CompletableFuture<S> nextSessionOpened() {
+		CompletableFuture<S> future = new CompletableFuture<>();
+		return nextEvent(future, new MailServerListener<T, S>() {
+			@Override
+			public void sessionOpened(S session) {
+				future.complete(session);
+			}
+		});
+	}
+
+	/**
+	 * Get a future which is completed when the connection to the next client
+	 * has been closed.
+	 *
+	 * @return Future completed with the ended session.
+	 */
+	public CompletableFuture<S> nextSessionClosed() {
+		CompletableFuture<S> future = new CompletableFuture<>();
+		return nextEvent(future, new MailServerListener<T, S>() {
+			@Override
+			public void sessionClosed(S session) {
+				future.complete(session);
+			}
+		});
+	}
+
+	/**
+	 * Get a future which is completed when the next command matching the
+	 * given filter has been executed.
+	 *
+	 * @param filter Filter for commands.
+	 * @return Future completed with the executed command.
+	 */
+	public CompletableFuture<T> nextCommand(Predicate<? super T> filter) {
+		Assert.isNotNull(filter, "filter");
+		CompletableFuture<T> future = new CompletableFuture<>();
+		return nextEvent(future, new MailServerListener<T, S>() {
+			@Override
+			public void commandExecuted(S session, T command) {
+				if (filter.test(command)) {
+					future.complete(command);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get a future which is completed when the next message has been
+	 * delivered to a mailbox.
+	 *
+	 * @return Future completed with the delivered message.
+	 */
+	public CompletableFuture<MailboxMessage> nextMessageDelivered() {
+		CompletableFuture<MailboxMessage> future = new CompletableFuture<>();
+		return nextEvent(future, new MailServerListener<T, S>() {
+			@Override
+			public void messageDelivered(S session, Mailbox mailbox, MailboxMessage message) {
+				future.complete(message);
+			}
+		});
+	}
+
+	/**
+	 * Register a listener completing a future, and remove the listener as
+	 * soon as the future is done (completed, cancelled, or timed out).
+	 */
+	private <R> CompletableFuture<R> nextEvent(CompletableFuture<R> future, MailServerListener<T, S> listener) {
+		eventListeners.add(listener);
+		future.whenComplete((result, error) -> eventListeners.remove(listener));
+		return future;
+	}
+
+	/**
+	 * Notify listeners that a command has been executed.
+	 * This method is expected to be called by subclasses in
+	 * {@link #handleCommand(String, MailSession, MailClient)}.
+	 *
+	 * @param session Session of the client.
+	 * @param command Executed command.
+	 */
+	protected void fireCommandExecuted(S session, T command) {
+		fireEvent(listener -> listener.commandExecuted(session, command));
+	}
+
+	/**
+	 * Notify listeners that a message has been delivered to a mailbox.
+	 *
+	 * @param session Session of the client.
+	 * @param mailbox Mailbox of the recipient.
+	 * @param message Delivered message.
+	 */
+	protected void fireMessageDelivered(S session, Mailbox mailbox, MailboxMessage message) {
+		fireEvent(listener -> listener.messageDelivered(session, mailbox, message));
+	}
+
+	private void fireEvent(Consumer<MailServerListener<T, S>> event) {
+		if (eventListeners.isEmpty()) return;
+		for (MailServerListener<T, S> listener : eventListeners) {
+			try {
+				event.accept(listener);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, e, () -> "Unexpected error in " + protocol + " server listener:");
+			}
 		}
 	}
 
-	private String getClientInfo(Socket socket) {
-		String clientInfo = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
-		if (socket instanceof SSLSocket) {
-			SSLSocket sslSocket = (SSLSocket) socket;
-			SSLSession sslSession = sslSocket.getSession();
-			String sslProtocol = sslSession.getProtocol();
-			String cipherSuite = sslSession.getCipherSuite();
-			clientInfo += " (" + sslProtocol + ", " + cipherSuite + ")";
+	private String getClientInfo(S session) {
+		String clientInfo = session.getClientAddress() + ":" + session.getClientPort();
+		if (session.isEncrypted()) {
+			clientInfo += " (" + session.getSSLProtocol() + ", " + session.getCipherSuite() + ")";
 		}
 		return clientInfo;
 	}
 
+	private static void closeAll(ServerSocket[] serverSockets) {
+		for (ServerSocket serverSocket : serverSockets) {
+			if (serverSocket != null) {
+				closeQuietly(serverSocket);
+			}
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import net.markwalder.vtestmail.store.Mailbox;
+import net.markwalder.vtestmail.store.MailboxMessage;
+
+/**
+ * Listener for events of a mail server.
+ * <p>
+ * Listener methods are called by the thread serving the client connection,
+ * and should return quickly. Exceptions thrown by a listener are logged and
+ * otherwise ignored.
+ *
+ * @param <T> Type of commands.
+ * @param <S> Type of sessions.
+ * @see MailServer#addListener(MailServerListener)
+ */
+public interface MailServerListener<T extends MailCommand, S extends MailSession> {
+
+	/**
+	 * Called when a client has connected and a new session has been opened.
+	 *
+	 * @param session New session.
+	 */
+	default void sessionOpened(S session) {
+		// nothing to do by default
+	}
+
+	/**
+	 * Called when the connection to a client has been closed.
+	 *
+	 * @param session Ended session.
+	 */
+	default void sessionClosed(S session) {
+		// nothing to do by default
+	}
+
+	/**
+	 * Called after a command has been executed, whether it was successful
+	 * or not.
+	 *
+	 * @param session Session in which the command has been executed.
+	 * @param command Executed command.
+	 */
+	default void commandExecuted(S session, T command) {
+		// nothing to do by default
+	}
+
+	/**
+	 * Called after a message has been delivered to a mailbox.
+	 * If a message is delivered to multiple mailboxes, this method is called
+	 * once for every mailbox.
+	 *
+	 * @param session Session in which the message has been received.
+	 * @param mailbox Mailbox of the recipient.
+	 * @param message Delivered message.
+	 */
+	default void messageDelivered(S session, Mailbox mailbox, MailboxMessage message) {
+		// nothing to do by default
+	}
+
+}
@@ -16,9 +16,15 @@ package net.markwalder.vtestmail.core;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocket;
 import net.markwalder.vtestmail.store.Mailbox;
 import net.markwalder.vtestmail.store.MailboxProvider;
 import net.markwalder.vtestmail.utils.Assert;
@@ -37,30 +43,92 @@ public abstract class MailSession {
 	private String username = null;
 
 	private volatile boolean closed = false;
+	private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+
+	private volatile Instant startTime = null;
+	private volatile Instant endTime = null;
+
+	/**
+	 * Number of commands received in this session.
+	 * Only updated by the thread currently serving the session.
+	 */
+	private volatile int commandCount = 0;
 
 	/**
 	 * Session log with all messages exchanged between client and server.
+	 * Replaced by the server according to its session log policy.
 	 */
-	protected final StringBuilder log = new StringBuilder();
+	private volatile SessionLog log = new MemorySessionLog(0, Clock.systemUTC());
+
+	void setSessionLog(SessionLog log) {
+		Assert.isNotNull(log, "log");
+		this.log = log;
+	}
 
-	void setSocketData(Socket socket) {
-		Assert.isNotNull(socket, "socket");
+	void setConnectionData(MailConnection connection) throws IOException {
+		Assert.isNotNull(connection, "connection");
 
 		// get server and client address and port
-		serverAddress = socket.getLocalAddress().getHostAddress();
-		serverPort = socket.getLocalPort();
-		clientAddress = socket.getInetAddress().getHostAddress();
-		clientPort = socket.getPort();
+		InetSocketAddress localAddress = connection.getLocalAddress();
+		serverAddress = localAddress.getAddress().getHostAddress();
+		serverPort = localAddress.getPort();
+		InetSocketAddress remoteAddress = connection.getRemoteAddress();
+		clientAddress = remoteAddress.getAddress().getHostAddress();
+		clientPort = remoteAddress.getPort();
 
 		// get SSL settings
-		if (socket instanceof SSLSocket) {
-			SSLSocket sslSocket = (SSLSocket) socket;
-			SSLSession sslSession = sslSocket.getSession();
-			sslProtocol = sslSession.getProtocol();
-			cipherSuite = sslSession.getCipherSuite();
+		SSLSession sslSession = connection.getSSLSession();
+		if (sslSession != null) {
+			setSSLSession(sslSession);
 		}
 	}
 
+	void setSSLSession(SSLSession sslSession) {
+		Assert.isNotNull(sslSession, "sslSession");
+		sslProtocol = sslSession.getProtocol();
+		cipherSuite = sslSession.getCipherSuite();
+	}
+
+	void setStartTime(Instant startTime) {
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Get the time when the client connected.
+	 *
+	 * @return Start time, or {@code null} if the session has not been started
+	 * by a server.
+	 */
+	public Instant getStartTime() {
+		return startTime;
+	}
+
+	void setEndTime(Instant endTime) {
+		this.endTime = endTime;
+	}
+
+	/**
+	 * Get the time when the connection to the client has been closed.
+	 *
+	 * @return End time, or {@code null} if the client is still connected.
+	 */
+	public Instant getEndTime() {
+		return endTime;
+	}
+
+	void incrementCommandCount() {
+		commandCount++;
+	}
+
+	/**
+	 * Get the number of commands received in this session.
+	 *
+	 * @return Number of commands.
+	 */
+	public int getCommandCount() {
+		return commandCount;
+	}
+
 	public String getServerAddress() {
 		return serverAddress;
 	}
@@ -161,6 +229,7 @@ public abstract class MailSession {
 	 */
 	public void close() {
 		closed = true;
+		closeFuture.complete(null);
 	}
 
 	/**
@@ -174,6 +243,17 @@ public abstract class MailSession {
 		return closed;
 	}
 
+	/**
+	 * Get a future which is completed as soon as this session is closed.
+	 * Completing or cancelling the returned future does not affect the
+	 * session or other futures returned by this method.
+	 *
+	 * @return Future completed when this session is closed.
+	 */
+	public CompletableFuture<Void> whenClosed() {
+		return closeFuture.copy();
+	}
+
 	/**
 	 * Wait until this session has been closed.
 	 * This method is intended to be used in tests before checking any
@@ -183,31 +263,21 @@ public abstract class MailSession {
 	 * @throws InterruptedException If the current thread has been interrupted
 	 *                              or the timeout has been reached.
 	 */
-	@SuppressWarnings("BusyWait")
 	public void waitUntilClosed(long timeout) throws InterruptedException {
 		Assert.isInRange(timeout, 1, Long.MAX_VALUE, "timeout");
-
-		// quick check if already closed
-		if (closed) return;
-
-		// remember start time
-		long start = System.currentTimeMillis();
-
-		while (!closed) {
-
-			// check if timeout has been reached
-			long time = System.currentTimeMillis();
-			if (time - start >= timeout) {
-				throw new InterruptedException("Timeout");
-			}
-
-			// sleep for a while
-			Thread.sleep(100);
+		try {
+			closeFuture.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new InterruptedException("Timeout");
+		} catch (ExecutionException e) {
+			// future is never completed exceptionally
+			throw new IllegalStateException(e);
 		}
 	}
 
 	/**
-	 * Get session log.
+	 * Get session log as text. Every line sent by the client or the server
+	 * is terminated by a single LF.
 	 *
 	 * @return Session log.
 	 */
@@ -215,4 +285,13 @@ public abstract class MailSession {
 		return log.toString();
 	}
 
+	/**
+	 * Get session log with structured entries.
+	 *
+	 * @return Session log.
+	 */
+	public SessionLog getSessionLog() {
+		return log;
+	}
+
 }
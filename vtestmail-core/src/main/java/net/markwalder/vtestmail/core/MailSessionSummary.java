@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Summary of a session which has been evicted from the session history of
+ * a server. Unlike the session itself, a summary does not keep any commands,
+ * transactions, or log entries.
+ *
+ * @see MailServer#setMaxSessionSummaries(int)
+ */
+public final class MailSessionSummary {
+
+	private final String clientAddress;
+	private final int clientPort;
+	private final String sslProtocol;
+	private final String authType;
+	private final String username;
+	private final Instant startTime;
+	private final Instant endTime;
+	private final int commandCount;
+	private final long bytesReceived;
+	private final long bytesSent;
+
+	MailSessionSummary(MailSession session) {
+		this.clientAddress = session.getClientAddress();
+		this.clientPort = session.getClientPort();
+		this.sslProtocol = session.getSSLProtocol();
+		this.authType = session.getAuthType();
+		this.username = session.getUsername();
+		this.startTime = session.getStartTime();
+		this.endTime = session.getEndTime();
+		this.commandCount = session.getCommandCount();
+		SessionLog log = session.getSessionLog();
+		this.bytesReceived = log.getBytesReceived();
+		this.bytesSent = log.getBytesSent();
+	}
+
+	public String getClientAddress() {
+		return clientAddress;
+	}
+
+	public int getClientPort() {
+		return clientPort;
+	}
+
+	public String getSSLProtocol() {
+		return sslProtocol;
+	}
+
+	public String getAuthType() {
+		return authType;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public Instant getStartTime() {
+		return startTime;
+	}
+
+	public Instant getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * Get the duration of the session.
+	 *
+	 * @return Duration, or {@code null} if start or end time is unknown.
+	 */
+	public Duration getDuration() {
+		if (startTime == null || endTime == null) {
+			return null;
+		}
+		return Duration.between(startTime, endTime);
+	}
+
+	public int getCommandCount() {
+		return commandCount;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Session log keeping entries in memory.
+ * If a maximum size is set, the oldest entries are discarded as soon as the
+ * text of all entries exceeds the maximum size (ring buffer).
+ */
+class MemorySessionLog extends SessionLog {
+
+	/**
+	 * Maximum number of characters kept, or 0 for no limit.
+	 */
+	private final int maxSize;
+
+	private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+	/**
+	 * Number of characters in all kept entries.
+	 */
+	private long size = 0;
+
+	private boolean closed = false;
+
+	MemorySessionLog(int maxSize, Clock clock) {
+		super(clock);
+		Assert.isInRange(maxSize, 0, Integer.MAX_VALUE, "maxSize");
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	synchronized void add(Entry entry) {
+		if (closed) return;
+
+		if (maxSize > 0) {
+
+			// keep only the end of an entry which is too large
+			String text = entry.getText();
+			if (text.length() > maxSize) {
+				text = text.substring(text.length() - maxSize);
+				entry = new Entry(entry.getDirection(), entry.getTimestampMillis(), text, entry.isLine(), entry.getBytes());
+			}
+
+			// discard oldest entries
+			while (size + text.length() > maxSize) {
+				Entry oldest = entries.removeFirst();
+				size -= oldest.getText().length();
+			}
+		}
+
+		entries.addLast(entry);
+		size += entry.getText().length();
+	}
+
+	@Override
+	synchronized void close() {
+		closed = true;
+	}
+
+	@Override
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries);
+	}
+
+}
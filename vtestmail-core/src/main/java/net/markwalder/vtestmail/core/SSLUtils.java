@@ -27,6 +27,8 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -43,23 +45,80 @@ class SSLUtils {
 	private static final String ALIAS = "localhost";
 	private static final String PASSWORD = "changeit";
 
+	/**
+	 * SSL contexts by protocol. An SSL context holds the server-side session
+	 * cache, so reusing a context allows clients to resume previous TLS
+	 * sessions instead of performing a full handshake on every connection.
+	 */
+	private static final Map<String, SSLContext> contexts = new ConcurrentHashMap<>();
+
+	/**
+	 * Key managers holding the private key and self-signed certificate.
+	 * The keystore is loaded only once.
+	 */
+	private static KeyManager[] keyManagers = null;
+
 	private SSLUtils() {
 		// utility class
 	}
 
-	static SSLSocketFactory createSSLSocketFactory(String protocol) throws IOException {
-		SSLContext context = createSSLContext(protocol);
+	static SSLSocketFactory getSSLSocketFactory(String protocol) throws IOException {
+		SSLContext context = getSSLContext(protocol);
 		return context.getSocketFactory();
 	}
 
-	static SSLServerSocketFactory createSSLServerSocketFactory(String protocol) throws IOException {
-		SSLContext context = createSSLContext(protocol);
+	static SSLServerSocketFactory getSSLServerSocketFactory(String protocol) throws IOException {
+		SSLContext context = getSSLContext(protocol);
 		return context.getServerSocketFactory();
 	}
 
+	/**
+	 * Get the shared SSL context for the given protocol. The context is
+	 * created on first use and cached for all servers and connections.
+	 *
+	 * @param protocol SSL/TLS protocol.
+	 * @return SSL context.
+	 * @throws IOException If the SSL context could not be created.
+	 */
+	static SSLContext getSSLContext(String protocol) throws IOException {
+		Assert.isNotEmpty(protocol, "protocol");
+
+		SSLContext context = contexts.get(protocol);
+		if (context == null) {
+			context = createSSLContext(protocol);
+			SSLContext existingContext = contexts.putIfAbsent(protocol, context);
+			if (existingContext != null) {
+				// another thread has been faster
+				context = existingContext;
+			}
+		}
+		return context;
+	}
+
 	static SSLContext createSSLContext(String protocol) throws IOException {
 		Assert.isNotEmpty(protocol, "protocol");
 
+		try {
+
+			// create a dummy trust manager accepting all clients
+			TrustManager trustManager = new DummyTrustManager();
+			TrustManager[] trustManagers = new TrustManager[] { trustManager };
+
+			SSLContext context = SSLContext.getInstance(protocol);
+			context.init(getKeyManagers(), trustManagers, null);
+			return context;
+
+		} catch (NoSuchAlgorithmException | KeyManagementException e) {
+			throw new IOException("SSL initialization error", e);
+		}
+
+	}
+
+	private static synchronized KeyManager[] getKeyManagers() throws IOException {
+		if (keyManagers != null) {
+			return keyManagers;
+		}
+
 		// TODO: support loading custom keystore and certificate
 
 		try {
@@ -76,17 +135,10 @@ class SSLUtils {
 
 			// create a key manager holding the private key and self-signed certificate
 			KeyManager keyManager = new DummyKeyManager(ALIAS, privateKey, certificateChain);
-			KeyManager[] keyManagers = new KeyManager[] { keyManager };
-
-			// create a dummy trust manager accepting all clients
-			TrustManager trustManager = new DummyTrustManager();
-			TrustManager[] trustManagers = new TrustManager[] { trustManager };
-
-			SSLContext context = SSLContext.getInstance(protocol);
-			context.init(keyManagers, trustManagers, null);
-			return context;
+			keyManagers = new KeyManager[] { keyManager };
+			return keyManagers;
 
-		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | UnrecoverableKeyException | KeyManagementException e) {
+		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | UnrecoverableKeyException e) {
 			throw new IOException("SSL initialization error", e);
 		}
 
@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * History of sessions handled by a server, with optional limits.
+ * <p>
+ * If a limit is exceeded, the oldest sessions are evicted from the history.
+ * Only sessions which have ended (see {@link MailSession#getEndTime()}) are
+ * evicted; sessions of connected clients are always kept. Optionally, a
+ * small summary of evicted sessions is kept. The session log of an evicted
+ * session is deleted.
+ * <p>
+ * The size of a session is estimated by the number of bytes exchanged
+ * between client and server, since commands, transactions, and the session
+ * log all grow with the amount of data exchanged. The size is taken when the
+ * session is added and updated when the session ends, so that the total size
+ * of all sessions is maintained without scanning the history.
+ *
+ * @param <S> Type of session.
+ */
+class SessionHistory<S extends MailSession> {
+
+	private final ArrayDeque<Entry<S>> entries = new ArrayDeque<>();
+	private final ArrayDeque<MailSessionSummary> summaries = new ArrayDeque<>();
+
+	/**
+	 * Entries of sessions which have not ended yet.
+	 */
+	private final Map<S, Entry<S>> activeEntries = new IdentityHashMap<>();
+
+	/**
+	 * Total size of all sessions in the history.
+	 */
+	private long bytes = 0;
+
+	/**
+	 * Read-only snapshot of the session history, or {@code null} if the
+	 * history has been modified since the last snapshot has been created.
+	 */
+	private List<S> snapshot = null;
+
+	private int maxSessions = 0; // 0 = no limit
+	private Duration maxAge = null; // null = no limit
+	private long maxBytes = 0; // 0 = no limit
+	private int maxSummaries = 0; // 0 = no summaries
+
+	synchronized int getMaxSessions() {
+		return maxSessions;
+	}
+
+	synchronized void setMaxSessions(int maxSessions) {
+		Assert.isInRange(maxSessions, 0, Integer.MAX_VALUE, "maxSessions");
+		this.maxSessions = maxSessions;
+	}
+
+	synchronized Duration getMaxAge() {
+		return maxAge;
+	}
+
+	synchronized void setMaxAge(Duration maxAge) {
+		Assert.isTrue(maxAge == null || !(maxAge.isNegative() || maxAge.isZero()), "maxAge must be positive");
+		this.maxAge = maxAge;
+	}
+
+	synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	synchronized void setMaxBytes(long maxBytes) {
+		Assert.isInRange(maxBytes, 0, Long.MAX_VALUE, "maxBytes");
+		this.maxBytes = maxBytes;
+	}
+
+	synchronized int getMaxSummaries() {
+		return maxSummaries;
+	}
+
+	synchronized void setMaxSummaries(int maxSummaries) {
+		Assert.isInRange(maxSummaries, 0, Integer.MAX_VALUE, "maxSummaries");
+		this.maxSummaries = maxSummaries;
+		while (summaries.size() > maxSummaries) {
+			summaries.removeFirst();
+		}
+	}
+
+	/**
+	 * Add a new session to the history.
+	 *
+	 * @param session Session.
+	 * @param now     Current time.
+	 */
+	synchronized void add(S session, Instant now) {
+		Entry<S> entry = new Entry<>(session, now, getSize(session));
+		entries.addLast(entry);
+		activeEntries.put(session, entry);
+		bytes += entry.size;
+		snapshot = null;
+		evict(now);
+	}
+
+	/**
+	 * Notify the history that a session has ended.
+	 * The ended session and older sessions may get evicted.
+	 *
+	 * @param session Ended session.
+	 * @param now     Current time.
+	 */
+	synchronized void sessionEnded(S session, Instant now) {
+		Entry<S> entry = activeEntries.remove(session);
+		if (entry != null) {
+			// update size with all data exchanged in the session
+			long size = getSize(session);
+			bytes += size - entry.size;
+			entry.size = size;
+		}
+		evict(now);
+	}
+
+	/**
+	 * Get the sessions in the history, from oldest to newest.
+	 * The returned list is an unmodifiable snapshot. As long as the history
+	 * does not change, the same snapshot is returned again.
+	 *
+	 * @param now Current time.
+	 * @return List of sessions.
+	 */
+	synchronized List<S> getSessions(Instant now) {
+		if (maxAge != null) {
+			// remove sessions which have expired in the meantime
+			evict(now);
+		}
+		if (snapshot == null) {
+			List<S> sessions = new ArrayList<>(entries.size());
+			for (Entry<S> entry : entries) {
+				sessions.add(entry.session);
+			}
+			snapshot = Collections.unmodifiableList(sessions);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Get the summaries of evicted sessions, from oldest to newest.
+	 *
+	 * @return Copy of the list of summaries.
+	 */
+	synchronized List<MailSessionSummary> getSummaries() {
+		return new ArrayList<>(summaries);
+	}
+
+	/**
+	 * Delete the session logs of all sessions in the history.
+	 * The sessions are kept, but their log entries may no longer be available.
+	 */
+	synchronized void deleteSessionLogs() {
+		for (Entry<S> entry : entries) {
+			entry.session.getSessionLog().delete();
+		}
+	}
+
+	/**
+	 * Evict sessions until no limit is exceeded. Sessions are checked from
+	 * oldest to newest, and the check stops at the first session which has
+	 * been added after the expiry time, as long as the number of sessions
+	 * and the total size are within their limits.
+	 *
+	 * @param now Current time.
+	 */
+	private void evict(Instant now) {
+		if (maxSessions == 0 && maxAge == null && maxBytes == 0) {
+			return; // no limits
+		}
+
+		Instant expiry = maxAge != null ? now.minus(maxAge) : null;
+
+		Iterator<Entry<S>> iterator = entries.iterator();
+		while (iterator.hasNext()) {
+			Entry<S> entry = iterator.next();
+
+			boolean tooMany = maxSessions > 0 && entries.size() > maxSessions;
+			boolean tooBig = maxBytes > 0 && bytes > maxBytes;
+			if (!tooMany && !tooBig && (expiry == null || !entry.addTime.isBefore(expiry))) {
+				// this and all newer sessions have been added after the expiry time
+				break;
+			}
+
+			// sessions of connected clients are never evicted
+			S session = entry.session;
+			Instant endTime = session.getEndTime();
+			if (endTime == null) continue;
+
+			if (tooMany || tooBig || endTime.isBefore(expiry)) {
+				iterator.remove();
+				activeEntries.remove(session);
+				snapshot = null;
+				bytes -= entry.size;
+				addSummary(session);
+				session.getSessionLog().delete();
+			}
+		}
+	}
+
+	private void addSummary(S session) {
+		if (maxSummaries == 0) return;
+		if (summaries.size() == maxSummaries) {
+			summaries.removeFirst();
+		}
+		summaries.addLast(new MailSessionSummary(session));
+	}
+
+	private static long getSize(MailSession session) {
+		SessionLog log = session.getSessionLog();
+		return log.getBytesReceived() + log.getBytesSent();
+	}
+
+	private static class Entry<S> {
+
+		private final S session;
+		private final Instant addTime;
+
+		/**
+		 * Size of the session, taken when the session has been added, and
+		 * updated when the session has ended.
+		 */
+		private long size;
+
+		private Entry(S session, Instant addTime, long size) {
+			this.session = session;
+			this.addTime = addTime;
+			this.size = size;
+		}
+
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Log of all data exchanged between client and server in a session.
+ * <p>
+ * The log consists of structured entries. Adding an entry is cheap; the
+ * text representation returned by {@link #toString()} is only built on
+ * demand. How many entries are kept, and where, depends on the
+ * {@link SessionLogPolicy} configured in the server.
+ */
+public abstract class SessionLog {
+
+	/**
+	 * Direction in which data has been sent.
+	 */
+	public enum Direction {
+
+		/**
+		 * Data sent by the client to the server.
+		 */
+		CLIENT,
+
+		/**
+		 * Data sent by the server to the client.
+		 */
+		SERVER
+
+	}
+
+	/**
+	 * Single entry in a session log: a line of text, or a block of data.
+	 */
+	public static final class Entry {
+
+		private final Direction direction;
+		private final long timestamp;
+		private final String text;
+		private final boolean line;
+		private final long bytes;
+
+		Entry(Direction direction, long timestamp, String text, boolean line, long bytes) {
+			this.direction = direction;
+			this.timestamp = timestamp;
+			this.text = text;
+			this.line = line;
+			this.bytes = bytes;
+		}
+
+		public Direction getDirection() {
+			return direction;
+		}
+
+		public Instant getTimestamp() {
+			return Instant.ofEpochMilli(timestamp);
+		}
+
+		long getTimestampMillis() {
+			return timestamp;
+		}
+
+		/**
+		 * Get the logged text. For lines, the text does not include the CRLF
+		 * line break. The text may have been truncated if the log is bounded.
+		 *
+		 * @return Logged text.
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * Check if this entry is a line of text.
+		 *
+		 * @return {@code true} if this entry is a line of text terminated by
+		 * CRLF, {@code false} if it is a block of data.
+		 */
+		public boolean isLine() {
+			return line;
+		}
+
+		/**
+		 * Get the number of bytes sent, including the CRLF line break.
+		 *
+		 * @return Number of bytes.
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return direction + ": " + text;
+		}
+
+	}
+
+	private final Clock clock;
+
+	/**
+	 * Number of bytes received from the client and sent to the client.
+	 * Counted even if no entries are kept.
+	 * Only updated by the thread currently serving the session.
+	 */
+	private volatile long bytesReceived = 0;
+	private volatile long bytesSent = 0;
+
+	SessionLog(Clock clock) {
+		Assert.isNotNull(clock, "clock");
+		this.clock = clock;
+	}
+
+	/**
+	 * Add a line of text. The line must not include the CRLF line break.
+	 *
+	 * @param direction Direction of data.
+	 * @param line      Line of text.
+	 */
+	void addLine(Direction direction, String line) {
+		count(direction, line.length() + 2);
+		if (isEnabled()) {
+			add(new Entry(direction, clock.millis(), line, true, line.length() + 2));
+		}
+	}
+
+	/**
+	 * Add a line of data sent as is. The line must not include the CRLF
+	 * line break. The data is only decoded if entries are kept.
+	 *
+	 * @param direction Direction of data.
+	 * @param prefix    Text sent before the data.
+	 * @param line      Data (all remaining bytes). The position of the buffer
+	 *                  is not changed.
+	 */
+	void addLine(Direction direction, String prefix, ByteBuffer line) {
+		int length = prefix.length() + line.remaining();
+		count(direction, length + 2);
+		if (isEnabled()) {
+			String text = prefix + StandardCharsets.ISO_8859_1.decode(line.duplicate());
+			add(new Entry(direction, clock.millis(), text, true, length + 2));
+		}
+	}
+
+	/**
+	 * Add a block of data.
+	 *
+	 * @param direction Direction of data.
+	 * @param data      Data decoded with ISO-8859-1.
+	 */
+	void addData(Direction direction, String data) {
+		count(direction, data.length());
+		if (isEnabled()) {
+			add(new Entry(direction, clock.millis(), data, false, data.length()));
+		}
+	}
+
+	private void count(Direction direction, long bytes) {
+		if (direction == Direction.CLIENT) {
+			bytesReceived += bytes;
+		} else {
+			bytesSent += bytes;
+		}
+	}
+
+	/**
+	 * Get the total number of bytes received from the client.
+	 * This includes data which is not kept in the log.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Get the total number of bytes sent to the client.
+	 * This includes data which is not kept in the log.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Check if entries are kept by this log.
+	 *
+	 * @return {@code true} if entries are kept.
+	 */
+	boolean isEnabled() {
+		return true;
+	}
+
+	abstract void add(Entry entry);
+
+	/**
+	 * Release resources used by this log. Entries added after this method
+	 * has been called are ignored.
+	 */
+	void close() {
+		// nothing to do by default
+	}
+
+	/**
+	 * Release all resources used by this log, including log files. This
+	 * method is called when the session is no longer kept by the server.
+	 * Entries may no longer be available afterwards.
+	 */
+	void delete() {
+		close();
+	}
+
+	/**
+	 * Get all entries kept by this log, from oldest to newest.
+	 *
+	 * @return Copy of the list of entries.
+	 */
+	public abstract List<Entry> getEntries();
+
+	/**
+	 * Get the text of all entries kept by this log. Lines are terminated by
+	 * a single LF.
+	 *
+	 * @return Log text.
+	 */
+	@Override
+	public String toString() {
+		List<Entry> entries = getEntries();
+		StringBuilder text = new StringBuilder();
+		for (Entry entry : entries) {
+			text.append(entry.getText());
+			if (entry.isLine()) {
+				text.append('\n');
+			}
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Locale;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Policy defining how the session log of a new session is kept.
+ *
+ * @see MailServer#setSessionLogPolicy(SessionLogPolicy)
+ */
+public final class SessionLogPolicy {
+
+	private static final SessionLogPolicy UNBOUNDED = new SessionLogPolicy(0, null, false);
+	private static final SessionLogPolicy DISABLED = new SessionLogPolicy(-1, null, false);
+
+	/**
+	 * Maximum number of characters kept in memory, 0 for no limit, or -1 if
+	 * logging is disabled.
+	 */
+	private final int maxSize;
+
+	/**
+	 * Directory for log files, or {@code null} to keep logs in memory.
+	 */
+	private final Path directory;
+
+	/**
+	 * Keep log files after the session has been evicted from the history or
+	 * the server has been closed.
+	 */
+	private final boolean keepFiles;
+
+	private SessionLogPolicy(int maxSize, Path directory, boolean keepFiles) {
+		this.maxSize = maxSize;
+		this.directory = directory;
+		this.keepFiles = keepFiles;
+	}
+
+	/**
+	 * Keep all data exchanged in a session in memory (default).
+	 *
+	 * @return Policy.
+	 */
+	public static SessionLogPolicy unbounded() {
+		return UNBOUNDED;
+	}
+
+	/**
+	 * Do not log any data exchanged in a session.
+	 * The session log of all sessions is empty.
+	 *
+	 * @return Policy.
+	 */
+	public static SessionLogPolicy disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Keep only the most recent data exchanged in a session in memory.
+	 * Older entries are discarded as soon as the log exceeds the given size.
+	 *
+	 * @param maxSize Maximum number of characters kept per session.
+	 * @return Policy.
+	 */
+	public static SessionLogPolicy ringBuffer(int maxSize) {
+		Assert.isInRange(maxSize, 1, Integer.MAX_VALUE, "maxSize");
+		return new SessionLogPolicy(maxSize, null, false);
+	}
+
+	/**
+	 * Write all data exchanged in a session to a file in the given directory.
+	 * A new file is created for every session. The file is deleted when the
+	 * session is evicted from the history or the server is closed.
+	 *
+	 * @param directory Existing directory for log files.
+	 * @return Policy.
+	 * @see MailServer#setMaxSessions(int)
+	 */
+	public static SessionLogPolicy file(Path directory) {
+		return file(directory, false);
+	}
+
+	/**
+	 * Write all data exchanged in a session to a file in the given directory.
+	 * A new file is created for every session.
+	 *
+	 * @param directory Existing directory for log files.
+	 * @param keepFiles {@code true} to keep files after the session has been
+	 *                  evicted from the history or the server has been closed,
+	 *                  {@code false} to delete them.
+	 * @return Policy.
+	 */
+	public static SessionLogPolicy file(Path directory, boolean keepFiles) {
+		Assert.isNotNull(directory, "directory");
+		return new SessionLogPolicy(0, directory, keepFiles);
+	}
+
+	/**
+	 * Create the session log for a new session.
+	 *
+	 * @param protocol Protocol name used as prefix for log files.
+	 * @param clock    Clock used for timestamps.
+	 * @return Session log.
+	 * @throws IOException If the log file cannot be created.
+	 */
+	SessionLog createLog(String protocol, Clock clock) throws IOException {
+		if (maxSize < 0) {
+			return new DisabledSessionLog();
+		} else if (directory != null) {
+			String prefix = protocol.toLowerCase(Locale.ROOT) + "-session-";
+			Path file = Files.createTempFile(directory, prefix, ".log");
+			return new FileSessionLog(file, keepFiles, clock);
+		} else {
+			return new MemorySessionLog(maxSize, clock);
+		}
+	}
+
+}
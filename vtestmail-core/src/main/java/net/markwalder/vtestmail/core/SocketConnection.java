@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Connection backed by a blocking socket.
+ */
+class SocketConnection extends MailConnection {
+
+	private static final Logger logger = Logger.getLogger(SocketConnection.class.getName());
+
+	private volatile Socket socket;
+
+	SocketConnection(Socket socket) {
+		Assert.isNotNull(socket, "socket");
+		this.socket = socket;
+	}
+
+	Socket getSocket() {
+		return socket;
+	}
+
+	@Override
+	InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	void startTLS(String protocol, Consumer<SSLSession> callback) throws IOException {
+		Assert.isNotEmpty(protocol, "protocol");
+		Assert.isNotNull(callback, "callback");
+
+		if (socket instanceof SSLSocket) {
+			throw new IOException("TLS already started");
+		}
+
+		// get server address and port
+		String address = socket.getInetAddress().getHostAddress();
+		int port = socket.getPort();
+
+		// create a new SSL socket wrapping the existing socket
+		SSLSocketFactory sslSocketFactory = SSLUtils.getSSLSocketFactory(protocol);
+		SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, address, port, true);
+
+		// disable all other SSL/TLS protocols
+		// note: since Java 11.0.19, SSLv3 must be enabled explicitly
+		// see: https://bugs.openjdk.org/browse/JDK-8190492
+		sslSocket.setEnabledProtocols(new String[] { protocol });
+
+		// initiate handshake
+		logger.fine("[SSL/TLS handshake]");
+		sslSocket.setUseClientMode(false);
+		long startTime = System.currentTimeMillis();
+		sslSocket.startHandshake();
+		handshakeCompleted(sslSocket.getSession(), startTime);
+
+		// continue using SSL socket
+		socket = sslSocket;
+		callback.accept(sslSocket.getSession());
+	}
+
+	/**
+	 * Perform the TLS handshake if the socket has been accepted by an SSL
+	 * server socket. Otherwise, this method does nothing.
+	 *
+	 * @throws IOException If the handshake fails.
+	 */
+	void startHandshake() throws IOException {
+		if (socket instanceof SSLSocket) {
+			SSLSocket sslSocket = (SSLSocket) socket;
+			long startTime = System.currentTimeMillis();
+			sslSocket.startHandshake();
+			handshakeCompleted(sslSocket.getSession(), startTime);
+		}
+	}
+
+	@Override
+	SSLSession getSSLSession() {
+		if (socket instanceof SSLSocket) {
+			SSLSocket sslSocket = (SSLSocket) socket;
+			return sslSocket.getSession();
+		}
+		return null;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort());
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return new InetSocketAddress(socket.getInetAddress(), socket.getPort());
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+}
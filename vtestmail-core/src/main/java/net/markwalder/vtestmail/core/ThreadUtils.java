@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.markwalder.vtestmail.utils.Assert;
+
+class ThreadUtils {
+
+	private ThreadUtils() {
+		// utility class
+	}
+
+	/**
+	 * Check if the Java runtime supports virtual threads (Java 21 or greater).
+	 *
+	 * @return {@code true} if virtual threads are supported, {@code false} otherwise.
+	 */
+	static boolean isVirtualThreadSupported() {
+		return createVirtualThreadFactory("test-") != null;
+	}
+
+	/**
+	 * Create an executor which starts a new virtual thread for every task.
+	 * Virtual threads are named with the given prefix and a sequence number.
+	 *
+	 * @param prefix Thread name prefix.
+	 * @return Executor, or {@code null} if virtual threads are not supported
+	 * by the Java runtime.
+	 */
+	static ExecutorService createVirtualThreadExecutor(String prefix) {
+		Assert.isNotEmpty(prefix, "prefix");
+
+		ThreadFactory threadFactory = createVirtualThreadFactory(prefix);
+		if (threadFactory == null) {
+			return null;
+		}
+
+		// note: Java 11 is the minimum runtime version,
+		// so the Java 21 API can only be called using reflection
+		try {
+			// Executors.newThreadPerTaskExecutor(threadFactory)
+			Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) method.invoke(null, threadFactory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Create an executor with a bounded pool of platform threads.
+	 * If all threads are busy, new tasks are queued until a thread becomes
+	 * available. Idle threads are terminated after one minute.
+	 *
+	 * @param prefix     Thread name prefix.
+	 * @param maxThreads Maximum number of threads.
+	 * @return Executor.
+	 */
+	static ExecutorService createPlatformThreadExecutor(String prefix, int maxThreads) {
+		Assert.isNotEmpty(prefix, "prefix");
+		Assert.isInRange(maxThreads, 1, Integer.MAX_VALUE, "maxThreads");
+
+		ThreadFactory threadFactory = createPlatformThreadFactory(prefix);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Create a scheduled executor with a bounded pool of platform threads.
+	 * Idle threads are terminated after one minute.
+	 *
+	 * @param prefix     Thread name prefix.
+	 * @param maxThreads Maximum number of threads.
+	 * @return Scheduled executor.
+	 */
+	static ScheduledExecutorService createScheduledExecutor(String prefix, int maxThreads) {
+		Assert.isNotEmpty(prefix, "prefix");
+		Assert.isInRange(maxThreads, 1, Integer.MAX_VALUE, "maxThreads");
+
+		ThreadFactory threadFactory = createPlatformThreadFactory(prefix);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(maxThreads, threadFactory);
+		executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	private static ThreadFactory createPlatformThreadFactory(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			thread.setName(prefix + counter.getAndIncrement());
+			return thread;
+		};
+	}
+
+	private static ThreadFactory createVirtualThreadFactory(String prefix) {
+		try {
+			// Thread.ofVirtual().name(prefix, 0).factory()
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// virtual threads are not supported (Java 20 or older)
+			return null;
+		}
+	}
+
+}
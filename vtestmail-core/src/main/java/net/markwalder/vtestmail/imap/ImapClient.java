@@ -15,13 +15,14 @@
 package net.markwalder.vtestmail.imap;
 
 import java.io.IOException;
-import java.net.Socket;
 import net.markwalder.vtestmail.core.MailClient;
+import net.markwalder.vtestmail.core.MailConnection;
+import net.markwalder.vtestmail.core.SessionLog;
 
 public class ImapClient extends MailClient {
 
-	protected ImapClient(Socket socket, StringBuilder log) throws IOException {
-		super(socket, "+", log);
+	protected ImapClient(MailConnection connection, SessionLog log) throws IOException {
+		super(connection, "+", log);
 	}
 
 }
@@ -71,6 +71,14 @@ public class ImapException extends MailException {
 		return new ImapException(null, "NO", "HASCHILDREN", "Mailbox has inferior hierarchical names");
 	}
 
+	public static ImapException TooManyKeywords() {
+		return new ImapException(null, "NO", "LIMIT", "Too many keywords");
+	}
+
+	public static ImapException FlagTooLong() {
+		return new ImapException(null, "NO", "LIMIT", "Flag too long");
+	}
+
 	private final String tag;
 
 	public ImapException(String tag, String response, String message) {
@@ -16,15 +16,17 @@ package net.markwalder.vtestmail.imap;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 import net.markwalder.vtestmail.core.MailCommand;
+import net.markwalder.vtestmail.core.MailConnection;
 import net.markwalder.vtestmail.core.MailException;
 import net.markwalder.vtestmail.core.MailServer;
+import net.markwalder.vtestmail.core.SessionLog;
+import net.markwalder.vtestmail.store.FlagDictionary;
 import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.utils.Assert;
@@ -35,7 +37,7 @@ import net.markwalder.vtestmail.utils.StringUtils;
  * <p>
  * Limitations:
  * <ul>
- *     <li>Only one client can connect to the server at a time.</li>
+ *     <li>Clients are served one at a time, unless an executor has been set with {@link #setExecutor(java.util.concurrent.Executor)}.</li>
  *     <li>Only IMAP4rev2 (RFC 9051) is supported.</li>
  *     <li>The format of messages is not validated.</li>
  * </ul>
@@ -45,7 +47,8 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 	private boolean loginDisabled = true;
 
 	/**
-	 * Supported flags. Key: flag name, value: permanent flag.
+	 * Supported flags. Key: flag name (interned in {@link FlagDictionary}),
+	 * value: permanent flag.
 	 */
 	private final Map<String, Boolean> flags = new TreeMap<>(StringUtils.CASE_INSENSITIVE_ORDER);
 
@@ -110,8 +113,8 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 	}
 
 	@Override
-	protected ImapClient createClient(Socket socket, StringBuilder log) throws IOException {
-		return new ImapClient(socket, log);
+	protected ImapClient createClient(MailConnection connection, SessionLog log) throws IOException {
+		return new ImapClient(connection, log);
 	}
 
 	@Override
@@ -120,14 +123,14 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 	}
 
 	@Override
-	protected void handleNewClient() throws IOException {
+	protected void handleNewClient(ImapSession session, ImapClient client) throws IOException {
 		List<String> capabilities = getCapabilities(session);
 		client.writeLine("* OK [" + StringUtils.join(capabilities, " ") + "] IMAP server ready");
 	}
 
 	@Override
 	@SuppressWarnings("StringConcatenationInLoop")
-	protected String readCommand() throws ImapException, IOException {
+	protected String readCommand(ImapSession session, ImapClient client) throws ImapException, IOException {
 		String line = client.readLine();
 
 		if (line == null) {
@@ -203,7 +206,7 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 	}
 
 	@Override
-	protected void handleCommand(String line) throws ImapException, IOException {
+	protected void handleCommand(String line, ImapSession session, ImapClient client) throws ImapException, IOException {
 
 		// get tag
 		String tag = StringUtils.substringBefore(line, " ");
@@ -216,7 +219,11 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 		session.addCommand(command);
 
 		// execute command
-		command.execute(this, session, client, tag);
+		try {
+			command.execute(this, session, client, tag);
+		} finally {
+			fireCommandExecuted(session, command);
+		}
 
 	}
 
@@ -239,7 +246,7 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 	}
 
 	@Override
-	protected void handleException(String line, MailException e) throws IOException {
+	protected void handleException(String line, MailException e, ImapSession session, ImapClient client) throws IOException {
 
 		String tag = null;
 		if (e instanceof ImapException) {
@@ -262,6 +269,13 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 		client.writeLine(tag + " " + e.getMessage());
 	}
 
+	@Override
+	protected void handleLineTooLong(ImapSession session, ImapClient client) throws IOException {
+		// send bye response with alert and close connection
+		client.writeLine("* BYE [ALERT] Line too long");
+		session.close();
+	}
+
 	/**
 	 * Get list of IMAP capabilities supported by this server. This list will be
 	 * returned when the CAPABILITY command is sent to the server.
@@ -305,7 +319,7 @@ public class ImapServer extends MailServer<ImapCommand, ImapSession, ImapClient,
 	public void addFlag(String flag, boolean permanent) {
 		Assert.isNotEmpty(flag, "flag");
 		synchronized (flags) {
-			flags.put(flag, permanent);
+			flags.put(FlagDictionary.intern(flag), permanent);
 		}
 	}
 
@@ -79,7 +79,7 @@ public class SELECT extends ImapCommand {
 
 		// The number of messages in the mailbox.
 		// See the description of the EXISTS response in Section 7.4.1 for more detail.
-		client.writeLine("* " + folder.getMessages().size() + " EXISTS");
+		client.writeLine("* " + folder.getMessageCount() + " EXISTS");
 
 		// The unique identifier validity value.
 		// Refer to Section 2.3.1.1 for more information.
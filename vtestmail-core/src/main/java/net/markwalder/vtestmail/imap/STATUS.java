@@ -75,7 +75,7 @@ public class STATUS extends ImapCommand {
 
 				case "MESSAGES":
 					// The number of messages in the mailbox.
-					int count = folder.getMessages().size();
+					int count = folder.getMessageCount();
 					statusDataItems.add(statusDataItemName + " " + count);
 					break;
 
@@ -95,17 +95,13 @@ public class STATUS extends ImapCommand {
 
 				case "UNSEEN":
 					// The number of messages that do not have the \Seen flag set.
-					long unseen = folder.getMessages().stream()
-							.filter(message -> !message.isSeen())
-							.count();
+					int unseen = folder.getMessageCount(MailboxMessage.FLAG_SEEN, false);
 					statusDataItems.add(statusDataItemName + " " + unseen);
 					break;
 
 				case "DELETED":
 					// The number of messages that have the \Deleted flag set.
-					long deleted = folder.getMessages().stream()
-							.filter(MailboxMessage::isDeleted)
-							.count();
+					int deleted = folder.getMessageCount(MailboxMessage.FLAG_DELETED, true);
 					statusDataItems.add(statusDataItemName + " " + deleted);
 					break;
 
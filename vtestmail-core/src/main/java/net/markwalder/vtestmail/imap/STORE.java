@@ -15,10 +15,13 @@
 package net.markwalder.vtestmail.imap;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
+import net.markwalder.vtestmail.store.FlagDictionary;
 import net.markwalder.vtestmail.store.MailboxFolder;
 import net.markwalder.vtestmail.store.MailboxMessage;
+import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.utils.Assert;
 import net.markwalder.vtestmail.utils.StringUtils;
 
@@ -126,6 +129,12 @@ public class STORE extends ImapCommand {
 
 		Consumer<MailboxMessage> action = createMessageAction(operation, flags);
 
+		// assign IDs to new keywords before any message is changed
+		// (removing a flag never needs a new ID)
+		if (!operation.equals("-FLAGS")) {
+			internFlags(server.getStore(), flags);
+		}
+
 		// execute action on all messages included in sequence set
 		MailboxFolder folder = session.getFolder();
 		List<MailboxMessage> messages = folder.getMessages();
@@ -159,6 +168,22 @@ public class STORE extends ImapCommand {
 		return StringUtils.split(list, " ");
 	}
 
+	private static void internFlags(MailboxStore store, String[] flags) throws ImapException {
+		for (int i = 0; i < flags.length; i++) {
+			String flag = flags[i];
+			if (flag.isEmpty()) {
+				throw ImapException.SyntaxError();
+			} else if (flag.length() > FlagDictionary.MAX_FLAG_LENGTH) {
+				throw ImapException.FlagTooLong();
+			}
+			try {
+				flags[i] = store.internClientFlag(flag);
+			} catch (IllegalStateException e) {
+				throw ImapException.TooManyKeywords();
+			}
+		}
+	}
+
 	private static Consumer<MailboxMessage> createMessageAction(String operation, String[] flags) throws ImapException {
 		switch (operation) {
 			case "FLAGS":
@@ -173,14 +198,8 @@ public class STORE extends ImapCommand {
 	}
 
 	private static void setFlags(MailboxMessage message, String[] flags) {
-		// remove all flags
-		for (String flag : message.getFlags()) {
-			message.removeFlag(flag);
-		}
-		// add new flags
-		for (String flag : flags) {
-			message.setFlag(flag);
-		}
+		// replace all flags
+		message.setFlags(Arrays.asList(flags));
 	}
 
 	private static void addFlags(MailboxMessage message, String[] flags) {
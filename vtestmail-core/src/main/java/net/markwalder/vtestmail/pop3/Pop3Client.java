@@ -15,15 +15,17 @@
 package net.markwalder.vtestmail.pop3;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import net.markwalder.vtestmail.core.MailClient;
+import net.markwalder.vtestmail.core.MailConnection;
+import net.markwalder.vtestmail.core.SessionLog;
 import net.markwalder.vtestmail.utils.Assert;
 import net.markwalder.vtestmail.utils.StringUtils;
 
 public class Pop3Client extends MailClient {
 
-	protected Pop3Client(Socket socket, StringBuilder log) throws IOException {
-		super(socket, "+OK", log);
+	protected Pop3Client(MailConnection connection, SessionLog log) throws IOException {
+		super(connection, "+OK", log);
 	}
 
 	public void writeMultiLines(String message) throws IOException {
@@ -31,19 +33,82 @@ public class Pop3Client extends MailClient {
 		// split message into lines
 		String[] lines = StringUtils.split(message, CRLF);
 
-		// send every line separately
-		for (String line : lines) {
+		// send all lines in one block
+		beginResponse();
+		try {
 
-			// see "byte-stuffed" in https://www.ietf.org/rfc/rfc1939.html#section-3
-			if (line.startsWith(".")) {
-				line = "." + line;
+			for (String line : lines) {
+
+				// see "byte-stuffed" in https://www.ietf.org/rfc/rfc1939.html#section-3
+				if (line.startsWith(".")) {
+					line = "." + line;
+				}
+
+				writeLine(line);
+			}
+
+			// send termination octet on last line (CRLF.CRLF)
+			writeLine(".");
+
+		} finally {
+			endResponse();
+		}
+	}
+
+	/**
+	 * Send a multi-line response with the given message content. The content
+	 * is sent as is, without any char conversion. Lines starting with a
+	 * termination octet are byte-stuffed.
+	 *
+	 * @param message Message content (all remaining bytes).
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void writeMultiLines(ByteBuffer message) throws IOException {
+		Assert.isNotNull(message, "message");
+
+		// send all lines in one block
+		beginResponse();
+		try {
+
+			int limit = message.limit();
+			int start = message.position();
+			while (true) {
+
+				// find end of line
+				int end = indexOfCRLF(message, start, limit);
+				int lineEnd = end < 0 ? limit : end;
+
+				ByteBuffer line = message.duplicate();
+				line.position(start).limit(lineEnd);
+
+				// see "byte-stuffed" in https://www.ietf.org/rfc/rfc1939.html#section-3
+				if (lineEnd > start && message.get(start) == '.') {
+					writeLine(".", line);
+				} else {
+					writeLine("", line);
+				}
+
+				if (end < 0) {
+					break; // last line
+				}
+				start = end + 2;
 			}
 
-			writeLine(line);
+			// send termination octet on last line (CRLF.CRLF)
+			writeLine(".");
+
+		} finally {
+			endResponse();
 		}
+	}
 
-		// send termination octet on last line (CRLF.CRLF)
-		writeLine(".");
+	private static int indexOfCRLF(ByteBuffer buffer, int start, int limit) {
+		for (int i = start; i < limit - 1; i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	@Override
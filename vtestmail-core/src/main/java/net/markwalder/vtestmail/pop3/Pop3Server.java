@@ -15,11 +15,12 @@
 package net.markwalder.vtestmail.pop3;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import net.markwalder.vtestmail.core.MailCommand;
+import net.markwalder.vtestmail.core.MailConnection;
 import net.markwalder.vtestmail.core.MailServer;
+import net.markwalder.vtestmail.core.SessionLog;
 import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.utils.StringUtils;
 
@@ -28,7 +29,7 @@ import net.markwalder.vtestmail.utils.StringUtils;
  * <p>
  * Limitations:
  * <ul>
- *     <li>Only one client can connect to the server at a time.</li>
+ *     <li>Clients are served one at a time, unless an executor has been set with {@link #setExecutor(java.util.concurrent.Executor)}.</li>
  *     <li>The format of messages is not validated.</li>
  *     <li>The mailbox is not exclusively locked by the server.</li>
  * </ul>
@@ -58,8 +59,8 @@ public class Pop3Server extends MailServer<Pop3Command, Pop3Session, Pop3Client,
 	}
 
 	@Override
-	protected Pop3Client createClient(Socket socket, StringBuilder log) throws IOException {
-		return new Pop3Client(socket, log);
+	protected Pop3Client createClient(MailConnection connection, SessionLog log) throws IOException {
+		return new Pop3Client(connection, log);
 	}
 
 	@Override
@@ -72,13 +73,13 @@ public class Pop3Server extends MailServer<Pop3Command, Pop3Session, Pop3Client,
 	}
 
 	@Override
-	protected void handleNewClient() throws IOException {
+	protected void handleNewClient(Pop3Session session, Pop3Client client) throws IOException {
 		String timestamp = session.getTimestamp();
 		client.writeLine("+OK POP3 server ready " + timestamp);
 	}
 
 	@Override
-	protected void handleCommand(String line) throws Pop3Exception, IOException {
+	protected void handleCommand(String line, Pop3Session session, Pop3Client client) throws Pop3Exception, IOException {
 
 		// parse command line
 		Pop3Command command = createCommand(line);
@@ -87,7 +88,11 @@ public class Pop3Server extends MailServer<Pop3Command, Pop3Session, Pop3Client,
 		session.addCommand(command);
 
 		// execute command
-		command.execute(this, session, client);
+		try {
+			command.execute(this, session, client);
+		} finally {
+			fireCommandExecuted(session, command);
+		}
 
 	}
 
@@ -15,6 +15,7 @@
 package net.markwalder.vtestmail.pop3;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.utils.Assert;
 
@@ -49,7 +50,7 @@ public class RETR extends Pop3Command {
 		}
 
 		int size = message.getSize();
-		String content = message.getContent();
+		ByteBuffer content = message.getContentBuffer();
 		client.writeLine("+OK " + size + " octets");
 		client.writeMultiLines(content);
 	}
@@ -15,6 +15,7 @@
 package net.markwalder.vtestmail.pop3;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.utils.Assert;
 import net.markwalder.vtestmail.utils.StringUtils;
@@ -54,7 +55,7 @@ public class TOP extends Pop3Command {
 		if (message == null || message.isDeleted() || session.isDeleted(messageNumber)) {
 			throw Pop3Exception.MessageNotFound();
 		}
-		String reply = message.getTop(lines);
+		ByteBuffer reply = message.getTopBuffer(lines);
 
 		client.writeLine("+OK");
 		client.writeMultiLines(reply);
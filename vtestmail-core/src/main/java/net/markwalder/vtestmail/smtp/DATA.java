@@ -23,6 +23,7 @@ import java.util.Locale;
 import net.markwalder.vtestmail.core.MailClient;
 import net.markwalder.vtestmail.store.Mailbox;
 import net.markwalder.vtestmail.store.MailboxFolder;
+import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.store.MailboxStore;
 
 public class DATA extends SmtpCommand {
@@ -46,7 +47,7 @@ public class DATA extends SmtpCommand {
 	@Override
 	protected void execute(SmtpServer server, SmtpSession session, SmtpClient client) throws IOException, SmtpException {
 
-		if (server.isAuthenticationRequired()) {
+		if (server.isAuthenticationRequired(session)) {
 			throw SmtpException.AuthenticationRequired();
 		}
 
@@ -135,7 +136,8 @@ public class DATA extends SmtpCommand {
 			Mailbox mailbox = store.findMailbox(email);
 			if (mailbox != null) {
 				MailboxFolder folder = mailbox.getInbox();
-				folder.addMessage(message);
+				MailboxMessage mailboxMessage = folder.addMessage(message);
+				server.fireMessageDelivered(session, mailbox, mailboxMessage);
 			}
 		}
 	}
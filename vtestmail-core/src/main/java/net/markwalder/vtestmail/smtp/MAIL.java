@@ -42,7 +42,7 @@ public class MAIL extends SmtpCommand {
 	@Override
 	protected void execute(SmtpServer server, SmtpSession session, SmtpClient client) throws IOException, SmtpException {
 
-		if (server.isAuthenticationRequired()) {
+		if (server.isAuthenticationRequired(session)) {
 			throw SmtpException.AuthenticationRequired();
 		}
 
@@ -15,13 +15,14 @@
 package net.markwalder.vtestmail.smtp;
 
 import java.io.IOException;
-import java.net.Socket;
 import net.markwalder.vtestmail.core.MailClient;
+import net.markwalder.vtestmail.core.MailConnection;
+import net.markwalder.vtestmail.core.SessionLog;
 
 public class SmtpClient extends MailClient {
 
-	protected SmtpClient(Socket socket, StringBuilder log) throws IOException {
-		super(socket, "334", log);
+	protected SmtpClient(MailConnection connection, SessionLog log) throws IOException {
+		super(connection, "334", log);
 	}
 
 }
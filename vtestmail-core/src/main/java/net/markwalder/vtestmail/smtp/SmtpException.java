@@ -32,6 +32,11 @@ public class SmtpException extends MailException {
 		return new SmtpException("501", "5.5.4", "Syntax error in parameters or arguments");
 	}
 
+	public static SmtpException LineTooLong() {
+		// see https://datatracker.ietf.org/doc/html/rfc5321#section-4.5.3.1.4
+		return new SmtpException("500", "5.5.2", "Line too long");
+	}
+
 	public static SmtpException AuthenticationRequired() {
 		return new SmtpException("530", "5.7.0", "Authentication required");
 	}
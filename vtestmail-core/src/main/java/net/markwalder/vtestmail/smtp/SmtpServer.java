@@ -15,11 +15,14 @@
 package net.markwalder.vtestmail.smtp;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import net.markwalder.vtestmail.core.MailCommand;
+import net.markwalder.vtestmail.core.MailConnection;
 import net.markwalder.vtestmail.core.MailServer;
+import net.markwalder.vtestmail.core.SessionLog;
+import net.markwalder.vtestmail.store.Mailbox;
+import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.utils.StringUtils;
 
@@ -28,7 +31,7 @@ import net.markwalder.vtestmail.utils.StringUtils;
  * <p>
  * Limitations:
  * <ul>
- *     <li>Only one client can connect to the server at a time.</li>
+ *     <li>Clients are served one at a time, unless an executor has been set with {@link #setExecutor(java.util.concurrent.Executor)}.</li>
  *     <li>The format of email addresses and messages is not validated.</li>
  *     <li>Messages are not queued or relayed to another SMTP server.</li>
  *     <li>Messages are either delivered to a local mailbox, or silently discarded.</li>
@@ -56,8 +59,8 @@ public class SmtpServer extends MailServer<SmtpCommand, SmtpSession, SmtpClient,
 	}
 
 	@Override
-	protected SmtpClient createClient(Socket socket, StringBuilder log) throws IOException {
-		return new SmtpClient(socket, log);
+	protected SmtpClient createClient(MailConnection connection, SessionLog log) throws IOException {
+		return new SmtpClient(connection, log);
 	}
 
 	@Override
@@ -66,12 +69,12 @@ public class SmtpServer extends MailServer<SmtpCommand, SmtpSession, SmtpClient,
 	}
 
 	@Override
-	protected void handleNewClient() throws IOException {
+	protected void handleNewClient(SmtpSession session, SmtpClient client) throws IOException {
 		client.writeLine("220 localhost SMTP server ready");
 	}
 
 	@Override
-	protected void handleCommand(String line) throws SmtpException, IOException {
+	protected void handleCommand(String line, SmtpSession session, SmtpClient client) throws SmtpException, IOException {
 
 		// parse command line
 		SmtpCommand command = createCommand(line);
@@ -97,7 +100,11 @@ public class SmtpServer extends MailServer<SmtpCommand, SmtpSession, SmtpClient,
 		}
 
 		// execute command
-		command.execute(this, session, client);
+		try {
+			command.execute(this, session, client);
+		} finally {
+			fireCommandExecuted(session, command);
+		}
 
 		// TODO: add MAIL command to session before it gets executed
 		//  --> requires changes to transaction management
@@ -107,6 +114,17 @@ public class SmtpServer extends MailServer<SmtpCommand, SmtpSession, SmtpClient,
 		}
 	}
 
+	@Override
+	protected void handleLineTooLong(SmtpSession session, SmtpClient client) throws IOException {
+		handleException(null, SmtpException.LineTooLong(), session, client);
+	}
+
+	@Override
+	protected void fireMessageDelivered(SmtpSession session, Mailbox mailbox, MailboxMessage message) {
+		// note: overridden to make method accessible for SMTP commands
+		super.fireMessageDelivered(session, mailbox, message);
+	}
+
 	protected SmtpCommand createCommand(String line) throws SmtpException {
 
 		// split line into command name and parameters
@@ -0,0 +1,472 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Utility class to load and store mailboxes from/to binary snapshot
+ * streams. Compared to the XML format (see {@link MailboxStoreUtils}), the
+ * binary format is much more compact and faster to read and write:
+ * <ul>
+ *     <li>Message content is stored as raw octets, without any escaping.</li>
+ *     <li>Identical message content is only stored once.</li>
+ *     <li>The stream is read and written sequentially. Memory use while loading
+ *     is bounded by the size of the largest message. Blocks are read in
+ *     chunks, so that a corrupt block length does not allocate more memory
+ *     than the data actually present in the stream.</li>
+ * </ul>
+ * <p>
+ * Format (all numbers in big-endian byte order):
+ * <pre>
+ * snapshot = magic:int version:byte block* end-block
+ * block    = type:byte length:int payload:byte[length] crc32(payload):int
+ * </pre>
+ * Block types:
+ * <ul>
+ *     <li>{@code MAILBOX}: username, secret, email</li>
+ *     <li>{@code FOLDER}: name, uidNext, uidValidity (of the last mailbox)</li>
+ *     <li>{@code CONTENT}: content ID, charset, octets</li>
+ *     <li>{@code MESSAGE}: UID, content ID, flags (of the last folder)</li>
+ *     <li>{@code END}: number of messages</li>
+ * </ul>
+ * Strings are encoded in modified UTF-8 (see {@link DataOutputStream#writeUTF(String)}).
+ * Readers must reject snapshots with an unknown version.
+ */
+public class BinaryStoreUtils {
+
+	private static final int MAGIC = 0x564D5353; // "VMSS"
+	private static final int VERSION = 1;
+
+	// block types
+	private static final byte MAILBOX = 1;
+	private static final byte FOLDER = 2;
+	private static final byte CONTENT = 3;
+	private static final byte MESSAGE = 4;
+	private static final byte END = 5;
+
+	/**
+	 * Maximum length of a block without message content.
+	 */
+	private static final int MAX_BLOCK_LENGTH = 1024 * 1024;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private BinaryStoreUtils() {
+		// utility class
+	}
+
+	/**
+	 * Deserialize mailboxes from the given binary snapshot stream.
+	 *
+	 * @param stream Binary snapshot stream
+	 * @return Mailbox store
+	 * @throws IOException if an I/O error occurs, or if the snapshot is corrupt
+	 */
+	public static MailboxStore load(InputStream stream) throws IOException {
+		MailboxStore store = new MailboxStore();
+		load(stream, store);
+		return store;
+	}
+
+	/**
+	 * Deserialize mailboxes from the given binary snapshot stream into the
+	 * given store. Use this method to load mailboxes into a store which
+	 * keeps message content in a {@link BlobStore}.
+	 *
+	 * @param stream Binary snapshot stream
+	 * @param store  Mailbox store
+	 * @throws IOException if an I/O error occurs, or if the snapshot is corrupt
+	 */
+	public static void load(InputStream stream, MailboxStore store) throws IOException {
+		Assert.isNotNull(stream, "stream");
+		Assert.isNotNull(store, "store");
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+		// check header
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a mailbox store snapshot");
+		}
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported snapshot version: " + version);
+		}
+
+		Map<Integer, StoredContent> contents = new HashMap<>();
+		Mailbox mailbox = null;
+		MailboxFolder folder = null;
+		int messageCount = 0;
+		CRC32 crc = new CRC32();
+		while (true) {
+			byte type;
+			DataInputStream block;
+			try {
+				type = in.readByte();
+				int length = in.readInt();
+				if (length < 0 || type != CONTENT && length > MAX_BLOCK_LENGTH) {
+					throw new IOException("Corrupt snapshot: invalid block length");
+				}
+				crc.reset();
+				byte[] data = readBlock(in, length, crc);
+				if (in.readInt() != (int) crc.getValue()) {
+					throw new IOException("Corrupt snapshot: checksum mismatch");
+				}
+				block = new DataInputStream(new ByteArrayInputStream(data));
+			} catch (EOFException e) {
+				throw new IOException("Incomplete snapshot", e);
+			}
+
+			switch (type) {
+				case MAILBOX: {
+					String username = block.readUTF();
+					String secret = block.readUTF();
+					String email = block.readUTF();
+					mailbox = new Mailbox(username, secret, email);
+					folder = null;
+					store.addMailbox(mailbox);
+					break;
+				}
+				case FOLDER: {
+					if (mailbox == null) {
+						throw new IOException("Corrupt snapshot: folder without mailbox");
+					}
+					String name = block.readUTF();
+					int uidNext = block.readInt();
+					int uidValidity = block.readInt();
+					folder = new MailboxFolder(name, uidNext, uidValidity);
+					mailbox.addFolder(folder);
+					break;
+				}
+				case CONTENT: {
+					int contentId = block.readInt();
+					Charset charset = Charset.forName(block.readUTF());
+					byte[] data = new byte[block.available()];
+					block.readFully(data);
+					MessageContent content = store.getContentPool().acquire(data, charset);
+					contents.put(contentId, new StoredContent(content, charset));
+					break;
+				}
+				case MESSAGE: {
+					if (folder == null) {
+						throw new IOException("Corrupt snapshot: message without folder");
+					}
+					int uid = block.readInt();
+					StoredContent content = contents.get(block.readInt());
+					if (content == null) {
+						throw new IOException("Corrupt snapshot: unknown content");
+					}
+					List<String> flags = readFlags(block);
+					MailboxMessage message = new MailboxMessage(uid, content.content, content.charset);
+					message.setFlags(flags);
+					folder.addMessage(message);
+					messageCount++;
+					break;
+				}
+				case END: {
+					if (block.readInt() != messageCount) {
+						throw new IOException("Corrupt snapshot: message count mismatch");
+					}
+					return;
+				}
+				default:
+					throw new IOException("Corrupt snapshot: unknown block type: " + type);
+			}
+		}
+	}
+
+	/**
+	 * Serialize the given mailbox store to the given binary snapshot stream.
+	 * Changes made to the store while it is serialized may be partially
+	 * contained in the result. Use {@link StoreSnapshotter} to write a
+	 * snapshot of a store which is in use.
+	 *
+	 * @param store  Mailbox store
+	 * @param stream Binary snapshot stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void store(MailboxStore store, OutputStream stream) throws IOException {
+		SnapshotWriter writer = new SnapshotWriter(stream);
+
+		for (String username : store.getUsernames()) {
+			Mailbox mailbox = store.getMailbox(username);
+			if (mailbox == null) {
+				continue; // mailbox has been deleted in the meantime
+			}
+
+			writer.writeMailbox(mailbox.getUsername(), mailbox.getSecret(), mailbox.getEmail());
+
+			for (String folderName : mailbox.getFolderNames()) {
+				MailboxFolder folder = mailbox.getFolder(folderName);
+				if (folder == null) {
+					continue; // folder has been renamed or deleted in the meantime
+				}
+
+				writer.writeFolder(folder.getName(), folder.getUIDNext(), folder.getUIDValidity());
+
+				for (MailboxMessage message : folder.getMessages()) {
+					writer.writeMessage(message, message.getFlags());
+				}
+			}
+		}
+
+		writer.finish();
+	}
+
+	/**
+	 * Serialize the given snapshot to the given binary snapshot stream.
+	 * Messages are written with their flags at the time the snapshot has
+	 * been captured.
+	 *
+	 * @param snapshot Snapshot
+	 * @param stream   Binary snapshot stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void store(StoreSnapshot snapshot, OutputStream stream) throws IOException {
+		SnapshotWriter writer = new SnapshotWriter(stream);
+
+		for (StoreSnapshot.MailboxData mailbox : snapshot.getMailboxes()) {
+			writer.writeMailbox(mailbox.username, mailbox.secret, mailbox.email);
+
+			for (StoreSnapshot.FolderData folder : mailbox.folders) {
+				writer.writeFolder(folder.name, folder.uidNext, folder.uidValidity);
+
+				for (MailboxMessage message : folder.messages) {
+					writer.writeMessage(message, snapshot.getFlags(message));
+				}
+			}
+		}
+
+		writer.finish();
+	}
+
+	/**
+	 * Serialize the given snapshot to the given file. The snapshot is
+	 * written to a temporary file, which is forced to disk and then replaces
+	 * the given file atomically.
+	 *
+	 * @param snapshot Snapshot
+	 * @param file     Snapshot file
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void store(StoreSnapshot snapshot, Path file) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			store(snapshot, Channels.newOutputStream(channel));
+			channel.force(true);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the payload of a block and update the checksum. The payload is
+	 * read in chunks into a growing buffer, so that a corrupt length fails
+	 * with an {@link EOFException} instead of allocating a huge buffer.
+	 *
+	 * @param in     Stream.
+	 * @param length Length of the payload.
+	 * @param crc    Checksum.
+	 * @return Payload.
+	 * @throws IOException if an I/O error occurs, or if the stream ends
+	 *                     before the end of the payload.
+	 */
+	private static byte[] readBlock(InputStream in, int length, CRC32 crc) throws IOException {
+		byte[] data = new byte[Math.min(length, CHUNK_SIZE)];
+		int count = 0;
+		while (count < length) {
+			if (count == data.length) {
+				data = Arrays.copyOf(data, (int) Math.min(length, 2L * data.length));
+			}
+			int len = in.read(data, count, Math.min(data.length - count, CHUNK_SIZE));
+			if (len < 0) {
+				throw new EOFException();
+			}
+			crc.update(data, count, len);
+			count += len;
+		}
+		return data;
+	}
+
+	private static void writeFlags(DataOutputStream out, List<String> flags) throws IOException {
+		out.writeShort(flags.size());
+		for (String flag : flags) {
+			out.writeUTF(flag);
+		}
+	}
+
+	private static List<String> readFlags(DataInputStream in) throws IOException {
+		int count = in.readUnsignedShort();
+		List<String> flags = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			flags.add(in.readUTF());
+		}
+		return flags;
+	}
+
+	/**
+	 * Writes blocks with length and checksum. The fields of a block are
+	 * collected in a buffer, since the length must be written first. Message
+	 * content is copied directly from the message to the stream.
+	 */
+	private static class BlockWriter {
+
+		private final DataOutputStream stream;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(buffer);
+		private final CRC32 crc = new CRC32();
+		private final byte[] chunk = new byte[8192];
+
+		private BlockWriter(OutputStream stream) throws IOException {
+			this.stream = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+			this.stream.writeInt(MAGIC);
+			this.stream.writeByte(VERSION);
+		}
+
+		private DataOutputStream begin() {
+			buffer.reset();
+			return out;
+		}
+
+		private void end(byte type) throws IOException {
+			byte[] data = buffer.toByteArray();
+			crc.reset();
+			crc.update(data, 0, data.length);
+			stream.writeByte(type);
+			stream.writeInt(data.length);
+			stream.write(data);
+			stream.writeInt((int) crc.getValue());
+		}
+
+		private void end(byte type, ByteBuffer content) throws IOException {
+			byte[] data = buffer.toByteArray();
+			crc.reset();
+			crc.update(data, 0, data.length);
+			stream.writeByte(type);
+			stream.writeInt(data.length + content.remaining());
+			stream.write(data);
+			while (content.hasRemaining()) {
+				int length = Math.min(content.remaining(), chunk.length);
+				content.get(chunk, 0, length);
+				crc.update(chunk, 0, length);
+				stream.write(chunk, 0, length);
+			}
+			stream.writeInt((int) crc.getValue());
+		}
+
+		private void flush() throws IOException {
+			stream.flush();
+		}
+
+	}
+
+	/**
+	 * Writes the blocks of a snapshot. Identical message content is only
+	 * written once.
+	 */
+	private static class SnapshotWriter {
+
+		private final BlockWriter writer;
+		private final Map<MessageContent, Integer> contentIds = new IdentityHashMap<>();
+		private int messageCount = 0;
+
+		private SnapshotWriter(OutputStream stream) throws IOException {
+			this.writer = new BlockWriter(stream);
+		}
+
+		private void writeMailbox(String username, String secret, String email) throws IOException {
+			DataOutputStream out = writer.begin();
+			out.writeUTF(username);
+			out.writeUTF(secret);
+			out.writeUTF(email);
+			writer.end(MAILBOX);
+		}
+
+		private void writeFolder(String name, int uidNext, int uidValidity) throws IOException {
+			DataOutputStream out = writer.begin();
+			out.writeUTF(name);
+			out.writeInt(uidNext);
+			out.writeInt(uidValidity);
+			writer.end(FOLDER);
+		}
+
+		private void writeMessage(MailboxMessage message, List<String> flags) throws IOException {
+
+			// write content only once
+			MessageContent content = message.getMessageContent();
+			Integer contentId = contentIds.get(content);
+			if (contentId == null) {
+				contentId = contentIds.size() + 1;
+				contentIds.put(content, contentId);
+
+				DataOutputStream out = writer.begin();
+				out.writeInt(contentId);
+				out.writeUTF(message.getCharset().name());
+				writer.end(CONTENT, content.buffer());
+			}
+
+			DataOutputStream out = writer.begin();
+			out.writeInt(message.getUID());
+			out.writeInt(contentId);
+			writeFlags(out, flags);
+			writer.end(MESSAGE);
+			messageCount++;
+		}
+
+		private void finish() throws IOException {
+			DataOutputStream out = writer.begin();
+			out.writeInt(messageCount);
+			writer.end(END);
+			writer.flush();
+		}
+
+	}
+
+	private static class StoredContent {
+
+		private final MessageContent content;
+		private final Charset charset;
+
+		private StoredContent(MessageContent content, Charset charset) {
+			this.content = content;
+			this.charset = charset;
+		}
+
+	}
+
+}
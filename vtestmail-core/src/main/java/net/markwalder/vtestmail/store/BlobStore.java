@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Append-only file for message content, accessed through memory-mapped
+ * regions. Message content stored in a blob store does not use any heap
+ * memory; only a small reference (region, position, and length) is kept
+ * by every message.
+ * <p>
+ * The file is divided into regions which are mapped into memory when they
+ * are created. The content of a message never spans two regions. Content
+ * larger than the region size gets a region of its own.
+ * <p>
+ * A blob store is only meant to keep message content while the mailbox
+ * store is in use. It is not a persistent format: the file is truncated
+ * when the blob store is opened.
+ * <p>
+ * Space is never reclaimed: the content of removed messages stays in the
+ * file until the blob store is closed, so the file grows with every new
+ * message content. For long-running servers which receive a lot of
+ * messages, keep message content on the heap instead, or close the blob
+ * store and open a new one from time to time (for example, by loading a
+ * snapshot into a new mailbox store).
+ *
+ * @see MailboxStore#MailboxStore(BlobStore)
+ */
+public final class BlobStore implements Closeable {
+
+	private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final int regionSize;
+
+	/**
+	 * Mapped regions. Replaced with a larger copy if a new region is added,
+	 * so that readers can access regions without locking.
+	 */
+	private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+	// only accessed while holding the lock on this blob store
+	private MappedByteBuffer region = null; // current region
+	private long fileSize = 0;
+	private long size = 0;
+	private boolean closed = false;
+
+	/**
+	 * Open a blob store with the given file. An existing file is truncated.
+	 *
+	 * @param file Path to file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public BlobStore(Path file) throws IOException {
+		this(file, DEFAULT_REGION_SIZE);
+	}
+
+	BlobStore(Path file, int regionSize) throws IOException {
+		Assert.isNotNull(file, "file");
+		Assert.isInRange(regionSize, 1, Integer.MAX_VALUE, "regionSize");
+		this.file = file;
+		this.regionSize = regionSize;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the total number of octets stored in this blob store.
+	 *
+	 * @return Number of octets.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Append the given data to the blob store.
+	 *
+	 * @param data Data.
+	 * @return Content backed by the blob store.
+	 */
+	synchronized MessageContent append(byte[] data) {
+		if (closed) {
+			throw new IllegalStateException("Blob store has been closed");
+		}
+
+		// start a new region if the data does not fit into the current region
+		if (region == null || region.remaining() < data.length) {
+			region = map(Math.max(regionSize, data.length));
+		}
+
+		int position = region.position();
+		region.put(data);
+		size += data.length;
+		return new BlobContent(this, regions.length - 1, position, data.length);
+	}
+
+	private MappedByteBuffer map(int size) {
+		try {
+			MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+			fileSize += size;
+			MappedByteBuffer[] regions = Arrays.copyOf(this.regions, this.regions.length + 1);
+			regions[regions.length - 1] = region;
+			this.regions = regions;
+			return region;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to map blob store region", e);
+		}
+	}
+
+	/**
+	 * Get a read-only buffer with the given range of a region.
+	 */
+	private ByteBuffer slice(int region, int position, int length) {
+		ByteBuffer buffer = regions[region].duplicate();
+		buffer.position(position).limit(position + length);
+		return buffer.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Close the file. Content already stored remains readable as long as it
+	 * is referenced, since mapped regions stay valid until they are garbage
+	 * collected.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		channel.close();
+	}
+
+	/**
+	 * Content stored in a blob store.
+	 */
+	private static class BlobContent extends MessageContent {
+
+		private final BlobStore store;
+		private final int region;
+		private final int position;
+		private final int length;
+
+		private BlobContent(BlobStore store, int region, int position, int length) {
+			this.store = store;
+			this.region = region;
+			this.position = position;
+			this.length = length;
+		}
+
+		@Override
+		int length() {
+			return length;
+		}
+
+		@Override
+		byte get(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+			}
+			return store.regions[region].get(position + index);
+		}
+
+		@Override
+		ByteBuffer buffer() {
+			return store.slice(region, position, length);
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed pool of message content. Messages with identical
+ * content share a single {@link MessageContent} instance, so that a message
+ * delivered to many recipients (or loaded many times from a store file) is
+ * kept in memory only once.
+ * <p>
+ * Content is keyed by the SHA-256 hash of its charset and octets. The pool
+ * only holds weak references to the content, so that content on the heap
+ * is released by the garbage collector once the last message referencing
+ * it has been removed. Content in a {@link BlobStore} is removed from the
+ * pool as well, but the space in the blob store is never reclaimed (see
+ * {@link BlobStore}).
+ */
+final class ContentPool {
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	/**
+	 * Blob store for new content, or {@code null} to keep content on the
+	 * heap.
+	 */
+	private final BlobStore blobStore;
+
+	/**
+	 * Pooled content by hash.
+	 */
+	private final Map<ByteBuffer, ContentReference> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Queue of references to content which has been garbage collected.
+	 */
+	private final ReferenceQueue<MessageContent> queue = new ReferenceQueue<>();
+
+	/**
+	 * Most recently acquired content. Used to share content without hashing
+	 * it again if the same string is added to multiple folders (for example,
+	 * if an SMTP message is delivered to multiple recipients).
+	 */
+	private volatile LastContent last = null;
+
+	ContentPool(BlobStore blobStore) {
+		this.blobStore = blobStore;
+	}
+
+	BlobStore getBlobStore() {
+		return blobStore;
+	}
+
+	/**
+	 * Get the content for the given string. If the pool already contains the
+	 * same content, the existing content is returned.
+	 *
+	 * @param text    Message content.
+	 * @param charset Charset used to encode the content.
+	 * @return Content.
+	 */
+	MessageContent acquire(String text, Charset charset) {
+
+		// fast path: same string as in the last call
+		LastContent last = this.last;
+		if (last != null && last.text.get() == text && last.charset.equals(charset)) {
+			MessageContent content = last.content.get();
+			if (content != null) {
+				return content;
+			}
+		}
+
+		MessageContent content = acquire(text.getBytes(charset), charset);
+		this.last = new LastContent(text, charset, content);
+		return content;
+	}
+
+	/**
+	 * Get the content for the given octets. If the pool already contains the
+	 * same content, the existing content is returned.
+	 *
+	 * @param data    Octets. The array must not be modified afterwards.
+	 * @param charset Charset used to encode the content.
+	 * @return Content.
+	 */
+	MessageContent acquire(byte[] data, Charset charset) {
+
+		// remove entries of content which has been garbage collected
+		expungeStaleEntries();
+
+		ByteBuffer key = ByteBuffer.wrap(hash(data, charset));
+
+		// get existing content or add new content (atomically)
+		MessageContent[] result = new MessageContent[1];
+		entries.compute(key, (k, reference) -> {
+			MessageContent content = reference != null ? reference.get() : null;
+			if (content == null) {
+				content = createContent(data);
+				reference = new ContentReference(content, k, queue);
+			}
+			result[0] = content;
+			return reference;
+		});
+		return result[0];
+	}
+
+	/**
+	 * Get the number of distinct content instances in this pool.
+	 *
+	 * @return Number of content instances.
+	 */
+	int size() {
+		expungeStaleEntries();
+		return entries.size();
+	}
+
+	private MessageContent createContent(byte[] data) {
+		if (blobStore != null) {
+			return blobStore.append(data);
+		} else {
+			return MessageContent.of(data);
+		}
+	}
+
+	private void expungeStaleEntries() {
+		while (true) {
+			ContentReference reference = (ContentReference) queue.poll();
+			if (reference == null) break;
+			entries.remove(reference.key, reference);
+		}
+	}
+
+	private static byte[] hash(byte[] data, Charset charset) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException("Hash algorithm not supported: " + HASH_ALGORITHM, e);
+		}
+
+		// include charset, since the same octets decode to different strings
+		digest.update(charset.name().getBytes(StandardCharsets.US_ASCII));
+		digest.update((byte) 0);
+		digest.update(data);
+		return digest.digest();
+	}
+
+	private static class ContentReference extends WeakReference<MessageContent> {
+
+		private final ByteBuffer key;
+
+		private ContentReference(MessageContent content, ByteBuffer key, ReferenceQueue<MessageContent> queue) {
+			super(content, queue);
+			this.key = key;
+		}
+
+	}
+
+	/**
+	 * Most recently acquired content. Both the string and the content are
+	 * only referenced weakly, so that they are not kept in memory after the
+	 * last message has been removed.
+	 */
+	private static class LastContent {
+
+		private final WeakReference<String> text;
+		private final Charset charset;
+		private final WeakReference<MessageContent> content;
+
+		private LastContent(String text, Charset charset, MessageContent content) {
+			this.text = new WeakReference<>(text);
+			this.charset = charset;
+			this.content = new WeakReference<>(content);
+		}
+
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Dictionary of interned flag names, shared by all messages and servers.
+ * Every flag name is assigned a small integer ID, so that messages only
+ * have to store IDs instead of strings.
+ * <p>
+ * The system flags get the fixed IDs 0 to {@link #SYSTEM_FLAGS} - 1, which
+ * are used as bit positions in the system flag bitset of a message. All
+ * other flags (keywords) get IDs on first use. Flag names are
+ * case-sensitive. IDs are never released.
+ * <p>
+ * Since clients can add new keywords (for example with IMAP STORE), the
+ * number of keywords and the length of flag names are limited per store for
+ * flags received from clients (see {@link MailboxStore#internClientFlag(String)}),
+ * so that a long-running server cannot run out of memory. Flags added with
+ * the API, loaded from a file, or replayed from a journal are never rejected.
+ */
+public final class FlagDictionary {
+
+	// IDs of system flags
+	static final int SEEN = 0;
+	static final int ANSWERED = 1;
+	static final int FLAGGED = 2;
+	static final int DELETED = 3;
+	static final int DRAFT = 4;
+	static final int RECENT = 5;
+
+	/**
+	 * System flags, in order of their IDs.
+	 */
+	private static final String[] SYSTEM_FLAG_NAMES = {
+			MailboxMessage.FLAG_SEEN,
+			MailboxMessage.FLAG_ANSWERED,
+			MailboxMessage.FLAG_FLAGGED,
+			MailboxMessage.FLAG_DELETED,
+			MailboxMessage.FLAG_DRAFT,
+			MailboxMessage.FLAG_RECENT
+	};
+
+	/**
+	 * Number of system flags.
+	 */
+	static final int SYSTEM_FLAGS = SYSTEM_FLAG_NAMES.length;
+
+	/**
+	 * Maximum length of a flag name.
+	 */
+	public static final int MAX_FLAG_LENGTH = 256;
+
+	private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+	/**
+	 * Flag names by ID. Replaced by a copy with twice the capacity if it is
+	 * full. Only the first {@link #count} entries are used.
+	 */
+	private static volatile String[] names = new String[64];
+
+	/**
+	 * Number of flags. Only accessed while holding the lock on {@link #ids}.
+	 */
+	private static int count = 0;
+
+	static {
+		for (String name : SYSTEM_FLAG_NAMES) {
+			getId(name);
+		}
+	}
+
+	private FlagDictionary() {
+		// utility class
+	}
+
+	/**
+	 * Get the ID of the given flag. If the flag is not known yet, a new ID
+	 * is assigned.
+	 *
+	 * @param flag Flag name.
+	 * @return ID of flag.
+	 */
+	static int getId(String flag) {
+		Integer id = ids.get(flag);
+		if (id != null) {
+			return id;
+		}
+		synchronized (ids) {
+			id = ids.get(flag);
+			if (id != null) {
+				return id;
+			}
+
+			// add flag name before the ID is published
+			int newId = count;
+			String[] names = FlagDictionary.names;
+			if (newId == names.length) {
+				names = Arrays.copyOf(names, names.length * 2);
+			}
+			names[newId] = flag;
+			FlagDictionary.names = names; // publish name
+			count++;
+			ids.put(flag, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * Check if the flag with the given ID is a system flag.
+	 *
+	 * @param id ID of flag.
+	 * @return {@code true} if the flag is a system flag.
+	 */
+	static boolean isSystemFlag(int id) {
+		return id >= 0 && id < SYSTEM_FLAGS;
+	}
+
+	/**
+	 * Find the ID of the given flag, without assigning a new ID.
+	 *
+	 * @param flag Flag name.
+	 * @return ID of flag, or -1 if the flag is not known.
+	 */
+	static int findId(String flag) {
+		Integer id = ids.get(flag);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Get the name of the flag with the given ID.
+	 *
+	 * @param id ID of flag.
+	 * @return Flag name.
+	 */
+	static String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Get the interned instance of the given flag name. The flag gets an ID
+	 * if it does not have one yet.
+	 *
+	 * @param flag Flag name.
+	 * @return Interned flag name.
+	 */
+	public static String intern(String flag) {
+		Assert.isNotEmpty(flag, "flag");
+		return getName(getId(flag));
+	}
+
+}
@@ -19,7 +19,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import net.markwalder.vtestmail.utils.Assert;
 import net.markwalder.vtestmail.utils.StringUtils;
 
@@ -30,7 +30,18 @@ public class Mailbox {
 	private final String email;
 
 	public static final String INBOX = "INBOX";
-	private final Map<String, MailboxFolder> folders = new TreeMap<>(FolderNameComparator.INSTANCE);
+
+	/**
+	 * Folders by name (INBOX first). Read without locking. Updates are made
+	 * while holding the lock on this map, so that a folder can be renamed
+	 * atomically with respect to other updates.
+	 */
+	private final Map<String, MailboxFolder> folders = new ConcurrentSkipListMap<>(FolderNameComparator.INSTANCE);
+
+	/**
+	 * Store this mailbox has been added to, or {@code null}.
+	 */
+	private volatile MailboxStore store = null;
 
 	Mailbox(String username, String secret, String email) {
 		Assert.isNotEmpty(username, "username");
@@ -54,10 +65,21 @@ public class Mailbox {
 		return email;
 	}
 
+	MailboxStore getStore() {
+		return store;
+	}
+
+	void setStore(MailboxStore store) {
+		this.store = store;
+	}
+
+	StoreJournal getJournal() {
+		MailboxStore store = this.store;
+		return store != null ? store.getJournal() : null;
+	}
+
 	public List<String> getFolderNames() {
-		synchronized (folders) {
-			return new ArrayList<>(folders.keySet());
-		}
+		return new ArrayList<>(folders.keySet());
 	}
 
 	public MailboxFolder getInbox() {
@@ -66,16 +88,12 @@ public class Mailbox {
 
 	public MailboxFolder getFolder(String name) {
 		Assert.isNotEmpty(name, "name");
-		synchronized (folders) {
-			return folders.get(name);
-		}
+		return folders.get(name);
 	}
 
 	public boolean hasFolder(String name) {
 		Assert.isNotEmpty(name, "name");
-		synchronized (folders) {
-			return folders.containsKey(name);
-		}
+		return folders.containsKey(name);
 	}
 
 	public MailboxFolder createFolder(String name) {
@@ -87,29 +105,88 @@ public class Mailbox {
 	void addFolder(MailboxFolder folder) {
 		Assert.isNotNull(folder, "folder");
 		String name = folder.getName();
-		synchronized (folders) {
-			Assert.isFalse(folders.containsKey(name), "Folder already exists: " + name);
-			folders.put(name, folder);
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = this.store;
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (folders) {
+				Assert.isFalse(folders.containsKey(name), "Folder already exists: " + name);
+				folder.setMailbox(this);
+				folders.put(name, folder);
+				if (journal != null) {
+					seq = journal.createFolder(this, folder);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
 		}
 	}
 
 	public void renameFolder(String oldName, String newName) {
 		Assert.isNotEmpty(oldName, "oldName");
 		Assert.isNotEmpty(newName, "newName");
-		synchronized (folders) {
-			Assert.isTrue(folders.containsKey(oldName), "Folder not found: " + oldName);
-			Assert.isFalse(folders.containsKey(newName), "Folder already exists: " + newName);
-			MailboxFolder folder = folders.remove(oldName);
-			folder.setName(newName);
-			folders.put(newName, folder);
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = this.store;
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (folders) {
+				Assert.isTrue(folders.containsKey(oldName), "Folder not found: " + oldName);
+				Assert.isFalse(folders.containsKey(newName), "Folder already exists: " + newName);
+				// add folder with new name before removing it with old name,
+				// so that concurrent readers always find the folder
+				MailboxFolder folder = folders.get(oldName);
+				seq = folder.rename(journal, this, newName);
+				folders.put(newName, folder);
+				folders.remove(oldName);
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
 		}
 	}
 
 	public void deleteFolder(String name) {
 		Assert.isNotEmpty(name, "name");
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = this.store;
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (folders) {
+				Assert.isTrue(folders.containsKey(name), "Folder not found: " + name);
+				MailboxFolder folder = folders.remove(name);
+				MailboxStore.preserveFlags(store, folder);
+				folder.setMailbox(null);
+				if (journal != null) {
+					seq = journal.deleteFolder(this, name);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
+		}
+	}
+
+	/**
+	 * Capture all folders of this mailbox for a snapshot. Folders are not
+	 * added, renamed, or deleted in the meantime.
+	 *
+	 * @param result List to add the captured folders to.
+	 */
+	void captureFolders(List<StoreSnapshot.FolderData> result) {
 		synchronized (folders) {
-			Assert.isTrue(folders.containsKey(name), "Folder not found: " + name);
-			folders.remove(name);
+			for (MailboxFolder folder : folders.values()) {
+				result.add(folder.capture());
+			}
 		}
 	}
 
@@ -14,19 +14,35 @@
 
 package net.markwalder.vtestmail.store;
 
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.List;
 import net.markwalder.vtestmail.utils.Assert;
 
 public class MailboxFolder {
 
-	private String name;
+	/**
+	 * Name of this folder. Changed while holding the lock on {@link #lock},
+	 * together with the journal record of the rename.
+	 */
+	private volatile String name;
 
-	private final List<MailboxMessage> messages = new ArrayList<>();
+	/**
+	 * Current immutable list of messages. Readers get a stable snapshot
+	 * without locking. Writers hold the lock on {@link #lock} and replace
+	 * the list with a modified copy.
+	 */
+	private volatile MessageList messages = MessageList.EMPTY;
+	private final Object lock = new Object();
+
+	/**
+	 * Mailbox this folder has been added to, or {@code null}.
+	 */
+	private volatile Mailbox mailbox = null;
 
 	// see https://datatracker.ietf.org/doc/html/rfc9051#section-2.3.1.1
-	private int uidNext = 1;
-	private int uidValidity = 1;
+	// changed while holding the lock on {@link #lock}, read without locking
+	private volatile int uidNext = 1;
+	private volatile int uidValidity = 1;
 
 	MailboxFolder(String name) {
 		Assert.isNotEmpty(name, "name");
@@ -51,57 +67,292 @@ public class MailboxFolder {
 		this.name = name;
 	}
 
+	/**
+	 * Change the name of this folder, and record the rename in the journal.
+	 * Journal records of concurrent changes of this folder are written while
+	 * holding the same lock, so they refer to the old name if they are
+	 * written before the rename record, and to the new name otherwise.
+	 *
+	 * @param journal Journal, or {@code null}.
+	 * @param mailbox Mailbox of this folder.
+	 * @param newName New name.
+	 * @return Sequence number of the journal record.
+	 */
+	long rename(StoreJournal journal, Mailbox mailbox, String newName) {
+		synchronized (lock) {
+			String oldName = name;
+			setName(newName);
+			if (journal == null) {
+				return 0;
+			}
+			return journal.renameFolder(mailbox, oldName, newName);
+		}
+	}
+
+	Mailbox getMailbox() {
+		return mailbox;
+	}
+
+	void setMailbox(Mailbox mailbox) {
+		this.mailbox = mailbox;
+	}
+
+	MailboxStore getStore() {
+		Mailbox mailbox = this.mailbox;
+		return mailbox != null ? mailbox.getStore() : null;
+	}
+
+	ContentPool getContentPool() {
+		MailboxStore store = getStore();
+		return store != null ? store.getContentPool() : null;
+	}
+
+	StoreJournal getJournal() {
+		Mailbox mailbox = this.mailbox;
+		return mailbox != null ? mailbox.getJournal() : null;
+	}
+
+	/**
+	 * Get an immutable snapshot of the messages in this folder. The snapshot
+	 * does not change if messages are added or removed later.
+	 * <p>
+	 * Note: The returned list is unmodifiable. Earlier versions returned a
+	 * modifiable copy. Callers which sort or remove messages from the list
+	 * must create their own copy first, for example with
+	 * {@code new ArrayList<>(folder.getMessages())}.
+	 *
+	 * @return Unmodifiable list of messages.
+	 */
 	public List<MailboxMessage> getMessages() {
-		synchronized (messages) {
-			return new ArrayList<>(messages);
+		return messages;
+	}
+
+	/**
+	 * Capture the name, UID counters, and messages of this folder for a
+	 * snapshot. They are read while holding the lock of this folder, so
+	 * they are consistent with each other.
+	 *
+	 * @return Captured folder.
+	 */
+	StoreSnapshot.FolderData capture() {
+		synchronized (lock) {
+			return new StoreSnapshot.FolderData(name, uidNext, uidValidity, messages);
 		}
 	}
 
-	public MailboxMessage getMessage(int messageNumber) {
-		synchronized (messages) {
-			Assert.isInRange(messageNumber, 1, messages.size(), "messageNumber");
-			return messages.get(messageNumber - 1);
+	public int getMessageCount() {
+		return messages.size();
+	}
+
+	/**
+	 * Count the messages in this folder with or without the given flag.
+	 * All messages are counted in the same snapshot.
+	 *
+	 * @param flag Flag name.
+	 * @param set  {@code true} to count messages with the flag,
+	 *             {@code false} to count messages without the flag.
+	 * @return Number of messages.
+	 */
+	public int getMessageCount(String flag, boolean set) {
+		Assert.isNotEmpty(flag, "flag");
+		List<MailboxMessage> messages = this.messages;
+		int id = FlagDictionary.findId(flag);
+		if (id < 0) {
+			// unknown flag -> no message has this flag
+			return set ? 0 : messages.size();
+		}
+
+		int count = 0;
+		if (id < FlagDictionary.SYSTEM_FLAGS) {
+			for (int i = 0; i < messages.size(); i++) {
+				if (messages.get(i).hasSystemFlag(id)) count++;
+			}
+		} else {
+			for (int i = 0; i < messages.size(); i++) {
+				if (messages.get(i).hasKeyword(id)) count++;
+			}
 		}
+		return set ? count : messages.size() - count;
+	}
+
+	public MailboxMessage getMessage(int messageNumber) {
+		List<MailboxMessage> messages = this.messages;
+		Assert.isInRange(messageNumber, 1, messages.size(), "messageNumber");
+		return messages.get(messageNumber - 1);
 	}
 
 	public MailboxMessage addMessage(String content) {
 		Assert.isNotEmpty(content, "content");
-		synchronized (messages) {
-			MailboxMessage message = new MailboxMessage(content);
+		MailboxMessage message = new MailboxMessage(content, getContentPool());
+		appendMessage(message);
+		return message;
+	}
+
+	/**
+	 * Add a message with content which is already stored (for example, in
+	 * the content pool of the store). The message gets a new UID.
+	 *
+	 * @param content Message content.
+	 * @param charset Charset used to encode the content.
+	 * @return Message.
+	 */
+	MailboxMessage addMessage(MessageContent content, Charset charset) {
+		Assert.isNotNull(content, "content");
+		Assert.isNotNull(charset, "charset");
+		MailboxMessage message = new MailboxMessage(content, charset);
+		appendMessage(message);
+		return message;
+	}
+
+	private void appendMessage(MailboxMessage message) {
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
 
-			// auto-generate UID
-			int uid = generateNextUID();
-			message.setUID(uid);
+				// auto-generate UID
+				int uid = generateNextUID();
+				message.setUID(uid);
 
-			messages.add(message);
-			return message;
+				message.setFolder(this);
+				messages = messages.append(message);
+				if (journal != null) {
+					seq = journal.addMessage(this, message);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
 		}
 	}
 
 	void addMessage(MailboxMessage message) {
 		Assert.isNotNull(message, "message");
-		synchronized (messages) {
-			messages.add(message);
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
+				message.setFolder(this);
+				messages = messages.append(message);
 
-			// check if uidNext must be updated
-			int uid = message.getUID();
-			if (uid >= uidNext) {
-				uidNext = uid + 1;
+				// check if uidNext must be updated
+				int uid = message.getUID();
+				if (uid >= uidNext) {
+					uidNext = uid + 1;
+				}
+
+				if (journal != null) {
+					seq = journal.addMessage(this, message);
+				}
 			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
 		}
 	}
 
 	public void removeMessage(int messageNumber) {
-		synchronized (messages) {
-			Assert.isInRange(messageNumber, 1, messages.size(), "messageNumber");
-			messages.remove(messageNumber - 1);
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
+				Assert.isInRange(messageNumber, 1, messages.size(), "messageNumber");
+				MailboxMessage message = messages.get(messageNumber - 1);
+				MailboxStore.preserveFlags(store, message);
+				message.setFolder(null);
+				messages = messages.removeAt(messageNumber - 1);
+				if (journal != null) {
+					seq = journal.removeMessage(this, message);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
 		}
 	}
 
 	public void removeDeletedMessages() {
-		synchronized (messages) {
-			messages.removeIf(MailboxMessage::isDeleted);
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
+				MessageList oldMessages = messages;
+				MessageList newMessages = oldMessages.removeMatching(MailboxMessage::isDeleted);
+				messages = newMessages;
+
+				// find removed messages (both lists have the same order)
+				for (int i = 0, j = 0; i < oldMessages.size(); i++) {
+					MailboxMessage message = oldMessages.get(i);
+					if (j < newMessages.size() && newMessages.get(j) == message) {
+						j++;
+						continue;
+					}
+					MailboxStore.preserveFlags(store, message);
+					message.setFolder(null);
+					if (journal != null) {
+						seq = journal.removeMessage(this, message);
+					}
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
+		}
+	}
+
+	/**
+	 * Remove the message with the given UID, if present.
+	 *
+	 * @param uid Message UID.
+	 */
+	void removeMessageByUID(int uid) {
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
+				MailboxMessage message = getMessageByUID(uid);
+				if (message != null) {
+					MailboxStore.preserveFlags(store, message);
+					message.setFolder(null);
+					messages = messages.removeMatching(m -> m == message);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+	}
+
+	/**
+	 * Find the message with the given UID.
+	 *
+	 * @param uid Message UID.
+	 * @return Message, or {@code null} if no message has been found.
+	 */
+	MailboxMessage getMessageByUID(int uid) {
+		List<MailboxMessage> messages = this.messages;
+		for (int i = messages.size() - 1; i >= 0; i--) {
+			MailboxMessage message = messages.get(i);
+			if (message.getUID() == uid) {
+				return message;
+			}
 		}
+		return null;
 	}
 
 	public int getUIDNext() {
@@ -109,7 +360,23 @@ public class MailboxFolder {
 	}
 
 	public void setUIDNext(int uidNext) {
-		this.uidNext = uidNext;
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
+				this.uidNext = uidNext;
+				if (journal != null) {
+					seq = journal.setUIDNext(this, uidNext);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
+		}
 	}
 
 	private int generateNextUID() {
@@ -121,7 +388,55 @@ public class MailboxFolder {
 	}
 
 	public void setUIDValidity(int uidValidity) {
-		this.uidValidity = uidValidity;
+		StoreJournal journal = getJournal();
+		long seq = 0;
+		MailboxStore store = getStore();
+		MailboxStore.beginChange(store);
+		try {
+			synchronized (lock) {
+				this.uidValidity = uidValidity;
+				if (journal != null) {
+					seq = journal.setUIDValidity(this, uidValidity);
+				}
+			}
+		} finally {
+			MailboxStore.endChange(store);
+		}
+		if (journal != null) {
+			journal.sync(seq);
+		}
+	}
+
+	/**
+	 * Apply a change of the flags of the given message, and record it in the
+	 * journal. Both is done while holding the lock, so that concurrent
+	 * changes of the same flag are recorded in the order in which they have
+	 * been applied (see also {@link #rename(StoreJournal, Mailbox, String)}).
+	 * Nothing is recorded if the message has been removed from this folder
+	 * concurrently.
+	 *
+	 * @param journal Journal.
+	 * @param message Message.
+	 * @param change  Change of the flags.
+	 * @param flag    Name of the changed flag, or {@code null} if all flags
+	 *                have been replaced.
+	 * @param set     {@code true} if the flag is set, {@code false} if the
+	 *                flag is removed.
+	 * @return Sequence number of the journal record, or 0 if nothing has
+	 * been recorded.
+	 */
+	long changeFlags(StoreJournal journal, MailboxMessage message, MailboxMessage.FlagChange change, String flag, boolean set) {
+		synchronized (lock) {
+			MailboxStore store = getStore();
+			if (!change.apply(store) || message.getFolder() != this) {
+				return 0;
+			}
+			if (flag == null) {
+				return journal.setFlags(this, message);
+			} else {
+				return journal.setFlag(this, message, flag, set);
+			}
+		}
 	}
 
 }
@@ -14,17 +14,20 @@
 
 package net.markwalder.vtestmail.store;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import net.markwalder.vtestmail.utils.Assert;
-import net.markwalder.vtestmail.utils.StringUtils;
 
 public class MailboxMessage {
 
-	private static final String CRLF = "\r\n";
-
 	public static final String FLAG_SEEN = "\\Seen";
 	public static final String FLAG_ANSWERED = "\\Answered";
 	public static final String FLAG_FLAGGED = "\\Flagged";
@@ -38,24 +41,74 @@ public class MailboxMessage {
 	public static final String KEYWORD_NOTJUNK = "$NotJunk";
 	public static final String KEYWORD_PHISHING = "$Phishing";
 
-	private final String content;
+	/**
+	 * Content of the message, as sent over the wire.
+	 */
+	private final MessageContent content;
+
+	/**
+	 * Charset used to convert the content from and to a string.
+	 */
+	private final Charset charset;
 
 	private int uid;
 
+	/**
+	 * Folder this message has been added to, or {@code null}. Used to record
+	 * flag changes in the journal of the store.
+	 */
+	private volatile MailboxFolder folder = null;
+
 	// see https://datatracker.ietf.org/doc/html/rfc9051#section-2.3.2
 	// TODO: a flag can be permanent or session-only on a per-flag basis.
-	private final Set<String> flags = new TreeSet<>();
+
+	/**
+	 * System flags, one bit per flag (bit position = ID in
+	 * {@link FlagDictionary}). Updated with compare-and-set.
+	 */
+	private volatile int systemFlags = 0;
+
+	/**
+	 * IDs of keywords in {@link FlagDictionary}, in ascending order.
+	 * The array is never modified, but replaced with compare-and-set.
+	 */
+	private volatile int[] keywords = NO_KEYWORDS;
+
+	private static final int[] NO_KEYWORDS = new int[0];
+
+	private static final AtomicIntegerFieldUpdater<MailboxMessage> SYSTEM_FLAGS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(MailboxMessage.class, "systemFlags");
+	private static final AtomicReferenceFieldUpdater<MailboxMessage, int[]> KEYWORDS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(MailboxMessage.class, int[].class, "keywords");
 
 	// see https://datatracker.ietf.org/doc/html/rfc9051#section-2.3.3
 	// TODO: implement internal date
 	private long internalDate;
 
 	MailboxMessage(String content) {
+		this(content, null);
+	}
+
+	/**
+	 * Create a message.
+	 *
+	 * @param content Message content.
+	 * @param pool    Pool to share the content with other messages, or
+	 *                {@code null} to keep the content on the heap.
+	 */
+	MailboxMessage(String content, ContentPool pool) {
 		Assert.isNotEmpty(content, "content");
-		this.content = content;
+		this.charset = selectCharset(content);
+		this.content = createContent(content, charset, pool);
 		this.uid = calculateUID(content);
 	}
 
+	private static MessageContent createContent(String content, Charset charset, ContentPool pool) {
+		if (pool != null) {
+			return pool.acquire(content, charset);
+		} else {
+			return MessageContent.of(content.getBytes(charset));
+		}
+	}
+
 	private static int calculateUID(String content) {
 		int hash = content.hashCode();
 		if (hash == Integer.MIN_VALUE) {
@@ -66,16 +119,93 @@ public class MailboxMessage {
 	}
 
 	MailboxMessage(int uid, String content) {
+		this(uid, content, null);
+	}
+
+	MailboxMessage(int uid, String content, ContentPool pool) {
 		Assert.isNotEmpty(content, "content");
 		Assert.isInRange(uid, 1, Integer.MAX_VALUE, "uid");
+		this.charset = selectCharset(content);
+		this.content = createContent(content, charset, pool);
+		this.uid = uid;
+	}
+
+	/**
+	 * Create a message with content which is already stored. The UID is
+	 * assigned when the message is added to a folder.
+	 *
+	 * @param content Message content.
+	 * @param charset Charset used to encode the content.
+	 */
+	MailboxMessage(MessageContent content, Charset charset) {
+		Assert.isNotNull(content, "content");
+		this.charset = charset;
+		this.content = content;
+	}
+
+	/**
+	 * Create a message with content which is already stored.
+	 *
+	 * @param uid     Message UID.
+	 * @param content Message content.
+	 * @param charset Charset used to encode the content.
+	 */
+	MailboxMessage(int uid, MessageContent content, Charset charset) {
+		Assert.isNotNull(content, "content");
+		Assert.isInRange(uid, 1, Integer.MAX_VALUE, "uid");
+		this.charset = charset;
 		this.content = content;
 		this.uid = uid;
 	}
 
-	public String getContent() {
+	/**
+	 * Select the charset used to store the given content. Content received
+	 * by the SMTP server has been decoded with ISO-8859-1, so every character
+	 * represents one octet. Only content with other characters (for example,
+	 * content added with the API) is stored with UTF-8.
+	 *
+	 * @param content Message content.
+	 * @return Charset.
+	 */
+	private static Charset selectCharset(String content) {
+		for (int i = 0; i < content.length(); i++) {
+			if (content.charAt(i) > 0xFF) {
+				return StandardCharsets.UTF_8;
+			}
+		}
+		return StandardCharsets.ISO_8859_1;
+	}
+
+	MessageContent getMessageContent() {
 		return content;
 	}
 
+	Charset getCharset() {
+		return charset;
+	}
+
+	MailboxFolder getFolder() {
+		return folder;
+	}
+
+	void setFolder(MailboxFolder folder) {
+		this.folder = folder;
+	}
+
+	public String getContent() {
+		return content.decode(0, content.length(), charset);
+	}
+
+	/**
+	 * Get the content of the message as read-only buffer, without copying
+	 * or encoding it.
+	 *
+	 * @return Buffer with message content.
+	 */
+	public ByteBuffer getContentBuffer() {
+		return content.buffer();
+	}
+
 	public int getUID() {
 		return uid;
 	}
@@ -92,119 +222,323 @@ public class MailboxMessage {
 	 */
 	public int getSize() {
 		// see https://datatracker.ietf.org/doc/html/rfc9051#section-2.3.4
-		// TODO: return number of bytes with UTF-8 encoding?
 		return content.length();
 	}
 
 	// flags ---------------------------------------------------------------
 
 	public List<String> getFlags() {
-		synchronized (flags) {
-			return new ArrayList<>(flags);
+		return getFlags(systemFlags, keywords);
+	}
+
+	/**
+	 * Get the names of the given flags (in alphabetical order).
+	 *
+	 * @param systemFlags System flags (see {@link #getSystemFlags()}).
+	 * @param keywords    Keyword IDs (see {@link #getKeywords()}).
+	 * @return Names of flags.
+	 */
+	static List<String> getFlags(int systemFlags, int[] keywords) {
+		List<String> flags = new ArrayList<>(Integer.bitCount(systemFlags) + keywords.length);
+		for (int id = 0; id < FlagDictionary.SYSTEM_FLAGS; id++) {
+			if ((systemFlags & (1 << id)) != 0) {
+				flags.add(FlagDictionary.getName(id));
+			}
+		}
+		for (int id : keywords) {
+			flags.add(FlagDictionary.getName(id));
 		}
+		Collections.sort(flags);
+		return flags;
 	}
 
 	public boolean hasFlag(String flag) {
 		Assert.isNotEmpty(flag, "flag");
-		synchronized (flags) {
-			return flags.contains(flag);
+		int id = FlagDictionary.findId(flag);
+		if (id < 0) {
+			return false; // unknown flag
+		} else if (id < FlagDictionary.SYSTEM_FLAGS) {
+			return hasSystemFlag(id);
+		} else {
+			return hasKeyword(id);
 		}
 	}
 
+	boolean hasSystemFlag(int id) {
+		return (systemFlags & (1 << id)) != 0;
+	}
+
+	boolean hasKeyword(int id) {
+		return Arrays.binarySearch(keywords, id) >= 0;
+	}
+
 	public void setFlag(String flag) {
 		Assert.isNotEmpty(flag, "flag");
-		synchronized (flags) {
+		int id = FlagDictionary.getId(flag);
+		if (id < FlagDictionary.SYSTEM_FLAGS) {
+			updateSystemFlag(id, true);
+			return;
+		}
+
+		// keywords $Junk and $NotJunk are mutually exclusive
+		int exclusiveId;
+		if (flag.equals(KEYWORD_JUNK)) {
+			exclusiveId = FlagDictionary.getId(KEYWORD_NOTJUNK);
+		} else if (flag.equals(KEYWORD_NOTJUNK)) {
+			exclusiveId = FlagDictionary.getId(KEYWORD_JUNK);
+		} else {
+			exclusiveId = -1;
+		}
+
+		changeFlags(store -> {
+			while (true) {
+				int[] oldKeywords = keywords;
+				int[] newKeywords = oldKeywords;
+				if (exclusiveId >= 0) {
+					newKeywords = removeKeyword(newKeywords, exclusiveId);
+				}
+				newKeywords = addKeyword(newKeywords, id);
+				if (newKeywords == oldKeywords) {
+					return false;
+				}
+				if (MailboxStore.hasSnapshots(store)) {
+					MailboxStore.preserveFlags(store, this);
+				}
+				if (KEYWORDS_UPDATER.compareAndSet(this, oldKeywords, newKeywords)) {
+					return true;
+				}
+			}
+		}, flag, true);
+	}
+
+	public void removeFlag(String flag) {
+		Assert.isNotEmpty(flag, "flag");
+		int id = FlagDictionary.findId(flag);
+		if (id < 0) {
+			return; // unknown flag
+		} else if (id < FlagDictionary.SYSTEM_FLAGS) {
+			updateSystemFlag(id, false);
+			return;
+		}
+
+		changeFlags(store -> {
+			while (true) {
+				int[] oldKeywords = keywords;
+				int[] newKeywords = removeKeyword(oldKeywords, id);
+				if (newKeywords == oldKeywords) {
+					return false;
+				}
+				if (MailboxStore.hasSnapshots(store)) {
+					MailboxStore.preserveFlags(store, this);
+				}
+				if (KEYWORDS_UPDATER.compareAndSet(this, oldKeywords, newKeywords)) {
+					return true;
+				}
+			}
+		}, flag, false);
+	}
+
+	/**
+	 * Replace all flags of this message with the given flags in a single
+	 * atomic update.
+	 *
+	 * @param flags New flags.
+	 */
+	public void setFlags(Collection<String> flags) {
+		Assert.isNotNull(flags, "flags");
+
+		int newSystemFlags = 0;
+		int[] newKeywords = NO_KEYWORDS;
+		for (String flag : flags) {
+			Assert.isNotEmpty(flag, "flag");
+			int id = FlagDictionary.getId(flag);
+			if (id < FlagDictionary.SYSTEM_FLAGS) {
+				newSystemFlags |= 1 << id;
+				continue;
+			}
 
 			// keywords $Junk and $NotJunk are mutually exclusive
 			if (flag.equals(KEYWORD_JUNK)) {
-				flags.remove(KEYWORD_NOTJUNK);
+				newKeywords = removeKeyword(newKeywords, FlagDictionary.getId(KEYWORD_NOTJUNK));
 			} else if (flag.equals(KEYWORD_NOTJUNK)) {
-				flags.remove(KEYWORD_JUNK);
+				newKeywords = removeKeyword(newKeywords, FlagDictionary.getId(KEYWORD_JUNK));
+			}
+			newKeywords = addKeyword(newKeywords, id);
+		}
+
+		int systemFlags = newSystemFlags;
+		int[] keywords = newKeywords;
+		changeFlags(store -> {
+			if (MailboxStore.hasSnapshots(store)) {
+				MailboxStore.preserveFlags(store, this);
+			}
+
+			// note: readers may see the new system flags with the old keywords for
+			// a short moment, but every single flag is always consistent
+			this.systemFlags = systemFlags;
+			this.keywords = keywords;
+			return true;
+		}, null, true);
+	}
+
+	private void updateSystemFlag(int id, boolean value) {
+		int mask = 1 << id;
+		changeFlags(store -> {
+			while (true) {
+				int oldFlags = systemFlags;
+				int newFlags = value ? oldFlags | mask : oldFlags & ~mask;
+				if (newFlags == oldFlags) {
+					return false;
+				}
+				if (MailboxStore.hasSnapshots(store)) {
+					MailboxStore.preserveFlags(store, this);
+				}
+				if (SYSTEM_FLAGS_UPDATER.compareAndSet(this, oldFlags, newFlags)) {
+					return true;
+				}
 			}
+		}, FlagDictionary.getName(id), value);
+	}
 
-			flags.add(flag);
+	/**
+	 * Apply a change of the flags of this message, and record it in the
+	 * journal of the store (if any). See
+	 * {@link MailboxFolder#changeFlags(StoreJournal, MailboxMessage, FlagChange, String, boolean)}.
+	 *
+	 * @param change Change of the flags.
+	 * @param flag   Name of the changed flag, or {@code null} if all flags
+	 *               have been replaced.
+	 * @param set    {@code true} if the flag is set, {@code false} if the
+	 *               flag is removed.
+	 */
+	private void changeFlags(FlagChange change, String flag, boolean set) {
+		MailboxFolder folder = this.folder;
+		StoreJournal journal = folder != null ? folder.getJournal() : null;
+		long seq = 0;
+		MailboxStore store = folder != null ? folder.getStore() : null;
+		MailboxStore.beginChange(store);
+		try {
+			if (journal != null) {
+				seq = folder.changeFlags(journal, this, change, flag, set);
+			} else {
+				change.apply(store);
+			}
+		} finally {
+			MailboxStore.endChange(store);
 		}
+		sync(journal, seq);
 	}
 
-	public void removeFlag(String flag) {
-		Assert.isNotEmpty(flag, "flag");
-		synchronized (flags) {
-			flags.remove(flag);
+	/**
+	 * Change of the flags of a message.
+	 */
+	@FunctionalInterface
+	interface FlagChange {
+
+		/**
+		 * Apply the change.
+		 *
+		 * @param store Store of the message, or {@code null}.
+		 * @return {@code true} if the flags have been changed,
+		 * {@code false} otherwise.
+		 */
+		boolean apply(MailboxStore store);
+
+	}
+
+	private static void sync(StoreJournal journal, long seq) {
+		if (journal != null && seq > 0) {
+			journal.sync(seq);
 		}
 	}
 
+	/**
+	 * Get the system flags (one bit per flag).
+	 */
+	int getSystemFlags() {
+		return systemFlags;
+	}
+
+	/**
+	 * Get the IDs of all keywords (in ascending order). The array must not
+	 * be modified.
+	 */
+	int[] getKeywords() {
+		return keywords;
+	}
+
+	private static int[] addKeyword(int[] keywords, int id) {
+		int pos = Arrays.binarySearch(keywords, id);
+		if (pos >= 0) {
+			return keywords; // already set
+		}
+		pos = -pos - 1;
+		int[] result = new int[keywords.length + 1];
+		System.arraycopy(keywords, 0, result, 0, pos);
+		result[pos] = id;
+		System.arraycopy(keywords, pos, result, pos + 1, keywords.length - pos);
+		return result;
+	}
+
+	private static int[] removeKeyword(int[] keywords, int id) {
+		int pos = Arrays.binarySearch(keywords, id);
+		if (pos < 0) {
+			return keywords; // not set
+		}
+		int[] result = new int[keywords.length - 1];
+		System.arraycopy(keywords, 0, result, 0, pos);
+		System.arraycopy(keywords, pos + 1, result, pos, keywords.length - pos - 1);
+		return result;
+	}
+
 	// special methods to get/set flags ------------------------------------
 
 	public boolean isSeen() {
-		return hasFlag(FLAG_SEEN);
+		return hasSystemFlag(FlagDictionary.SEEN);
 	}
 
 	public void setSeen(boolean seen) {
-		if (seen) {
-			setFlag(FLAG_SEEN);
-		} else {
-			removeFlag(FLAG_SEEN);
-		}
+		updateSystemFlag(FlagDictionary.SEEN, seen);
 	}
 
 	public boolean isAnswered() {
-		return hasFlag(FLAG_ANSWERED);
+		return hasSystemFlag(FlagDictionary.ANSWERED);
 	}
 
 	public void setAnswered(boolean answered) {
-		if (answered) {
-			setFlag(FLAG_ANSWERED);
-		} else {
-			removeFlag(FLAG_ANSWERED);
-		}
+		updateSystemFlag(FlagDictionary.ANSWERED, answered);
 	}
 
 	public boolean isFlagged() {
-		return hasFlag(FLAG_FLAGGED);
+		return hasSystemFlag(FlagDictionary.FLAGGED);
 	}
 
 	public void setFlagged(boolean flagged) {
-		if (flagged) {
-			setFlag(FLAG_FLAGGED);
-		} else {
-			removeFlag(FLAG_FLAGGED);
-		}
+		updateSystemFlag(FlagDictionary.FLAGGED, flagged);
 	}
 
 	public boolean isDeleted() {
-		return hasFlag(FLAG_DELETED);
+		return hasSystemFlag(FlagDictionary.DELETED);
 	}
 
 	public void setDeleted(boolean deleted) {
-		if (deleted) {
-			setFlag(FLAG_DELETED);
-		} else {
-			removeFlag(FLAG_DELETED);
-		}
+		updateSystemFlag(FlagDictionary.DELETED, deleted);
 	}
 
 	public boolean isDraft() {
-		return hasFlag(FLAG_DRAFT);
+		return hasSystemFlag(FlagDictionary.DRAFT);
 	}
 
 	public void setDraft(boolean draft) {
-		if (draft) {
-			setFlag(FLAG_DRAFT);
-		} else {
-			removeFlag(FLAG_DRAFT);
-		}
+		updateSystemFlag(FlagDictionary.DRAFT, draft);
 	}
 
 	public boolean isRecent() {
-		return hasFlag(FLAG_RECENT);
+		return hasSystemFlag(FlagDictionary.RECENT);
 	}
 
 	public void setRecent(boolean recent) {
-		if (recent) {
-			setFlag(FLAG_RECENT);
-		} else {
-			removeFlag(FLAG_RECENT);
-		}
+		updateSystemFlag(FlagDictionary.RECENT, recent);
 	}
 
 	/**
@@ -215,41 +549,72 @@ public class MailboxMessage {
 	 * @return The first n lines of the message.
 	 */
 	public String getTop(int n) {
+		return content.decode(0, getTopLength(n), charset);
+	}
 
-		// split message into lines
-		String[] lines = StringUtils.split(content, CRLF);
-
-		// add all headers
-		boolean headers = true;
-
-		StringBuilder buffer = new StringBuilder();
-		for (int i = 0; i < lines.length; i++) {
-
-			String line = lines[i];
+	/**
+	 * Get the first n lines of the message as read-only buffer, without
+	 * copying or encoding them. See {@link #getTop(int)}.
+	 *
+	 * @param n Number of lines.
+	 * @return Buffer with the first n lines of the message.
+	 */
+	public ByteBuffer getTopBuffer(int n) {
+		ByteBuffer buffer = content.buffer();
+		buffer.limit(getTopLength(n));
+		return buffer.slice();
+	}
 
-			if (headers) {
-				if (line.isEmpty()) {
-					// empty line found -> end of headers
-					headers = false;
-					if (n == 0) {
-						// no lines requested -> return only headers
-						break;
-					}
-				}
-			} else {
-				// countdown of body lines
-				if (n-- <= 0) {
-					break;
-				}
+	/**
+	 * Get the value of the first header field with the given name.
+	 * Field names are case-insensitive. Folded lines are unfolded.
+	 *
+	 * @param name Field name.
+	 * @return Field value, or {@code null} if the message does not have a
+	 * field with the given name.
+	 */
+	public String getHeader(String name) {
+		Assert.isNotEmpty(name, "name");
+		MessageIndex index = getIndex();
+		for (int field = 0; field < index.getFieldCount(); field++) {
+			if (isFieldName(index, field, name)) {
+				int start = index.getFieldValueStart(field);
+				int end = index.getFieldValueEnd(field);
+				String value = content.decode(start, end - start, charset);
+				return value.replace("\r\n", ""); // unfold
 			}
+		}
+		return null;
+	}
 
-			if (i > 0) {
-				buffer.append(CRLF);
+	private boolean isFieldName(MessageIndex index, int field, String name) {
+		int start = index.getFieldNameStart(field);
+		int end = index.getFieldNameEnd(field);
+		if (end - start != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char chr1 = (char) (content.get(start + i) & 0xFF);
+			char chr2 = name.charAt(i);
+			if (chr1 != chr2 && Character.toLowerCase(chr1) != Character.toLowerCase(chr2)) {
+				return false;
 			}
-			buffer.append(line);
 		}
+		return true;
+	}
 
-		return buffer.toString();
+	private int getTopLength(int n) {
+		return getIndex().getTopLength(n);
+	}
+
+	/**
+	 * Get the index of lines and header fields. The index is shared by all
+	 * messages with the same content (see {@link MessageContent#getIndex()}).
+	 *
+	 * @return Message index.
+	 */
+	MessageIndex getIndex() {
+		return content.getIndex();
 	}
 
 }
@@ -15,40 +15,344 @@
 package net.markwalder.vtestmail.store;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import net.markwalder.vtestmail.utils.Assert;
 import net.markwalder.vtestmail.utils.StringUtils;
 
 public class MailboxStore implements MailboxProvider {
 
-	private final Map<String, Mailbox> mailboxes = new TreeMap<>(StringUtils.CASE_INSENSITIVE_ORDER);
+	/**
+	 * Default maximum number of keywords which can be added by clients.
+	 */
+	public static final int DEFAULT_MAX_KEYWORDS = 10000;
 
-	public List<String> getUsernames() {
+	/**
+	 * Pool for message content shared by all mailboxes. Identical content
+	 * (for example, a message delivered to multiple recipients) is only
+	 * kept once.
+	 */
+	private final ContentPool contentPool;
+
+	/**
+	 * Journal which records all mutations of this store, or {@code null}.
+	 */
+	private volatile StoreJournal journal = null;
+
+	/**
+	 * Number of snapshots captured so far. Used as sequence number of
+	 * snapshots.
+	 */
+	private final AtomicLong snapshotCount = new AtomicLong();
+
+	/**
+	 * Value of {@link #snapshotCount} at the end of the last change of this
+	 * store. Only updated by the first change after a snapshot has been
+	 * captured, so that concurrent changes do not write to the same field.
+	 */
+	private final AtomicLong lastChange = new AtomicLong();
+
+	/**
+	 * Snapshots which have not been released yet. Updated while holding the
+	 * lock on this list, together with {@link #snapshotsOpen}.
+	 */
+	private final List<StoreSnapshot> snapshots = new CopyOnWriteArrayList<>();
+
+	/**
+	 * {@code true} if at least one snapshot has not been released yet.
+	 * Checked by every change of message flags before the old flags are
+	 * preserved.
+	 */
+	private volatile boolean snapshotsOpen = false;
+
+	/**
+	 * Mailboxes by username (case-insensitive order). Read without locking.
+	 * Updates are made while holding the lock on this map, so that the
+	 * email index is updated consistently.
+	 */
+	private final Map<String, Mailbox> mailboxes = new ConcurrentSkipListMap<>(StringUtils.CASE_INSENSITIVE_ORDER);
+
+	/**
+	 * Index of mailboxes by normalized email address (see
+	 * {@link #normalizeEmail(String)}). Only updated while holding the lock
+	 * on {@link #mailboxes}, but read without locking.
+	 */
+	private final Map<String, Mailbox> emails = new ConcurrentHashMap<>();
+
+	/**
+	 * All mailboxes by normalized email address, ordered by username
+	 * (case-insensitive). Used to find the next mailbox for an email address
+	 * if a mailbox is removed. Only accessed while holding the lock on
+	 * {@link #mailboxes}.
+	 */
+	private final Map<String, NavigableMap<String, Mailbox>> emailCandidates = new HashMap<>();
+
+	/**
+	 * Maximum number of keywords which can be added by clients.
+	 */
+	private volatile int maxKeywords = DEFAULT_MAX_KEYWORDS;
+
+	/**
+	 * Keywords which have been added by clients. Only updated while holding
+	 * the lock on this set, but read without locking.
+	 */
+	private final Set<String> clientKeywords = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create a mailbox store which keeps all message content on the heap.
+	 */
+	public MailboxStore() {
+		this(null);
+	}
+
+	/**
+	 * Create a mailbox store which keeps the content of new messages in the
+	 * given blob store. Only message metadata is kept on the heap. The blob
+	 * store must be closed by the caller when the mailbox store is no longer
+	 * used. The space of removed messages in the blob store is never
+	 * reclaimed (see {@link BlobStore}).
+	 *
+	 * @param blobStore Blob store, or {@code null} to keep message content
+	 *                  on the heap.
+	 */
+	public MailboxStore(BlobStore blobStore) {
+		this.contentPool = new ContentPool(blobStore);
+	}
+
+	public BlobStore getBlobStore() {
+		return contentPool.getBlobStore();
+	}
+
+	ContentPool getContentPool() {
+		return contentPool;
+	}
+
+	StoreJournal getJournal() {
+		return journal;
+	}
+
+	void setJournal(StoreJournal journal) {
+		this.journal = journal;
+	}
+
+	// keywords ------------------------------------------------------------
+
+	public int getMaxKeywords() {
+		return maxKeywords;
+	}
+
+	/**
+	 * Set the maximum number of keywords which can be added by clients of
+	 * this store (for example with IMAP STORE). Keywords which have already
+	 * been added can still be used if the limit is lowered.
+	 *
+	 * @param maxKeywords Maximum number of keywords.
+	 */
+	public void setMaxKeywords(int maxKeywords) {
+		Assert.isInRange(maxKeywords, 0, Integer.MAX_VALUE, "maxKeywords");
+		this.maxKeywords = maxKeywords;
+	}
+
+	/**
+	 * Get the number of keywords which have been added by clients.
+	 *
+	 * @return Number of keywords.
+	 */
+	public int getKeywordCount() {
+		return clientKeywords.size();
+	}
+
+	/**
+	 * Get the interned instance of the given flag name received from a
+	 * client. If the flag is a keyword which has not been added by a client
+	 * of this store yet, the limits for the length of flag names and for the
+	 * number of keywords are enforced.
+	 *
+	 * @param flag Flag name.
+	 * @return Interned flag name.
+	 * @throws IllegalArgumentException if the flag is new and longer than {@link FlagDictionary#MAX_FLAG_LENGTH}.
+	 * @throws IllegalStateException    if the flag is new and the maximum number of keywords has been reached.
+	 */
+	public String internClientFlag(String flag) {
+		Assert.isNotEmpty(flag, "flag");
+		if (FlagDictionary.isSystemFlag(FlagDictionary.findId(flag)) || clientKeywords.contains(flag)) {
+			return FlagDictionary.intern(flag);
+		}
+		if (flag.length() > FlagDictionary.MAX_FLAG_LENGTH) {
+			throw new IllegalArgumentException("Flag too long (max. " + FlagDictionary.MAX_FLAG_LENGTH + " characters)");
+		}
+		synchronized (clientKeywords) {
+			if (!clientKeywords.contains(flag)) {
+				if (clientKeywords.size() >= maxKeywords) {
+					throw new IllegalStateException("Too many keywords (max. " + maxKeywords + ")");
+				}
+				clientKeywords.add(FlagDictionary.intern(flag));
+			}
+		}
+		return FlagDictionary.intern(flag);
+	}
+
+	// snapshots -----------------------------------------------------------
+
+	/**
+	 * Begin a change of the given store, or of one of its mailboxes, folders,
+	 * or messages. Must be followed by {@link #endChange(MailboxStore)}.
+	 *
+	 * @param store Store, or {@code null} if the changed object has not
+	 *              been added to a store.
+	 * @throws IllegalStateException If the journal of the store has failed.
+	 */
+	static void beginChange(MailboxStore store) {
+		if (store != null) {
+			StoreJournal journal = store.journal;
+			if (journal != null) {
+				journal.checkNotFailed();
+			}
+		}
+	}
+
+	static void endChange(MailboxStore store) {
+		if (store != null) {
+			// note: read after the change, so that a change which is not
+			// contained in a snapshot is always marked with its number
+			long count = store.snapshotCount.get();
+			if (store.lastChange.get() < count) {
+				store.lastChange.accumulateAndGet(count, Math::max);
+			}
+		}
+	}
+
+	/**
+	 * Check if the given store has snapshots which have not been released
+	 * yet. Changes must then preserve the current flags of messages with
+	 * {@link #preserveFlags(MailboxStore, MailboxMessage)}.
+	 *
+	 * @param store Store, or {@code null}.
+	 * @return {@code true} if flags must be preserved.
+	 */
+	static boolean hasSnapshots(MailboxStore store) {
+		return store != null && store.snapshotsOpen;
+	}
+
+	/**
+	 * Preserve the current flags of the given message in all snapshots
+	 * which have not been released yet. Must be called during a change,
+	 * before the flags are changed or the message is removed.
+	 *
+	 * @param store   Store, or {@code null}.
+	 * @param message Message.
+	 */
+	static void preserveFlags(MailboxStore store, MailboxMessage message) {
+		if (hasSnapshots(store)) {
+			for (StoreSnapshot snapshot : store.snapshots) {
+				snapshot.preserveFlags(message);
+			}
+		}
+	}
+
+	static void preserveFlags(MailboxStore store, MailboxFolder folder) {
+		if (hasSnapshots(store)) {
+			for (MailboxMessage message : folder.getMessages()) {
+				preserveFlags(store, message);
+			}
+		}
+	}
+
+	private void preserveFlags(Mailbox mailbox) {
+		if (snapshotsOpen) {
+			for (String name : mailbox.getFolderNames()) {
+				MailboxFolder folder = mailbox.getFolder(name);
+				if (folder != null) {
+					preserveFlags(this, folder);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Capture a snapshot of this store. Changes are not blocked: every folder
+	 * is captured while holding its own lock, so the time a folder is locked
+	 * does not depend on the number of messages. Every folder is consistent,
+	 * but changes made concurrently to different folders (or to the flags
+	 * of messages) may be partially contained in the snapshot. The snapshot
+	 * must be released with {@link StoreSnapshot#close()}.
+	 *
+	 * @return Snapshot.
+	 */
+	StoreSnapshot captureSnapshot() {
+		StoreSnapshot snapshot = new StoreSnapshot(this, snapshotCount.incrementAndGet());
+
+		// register the snapshot first, so that flags are preserved
+		// before they are changed in folders which have been captured
+		synchronized (snapshots) {
+			snapshots.add(snapshot);
+			snapshotsOpen = true;
+		}
+
+		List<Mailbox> list;
 		synchronized (mailboxes) {
-			return new ArrayList<>(mailboxes.keySet());
+			list = new ArrayList<>(mailboxes.values());
+		}
+		for (Mailbox mailbox : list) {
+			snapshot.addMailbox(mailbox);
+		}
+		return snapshot;
+	}
+
+	void releaseSnapshot(StoreSnapshot snapshot) {
+		synchronized (snapshots) {
+			snapshots.remove(snapshot);
+			snapshotsOpen = !snapshots.isEmpty();
 		}
 	}
 
+	/**
+	 * Check if this store has been changed since the given snapshot has
+	 * been captured. Changes made while the snapshot has been captured are
+	 * also reported, even if they are contained in the snapshot.
+	 *
+	 * @param snapshotNumber Number of the snapshot (see
+	 *                       {@link StoreSnapshot#getNumber()}). The store is
+	 *                       always reported as changed for 0.
+	 * @return {@code true} if the store has been changed.
+	 */
+	boolean isChangedSince(long snapshotNumber) {
+		return lastChange.get() >= snapshotNumber;
+	}
+
+	// mailboxes -----------------------------------------------------------
+
+	public List<String> getUsernames() {
+		return new ArrayList<>(mailboxes.keySet());
+	}
+
 	@Override
 	public Mailbox getMailbox(String username) {
 		Assert.isNotEmpty(username, "username");
-		synchronized (mailboxes) {
-			return mailboxes.get(username);
-		}
+		return mailboxes.get(username);
 	}
 
+	/**
+	 * Find the mailbox for the given email address. The local part of the
+	 * address is case-sensitive, the domain is case-insensitive (RFC 5321).
+	 * If multiple mailboxes have the same email address, the mailbox with
+	 * the first username (in case-insensitive order) is returned.
+	 *
+	 * @param email Email address.
+	 * @return Mailbox, or {@code null} if no mailbox has been found.
+	 */
 	public Mailbox findMailbox(String email) {
 		Assert.isNotEmpty(email, "email");
-		synchronized (mailboxes) {
-			for (Mailbox mailbox : mailboxes.values()) {
-				if (mailbox.getEmail().equals(email)) {
-					return mailbox;
-				}
-			}
-			return null;
-		}
+		return emails.get(normalizeEmail(email));
 	}
 
 	public Mailbox createMailbox(String username, String secret, String email) {
@@ -63,16 +367,95 @@ public class MailboxStore implements MailboxProvider {
 
 	void addMailbox(Mailbox mailbox) {
 		Assert.isNotNull(mailbox, "mailbox");
-		synchronized (mailboxes) {
-			mailboxes.put(mailbox.getUsername(), mailbox);
+		mailbox.setStore(this);
+		StoreJournal journal = this.journal;
+		long seq = 0;
+		beginChange(this);
+		try {
+			synchronized (mailboxes) {
+				Mailbox oldMailbox = mailboxes.put(mailbox.getUsername(), mailbox);
+				if (oldMailbox != null) {
+					preserveFlags(oldMailbox);
+					oldMailbox.setStore(null);
+					removeEmail(oldMailbox);
+				}
+				addEmail(mailbox);
+				if (journal != null) {
+					seq = journal.createMailbox(mailbox);
+				}
+			}
+		} finally {
+			endChange(this);
+		}
+		if (journal != null) {
+			journal.sync(seq);
 		}
 	}
 
 	public void deleteMailbox(String username) {
 		Assert.isNotEmpty(username, "username");
-		synchronized (mailboxes) {
-			mailboxes.remove(username);
+		StoreJournal journal = this.journal;
+		long seq = 0;
+		beginChange(this);
+		try {
+			synchronized (mailboxes) {
+				Mailbox mailbox = mailboxes.remove(username);
+				if (mailbox == null) {
+					return;
+				}
+				preserveFlags(mailbox);
+				mailbox.setStore(null);
+				removeEmail(mailbox);
+				if (journal != null) {
+					seq = journal.deleteMailbox(mailbox);
+				}
+			}
+		} finally {
+			endChange(this);
+		}
+		if (journal != null) {
+			journal.sync(seq);
+		}
+	}
+
+	private void addEmail(Mailbox mailbox) {
+		String key = normalizeEmail(mailbox.getEmail());
+		NavigableMap<String, Mailbox> candidates = emailCandidates.computeIfAbsent(key, k -> new TreeMap<>(StringUtils.CASE_INSENSITIVE_ORDER));
+		candidates.put(mailbox.getUsername(), mailbox);
+		emails.put(key, candidates.firstEntry().getValue());
+	}
+
+	private void removeEmail(Mailbox mailbox) {
+		String key = normalizeEmail(mailbox.getEmail());
+		NavigableMap<String, Mailbox> candidates = emailCandidates.get(key);
+		if (candidates == null || !candidates.remove(mailbox.getUsername(), mailbox)) {
+			return;
+		}
+
+		// map email address to next mailbox with the same email address
+		if (candidates.isEmpty()) {
+			emailCandidates.remove(key);
+			emails.remove(key);
+		} else {
+			emails.put(key, candidates.firstEntry().getValue());
+		}
+	}
+
+	/**
+	 * Normalize an email address for lookups. The local part is kept as is,
+	 * since it may be case-sensitive. The domain is converted to lower case,
+	 * since domain names are case-insensitive (RFC 5321, section 2.4).
+	 *
+	 * @param email Email address.
+	 * @return Normalized email address.
+	 */
+	static String normalizeEmail(String email) {
+		int pos = email.lastIndexOf('@');
+		if (pos < 0) {
+			return email;
 		}
+		String domain = email.substring(pos + 1);
+		return email.substring(0, pos + 1) + domain.toLowerCase(Locale.ROOT);
 	}
 
 }
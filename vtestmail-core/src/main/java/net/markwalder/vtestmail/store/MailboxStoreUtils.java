@@ -12,22 +12,41 @@
  * limitations under the License.
  */
 
+
 package net.markwalder.vtestmail.store;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.markwalder.vtestmail.utils.Assert;
 import net.markwalder.vtestmail.utils.XMLUtils;
+import net.markwalder.vtestmail.utils.XMLWriter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 /**
  * Utility class to load and store mailboxes from/to XML streams.
+ * <p>
+ * XML streams are read and written sequentially, so that memory use does
+ * not depend on the size of the mailbox store. The output is identical to
+ * the output of a DOM serializer.
  */
 public class MailboxStoreUtils {
 
+	private static final String SCHEMA_LOCATION = "https://smarkwal.github.io/vtestmail/xsd/mailbox-store-1.0.0.xsd";
+
 	private MailboxStoreUtils() {
 		// utility class
 	}
@@ -40,10 +59,235 @@ public class MailboxStoreUtils {
 	 * @throws IOException if an I/O or XML error occurs
 	 */
 	public static MailboxStore load(InputStream xmlStream) throws IOException {
+		MailboxStore store = new MailboxStore();
+		load(xmlStream, store);
+		return store;
+	}
 
-		Document document = XMLUtils.readDocument(xmlStream);
+	/**
+	 * Deserialize mailboxes from the given XML stream into the given store.
+	 * Use this method to load mailboxes into a store which keeps message
+	 * content in a {@link BlobStore}.
+	 *
+	 * @param xmlStream XML stream
+	 * @param store     Mailbox store
+	 * @throws IOException if an I/O or XML error occurs
+	 */
+	public static void load(InputStream xmlStream, MailboxStore store) throws IOException {
+		Assert.isNotNull(xmlStream, "xmlStream");
+		Assert.isNotNull(store, "store");
+
+		XMLStreamReader reader = XMLUtils.createStreamReader(xmlStream);
+		try {
+
+			Mailbox mailbox = null;
+			MailboxFolder folder = null;
+			int uid = 0;
+			List<String> flags = new ArrayList<>();
+			String content = null;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					switch (reader.getLocalName()) {
+						case "mailbox": {
+							String username = getAttribute(reader, "username");
+							String email = getAttribute(reader, "email");
+							String secret = getAttribute(reader, "secret");
+							mailbox = new Mailbox(username, secret, email);
+							store.addMailbox(mailbox);
+							break;
+						}
+						case "folder": {
+							String name = getAttribute(reader, "name");
+							int uidNext = Integer.parseInt(getAttribute(reader, "uidNext"));
+							int uidValidity = Integer.parseInt(getAttribute(reader, "uidValidity"));
+							folder = new MailboxFolder(name, uidNext, uidValidity);
+							mailbox.addFolder(folder);
+							break;
+						}
+						case "message": {
+							uid = Integer.parseInt(getAttribute(reader, "uid"));
+							flags.clear();
+							content = null;
+							break;
+						}
+						case "flag": {
+							flags.add(reader.getElementText());
+							break;
+						}
+						case "content": {
+							content = unescapeContent(reader.getElementText());
+							break;
+						}
+						default:
+							// ignore unknown elements
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("message")) {
+					MailboxMessage message = new MailboxMessage(uid, content, store.getContentPool());
+					folder.addMessage(message);
+					for (String flag : flags) {
+						message.setFlag(flag);
+					}
+				}
+			}
+
+		} catch (XMLStreamException e) {
+			throw new IOException("XML I/O error", e);
+		} finally {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value != null ? value : ""; // same as DOM for missing attributes
+	}
+
+	/**
+	 * Deserialize mailboxes from the given XML stream, decoding messages in
+	 * the common fork/join pool.
+	 *
+	 * @param xmlStream XML stream
+	 * @return Mailbox store
+	 * @throws IOException if an I/O or XML error occurs
+	 * @see #loadParallel(InputStream, ForkJoinPool)
+	 */
+	public static MailboxStore loadParallel(InputStream xmlStream) throws IOException {
+		return loadParallel(xmlStream, ForkJoinPool.commonPool());
+	}
 
+	/**
+	 * Deserialize mailboxes from the given XML stream, decoding messages in
+	 * the given fork/join pool.
+	 * <p>
+	 * The XML stream is parsed on the calling thread and split into one chunk
+	 * per mailbox. The messages of every chunk are decoded and created by
+	 * tasks in the given pool. Mailboxes are added to the store in the same
+	 * order as in the XML stream, so the result is the same as with
+	 * {@link #load(InputStream)}.
+	 *
+	 * @param xmlStream XML stream
+	 * @param pool      Fork/join pool
+	 * @return Mailbox store
+	 * @throws IOException if an I/O or XML error occurs
+	 */
+	public static MailboxStore loadParallel(InputStream xmlStream, ForkJoinPool pool) throws IOException {
+		Assert.isNotNull(pool, "pool");
 		MailboxStore store = new MailboxStore();
+		loadParallel(xmlStream, store, pool);
+		return store;
+	}
+
+	/**
+	 * Deserialize mailboxes from the given XML stream into the given store,
+	 * decoding messages in the given fork/join pool.
+	 *
+	 * @param xmlStream XML stream
+	 * @param store     Mailbox store
+	 * @param pool      Fork/join pool
+	 * @throws IOException if an I/O or XML error occurs
+	 * @see #loadParallel(InputStream, ForkJoinPool)
+	 */
+	public static void loadParallel(InputStream xmlStream, MailboxStore store, ForkJoinPool pool) throws IOException {
+		Assert.isNotNull(xmlStream, "xmlStream");
+		Assert.isNotNull(store, "store");
+		Assert.isNotNull(pool, "pool");
+
+		// limit number of mailbox chunks held in memory
+		int maxPending = pool.getParallelism() * 2;
+		Deque<ForkJoinTask<Mailbox>> pending = new ArrayDeque<>();
+
+		XMLStreamReader reader = XMLUtils.createStreamReader(xmlStream);
+		try {
+
+			MailboxChunk mailbox = null;
+			FolderChunk folder = null;
+			MessageChunk message = null;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					switch (reader.getLocalName()) {
+						case "mailbox": {
+							String username = getAttribute(reader, "username");
+							String email = getAttribute(reader, "email");
+							String secret = getAttribute(reader, "secret");
+							mailbox = new MailboxChunk(username, secret, email);
+							break;
+						}
+						case "folder": {
+							String name = getAttribute(reader, "name");
+							int uidNext = Integer.parseInt(getAttribute(reader, "uidNext"));
+							int uidValidity = Integer.parseInt(getAttribute(reader, "uidValidity"));
+							folder = new FolderChunk(name, uidNext, uidValidity);
+							mailbox.folders.add(folder);
+							break;
+						}
+						case "message": {
+							int uid = Integer.parseInt(getAttribute(reader, "uid"));
+							message = new MessageChunk(uid);
+							folder.messages.add(message);
+							break;
+						}
+						case "flag": {
+							message.flags.add(reader.getElementText());
+							break;
+						}
+						case "content": {
+							message.content = reader.getElementText(); // unescaped by task
+							break;
+						}
+						default:
+							// ignore unknown elements
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("mailbox")) {
+					pending.add(pool.submit(new MailboxTask(mailbox, store.getContentPool())));
+					mailbox = null;
+					folder = null;
+					message = null;
+
+					// add completed mailboxes to store (in document order)
+					while (!pending.isEmpty() && (pending.size() > maxPending || pending.peek().isDone())) {
+						store.addMailbox(pending.remove().join());
+					}
+				}
+			}
+
+			// add remaining mailboxes to store
+			while (!pending.isEmpty()) {
+				store.addMailbox(pending.remove().join());
+			}
+
+		} catch (XMLStreamException e) {
+			throw new IOException("XML I/O error", e);
+		} finally {
+			for (ForkJoinTask<Mailbox> task : pending) {
+				task.cancel(false);
+			}
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Deserialize mailboxes from the given XML stream into the given store,
+	 * using a DOM parser. The complete XML document is kept in memory.
+	 *
+	 * @param xmlStream XML stream
+	 * @param store     Mailbox store
+	 * @throws IOException if an I/O or XML error occurs
+	 */
+	static void loadDocument(InputStream xmlStream, MailboxStore store) throws IOException {
+
+		Document document = XMLUtils.readDocument(xmlStream);
 
 		NodeList mailboxElements = document.getElementsByTagName("mailbox");
 		for (int i = 0; i < mailboxElements.getLength(); i++) {
@@ -74,7 +318,7 @@ public class MailboxStoreUtils {
 					Element contentElement = (Element) messageElement.getElementsByTagName("content").item(0);
 					String content = unescapeContent(contentElement.getTextContent());
 
-					MailboxMessage message = new MailboxMessage(uid, content);
+					MailboxMessage message = new MailboxMessage(uid, content, store.getContentPool());
 					folder.addMessage(message);
 
 					NodeList flagElements = messageElement.getElementsByTagName("flag");
@@ -88,11 +332,13 @@ public class MailboxStoreUtils {
 			}
 		}
 
-		return store;
 	}
 
 	/**
 	 * Serialize the given mailbox store to the given XML stream.
+	 * Changes made to the store while it is serialized may be partially
+	 * contained in the result. Use {@link StoreSnapshotter} to write a
+	 * consistent snapshot of a store which is in use.
 	 *
 	 * @param store     Mailbox store
 	 * @param xmlStream XML stream
@@ -100,29 +346,99 @@ public class MailboxStoreUtils {
 	 */
 	public static void store(MailboxStore store, OutputStream xmlStream) throws IOException {
 
+		XMLWriter writer = new XMLWriter(xmlStream);
+
+		// note: attributes are written in alphabetical order (like DOM)
+		writer.startElement("store");
+		writer.attribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+		writer.attribute("xsi:noNamespaceSchemaLocation", SCHEMA_LOCATION);
+
+		List<String> usernames = store.getUsernames();
+		for (String username : usernames) {
+			Mailbox mailbox = store.getMailbox(username);
+			if (mailbox == null) {
+				continue; // mailbox has been deleted in the meantime
+			}
+
+			writer.startElement("mailbox");
+			writer.attribute("email", mailbox.getEmail());
+			writer.attribute("secret", mailbox.getSecret());
+			writer.attribute("username", mailbox.getUsername());
+
+			List<String> folderNames = mailbox.getFolderNames();
+			for (String folderName : folderNames) {
+				MailboxFolder folder = mailbox.getFolder(folderName);
+				if (folder == null) {
+					continue; // folder has been renamed or deleted in the meantime
+				}
+
+				writer.startElement("folder");
+				writer.attribute("name", folder.getName());
+				writer.attribute("uidNext", String.valueOf(folder.getUIDNext()));
+				writer.attribute("uidValidity", String.valueOf(folder.getUIDValidity()));
+
+				List<MailboxMessage> messages = folder.getMessages();
+				for (MailboxMessage message : messages) {
+					writer.startElement("message");
+					writer.attribute("uid", String.valueOf(message.getUID()));
+					for (String flag : message.getFlags()) {
+						writer.textElement("flag", flag);
+					}
+					writer.textElement("content", escapeContent(message.getContent()));
+					writer.endElement();
+				}
+
+				writer.endElement();
+			}
+
+			writer.endElement();
+		}
+
+		writer.endElement();
+		writer.flush();
+	}
+
+	/**
+	 * Serialize the given mailbox store to the given XML stream, using a DOM
+	 * serializer. The complete XML document is kept in memory.
+	 *
+	 * @param store     Mailbox store
+	 * @param xmlStream XML stream
+	 * @throws IOException if an I/O or XML error occurs
+	 */
+	static void storeDocument(MailboxStore store, OutputStream xmlStream) throws IOException {
+
 		Document document = XMLUtils.createDocument();
 
 		Element storeElement = document.createElement("store");
 		document.appendChild(storeElement);
 		storeElement.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-		storeElement.setAttribute("xsi:noNamespaceSchemaLocation", "https://smarkwal.github.io/vtestmail/xsd/mailbox-store-1.0.0.xsd");
+		storeElement.setAttribute("xsi:noNamespaceSchemaLocation", SCHEMA_LOCATION);
 
 		List<String> usernames = store.getUsernames();
 		for (String username : usernames) {
+			Mailbox mailbox = store.getMailbox(username);
+			if (mailbox == null) {
+				continue; // mailbox has been deleted in the meantime
+			}
+
 			Element mailboxElement = document.createElement("mailbox");
 			storeElement.appendChild(mailboxElement);
 
-			Mailbox mailbox = store.getMailbox(username);
 			mailboxElement.setAttribute("username", mailbox.getUsername());
 			mailboxElement.setAttribute("secret", mailbox.getSecret());
 			mailboxElement.setAttribute("email", mailbox.getEmail());
 
 			List<String> folderNames = mailbox.getFolderNames();
 			for (String folderName : folderNames) {
+				MailboxFolder folder = mailbox.getFolder(folderName);
+				if (folder == null) {
+					continue; // folder has been renamed or deleted in the meantime
+				}
+
 				Element folderElement = document.createElement("folder");
 				mailboxElement.appendChild(folderElement);
 
-				MailboxFolder folder = mailbox.getFolder(folderName);
 				folderElement.setAttribute("name", folder.getName());
 				folderElement.setAttribute("uidNext", String.valueOf(folder.getUIDNext()));
 				folderElement.setAttribute("uidValidity", String.valueOf(folder.getUIDValidity()));
@@ -154,19 +470,203 @@ public class MailboxStoreUtils {
 		XMLUtils.writeDocument(document, xmlStream);
 	}
 
-	private static String escapeContent(String content) {
+	/**
+	 * Replace line breaks with "[CRLF]", "[CR]", and "[LF]" in a single pass.
+	 */
+	static String escapeContent(String content) {
 		// TODO: handle escape sequences if they appear in original content
-		content = content.replace("\r\n", "[CRLF]");
-		content = content.replace("\r", "[CR]");
-		content = content.replace("\n", "[LF]");
-		return content;
+		int length = content.length();
+		StringBuilder result = null;
+		int start = 0; // start of characters not yet copied
+		for (int i = 0; i < length; i++) {
+			char chr = content.charAt(i);
+			if (chr != '\r' && chr != '\n') {
+				continue;
+			}
+			if (result == null) {
+				result = new StringBuilder(length + 64);
+			}
+			result.append(content, start, i);
+			if (chr == '\n') {
+				result.append("[LF]");
+			} else if (i + 1 < length && content.charAt(i + 1) == '\n') {
+				result.append("[CRLF]");
+				i++;
+			} else {
+				result.append("[CR]");
+			}
+			start = i + 1;
+		}
+		if (result == null) {
+			return content; // no line breaks
+		}
+		return result.append(content, start, length).toString();
+	}
+
+	/**
+	 * Replace "[CRLF]", "[CR]", and "[LF]" with line breaks in a single pass.
+	 */
+	static String unescapeContent(String content) {
+		int length = content.length();
+		StringBuilder result = null;
+		int start = 0; // start of characters not yet copied
+		for (int i = content.indexOf('['); i >= 0; i = content.indexOf('[', i + 1)) {
+			String replacement;
+			int end;
+			if (content.startsWith("[CRLF]", i)) {
+				replacement = "\r\n";
+				end = i + 6;
+			} else if (content.startsWith("[CR]", i)) {
+				replacement = "\r";
+				end = i + 4;
+			} else if (content.startsWith("[LF]", i)) {
+				replacement = "\n";
+				end = i + 4;
+			} else {
+				continue;
+			}
+			if (result == null) {
+				result = new StringBuilder(length);
+			}
+			result.append(content, start, i).append(replacement);
+			start = end;
+			i = end - 1;
+		}
+		if (result == null) {
+			return content; // no escape sequences
+		}
+		return result.append(content, start, length).toString();
 	}
 
-	private static String unescapeContent(String content) {
-		content = content.replace("[CRLF]", "\r\n");
-		content = content.replace("[CR]", "\r");
-		content = content.replace("[LF]", "\n");
-		return content;
+	// parallel loading -------------------------------------------------------
+
+	private static class MailboxChunk {
+
+		private final String username;
+		private final String secret;
+		private final String email;
+		private final List<FolderChunk> folders = new ArrayList<>();
+
+		private MailboxChunk(String username, String secret, String email) {
+			this.username = username;
+			this.secret = secret;
+			this.email = email;
+		}
+
+	}
+
+	private static class FolderChunk {
+
+		private final String name;
+		private final int uidNext;
+		private final int uidValidity;
+		private final List<MessageChunk> messages = new ArrayList<>();
+
+		private FolderChunk(String name, int uidNext, int uidValidity) {
+			this.name = name;
+			this.uidNext = uidNext;
+			this.uidValidity = uidValidity;
+		}
+
+	}
+
+	private static class MessageChunk {
+
+		private final int uid;
+		private final List<String> flags = new ArrayList<>(4);
+		private String content; // escaped
+
+		private MessageChunk(int uid) {
+			this.uid = uid;
+		}
+
+	}
+
+	/**
+	 * Creates a mailbox from a chunk. Messages of all folders are decoded in
+	 * parallel, and then added to their folders in the original order.
+	 */
+	private static class MailboxTask extends RecursiveTask<Mailbox> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient MailboxChunk chunk;
+		private final transient ContentPool contentPool;
+
+		private MailboxTask(MailboxChunk chunk, ContentPool contentPool) {
+			this.chunk = chunk;
+			this.contentPool = contentPool;
+		}
+
+		@Override
+		protected Mailbox compute() {
+
+			// decode messages
+			List<MessagesTask> tasks = new ArrayList<>(chunk.folders.size());
+			for (FolderChunk folder : chunk.folders) {
+				tasks.add(new MessagesTask(folder.messages, 0, folder.messages.size(), new MailboxMessage[folder.messages.size()], contentPool));
+			}
+			invokeAll(tasks);
+
+			Mailbox mailbox = new Mailbox(chunk.username, chunk.secret, chunk.email);
+			for (int i = 0; i < chunk.folders.size(); i++) {
+				FolderChunk folderChunk = chunk.folders.get(i);
+				MailboxFolder folder = new MailboxFolder(folderChunk.name, folderChunk.uidNext, folderChunk.uidValidity);
+				mailbox.addFolder(folder);
+				for (MailboxMessage message : tasks.get(i).result) {
+					folder.addMessage(message);
+				}
+			}
+			return mailbox;
+		}
+
+	}
+
+	/**
+	 * Decodes a range of messages. Large ranges are split in half.
+	 */
+	private static class MessagesTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final int THRESHOLD = 32; // messages per task
+
+		private final transient List<MessageChunk> messages;
+		private final int from;
+		private final int to;
+		private final transient MailboxMessage[] result;
+		private final transient ContentPool contentPool;
+
+		private MessagesTask(List<MessageChunk> messages, int from, int to, MailboxMessage[] result, ContentPool contentPool) {
+			this.messages = messages;
+			this.from = from;
+			this.to = to;
+			this.result = result;
+			this.contentPool = contentPool;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(
+						new MessagesTask(messages, from, middle, result, contentPool),
+						new MessagesTask(messages, middle, to, result, contentPool)
+				);
+				return;
+			}
+
+			for (int i = from; i < to; i++) {
+				MessageChunk chunk = messages.get(i);
+				String content = chunk.content != null ? unescapeContent(chunk.content) : null;
+				MailboxMessage message = new MailboxMessage(chunk.uid, content, contentPool);
+				for (String flag : chunk.flags) {
+					message.setFlag(flag);
+				}
+				result[i] = message;
+			}
+		}
+
 	}
 
 }
@@ -0,0 +1,638 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Utility class to import and export mailboxes from/to Maildir directories.
+ * <p>
+ * Every mailbox is stored in a Maildir++ directory: the INBOX in the
+ * directory itself, and every other folder in a subdirectory named after
+ * the folder with a leading dot (for example, ".Drafts"). Every folder has
+ * the subdirectories "cur", "new", and "tmp".
+ * <p>
+ * Message flags are encoded in the file names (for example,
+ * "1234.host:2,FS"):
+ * <ul>
+ *     <li>D = \Draft, F = \Flagged, P = $Forwarded, R = \Answered,
+ *     S = \Seen, T = \Deleted</li>
+ *     <li>a - z = keywords listed in the file "dovecot-keywords" of the folder</li>
+ * </ul>
+ * Messages in "new" are recent. UIDs, UID validity, and the next UID of a
+ * folder are kept in the file "dovecot-uidlist" (format version 3).
+ * Messages without an entry in this file get new UIDs in the order of their
+ * file names.
+ * <p>
+ * Maildir files use LF line endings, while message content uses CRLF line
+ * endings. Line endings are converted on import and export.
+ * <p>
+ * Folders are imported and exported in parallel, using a fork/join pool.
+ */
+public class MaildirUtils {
+
+	private static final String UIDLIST_FILE = "dovecot-uidlist";
+	private static final String KEYWORDS_FILE = "dovecot-keywords";
+
+	private static final String INFO_SEPARATOR = ":2,";
+
+	// system flags, in the order of their letters
+	private static final String SYSTEM_FLAG_LETTERS = "DFPRST";
+	private static final String[] SYSTEM_FLAGS = {
+			MailboxMessage.FLAG_DRAFT,
+			MailboxMessage.FLAG_FLAGGED,
+			MailboxMessage.KEYWORD_FORWARDED,
+			MailboxMessage.FLAG_ANSWERED,
+			MailboxMessage.FLAG_SEEN,
+			MailboxMessage.FLAG_DELETED
+	};
+
+	private static final int MAX_KEYWORDS = 26; // letters a - z
+
+	private MaildirUtils() {
+		// utility class
+	}
+
+	// import ------------------------------------------------------------------
+
+	/**
+	 * Import all mailboxes of the given store from Maildir directories.
+	 * The Maildir directory of a mailbox is the subdirectory of the given
+	 * directory with the username as name. Mailboxes without such a
+	 * subdirectory are not changed. Folders which already exist in a
+	 * mailbox are replaced.
+	 *
+	 * @param directory Directory with one Maildir directory per mailbox
+	 * @param store     Mailbox store
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void load(Path directory, MailboxStore store) throws IOException {
+		load(directory, store, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Import all mailboxes of the given store from Maildir directories,
+	 * reading folders in the given pool.
+	 *
+	 * @param directory Directory with one Maildir directory per mailbox
+	 * @param store     Mailbox store
+	 * @param pool      Fork/join pool
+	 * @throws IOException if an I/O error occurs
+	 * @see #load(Path, MailboxStore)
+	 */
+	public static void load(Path directory, MailboxStore store, ForkJoinPool pool) throws IOException {
+		Assert.isNotNull(directory, "directory");
+		Assert.isNotNull(store, "store");
+		Assert.isNotNull(pool, "pool");
+
+		List<Mailbox> mailboxes = new ArrayList<>();
+		List<Path> maildirs = new ArrayList<>();
+		for (String username : store.getUsernames()) {
+			Mailbox mailbox = store.getMailbox(username);
+			Path maildir = directory.resolve(checkName(username));
+			if (mailbox != null && Files.isDirectory(maildir)) {
+				mailboxes.add(mailbox);
+				maildirs.add(maildir);
+			}
+		}
+
+		load(maildirs, mailboxes, store.getContentPool(), pool);
+	}
+
+	/**
+	 * Import the folders of the given mailbox from a Maildir directory.
+	 * Folders which already exist in the mailbox are replaced.
+	 *
+	 * @param maildir Maildir directory
+	 * @param mailbox Mailbox
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void load(Path maildir, Mailbox mailbox) throws IOException {
+		Assert.isNotNull(maildir, "maildir");
+		Assert.isNotNull(mailbox, "mailbox");
+
+		MailboxStore store = mailbox.getStore();
+		ContentPool contentPool = store != null ? store.getContentPool() : null;
+		load(List.of(maildir), List.of(mailbox), contentPool, ForkJoinPool.commonPool());
+	}
+
+	private static void load(List<Path> maildirs, List<Mailbox> mailboxes, ContentPool contentPool, ForkJoinPool pool) throws IOException {
+
+		// read all folders in parallel
+		List<Future<MailboxFolder>> futures = new ArrayList<>();
+		List<Mailbox> targets = new ArrayList<>();
+		try {
+			for (int i = 0; i < maildirs.size(); i++) {
+				for (Map.Entry<String, Path> entry : findFolders(maildirs.get(i)).entrySet()) {
+					String name = entry.getKey();
+					Path folderDirectory = entry.getValue();
+					futures.add(pool.submit(() -> unchecked(() -> readFolder(name, folderDirectory, contentPool))));
+					targets.add(mailboxes.get(i));
+				}
+			}
+
+			// add folders to mailboxes (in order)
+			for (int i = 0; i < futures.size(); i++) {
+				MailboxFolder folder = join(futures.get(i));
+				Mailbox mailbox = targets.get(i);
+				if (mailbox.hasFolder(folder.getName())) {
+					mailbox.deleteFolder(folder.getName());
+				}
+				mailbox.addFolder(folder);
+			}
+		} finally {
+			for (Future<MailboxFolder> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Find all folders in the given Maildir directory.
+	 *
+	 * @return Folder directories by folder name (INBOX first)
+	 */
+	private static Map<String, Path> findFolders(Path maildir) throws IOException {
+		Map<String, Path> folders = new LinkedHashMap<>();
+		if (isFolder(maildir)) {
+			folders.put(Mailbox.INBOX, maildir);
+		}
+		List<Path> directories = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(maildir, ".?*")) {
+			for (Path directory : stream) {
+				String name = directory.getFileName().toString();
+				if (!name.equals("..") && isFolder(directory)) {
+					directories.add(directory);
+				}
+			}
+		}
+		directories.sort(Comparator.comparing(directory -> directory.getFileName().toString()));
+		for (Path directory : directories) {
+			folders.put(directory.getFileName().toString().substring(1), directory);
+		}
+		return folders;
+	}
+
+	private static boolean isFolder(Path directory) {
+		return Files.isDirectory(directory.resolve("cur")) || Files.isDirectory(directory.resolve("new"));
+	}
+
+	private static MailboxFolder readFolder(String name, Path directory, ContentPool contentPool) throws IOException {
+
+		UIDList uidList = readUIDList(directory.resolve(UIDLIST_FILE));
+		Map<Character, String> keywords = readKeywords(directory.resolve(KEYWORDS_FILE));
+
+		// find message files (ordered by file name)
+		List<Path> files = new ArrayList<>();
+		listFiles(directory.resolve("new"), files);
+		listFiles(directory.resolve("cur"), files);
+		files.sort(Comparator.comparing(file -> file.getFileName().toString()));
+
+		// get UIDs of known messages
+		int[] uids = new int[files.size()];
+		Set<Integer> usedUIDs = new HashSet<>();
+		int maxUID = 0;
+		for (int i = 0; i < files.size(); i++) {
+			String basename = getBasename(files.get(i).getFileName().toString());
+			Integer uid = uidList.uids.get(basename);
+			if (uid != null && usedUIDs.add(uid)) {
+				uids[i] = uid;
+				maxUID = Math.max(maxUID, uid);
+			}
+		}
+
+		// assign new UIDs to other messages
+		int uidNext = Math.max(uidList.uidNext, maxUID + 1);
+		for (int i = 0; i < files.size(); i++) {
+			if (uids[i] == 0) {
+				uids[i] = uidNext++;
+			}
+		}
+
+		// read messages
+		List<MailboxMessage> messages = new ArrayList<>(files.size());
+		for (int i = 0; i < files.size(); i++) {
+			Path file = files.get(i);
+			byte[] data = toCRLF(Files.readAllBytes(file));
+			MessageContent content = contentPool != null ? contentPool.acquire(data, StandardCharsets.ISO_8859_1) : MessageContent.of(data);
+			MailboxMessage message = new MailboxMessage(uids[i], content, StandardCharsets.ISO_8859_1);
+
+			// set flags
+			if (file.getParent().getFileName().toString().equals("new")) {
+				message.setFlag(MailboxMessage.FLAG_RECENT);
+			}
+			String fileName = file.getFileName().toString();
+			int pos = fileName.indexOf(INFO_SEPARATOR);
+			if (pos >= 0) {
+				for (int j = pos + INFO_SEPARATOR.length(); j < fileName.length(); j++) {
+					char letter = fileName.charAt(j);
+					int index = SYSTEM_FLAG_LETTERS.indexOf(letter);
+					String flag = index >= 0 ? SYSTEM_FLAGS[index] : keywords.get(letter);
+					if (flag != null) {
+						message.setFlag(flag);
+					}
+				}
+			}
+
+			messages.add(message);
+		}
+		messages.sort(Comparator.comparingInt(MailboxMessage::getUID));
+
+		MailboxFolder folder = new MailboxFolder(name, uidNext, uidList.uidValidity);
+		for (MailboxMessage message : messages) {
+			folder.addMessage(message);
+		}
+		return folder;
+	}
+
+	private static void listFiles(Path directory, List<Path> files) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				if (!file.getFileName().toString().startsWith(".") && Files.isRegularFile(file)) {
+					files.add(file);
+				}
+			}
+		}
+	}
+
+	private static String getBasename(String fileName) {
+		int pos = fileName.indexOf(':');
+		return pos >= 0 ? fileName.substring(0, pos) : fileName;
+	}
+
+	/**
+	 * Read a Dovecot UID list (version 3). Lines have the format
+	 * "uid [extensions] :basename".
+	 */
+	private static UIDList readUIDList(Path file) throws IOException {
+		UIDList uidList = new UIDList();
+		if (!Files.isRegularFile(file)) {
+			return uidList;
+		}
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		if (lines.isEmpty()) {
+			return uidList;
+		}
+
+		// header: version and fields
+		String[] header = lines.get(0).split(" ");
+		if (!header[0].equals("3")) {
+			throw new IOException("Unsupported UID list version: " + header[0] + " (" + file + ")");
+		}
+		for (int i = 1; i < header.length; i++) {
+			String field = header[i];
+			if (field.startsWith("V")) {
+				uidList.uidValidity = parseNumber(field.substring(1), file);
+			} else if (field.startsWith("N")) {
+				uidList.uidNext = parseNumber(field.substring(1), file);
+			}
+		}
+
+		for (int i = 1; i < lines.size(); i++) {
+			String line = lines.get(i);
+			int pos = line.indexOf(" :");
+			if (pos < 0) {
+				continue;
+			}
+			int end = line.indexOf(' ');
+			int uid = parseNumber(line.substring(0, end), file);
+			uidList.uids.put(line.substring(pos + 2), uid);
+		}
+
+		return uidList;
+	}
+
+	private static int parseNumber(String value, Path file) throws IOException {
+		try {
+			int number = Integer.parseInt(value);
+			if (number < 1) {
+				throw new NumberFormatException();
+			}
+			return number;
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number in UID list: " + value + " (" + file + ")", e);
+		}
+	}
+
+	/**
+	 * Read Dovecot keywords. Lines have the format "index keyword", where
+	 * index 0 is represented by letter "a" in file names.
+	 */
+	private static Map<Character, String> readKeywords(Path file) throws IOException {
+		Map<Character, String> keywords = new HashMap<>();
+		if (!Files.isRegularFile(file)) {
+			return keywords;
+		}
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] parts = line.trim().split(" ", 2);
+			if (parts.length < 2) {
+				continue;
+			}
+			try {
+				int index = Integer.parseInt(parts[0]);
+				if (index >= 0 && index < MAX_KEYWORDS) {
+					keywords.put((char) ('a' + index), parts[1]);
+				}
+			} catch (NumberFormatException e) {
+				// ignore invalid line
+			}
+		}
+		return keywords;
+	}
+
+	/**
+	 * Replace bare LF with CRLF.
+	 */
+	static byte[] toCRLF(byte[] data) {
+		int count = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == '\n' && (i == 0 || data[i - 1] != '\r')) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return data;
+		}
+		byte[] result = new byte[data.length + count];
+		int pos = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == '\n' && (i == 0 || data[i - 1] != '\r')) {
+				result[pos++] = '\r';
+			}
+			result[pos++] = data[i];
+		}
+		return result;
+	}
+
+	// export ------------------------------------------------------------------
+
+	/**
+	 * Export all mailboxes of the given store to Maildir directories.
+	 * The Maildir directory of a mailbox is created as subdirectory of the
+	 * given directory with the username as name. Existing files with the
+	 * same names are replaced, but other files are not deleted. The
+	 * directories should therefore be empty.
+	 *
+	 * @param store     Mailbox store
+	 * @param directory Directory for one Maildir directory per mailbox
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void store(MailboxStore store, Path directory) throws IOException {
+		store(store, directory, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Export all mailboxes of the given store to Maildir directories,
+	 * writing folders in the given pool.
+	 *
+	 * @param store     Mailbox store
+	 * @param directory Directory for one Maildir directory per mailbox
+	 * @param pool      Fork/join pool
+	 * @throws IOException if an I/O error occurs
+	 * @see #store(MailboxStore, Path)
+	 */
+	public static void store(MailboxStore store, Path directory, ForkJoinPool pool) throws IOException {
+		Assert.isNotNull(store, "store");
+		Assert.isNotNull(directory, "directory");
+		Assert.isNotNull(pool, "pool");
+
+		List<Mailbox> mailboxes = new ArrayList<>();
+		List<Path> maildirs = new ArrayList<>();
+		for (String username : store.getUsernames()) {
+			Mailbox mailbox = store.getMailbox(username);
+			if (mailbox == null) {
+				continue; // mailbox has been deleted in the meantime
+			}
+			mailboxes.add(mailbox);
+			maildirs.add(directory.resolve(checkName(username)));
+		}
+
+		store(mailboxes, maildirs, pool);
+	}
+
+	/**
+	 * Export the folders of the given mailbox to a Maildir directory.
+	 * Existing files with the same names are replaced, but other files are
+	 * not deleted. The directory should therefore be empty.
+	 *
+	 * @param mailbox Mailbox
+	 * @param maildir Maildir directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void store(Mailbox mailbox, Path maildir) throws IOException {
+		Assert.isNotNull(mailbox, "mailbox");
+		Assert.isNotNull(maildir, "maildir");
+		store(List.of(mailbox), List.of(maildir), ForkJoinPool.commonPool());
+	}
+
+	private static void store(List<Mailbox> mailboxes, List<Path> maildirs, ForkJoinPool pool) throws IOException {
+
+		// write all folders in parallel
+		List<Future<Void>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < mailboxes.size(); i++) {
+				Mailbox mailbox = mailboxes.get(i);
+				Path maildir = maildirs.get(i);
+				Files.createDirectories(maildir);
+				for (String name : mailbox.getFolderNames()) {
+					MailboxFolder folder = mailbox.getFolder(name);
+					if (folder == null) {
+						continue; // folder has been renamed or deleted in the meantime
+					}
+					Path directory = name.equals(Mailbox.INBOX) ? maildir : maildir.resolve("." + checkName(name));
+					futures.add(pool.submit(() -> unchecked(() -> writeFolder(folder, directory))));
+				}
+			}
+
+			for (Future<Void> future : futures) {
+				join(future);
+			}
+		} finally {
+			for (Future<Void> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	private static Void writeFolder(MailboxFolder folder, Path directory) throws IOException {
+
+		Path tmpDirectory = Files.createDirectories(directory.resolve("tmp"));
+		Path curDirectory = Files.createDirectories(directory.resolve("cur"));
+		Path newDirectory = Files.createDirectories(directory.resolve("new"));
+
+		List<MailboxMessage> messages = folder.getMessages();
+
+		// assign letters to keywords (a - z)
+		Set<String> keywords = new TreeSet<>();
+		for (MailboxMessage message : messages) {
+			for (String flag : message.getFlags()) {
+				if (!flag.startsWith("\\") && !flag.equals(MailboxMessage.KEYWORD_FORWARDED)) {
+					keywords.add(flag);
+				}
+			}
+		}
+		Map<String, Character> letters = new HashMap<>();
+		StringBuilder keywordsFile = new StringBuilder();
+		for (String keyword : keywords) {
+			if (letters.size() == MAX_KEYWORDS) {
+				break; // keywords without letter are not exported
+			}
+			keywordsFile.append(letters.size()).append(' ').append(keyword).append('\n');
+			letters.put(keyword, (char) ('a' + letters.size()));
+		}
+
+		StringBuilder uidListFile = new StringBuilder();
+		uidListFile.append("3 V").append(folder.getUIDValidity()).append(" N").append(folder.getUIDNext()).append('\n');
+
+		for (MailboxMessage message : messages) {
+			int uid = message.getUID();
+			String basename = folder.getUIDValidity() + "." + uid + ".vtestmail";
+			uidListFile.append(uid).append(" :").append(basename).append('\n');
+
+			// encode flags (letters in ASCII order)
+			List<String> flags = message.getFlags();
+			StringBuilder info = new StringBuilder();
+			for (int i = 0; i < SYSTEM_FLAGS.length; i++) {
+				if (flags.contains(SYSTEM_FLAGS[i])) {
+					info.append(SYSTEM_FLAG_LETTERS.charAt(i));
+				}
+			}
+			TreeSet<Character> keywordLetters = new TreeSet<>();
+			for (String flag : flags) {
+				Character letter = letters.get(flag);
+				if (letter != null) {
+					keywordLetters.add(letter);
+				}
+			}
+			keywordLetters.forEach(info::append);
+
+			// messages which are only recent are delivered to "new"
+			Path target;
+			if (info.length() == 0 && flags.contains(MailboxMessage.FLAG_RECENT)) {
+				target = newDirectory.resolve(basename);
+			} else {
+				target = curDirectory.resolve(basename + INFO_SEPARATOR + info);
+			}
+
+			// write to "tmp" and move file (see Maildir delivery)
+			Path file = tmpDirectory.resolve(basename);
+			Files.write(file, toLF(message.getContentBuffer()));
+			Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		Files.write(directory.resolve(UIDLIST_FILE), uidListFile.toString().getBytes(StandardCharsets.UTF_8));
+		if (!letters.isEmpty()) {
+			Files.write(directory.resolve(KEYWORDS_FILE), keywordsFile.toString().getBytes(StandardCharsets.UTF_8));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Replace CRLF with LF.
+	 */
+	static byte[] toLF(ByteBuffer buffer) {
+		int length = buffer.remaining();
+		byte[] result = new byte[length];
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			byte value = buffer.get();
+			if (value == '\n' && pos > 0 && result[pos - 1] == '\r') {
+				pos--;
+			}
+			result[pos++] = value;
+		}
+		return pos == length ? result : Arrays.copyOf(result, pos);
+	}
+
+	// helpers -----------------------------------------------------------------
+
+	private static String checkName(String name) throws IOException {
+		if (name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.equals(".") || name.equals("..")) {
+			throw new IOException("Name not supported in Maildir: " + name);
+		}
+		return name;
+	}
+
+	/**
+	 * Run the given task. I/O errors are wrapped, since a fork/join pool
+	 * does not keep checked exceptions of tasks.
+	 */
+	private static <T> T unchecked(IOTask<T> task) {
+		try {
+			return task.call();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static <T> T join(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private interface IOTask<T> {
+		T call() throws IOException;
+	}
+
+	private static class UIDList {
+
+		private int uidValidity = 1;
+		private int uidNext = 1;
+		private final Map<String, Integer> uids = new HashMap<>();
+
+	}
+
+}
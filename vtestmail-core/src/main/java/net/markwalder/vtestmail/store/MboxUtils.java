@@ -0,0 +1,297 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Utility class to import and export folders from/to mbox files in mboxrd
+ * format.
+ * <p>
+ * Every message starts with a "From " line. Lines in the message which
+ * start with "From ", optionally preceded by any number of "&gt;", are
+ * quoted with an additional "&gt;". Messages are separated by an empty line.
+ * <p>
+ * mbox files are read and written sequentially. Only one message is kept
+ * in memory at a time. mbox files use LF line endings, while message content
+ * uses CRLF line endings. Line endings are converted on import and export.
+ * Message flags are not imported or exported.
+ */
+public class MboxUtils {
+
+	// note: there is no internal date (yet), so all messages get the same date
+	private static final byte[] FROM_LINE = "From MAILER-DAEMON Thu Jan  1 00:00:00 1970\n".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+
+	private MboxUtils() {
+		// utility class
+	}
+
+	/**
+	 * Add all messages of the given mbox stream to the given folder. The
+	 * messages get new UIDs, in the order in which they appear in the stream.
+	 *
+	 * @param stream mbox stream
+	 * @param folder Mailbox folder
+	 * @return Number of messages added to the folder
+	 * @throws IOException if an I/O error occurs, or if the stream is not in mbox format
+	 */
+	public static int load(InputStream stream, MailboxFolder folder) throws IOException {
+		Assert.isNotNull(stream, "stream");
+		Assert.isNotNull(folder, "folder");
+
+		MboxLineReader reader = new MboxLineReader(stream);
+		ByteBuilder message = null;
+		boolean emptyLine = false; // last line of message is empty
+		int count = 0;
+
+		while (reader.readLine()) {
+			byte[] line = reader.line;
+			int length = reader.length;
+
+			if (startsWith(line, length, 0, FROM)) {
+				// start of next message
+				if (message != null && addMessage(message, emptyLine, folder)) {
+					count++;
+				}
+				message = new ByteBuilder();
+				emptyLine = false;
+				continue;
+			}
+
+			if (message == null) {
+				if (length == 0) {
+					continue; // ignore empty lines before first message
+				}
+				throw new IOException("Not an mbox file: first line is not a From line");
+			}
+
+			// unquote ">From ", ">>From ", ...
+			int offset = 0;
+			if (length > 0 && line[0] == '>') {
+				int pos = 1;
+				while (pos < length && line[pos] == '>') {
+					pos++;
+				}
+				if (startsWith(line, length, pos, FROM)) {
+					offset = 1;
+				}
+			}
+
+			message.append(line, offset, length - offset);
+			message.append('\r');
+			message.append('\n');
+			emptyLine = length == 0;
+		}
+
+		if (message != null && addMessage(message, emptyLine, folder)) {
+			count++;
+		}
+		return count;
+	}
+
+	private static boolean addMessage(ByteBuilder message, boolean emptyLine, MailboxFolder folder) {
+
+		// remove empty line separating this message from the next one
+		if (emptyLine) {
+			message.length -= 2;
+		}
+
+		if (message.length == 0) {
+			return false; // ignore empty message
+		}
+
+		// note: content is stored as octets with ISO-8859-1 (like in SMTP),
+		// without decoding it into a string and encoding it again
+		byte[] data = message.data.length == message.length ? message.data : Arrays.copyOf(message.data, message.length);
+		ContentPool contentPool = folder.getContentPool();
+		MessageContent content = contentPool != null ? contentPool.acquire(data, StandardCharsets.ISO_8859_1) : MessageContent.of(data);
+		folder.addMessage(content, StandardCharsets.ISO_8859_1);
+		return true;
+	}
+
+	/**
+	 * Write all messages of the given folder to the given stream in mbox
+	 * format. The stream is not closed.
+	 *
+	 * @param folder Mailbox folder
+	 * @param stream mbox stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void store(MailboxFolder folder, OutputStream stream) throws IOException {
+		Assert.isNotNull(folder, "folder");
+		Assert.isNotNull(stream, "stream");
+
+		OutputStream out = new BufferedOutputStream(stream, 65536);
+		byte[] line = new byte[256];
+
+		for (MailboxMessage message : folder.getMessages()) {
+			out.write(FROM_LINE);
+
+			ByteBuffer content = message.getContentBuffer();
+			int length = 0;
+			while (content.hasRemaining()) {
+				byte value = content.get();
+				if (value == '\n') {
+					if (length > 0 && line[length - 1] == '\r') {
+						length--;
+					}
+					writeLine(out, line, length);
+					length = 0;
+				} else {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+					line[length++] = value;
+				}
+			}
+			if (length > 0) {
+				writeLine(out, line, length); // last line without line break
+			}
+
+			// empty line before next message
+			out.write('\n');
+		}
+
+		out.flush();
+	}
+
+	private static void writeLine(OutputStream out, byte[] line, int length) throws IOException {
+
+		// quote "From ", ">From ", ...
+		int pos = 0;
+		while (pos < length && line[pos] == '>') {
+			pos++;
+		}
+		if (startsWith(line, length, pos, FROM)) {
+			out.write('>');
+		}
+
+		out.write(line, 0, length);
+		out.write('\n');
+	}
+
+	private static boolean startsWith(byte[] line, int length, int offset, byte[] prefix) {
+		if (length - offset < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (line[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads lines of octets from a stream. Line breaks (LF or CRLF) are not
+	 * included in the lines.
+	 */
+	private static class MboxLineReader {
+
+		private final InputStream stream;
+		private final byte[] buffer = new byte[65536];
+		private int position = 0;
+		private int limit = 0;
+
+		private byte[] line = new byte[256];
+		private int length = 0;
+
+		private MboxLineReader(InputStream stream) {
+			this.stream = stream;
+		}
+
+		/**
+		 * Read the next line.
+		 *
+		 * @return {@code true} if a line has been read, {@code false} at the end of the stream
+		 */
+		private boolean readLine() throws IOException {
+			length = 0;
+			boolean found = false; // found any octets or line break
+			while (true) {
+				if (position == limit) {
+					limit = stream.read(buffer, 0, buffer.length);
+					position = 0;
+					if (limit <= 0) {
+						limit = 0;
+						return found;
+					}
+				}
+				found = true;
+
+				// find end of line in buffer
+				int end = position;
+				while (end < limit && buffer[end] != '\n') {
+					end++;
+				}
+				append(buffer, position, end - position);
+				if (end < limit) {
+					position = end + 1;
+					if (length > 0 && line[length - 1] == '\r') {
+						length--;
+					}
+					return true;
+				}
+				position = limit;
+			}
+		}
+
+		private void append(byte[] data, int offset, int count) {
+			if (length + count > line.length) {
+				line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+			}
+			System.arraycopy(data, offset, line, length, count);
+			length += count;
+		}
+
+	}
+
+	/**
+	 * Growable array of octets.
+	 */
+	private static class ByteBuilder {
+
+		private byte[] data = new byte[8192];
+		private int length = 0;
+
+		private void append(byte[] values, int offset, int count) {
+			ensureCapacity(count);
+			System.arraycopy(values, offset, data, length, count);
+			length += count;
+		}
+
+		private void append(char value) {
+			ensureCapacity(1);
+			data[length++] = (byte) value;
+		}
+
+		private void ensureCapacity(int count) {
+			if (length + count > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Immutable octets of a message. The octets are either kept in a byte
+ * array on the heap, or in a {@link BlobStore} outside of the heap.
+ * <p>
+ * Content is shared by all messages with the same octets (see
+ * {@link ContentPool}), and so is the index of lines and header fields.
+ */
+abstract class MessageContent {
+
+	/**
+	 * Index of lines and header fields, or {@code null} if the index has
+	 * not been built yet.
+	 */
+	private volatile MessageIndex index = null;
+
+	/**
+	 * Create content kept on the heap.
+	 *
+	 * @param data Octets. The array must not be modified afterwards.
+	 * @return Content.
+	 */
+	static MessageContent of(byte[] data) {
+		return new HeapContent(data);
+	}
+
+	/**
+	 * Get the number of octets.
+	 *
+	 * @return Number of octets.
+	 */
+	abstract int length();
+
+	/**
+	 * Get the octet at the given index.
+	 *
+	 * @param index Index.
+	 * @return Octet.
+	 */
+	abstract byte get(int index);
+
+	/**
+	 * Get a read-only buffer with all octets. Every call returns a new
+	 * buffer with position 0 and limit {@link #length()}.
+	 *
+	 * @return Buffer.
+	 */
+	abstract ByteBuffer buffer();
+
+	/**
+	 * Get the index of lines and header fields, building it on first use.
+	 * Concurrent callers may build the index more than once, but will all
+	 * get an equivalent immutable index.
+	 *
+	 * @return Message index.
+	 */
+	MessageIndex getIndex() {
+		MessageIndex index = this.index;
+		if (index == null) {
+			index = MessageIndex.build(this);
+			this.index = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Decode the given range of octets into a string.
+	 *
+	 * @param start   Index of first octet.
+	 * @param length  Number of octets.
+	 * @param charset Charset.
+	 * @return Decoded string.
+	 */
+	String decode(int start, int length, Charset charset) {
+		ByteBuffer buffer = buffer();
+		buffer.position(start).limit(start + length);
+		return charset.decode(buffer).toString();
+	}
+
+	/**
+	 * Content kept in a byte array on the heap.
+	 */
+	private static class HeapContent extends MessageContent {
+
+		private final byte[] data;
+
+		private HeapContent(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		int length() {
+			return data.length;
+		}
+
+		@Override
+		byte get(int index) {
+			return data[index];
+		}
+
+		@Override
+		ByteBuffer buffer() {
+			return ByteBuffer.wrap(data).asReadOnlyBuffer();
+		}
+
+		@Override
+		String decode(int start, int length, Charset charset) {
+			return new String(data, start, length, charset);
+		}
+
+	}
+
+}
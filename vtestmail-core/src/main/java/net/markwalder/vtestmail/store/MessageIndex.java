@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.util.Arrays;
+
+/**
+ * Index of the lines and header fields of a message. The index only holds
+ * offsets into the message content, so it is small and immutable.
+ * <p>
+ * Lines are separated by CRLF. The header ends with the first empty line.
+ * If the message does not contain an empty line, all lines are header lines.
+ */
+final class MessageIndex {
+
+	/**
+	 * Offset of the end of every line (position of CRLF, or the length of
+	 * the content for the last line).
+	 */
+	private final int[] lineEnds;
+
+	/**
+	 * Line number (0-based) of the empty line separating header and body,
+	 * or -1 if the message has no body.
+	 */
+	private final int separatorLine;
+
+	/**
+	 * Offsets of header fields, four entries per field: start and end of
+	 * field name, start and end of field value (including folded lines).
+	 */
+	private final int[] fields;
+
+	private MessageIndex(int[] lineEnds, int separatorLine, int[] fields) {
+		this.lineEnds = lineEnds;
+		this.separatorLine = separatorLine;
+		this.fields = fields;
+	}
+
+	/**
+	 * Build the index for the given content.
+	 *
+	 * @param content Message content.
+	 * @return Index.
+	 */
+	static MessageIndex build(MessageContent content) {
+
+		int[] lineEnds = new int[16];
+		int lines = 0;
+		int separatorLine = -1;
+		int[] fields = new int[16];
+		int fieldCount = 0;
+
+		int start = 0;
+		while (true) {
+
+			// find end of line
+			int end = indexOfCRLF(content, start);
+			int lineEnd = end < 0 ? content.length() : end;
+			if (lines == lineEnds.length) {
+				lineEnds = Arrays.copyOf(lineEnds, lines * 2);
+			}
+			lineEnds[lines++] = lineEnd;
+
+			if (separatorLine < 0) {
+				if (lineEnd == start) {
+					// empty line found -> end of headers
+					separatorLine = lines - 1;
+				} else if (isWhitespace(content.get(start))) {
+					// folded line -> extend value of previous field
+					if (fieldCount > 0) {
+						fields[fieldCount * 4 - 1] = lineEnd;
+					}
+				} else {
+					int colon = indexOf(content, ':', start, lineEnd);
+					if (colon > start) {
+						if (fieldCount * 4 == fields.length) {
+							fields = Arrays.copyOf(fields, fields.length * 2);
+						}
+						int valueStart = colon + 1;
+						while (valueStart < lineEnd && isWhitespace(content.get(valueStart))) {
+							valueStart++;
+						}
+						int offset = fieldCount * 4;
+						fields[offset] = start;
+						fields[offset + 1] = colon;
+						fields[offset + 2] = valueStart;
+						fields[offset + 3] = lineEnd;
+						fieldCount++;
+					}
+				}
+			}
+
+			if (end < 0) {
+				break; // last line
+			}
+			start = end + 2;
+		}
+
+		return new MessageIndex(Arrays.copyOf(lineEnds, lines), separatorLine, Arrays.copyOf(fields, fieldCount * 4));
+	}
+
+	int getLineCount() {
+		return lineEnds.length;
+	}
+
+	/**
+	 * Get the number of octets in the header and the first n lines of the
+	 * body, without the CRLF after the last line.
+	 *
+	 * @param n Number of body lines.
+	 * @return Number of octets.
+	 */
+	int getTopLength(int n) {
+		if (separatorLine < 0) {
+			// no body -> complete message
+			return lineEnds[lineEnds.length - 1];
+		} else if (n == 0) {
+			// only header lines
+			return separatorLine == 0 ? 0 : lineEnds[separatorLine - 1];
+		}
+		long lastLine = Math.min((long) separatorLine + Math.max(n, 0), lineEnds.length - 1);
+		return lineEnds[(int) lastLine];
+	}
+
+	int getFieldCount() {
+		return fields.length / 4;
+	}
+
+	int getFieldNameStart(int field) {
+		return fields[field * 4];
+	}
+
+	int getFieldNameEnd(int field) {
+		return fields[field * 4 + 1];
+	}
+
+	int getFieldValueStart(int field) {
+		return fields[field * 4 + 2];
+	}
+
+	int getFieldValueEnd(int field) {
+		return fields[field * 4 + 3];
+	}
+
+	private static int indexOfCRLF(MessageContent content, int start) {
+		int length = content.length();
+		for (int i = start; i < length - 1; i++) {
+			if (content.get(i) == '\r' && content.get(i + 1) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(MessageContent content, char chr, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (content.get(i) == chr) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(byte value) {
+		return value == ' ' || value == '\t';
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Immutable list of messages. Every modification returns a new list, so
+ * a list can be used as a stable snapshot of the messages in a folder.
+ * <p>
+ * To make appending cheap, lists may share a backing array: the new list
+ * writes the added message into the first free slot of the array. Slots
+ * used by existing lists are never overwritten. Only the first append to
+ * a list may use the free slot, later appends to the same list copy the
+ * array. Removing messages always copies the array.
+ */
+final class MessageList extends AbstractList<MailboxMessage> implements RandomAccess {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	static final MessageList EMPTY = new MessageList(new Buffer(new MailboxMessage[0], 0), 0);
+
+	/**
+	 * Backing array and number of slots used in it.
+	 */
+	private static class Buffer {
+
+		private final MailboxMessage[] elements;
+		private final AtomicInteger used;
+
+		private Buffer(MailboxMessage[] elements, int used) {
+			this.elements = elements;
+			this.used = new AtomicInteger(used);
+		}
+
+	}
+
+	private final Buffer buffer;
+	private final int size;
+
+	private MessageList(Buffer buffer, int size) {
+		this.buffer = buffer;
+		this.size = size;
+	}
+
+	@Override
+	public MailboxMessage get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return buffer.elements[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get a new list with the given message added at the end.
+	 *
+	 * @param message Message to add.
+	 * @return New list.
+	 */
+	MessageList append(MailboxMessage message) {
+
+		// try to use the next free slot in the shared array
+		MailboxMessage[] elements = buffer.elements;
+		if (size < elements.length && buffer.used.compareAndSet(size, size + 1)) {
+			elements[size] = message;
+			return new MessageList(buffer, size + 1);
+		}
+
+		// copy into a new array with additional capacity
+		int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1) + 1);
+		elements = Arrays.copyOf(elements, capacity);
+		elements[size] = message;
+		return new MessageList(new Buffer(elements, size + 1), size + 1);
+	}
+
+	/**
+	 * Get a new list with the message at the given index removed.
+	 *
+	 * @param index Index of message.
+	 * @return New list.
+	 */
+	MessageList removeAt(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		MailboxMessage[] elements = new MailboxMessage[buffer.elements.length];
+		System.arraycopy(buffer.elements, 0, elements, 0, index);
+		System.arraycopy(buffer.elements, index + 1, elements, index, size - index - 1);
+		return new MessageList(new Buffer(elements, size - 1), size - 1);
+	}
+
+	/**
+	 * Get a new list without the messages matching the given filter.
+	 *
+	 * @param filter Filter for messages to remove.
+	 * @return New list, or this list if no message has been removed.
+	 */
+	MessageList removeMatching(Predicate<? super MailboxMessage> filter) {
+		MailboxMessage[] elements = new MailboxMessage[buffer.elements.length];
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			MailboxMessage message = buffer.elements[i];
+			if (!filter.test(message)) {
+				elements[count++] = message;
+			}
+		}
+		if (count == size) {
+			return this;
+		}
+		return new MessageList(new Buffer(elements, count), count);
+	}
+
+}
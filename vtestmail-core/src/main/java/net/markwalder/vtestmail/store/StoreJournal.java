@@ -0,0 +1,1137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Append-only journal of all mutations of a {@link MailboxStore}. Every
+ * change (mailboxes, folders, messages, flags, and UID counters) is
+ * recorded as a compact binary record. After a restart, the store is
+ * rebuilt from the latest snapshot and the journal files written since.
+ * <p>
+ * All files are kept in a single directory:
+ * <ul>
+ *     <li>{@code snapshot.bin}: latest snapshot in binary format (see
+ *     {@link BinaryStoreUtils}), written by {@link #checkpoint()}. A snapshot
+ *     in XML format ({@code snapshot.xml}) is loaded if there is no binary
+ *     snapshot.</li>
+ *     <li>{@code journal-<generation>.log}: journal files, replayed in order of their generation.</li>
+ * </ul>
+ * A new journal file is started every time the journal is opened and with
+ * every checkpoint. Journal files which are covered by a snapshot are
+ * deleted after the snapshot has been written.
+ * <p>
+ * Records are written to the file before the mutating method returns.
+ * When they are forced to disk depends on the {@link SyncPolicy}. Records
+ * of concurrent mutations are written and forced together (group commit).
+ * If records cannot be written, the journal fails: the records are kept in
+ * memory, and all further changes of the store are rejected, since they
+ * could not be replayed without the lost records. Closing the journal
+ * tries to write the kept records once more.
+ * <p>
+ * Replaying a record always has the same result, no matter if the changes
+ * of earlier records are already contained in the store or not. A snapshot
+ * can therefore be written while the store is being modified.
+ */
+public final class StoreJournal implements Closeable {
+
+	/**
+	 * Policy for forcing journal records to disk.
+	 */
+	public enum SyncPolicy {
+
+		/**
+		 * Force every change to disk before the mutating method returns.
+		 * Changes made concurrently by multiple threads are forced together.
+		 */
+		ALWAYS,
+
+		/**
+		 * Force changes to disk periodically in a background thread.
+		 * Changes are lost only if the operating system crashes.
+		 */
+		INTERVAL,
+
+		/**
+		 * Never force changes to disk. Writing changes to disk is left to the
+		 * operating system.
+		 */
+		NEVER
+
+	}
+
+	private static final Logger logger = Logger.getLogger(StoreJournal.class.getName());
+
+	private static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1);
+
+	static final String SNAPSHOT_FILE = "snapshot.bin";
+	static final String XML_SNAPSHOT_FILE = "snapshot.xml";
+	private static final String JOURNAL_PREFIX = "journal-";
+	private static final String JOURNAL_SUFFIX = ".log";
+
+	private static final int MAX_SPARE_CAPACITY = 1024 * 1024;
+
+	private static final int MAGIC = 0x564D4A4C; // "VMJL"
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 5; // magic and version
+
+	// record types
+	private static final byte CREATE_MAILBOX = 1;
+	private static final byte DELETE_MAILBOX = 2;
+	private static final byte CREATE_FOLDER = 3;
+	private static final byte RENAME_FOLDER = 4;
+	private static final byte DELETE_FOLDER = 5;
+	private static final byte ADD_CONTENT = 6;
+	private static final byte ADD_MESSAGE = 7;
+	private static final byte REMOVE_MESSAGE = 8;
+	private static final byte SET_FLAG = 9;
+	private static final byte REMOVE_FLAG = 10;
+	private static final byte SET_FLAGS = 11;
+	private static final byte SET_UID_NEXT = 12;
+	private static final byte SET_UID_VALIDITY = 13;
+
+	private final Path directory;
+	private final MailboxStore store;
+	private final SyncPolicy syncPolicy;
+	private final Thread syncThread;
+
+	// only accessed while holding the lock on this journal
+	private RecordBuffer pending = new RecordBuffer(); // records not yet written to the file
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(); // record being built
+	private final DataOutputStream out = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	private final byte[] chunk = new byte[8192];
+	private Map<MessageContent, Integer> contentIds = new WeakHashMap<>(); // content in current journal file
+	private int nextContentId = 1;
+	private long appended = 0; // sequence number of last appended record
+	private boolean closed = false;
+
+	// changed while holding the lock on this journal
+	private volatile IOException failure = null; // failure to write records to the file
+
+	// only accessed while holding the write lock
+	private final Object writeLock = new Object();
+	private RecordBuffer spare = new RecordBuffer(); // swapped with pending records when they are written
+	private FileChannel channel;
+	private FileChannel previousChannel = null; // previous journal file, until it has been forced to disk
+	private long generation;
+	private long position = HEADER_LENGTH; // end of last record written to the file
+
+	private volatile long written = 0; // sequence number of last record written to the file
+	private volatile long synced = 0; // sequence number of last record forced to disk
+
+	private final Object checkpointLock = new Object();
+
+	private StoreJournal(Path directory, MailboxStore store, SyncPolicy syncPolicy, Duration syncInterval, long generation) throws IOException {
+		this.directory = directory;
+		this.store = store;
+		this.syncPolicy = syncPolicy;
+		this.generation = generation;
+		this.channel = createJournalFile(directory, generation);
+
+		if (syncPolicy == SyncPolicy.INTERVAL) {
+			long interval = syncInterval.toMillis();
+			syncThread = new Thread(() -> runSync(interval));
+			syncThread.setDaemon(true);
+			syncThread.setName("store-journal-sync");
+			syncThread.start();
+		} else {
+			syncThread = null;
+		}
+	}
+
+	/**
+	 * Open the journal in the given directory with sync policy
+	 * {@link SyncPolicy#INTERVAL}.
+	 *
+	 * @param directory Journal directory. Created if it does not exist.
+	 * @param store     Empty mailbox store.
+	 * @return Journal.
+	 * @throws IOException If an I/O error occurs.
+	 * @see #open(Path, MailboxStore, SyncPolicy, Duration)
+	 */
+	public static StoreJournal open(Path directory, MailboxStore store) throws IOException {
+		return open(directory, store, SyncPolicy.INTERVAL, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * Open the journal in the given directory.
+	 *
+	 * @param directory  Journal directory. Created if it does not exist.
+	 * @param store      Empty mailbox store.
+	 * @param syncPolicy Policy for forcing changes to disk.
+	 * @return Journal.
+	 * @throws IOException If an I/O error occurs.
+	 * @see #open(Path, MailboxStore, SyncPolicy, Duration)
+	 */
+	public static StoreJournal open(Path directory, MailboxStore store, SyncPolicy syncPolicy) throws IOException {
+		return open(directory, store, syncPolicy, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * Open the journal in the given directory. The given store is filled with
+	 * the latest snapshot and all changes recorded in the journal files
+	 * written since. Afterwards, all changes of the store are recorded in a
+	 * new journal file until the journal is closed.
+	 *
+	 * @param directory    Journal directory. Created if it does not exist.
+	 * @param store        Empty mailbox store.
+	 * @param syncPolicy   Policy for forcing changes to disk.
+	 * @param syncInterval Interval for forcing changes to disk, if the sync
+	 *                     policy is {@link SyncPolicy#INTERVAL}.
+	 * @return Journal.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static StoreJournal open(Path directory, MailboxStore store, SyncPolicy syncPolicy, Duration syncInterval) throws IOException {
+		Assert.isNotNull(directory, "directory");
+		Assert.isNotNull(store, "store");
+		Assert.isNotNull(syncPolicy, "syncPolicy");
+		Assert.isNotNull(syncInterval, "syncInterval");
+		Assert.isTrue(!syncInterval.isNegative() && !syncInterval.isZero(), "syncInterval must be positive");
+		Assert.isTrue(store.getJournal() == null, "Store already has a journal");
+		Assert.isTrue(store.getUsernames().isEmpty(), "Store is not empty");
+
+		Files.createDirectories(directory);
+
+		// load latest snapshot
+		Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+		Path xmlSnapshotFile = directory.resolve(XML_SNAPSHOT_FILE);
+		if (Files.exists(snapshotFile)) {
+			try (InputStream stream = Files.newInputStream(snapshotFile)) {
+				BinaryStoreUtils.load(stream, store);
+			}
+		} else if (Files.exists(xmlSnapshotFile)) {
+			try (InputStream stream = Files.newInputStream(xmlSnapshotFile)) {
+				MailboxStoreUtils.load(stream, store);
+			}
+		}
+
+		// replay changes recorded since the snapshot has been written
+		List<Long> generations = findGenerations(directory);
+		for (int i = 0; i < generations.size(); i++) {
+			Path file = getJournalFile(directory, generations.get(i));
+			boolean newest = i == generations.size() - 1;
+			long length = replay(file, store, newest);
+			if (length < Files.size(file)) {
+				// remove incomplete record at the end of the newest file, so
+				// that the file is valid when it is no longer the newest file
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+					channel.truncate(length);
+					channel.force(true);
+				}
+			}
+		}
+
+		// record all further changes in a new journal file
+		long generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+		StoreJournal journal = new StoreJournal(directory, store, syncPolicy, syncInterval, generation);
+		store.setJournal(journal);
+		return journal;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public SyncPolicy getSyncPolicy() {
+		return syncPolicy;
+	}
+
+	/**
+	 * Write a snapshot of the store and delete all journal files covered by
+	 * the snapshot. The store can be modified while the snapshot is written.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+
+			// continue with a new journal file, then capture a snapshot: all
+			// changes recorded in older journal files have been made before,
+			// so they are contained in the snapshot (changes made while the
+			// snapshot is captured may also be contained in the new journal
+			// file, but replaying them again has the same result)
+			long generation = rotate();
+			StoreSnapshot snapshot = store.captureSnapshot();
+
+			// write snapshot while the store is changed, and replace the old snapshot
+			try (snapshot) {
+				BinaryStoreUtils.store(snapshot, directory.resolve(SNAPSHOT_FILE));
+			}
+			Files.deleteIfExists(directory.resolve(XML_SNAPSHOT_FILE));
+
+			// delete journal files covered by the snapshot
+			for (long oldGeneration : findGenerations(directory)) {
+				if (oldGeneration < generation) {
+					Files.delete(getJournalFile(directory, oldGeneration));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop recording changes of the store, and close the journal file.
+	 * All recorded changes are forced to disk.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		store.setJournal(null);
+
+		if (syncThread != null) {
+			syncThread.interrupt();
+		}
+
+		synchronized (writeLock) {
+			try {
+				// write all remaining records, including records which
+				// could not be written before because of a failure
+				flush(true);
+				force();
+			} finally {
+				if (previousChannel != null) {
+					previousChannel.close();
+				}
+				channel.close();
+			}
+		}
+	}
+
+	// recording -----------------------------------------------------------
+
+	long createMailbox(Mailbox mailbox) {
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginRecord(CREATE_MAILBOX);
+				out.writeUTF(mailbox.getUsername());
+				out.writeUTF(mailbox.getSecret());
+				out.writeUTF(mailbox.getEmail());
+				endRecord();
+
+				// record folders and messages added before the mailbox
+				for (String name : mailbox.getFolderNames()) {
+					MailboxFolder folder = mailbox.getFolder(name);
+					if (folder != null) {
+						writeFolder(mailbox, folder);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long deleteMailbox(Mailbox mailbox) {
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginRecord(DELETE_MAILBOX);
+				out.writeUTF(mailbox.getUsername());
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long createFolder(Mailbox mailbox, MailboxFolder folder) {
+		synchronized (this) {
+			checkOpen();
+			try {
+				writeFolder(mailbox, folder);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long renameFolder(Mailbox mailbox, String oldName, String newName) {
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginRecord(RENAME_FOLDER);
+				out.writeUTF(mailbox.getUsername());
+				out.writeUTF(oldName);
+				out.writeUTF(newName);
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long deleteFolder(Mailbox mailbox, String name) {
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginRecord(DELETE_FOLDER);
+				out.writeUTF(mailbox.getUsername());
+				out.writeUTF(name);
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long addMessage(MailboxFolder folder, MailboxMessage message) {
+		Mailbox mailbox = folder.getMailbox();
+		if (mailbox == null) return 0; // folder has been deleted
+		synchronized (this) {
+			checkOpen();
+			try {
+				writeMessage(mailbox, folder, message);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long removeMessage(MailboxFolder folder, MailboxMessage message) {
+		Mailbox mailbox = folder.getMailbox();
+		if (mailbox == null) return 0; // folder has been deleted
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginMessageRecord(REMOVE_MESSAGE, mailbox, folder, message.getUID());
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long setFlag(MailboxFolder folder, MailboxMessage message, String flag, boolean set) {
+		Mailbox mailbox = folder.getMailbox();
+		if (mailbox == null) return 0; // folder has been deleted
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginMessageRecord(set ? SET_FLAG : REMOVE_FLAG, mailbox, folder, message.getUID());
+				out.writeUTF(flag);
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long setFlags(MailboxFolder folder, MailboxMessage message) {
+		Mailbox mailbox = folder.getMailbox();
+		if (mailbox == null) return 0; // folder has been deleted
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginMessageRecord(SET_FLAGS, mailbox, folder, message.getUID());
+				writeFlags(message.getFlags());
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	long setUIDNext(MailboxFolder folder, int uidNext) {
+		return setFolderValue(SET_UID_NEXT, folder, uidNext);
+	}
+
+	long setUIDValidity(MailboxFolder folder, int uidValidity) {
+		return setFolderValue(SET_UID_VALIDITY, folder, uidValidity);
+	}
+
+	private long setFolderValue(byte type, MailboxFolder folder, int value) {
+		Mailbox mailbox = folder.getMailbox();
+		if (mailbox == null) return 0; // folder has been deleted
+		synchronized (this) {
+			checkOpen();
+			try {
+				beginRecord(type);
+				out.writeUTF(mailbox.getUsername());
+				out.writeUTF(folder.getName());
+				out.writeInt(value);
+				endRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to record change in journal", e);
+			}
+			return ++appended;
+		}
+	}
+
+	private void writeFolder(Mailbox mailbox, MailboxFolder folder) throws IOException {
+		beginRecord(CREATE_FOLDER);
+		out.writeUTF(mailbox.getUsername());
+		out.writeUTF(folder.getName());
+		out.writeInt(folder.getUIDNext());
+		out.writeInt(folder.getUIDValidity());
+		endRecord();
+
+		// record messages added before the folder
+		for (MailboxMessage message : folder.getMessages()) {
+			writeMessage(mailbox, folder, message);
+		}
+	}
+
+	private void writeMessage(Mailbox mailbox, MailboxFolder folder, MailboxMessage message) throws IOException {
+
+		// write content only once per journal file
+		MessageContent content = message.getMessageContent();
+		Integer contentId = contentIds.get(content);
+		if (contentId == null) {
+			contentId = nextContentId++;
+			contentIds.put(content, contentId);
+
+			beginRecord(ADD_CONTENT);
+			out.writeInt(contentId);
+			out.writeUTF(message.getCharset().name());
+			ByteBuffer buffer = content.buffer();
+			out.writeInt(buffer.remaining());
+			endRecord(buffer);
+		}
+
+		beginMessageRecord(ADD_MESSAGE, mailbox, folder, message.getUID());
+		out.writeInt(contentId);
+		writeFlags(message.getFlags());
+		endRecord();
+	}
+
+	private void writeFlags(List<String> flags) throws IOException {
+		out.writeShort(flags.size());
+		for (String flag : flags) {
+			out.writeUTF(flag);
+		}
+	}
+
+	private void beginMessageRecord(byte type, Mailbox mailbox, MailboxFolder folder, int uid) throws IOException {
+		beginRecord(type);
+		out.writeUTF(mailbox.getUsername());
+		out.writeUTF(folder.getName());
+		out.writeInt(uid);
+	}
+
+	private void beginRecord(byte type) throws IOException {
+		record.reset();
+		out.writeByte(type);
+	}
+
+	/**
+	 * Append the current record to the pending records. A record is framed
+	 * by its length and a CRC32 checksum, so that a partially written record
+	 * at the end of a file can be detected.
+	 */
+	private void endRecord() throws IOException {
+		byte[] data = record.toByteArray();
+		crc.reset();
+		crc.update(data, 0, data.length);
+		DataOutputStream stream = new DataOutputStream(pending);
+		stream.writeInt(data.length);
+		stream.write(data);
+		stream.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Append the current record, followed by the given content, to the
+	 * pending records. The content is copied directly into the pending
+	 * records, so that large messages are copied only once.
+	 */
+	private void endRecord(ByteBuffer content) throws IOException {
+		byte[] data = record.toByteArray();
+		crc.reset();
+		crc.update(data, 0, data.length);
+		DataOutputStream stream = new DataOutputStream(pending);
+		stream.writeInt(data.length + content.remaining());
+		stream.write(data);
+		while (content.hasRemaining()) {
+			int length = Math.min(content.remaining(), chunk.length);
+			content.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+			stream.write(chunk, 0, length);
+		}
+		stream.writeInt((int) crc.getValue());
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Journal has been closed");
+		}
+		checkNotFailed();
+	}
+
+	/**
+	 * Check that records can still be written. Called before every change of
+	 * the store, so that no change is made which cannot be recorded.
+	 *
+	 * @throws IllegalStateException If writing records has failed.
+	 */
+	void checkNotFailed() {
+		IOException failure = this.failure;
+		if (failure != null) {
+			throw new IllegalStateException("Journal has failed", failure);
+		}
+	}
+
+	// writing -------------------------------------------------------------
+
+	/**
+	 * Wait until the record with the given sequence number has been written
+	 * to the file (and forced to disk, if the sync policy is
+	 * {@link SyncPolicy#ALWAYS}). The first waiting thread writes the records
+	 * of all other threads as well (group commit).
+	 *
+	 * @param seq Sequence number of record.
+	 */
+	void sync(long seq) {
+		boolean force = syncPolicy == SyncPolicy.ALWAYS;
+		if (force ? synced >= seq : written >= seq) {
+			return; // already written by another thread
+		}
+
+		synchronized (writeLock) {
+			try {
+				if (written < seq) {
+					flush();
+				}
+				if (force && synced < seq) {
+					force();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to write journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Force all records written so far to disk. Must be called while holding
+	 * the write lock.
+	 */
+	private void force() throws IOException {
+		long target = written;
+		if (previousChannel != null) {
+			// records written before the last rotation
+			previousChannel.force(false);
+		}
+		channel.force(false);
+		synced = target;
+	}
+
+	/**
+	 * Write all pending records to the file. Must be called while holding
+	 * the write lock.
+	 */
+	private void flush() throws IOException {
+		flush(false);
+	}
+
+	/**
+	 * Write all pending records to the file. Must be called while holding
+	 * the write lock.
+	 *
+	 * @param retry {@code true} to write records even if writing records
+	 *              has failed before.
+	 */
+	private void flush(boolean retry) throws IOException {
+
+		// swap buffers, so that new records can be appended
+		// while the pending records are written to the file
+		RecordBuffer data;
+		long target;
+		synchronized (this) {
+			if (failure != null && !retry) {
+				throw new IOException("Journal has failed", failure);
+			}
+			data = pending;
+			pending = spare;
+			target = appended;
+		}
+
+		ByteBuffer buffer = data.toByteBuffer();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			fail(data, e);
+			throw e;
+		}
+		position += buffer.limit();
+		written = target;
+
+		// do not keep a large buffer after a large message has been written
+		if (buffer.capacity() > MAX_SPARE_CAPACITY) {
+			spare = new RecordBuffer();
+		} else {
+			data.reset();
+			spare = data;
+		}
+	}
+
+	/**
+	 * Handle a failure to write the given records. The records are kept in
+	 * front of the records appended in the meantime, so that they are not
+	 * lost, and the journal rejects all further changes. A partially written
+	 * record is removed from the file, so that no records are appended after
+	 * it. Must be called while holding the write lock.
+	 *
+	 * @param data      Records which could not be written.
+	 * @param exception Failure.
+	 */
+	private void fail(RecordBuffer data, IOException exception) {
+		synchronized (this) {
+			data.append(pending);
+			pending = data;
+			spare = new RecordBuffer();
+			if (failure == null) {
+				failure = exception;
+			}
+		}
+
+		// the channel may have been closed by the failure (for example,
+		// if the thread has been interrupted): reopen the file
+		boolean interrupted = Thread.interrupted();
+		try {
+			if (channel.isOpen()) {
+				channel.close();
+			}
+			channel = FileChannel.open(getJournalFile(directory, generation), StandardOpenOption.WRITE);
+			channel.truncate(position);
+			channel.position(position);
+		} catch (IOException e) {
+			exception.addSuppressed(e);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Close the current journal file and continue with a new journal file.
+	 * Changes are only blocked while the pending records are written to the
+	 * old file and the files are swapped. The new file is created before,
+	 * and the old file is forced to disk afterwards.
+	 *
+	 * @return Generation of the new journal file.
+	 */
+	private long rotate() throws IOException {
+
+		// note: checkpoints are serialized, so the generation does not
+		// change until the new file is used
+		long newGeneration;
+		synchronized (writeLock) {
+			synchronized (this) {
+				checkOpen();
+			}
+			newGeneration = generation + 1;
+		}
+		FileChannel newChannel = createJournalFile(directory, newGeneration);
+
+		FileChannel oldChannel;
+		long target;
+		synchronized (writeLock) {
+			synchronized (this) {
+				try {
+					checkOpen();
+
+					// write all records appended so far to the old file
+					flush();
+				} catch (IOException | RuntimeException e) {
+					newChannel.close();
+					Files.deleteIfExists(getJournalFile(directory, newGeneration));
+					throw e;
+				}
+
+				// content must be written again in the new file
+				contentIds = new WeakHashMap<>();
+				nextContentId = 1;
+
+				oldChannel = channel;
+				channel = newChannel;
+				generation = newGeneration;
+				position = HEADER_LENGTH;
+			}
+			target = written;
+			previousChannel = oldChannel;
+		}
+
+		// force the old file to disk without blocking changes
+		// (until then, records are forced by sync() as well)
+		oldChannel.force(false);
+		synchronized (writeLock) {
+			previousChannel = null;
+			oldChannel.close();
+			if (synced < target) {
+				synced = target;
+			}
+		}
+		return newGeneration;
+	}
+
+	private void runSync(long interval) {
+		while (true) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return; // journal has been closed
+			}
+			synchronized (writeLock) {
+				if (!channel.isOpen() || failure != null) {
+					return; // journal has been closed, or has failed
+				}
+				try {
+					flush();
+					force();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, e, () -> "Failed to sync journal:");
+				}
+			}
+		}
+	}
+
+	private static FileChannel createJournalFile(Path directory, long generation) throws IOException {
+		Path file = getJournalFile(directory, generation);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC).put((byte) VERSION).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		return channel;
+	}
+
+	private static Path getJournalFile(Path directory, long generation) {
+		return directory.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+	}
+
+	/**
+	 * Find the generations of all journal files in the given directory.
+	 *
+	 * @return Generations in ascending order.
+	 */
+	private static List<Long> findGenerations(Path directory) throws IOException {
+		List<Long> generations = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				String number = name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length());
+				try {
+					generations.add(Long.parseLong(number));
+				} catch (NumberFormatException e) {
+					// not a journal file
+				}
+			}
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+
+	// replaying -----------------------------------------------------------
+
+	/**
+	 * Apply all records in the given journal file to the given store. An
+	 * incomplete or corrupt last record (for example, after a crash while
+	 * the record has been written) is ignored if the file is the newest
+	 * journal file. Any other corrupt record is an error, since the records
+	 * after it (and in newer files) would be applied to an inconsistent
+	 * store.
+	 *
+	 * @param file   Journal file.
+	 * @param store  Mailbox store.
+	 * @param newest {@code true} if the file is the newest journal file.
+	 * @return Length of the file up to the end of the last valid record.
+	 * @throws IOException if an I/O error occurs, or if a record is corrupt.
+	 */
+	static long replay(Path file, MailboxStore store, boolean newest) throws IOException {
+		long size = Files.size(file);
+		try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+			// check file header
+			if (size < HEADER_LENGTH) {
+				logger.warning(() -> "Empty journal file: " + file);
+				return size;
+			}
+			int magic = stream.readInt();
+			int version = stream.readUnsignedByte();
+			if (magic != MAGIC) {
+				throw new IOException("Not a journal file: " + file);
+			} else if (version != VERSION) {
+				throw new IOException("Unsupported journal version: " + version);
+			}
+
+			Map<Integer, StoredContent> contents = new HashMap<>();
+			CRC32 crc = new CRC32();
+			long position = HEADER_LENGTH;
+			while (position < size) {
+				byte[] data = readRecord(stream, size - position, crc, file);
+				if (data == null) {
+					if (!newest) {
+						throw new IOException("Incomplete record in journal file: " + file);
+					}
+					logger.warning(() -> "Ignoring incomplete record at end of journal file: " + file);
+					return position;
+				}
+				apply(data, store, contents);
+				position += data.length + 8;
+			}
+			return position;
+		}
+	}
+
+	/**
+	 * Read the next record of a journal file.
+	 *
+	 * @param remaining Number of bytes remaining in the file.
+	 * @return Record, or {@code null} if the record is the last record in
+	 * the file, and incomplete or corrupt.
+	 * @throws IOException if an I/O error occurs, or if the record is corrupt
+	 *                     but followed by other records.
+	 */
+	private static byte[] readRecord(DataInputStream stream, long remaining, CRC32 crc, Path file) throws IOException {
+		if (remaining < 8) {
+			return null; // incomplete length or checksum
+		}
+		int length = stream.readInt();
+		if (length <= 0 || length > remaining - 8) {
+			return null; // incomplete record, or garbage length
+		}
+		byte[] data = new byte[length];
+		stream.readFully(data);
+		int checksum = stream.readInt();
+		crc.reset();
+		crc.update(data, 0, data.length);
+		if ((int) crc.getValue() != checksum) {
+			if (remaining > length + 8) {
+				throw new IOException("Corrupt record in journal file: " + file);
+			}
+			return null;
+		}
+		return data;
+	}
+
+	/**
+	 * Apply a single record to the given store. Records referring to a
+	 * mailbox, folder, or message which does not exist are ignored.
+	 *
+	 * @param data     Record.
+	 * @param store    Mailbox store.
+	 * @param contents Content read so far, by content ID.
+	 */
+	private static void apply(byte[] data, MailboxStore store, Map<Integer, StoredContent> contents) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		byte type = in.readByte();
+		switch (type) {
+			case CREATE_MAILBOX: {
+				String username = in.readUTF();
+				String secret = in.readUTF();
+				String email = in.readUTF();
+				store.addMailbox(new Mailbox(username, secret, email));
+				break;
+			}
+			case DELETE_MAILBOX: {
+				store.deleteMailbox(in.readUTF());
+				break;
+			}
+			case CREATE_FOLDER: {
+				Mailbox mailbox = store.getMailbox(in.readUTF());
+				String name = in.readUTF();
+				int uidNext = in.readInt();
+				int uidValidity = in.readInt();
+				if (mailbox == null) break;
+				if (mailbox.hasFolder(name)) {
+					mailbox.deleteFolder(name);
+				}
+				mailbox.addFolder(new MailboxFolder(name, uidNext, uidValidity));
+				break;
+			}
+			case RENAME_FOLDER: {
+				Mailbox mailbox = store.getMailbox(in.readUTF());
+				String oldName = in.readUTF();
+				String newName = in.readUTF();
+				if (mailbox == null || !mailbox.hasFolder(oldName)) break;
+				if (mailbox.hasFolder(newName)) {
+					mailbox.deleteFolder(newName);
+				}
+				mailbox.renameFolder(oldName, newName);
+				break;
+			}
+			case DELETE_FOLDER: {
+				Mailbox mailbox = store.getMailbox(in.readUTF());
+				String name = in.readUTF();
+				if (mailbox != null && mailbox.hasFolder(name)) {
+					mailbox.deleteFolder(name);
+				}
+				break;
+			}
+			case ADD_CONTENT: {
+				int contentId = in.readInt();
+				Charset charset = Charset.forName(in.readUTF());
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				MessageContent content = store.getContentPool().acquire(bytes, charset);
+				contents.put(contentId, new StoredContent(content, charset));
+				break;
+			}
+			case ADD_MESSAGE: {
+				MailboxFolder folder = findFolder(store, in);
+				int uid = in.readInt();
+				StoredContent content = contents.get(in.readInt());
+				List<String> flags = readFlags(in);
+				if (folder == null || content == null) break;
+				folder.removeMessageByUID(uid);
+				MailboxMessage message = new MailboxMessage(uid, content.content, content.charset);
+				message.setFlags(flags);
+				folder.addMessage(message);
+				break;
+			}
+			case REMOVE_MESSAGE: {
+				MailboxFolder folder = findFolder(store, in);
+				int uid = in.readInt();
+				if (folder != null) {
+					folder.removeMessageByUID(uid);
+				}
+				break;
+			}
+			case SET_FLAG:
+			case REMOVE_FLAG: {
+				MailboxMessage message = findMessage(store, in);
+				String flag = in.readUTF();
+				if (message == null) break;
+				if (type == SET_FLAG) {
+					message.setFlag(flag);
+				} else {
+					message.removeFlag(flag);
+				}
+				break;
+			}
+			case SET_FLAGS: {
+				MailboxMessage message = findMessage(store, in);
+				List<String> flags = readFlags(in);
+				if (message != null) {
+					message.setFlags(flags);
+				}
+				break;
+			}
+			case SET_UID_NEXT:
+			case SET_UID_VALIDITY: {
+				MailboxFolder folder = findFolder(store, in);
+				int value = in.readInt();
+				if (folder == null) break;
+				if (type == SET_UID_NEXT) {
+					folder.setUIDNext(value);
+				} else {
+					folder.setUIDValidity(value);
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown journal record type: " + type);
+		}
+	}
+
+	private static MailboxFolder findFolder(MailboxStore store, DataInputStream in) throws IOException {
+		Mailbox mailbox = store.getMailbox(in.readUTF());
+		String name = in.readUTF();
+		return mailbox != null ? mailbox.getFolder(name) : null;
+	}
+
+	private static MailboxMessage findMessage(MailboxStore store, DataInputStream in) throws IOException {
+		MailboxFolder folder = findFolder(store, in);
+		int uid = in.readInt();
+		return folder != null ? folder.getMessageByUID(uid) : null;
+	}
+
+	private static List<String> readFlags(DataInputStream in) throws IOException {
+		int count = in.readUnsignedShort();
+		List<String> flags = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			flags.add(in.readUTF());
+		}
+		return flags;
+	}
+
+	/**
+	 * Byte array output stream which gives access to its data without
+	 * copying it.
+	 */
+	private static class RecordBuffer extends ByteArrayOutputStream {
+
+		private RecordBuffer() {
+			super(8192);
+		}
+
+		private ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+
+		private void append(RecordBuffer buffer) {
+			write(buffer.buf, 0, buffer.count);
+		}
+
+	}
+
+	private static class StoredContent {
+
+		private final MessageContent content;
+		private final Charset charset;
+
+		private StoredContent(MessageContent content, Charset charset) {
+			this.content = content;
+			this.charset = charset;
+		}
+
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * View of a mailbox store, captured with {@link MailboxStore#captureSnapshot()}
+ * and written with {@link BinaryStoreUtils}.
+ * <p>
+ * Lists of messages and message content are immutable, so capturing a
+ * snapshot only keeps references to the message lists of all folders.
+ * Only message flags may change after the snapshot has been captured:
+ * before the flags of a message are changed for the first time (or the
+ * message is removed), the old flags are preserved in the snapshot
+ * (copy-on-write).
+ * <p>
+ * A snapshot must be closed when it is no longer used, so that flags are
+ * no longer preserved.
+ */
+final class StoreSnapshot implements AutoCloseable {
+
+	private final MailboxStore store;
+	private final long number;
+	private final List<MailboxData> mailboxes = new ArrayList<>();
+
+	/**
+	 * Flags of messages at the time the snapshot has been captured. Only
+	 * contains messages which have been changed since then.
+	 */
+	private final Map<MailboxMessage, Flags> preservedFlags = new ConcurrentHashMap<>();
+
+	StoreSnapshot(MailboxStore store, long number) {
+		this.store = store;
+		this.number = number;
+	}
+
+	/**
+	 * Get the sequence number of this snapshot. Snapshots captured later
+	 * have higher numbers.
+	 *
+	 * @return Number of this snapshot.
+	 */
+	long getNumber() {
+		return number;
+	}
+
+	/**
+	 * Add the given mailbox with all its folders to this snapshot.
+	 */
+	void addMailbox(Mailbox mailbox) {
+		MailboxData data = new MailboxData(mailbox);
+		mailbox.captureFolders(data.folders);
+		mailboxes.add(data);
+	}
+
+	List<MailboxData> getMailboxes() {
+		return mailboxes;
+	}
+
+	/**
+	 * Preserve the current flags of the given message, if they have not been
+	 * preserved before.
+	 */
+	void preserveFlags(MailboxMessage message) {
+		preservedFlags.computeIfAbsent(message, m -> new Flags(m.getSystemFlags(), m.getKeywords()));
+	}
+
+	/**
+	 * Get the flags of the given message at the time this snapshot has been
+	 * captured.
+	 *
+	 * @param message Message.
+	 * @return Names of flags.
+	 */
+	List<String> getFlags(MailboxMessage message) {
+
+		// note: current flags must be read before preserved flags, since
+		// flags are always preserved before they are changed
+		int systemFlags = message.getSystemFlags();
+		int[] keywords = message.getKeywords();
+		Flags flags = preservedFlags.get(message);
+		if (flags != null) {
+			systemFlags = flags.systemFlags;
+			keywords = flags.keywords;
+		}
+
+		return MailboxMessage.getFlags(systemFlags, keywords);
+	}
+
+	/**
+	 * Release this snapshot. Flags of messages are no longer preserved.
+	 */
+	@Override
+	public void close() {
+		store.releaseSnapshot(this);
+		preservedFlags.clear();
+	}
+
+	static final class MailboxData {
+
+		final String username;
+		final String secret;
+		final String email;
+		final List<FolderData> folders = new ArrayList<>();
+
+		private MailboxData(Mailbox mailbox) {
+			this.username = mailbox.getUsername();
+			this.secret = mailbox.getSecret();
+			this.email = mailbox.getEmail();
+		}
+
+	}
+
+	static final class FolderData {
+
+		final String name;
+		final int uidNext;
+		final int uidValidity;
+		final List<MailboxMessage> messages;
+
+		FolderData(String name, int uidNext, int uidValidity, List<MailboxMessage> messages) {
+			this.name = name;
+			this.uidNext = uidNext;
+			this.uidValidity = uidValidity;
+			this.messages = messages;
+		}
+
+	}
+
+	private static class Flags {
+
+		private final int systemFlags;
+		private final int[] keywords;
+
+		private Flags(int systemFlags, int[] keywords) {
+			this.systemFlags = systemFlags;
+			this.keywords = keywords;
+		}
+
+	}
+
+}
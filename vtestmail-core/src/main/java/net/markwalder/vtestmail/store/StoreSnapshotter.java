@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.markwalder.vtestmail.utils.Assert;
+
+/**
+ * Writes snapshots of a mailbox store to a file in the background, while
+ * the store is in use.
+ * <p>
+ * Capturing a snapshot does not block changes of the store. Every folder is
+ * locked only for a short time, independent of the number of messages. The
+ * snapshot is then written in binary format (see {@link BinaryStoreUtils})
+ * by a background thread, while the store can be changed. The file is
+ * replaced atomically, so it always contains a complete snapshot of the
+ * store, with every folder in a consistent state.
+ * <p>
+ * Snapshots can be written periodically with {@link #start(Duration)}, and
+ * on request with {@link #snapshot()}. Periodic snapshots are skipped if
+ * the store has not been changed since the last snapshot.
+ */
+public final class StoreSnapshotter implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(StoreSnapshotter.class.getName());
+
+	private final MailboxStore store;
+	private final Path file;
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Number of the last snapshot written to the file, or 0 if no snapshot
+	 * has been written yet.
+	 */
+	private volatile long writtenNumber = 0;
+
+	public StoreSnapshotter(MailboxStore store, Path file) {
+		Assert.isNotNull(store, "store");
+		Assert.isNotNull(file, "file");
+		this.store = store;
+		this.file = file;
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			thread.setName("store-snapshotter");
+			return thread;
+		});
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Write a snapshot periodically, if the store has been changed since the
+	 * last snapshot. Errors are logged, and do not stop further snapshots.
+	 *
+	 * @param interval Time between two snapshots.
+	 */
+	public void start(Duration interval) {
+		Assert.isNotNull(interval, "interval");
+		Assert.isInRange(interval.toMillis(), 1, Long.MAX_VALUE, "interval");
+		long millis = interval.toMillis();
+		executor.scheduleWithFixedDelay(this::writePeriodicSnapshot, millis, millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Capture a snapshot of the store now, and write it to the file in the
+	 * background.
+	 *
+	 * @return Future which completes when the snapshot has been written.
+	 * @throws IllegalStateException if the snapshotter has been closed.
+	 */
+	public Future<Void> snapshot() {
+		StoreSnapshot snapshot = store.captureSnapshot();
+		try {
+			return executor.submit(() -> {
+				write(snapshot);
+				return null;
+			});
+		} catch (RejectedExecutionException e) {
+			snapshot.close();
+			throw new IllegalStateException("Snapshotter has been closed", e);
+		}
+	}
+
+	/**
+	 * Stop writing periodic snapshots, and wait until all requested snapshots
+	 * have been written.
+	 *
+	 * @throws IOException if the current thread is interrupted while waiting.
+	 */
+	@Override
+	public void close() throws IOException {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for snapshot");
+		}
+	}
+
+	private void writePeriodicSnapshot() {
+		if (!store.isChangedSince(writtenNumber)) {
+			return; // no changes since last snapshot
+		}
+		try {
+			write(store.captureSnapshot());
+		} catch (IOException | RuntimeException e) {
+			// note: an exception would cancel all further periodic snapshots
+			logger.log(Level.WARNING, e, () -> "Failed to write snapshot:");
+		}
+	}
+
+	private void write(StoreSnapshot snapshot) throws IOException {
+		try (snapshot) {
+
+			// do not replace a newer snapshot with an older one
+			// (a periodic snapshot may have been captured after
+			// a requested snapshot, but written before it)
+			if (snapshot.getNumber() <= writtenNumber) {
+				return;
+			}
+
+			BinaryStoreUtils.store(snapshot, file);
+			writtenNumber = snapshot.getNumber();
+		}
+	}
+
+}
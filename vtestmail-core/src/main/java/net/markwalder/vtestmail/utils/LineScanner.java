@@ -0,0 +1,360 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.utils;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads lines separated by CRLF from a stream of bytes.
+ * <p>
+ * Data is read from the underlying stream in large blocks, and lines are
+ * found by scanning the buffer for CRLF. After a call to {@link #nextLine()},
+ * the current line is available as a slice of the internal buffer (see
+ * {@link #getBuffer()}, {@link #getLineOffset()}, and
+ * {@link #getLineLength()}), and is only decoded to a string (ISO-8859-1) if
+ * {@link #getLine()} is called.
+ * <p>
+ * Single CR or LF characters do not end a line. If the stream ends after a
+ * CRLF, an empty line is returned as last line. This is the same behavior as
+ * in {@link LineReader}.
+ */
+public class LineScanner {
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Underlying input stream.
+	 */
+	private final InputStream stream;
+
+	/**
+	 * Buffer with data read from the stream.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Position of the first byte which has not been consumed yet.
+	 */
+	private int position = 0;
+
+	/**
+	 * Position after the last byte read from the stream.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Position to continue searching for CRLF.
+	 * All bytes before this position have already been checked.
+	 */
+	private int scanPosition = 0;
+
+	/**
+	 * Has the end of the stream been reached?
+	 */
+	private boolean eof = false;
+
+	/**
+	 * Did the last line end with CRLF?
+	 */
+	private boolean crlf = false;
+
+	/**
+	 * Maximum line length (without CRLF), or 0 for no limit.
+	 */
+	private int maxLineLength = 0;
+
+	private int lineOffset = 0;
+	private int lineLength = -1;
+
+	/**
+	 * Create a new line scanner.
+	 *
+	 * @param stream Underlying input stream.
+	 */
+	public LineScanner(InputStream stream) {
+		this(stream, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a new line scanner.
+	 *
+	 * @param stream     Underlying input stream.
+	 * @param bufferSize Initial size of the buffer.
+	 *                   The buffer grows if a line does not fit.
+	 */
+	public LineScanner(InputStream stream, int bufferSize) {
+		Assert.isNotNull(stream, "stream");
+		Assert.isInRange(bufferSize, 16, Integer.MAX_VALUE, "bufferSize");
+		this.stream = stream;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+	/**
+	 * Set the maximum length of a line (without CRLF). If a longer line is
+	 * received, {@link #nextLine()} throws a {@link LineTooLongException}.
+	 *
+	 * @param maxLineLength Maximum line length, or 0 for no limit.
+	 */
+	public void setMaxLineLength(int maxLineLength) {
+		Assert.isInRange(maxLineLength, 0, Integer.MAX_VALUE - 2, "maxLineLength");
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * Read the next line separated by CRLF.
+	 * After this method has returned {@code true}, the line is available
+	 * with {@link #getLine()}, or as slice of {@link #getBuffer()}.
+	 *
+	 * @return {@code true} if a line has been read, {@code false} if the end
+	 * of the stream has been reached.
+	 * @throws LineTooLongException If the line is longer than the maximum
+	 *                              line length. The scanner should not be
+	 *                              used anymore after this exception.
+	 * @throws IOException          If an I/O error occurs.
+	 */
+	public boolean nextLine() throws IOException {
+		lineLength = -1;
+
+		while (true) {
+
+			// search for next CRLF
+			int index = indexOfCRLF();
+			if (index >= 0) {
+				checkLineLength(index - position);
+				setLine(position, index - position);
+				position = index + 2;
+				scanPosition = position;
+				crlf = true;
+				return true;
+			}
+
+			// CRLF not found (yet)
+			// note: a line which is one byte longer than the maximum
+			// length may still end with CRLF
+			checkLineLength(limit - position - 1);
+
+			if (eof) {
+
+				if (position < limit) {
+					// stream ends after line without CRLF
+					// -> return last line
+					checkLineLength(limit - position);
+					setLine(position, limit - position);
+					position = limit;
+					scanPosition = limit;
+					crlf = false;
+					return true;
+				}
+
+				if (crlf) {
+					// stream ends after CRLF
+					// -> return empty line
+					setLine(position, 0);
+					crlf = false;
+					return true;
+				}
+
+				// no more data
+				return false;
+			}
+
+			fill();
+		}
+
+	}
+
+	/**
+	 * Read a line separated by CRLF.
+	 *
+	 * @return Line, or {@code null} if the end of the stream has been reached.
+	 * @throws LineTooLongException If the line is longer than the maximum
+	 *                              line length.
+	 * @throws IOException          If an I/O error occurs.
+	 */
+	public String readLine() throws IOException {
+		if (!nextLine()) {
+			return null;
+		}
+		return getLine();
+	}
+
+	/**
+	 * Get the buffer containing the current line.
+	 * The buffer must not be modified, and its content is only valid until
+	 * the next call to any read method.
+	 *
+	 * @return Buffer.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get the offset of the current line in the buffer.
+	 *
+	 * @return Offset of current line.
+	 */
+	public int getLineOffset() {
+		return lineOffset;
+	}
+
+	/**
+	 * Get the length of the current line in bytes (without CRLF).
+	 *
+	 * @return Length of current line, or -1 if there is no current line.
+	 */
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	/**
+	 * Get the current line decoded with ISO-8859-1.
+	 *
+	 * @return Current line, or {@code null} if there is no current line.
+	 */
+	public String getLine() {
+		if (lineLength < 0) {
+			return null;
+		}
+		return new String(buffer, lineOffset, lineLength, ISO_8859_1);
+	}
+
+	/**
+	 * Check if a complete line has already been received and can be read
+	 * without blocking. This method does not read from the stream.
+	 *
+	 * @return {@code true} if a complete line is available.
+	 */
+	public boolean hasLine() {
+		return indexOfCRLF() >= 0;
+	}
+
+	/**
+	 * Read the given number of characters (bytes decoded with ISO-8859-1).
+	 *
+	 * @param len Number of characters to read
+	 * @return String containing the read characters. The string is shorter
+	 * than requested if the end of the stream has been reached.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public String readChars(long len) throws IOException {
+		lineLength = -1;
+
+		// fast path: all data is already in the buffer
+		int available = limit - position;
+		if (len <= available) {
+			String chars = new String(buffer, position, (int) len, ISO_8859_1);
+			consume((int) len);
+			return chars;
+		}
+
+		// note: the buffer is grown step by step, so that a client
+		// cannot allocate a large amount of memory without sending data
+		ByteArrayOutputStream chars = new ByteArrayOutputStream((int) Math.min(len, DEFAULT_BUFFER_SIZE));
+		long remaining = len;
+		while (remaining > 0) {
+			if (position == limit) {
+				if (eof) {
+					break;
+				}
+				fill();
+				continue;
+			}
+			int count = (int) Math.min(remaining, limit - position);
+			chars.write(buffer, position, count);
+			consume(count);
+			remaining -= count;
+		}
+		return chars.toString(ISO_8859_1);
+	}
+
+	private void setLine(int offset, int length) {
+		lineOffset = offset;
+		lineLength = length;
+	}
+
+	private void consume(int count) {
+		position += count;
+		scanPosition = Math.max(scanPosition, position);
+	}
+
+	/**
+	 * Find the next CRLF in the buffer.
+	 *
+	 * @return Position of CR, or -1 if not found.
+	 */
+	private int indexOfCRLF() {
+		byte[] buffer = this.buffer;
+		int end = limit - 1;
+		for (int i = scanPosition; i < end; i++) {
+			if (buffer[i] == CR && buffer[i + 1] == LF) {
+				return i;
+			}
+		}
+		// remember position to continue search later
+		// (last byte may be a CR followed by LF in next block)
+		scanPosition = Math.max(position, end);
+		return -1;
+	}
+
+	private void checkLineLength(int length) throws LineTooLongException {
+		if (maxLineLength > 0 && length > maxLineLength) {
+			// discard buffered data
+			position = limit;
+			scanPosition = limit;
+			throw new LineTooLongException(maxLineLength);
+		}
+	}
+
+	/**
+	 * Read more data from the stream into the buffer.
+	 * Consumed data is discarded, and the buffer is grown if it is full.
+	 */
+	private void fill() throws IOException {
+
+		if (position > 0) {
+			// move remaining data to start of buffer
+			int remaining = limit - position;
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+			scanPosition -= position;
+			position = 0;
+			limit = remaining;
+		} else if (limit == buffer.length) {
+			// buffer is full -> grow buffer
+			byte[] newBuffer = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, limit);
+			buffer = newBuffer;
+		}
+
+		int len = stream.read(buffer, limit, buffer.length - limit);
+		if (len < 0) {
+			eof = true;
+		} else {
+			limit += len;
+		}
+	}
+
+}
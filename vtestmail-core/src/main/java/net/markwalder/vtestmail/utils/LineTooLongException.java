@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a line is longer than the maximum line length.
+ *
+ * @see LineScanner#setMaxLineLength(int)
+ */
+public class LineTooLongException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxLineLength;
+
+	public LineTooLongException(int maxLineLength) {
+		super("Line too long (max. " + maxLineLength + " characters)");
+		this.maxLineLength = maxLineLength;
+	}
+
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+}
@@ -20,6 +20,9 @@ import java.io.OutputStream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -31,7 +34,8 @@ import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 /**
- * Utility class for XML operations based on the W3C DOM API and Java API for XML Processing (JAXP).
+ * Utility class for XML operations based on the W3C DOM API, the Streaming API for XML (StAX),
+ * and Java API for XML Processing (JAXP).
  */
 public class XMLUtils {
 
@@ -88,6 +92,32 @@ public class XMLUtils {
 		}
 	}
 
+	/**
+	 * Create a streaming reader for the given XML stream.
+	 *
+	 * @param stream XML stream to parse
+	 * @return Streaming XML reader
+	 * @throws IOException if an I/O or XML error occurs
+	 */
+	public static XMLStreamReader createStreamReader(InputStream stream) throws IOException {
+
+		XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+		// configure factory to prevent XXE attacks
+		// see https://cheatsheetseries.owasp.org/cheatsheets/XML_External_Entity_Prevention_Cheat_Sheet.html
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		try {
+			return factory.createXMLStreamReader(stream);
+		} catch (XMLStreamException e) {
+			throw new IOException("XML I/O error", e);
+		}
+	}
+
 	private static Transformer createTransformer() throws TransformerConfigurationException {
 
 		TransformerFactory factory = TransformerFactory.newDefaultInstance();
@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Streaming XML writer which produces the same output as
+ * {@link XMLUtils#writeDocument(org.w3c.dom.Document, OutputStream)}: UTF-8,
+ * standalone declaration, elements indented by 4 spaces, and the same
+ * escaping of special characters. Attributes are written in the order in
+ * which they are added, so callers must add them in alphabetical order to
+ * match the DOM output.
+ * <p>
+ * Only elements with either child elements or text are supported (no mixed
+ * content).
+ */
+public class XMLWriter {
+
+	private static final String INDENT = "    ";
+
+	private final Writer writer;
+	private final String lineSeparator = System.lineSeparator();
+
+	private final Deque<String> elements = new ArrayDeque<>();
+	private boolean startTagOpen = false; // start tag of current element not yet closed with ">"
+	private boolean textWritten = false; // current element contains text
+
+	/**
+	 * Create a writer for the given stream and write the XML declaration.
+	 *
+	 * @param stream Output stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public XMLWriter(OutputStream stream) throws IOException {
+		this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 65536);
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+		writer.write(lineSeparator);
+	}
+
+	public void startElement(String name) throws IOException {
+		if (startTagOpen) {
+			writer.write('>');
+			writer.write(lineSeparator);
+		}
+		writeIndent(elements.size());
+		writer.write('<');
+		writer.write(name);
+		elements.push(name);
+		startTagOpen = true;
+		textWritten = false;
+	}
+
+	public void attribute(String name, String value) throws IOException {
+		writer.write(' ');
+		writer.write(name);
+		writer.write("=\"");
+		writeEscaped(value, true);
+		writer.write('"');
+	}
+
+	public void text(String text) throws IOException {
+		if (startTagOpen) {
+			writer.write('>');
+			startTagOpen = false;
+		}
+		writeEscaped(text, false);
+		textWritten = true;
+	}
+
+	/**
+	 * Write an element with the given text.
+	 *
+	 * @param name Element name
+	 * @param text Text
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void textElement(String name, String text) throws IOException {
+		startElement(name);
+		if (!text.isEmpty()) {
+			text(text);
+		}
+		endElement();
+	}
+
+	public void endElement() throws IOException {
+		String name = elements.pop();
+		if (startTagOpen) {
+			// empty element
+			writer.write("/>");
+		} else {
+			if (!textWritten) {
+				writeIndent(elements.size());
+			}
+			writer.write("</");
+			writer.write(name);
+			writer.write('>');
+		}
+		writer.write(lineSeparator);
+		startTagOpen = false;
+		textWritten = false;
+	}
+
+	/**
+	 * Flush all buffered output to the underlying stream. The stream is not
+	 * closed.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	private void writeIndent(int depth) throws IOException {
+		for (int i = 0; i < depth; i++) {
+			writer.write(INDENT);
+		}
+	}
+
+	/**
+	 * Write the given text with the same escaping as the DOM serializer.
+	 */
+	private void writeEscaped(String text, boolean attribute) throws IOException {
+		int length = text.length();
+		int start = 0; // start of characters not yet written
+		for (int i = 0; i < length; i++) {
+			char chr = text.charAt(i);
+			String replacement;
+			int skip = 0;
+			if (chr == '&') {
+				replacement = "&amp;";
+			} else if (chr == '<') {
+				replacement = "&lt;";
+			} else if (chr == '>') {
+				replacement = "&gt;";
+			} else if (chr == '"' && attribute) {
+				replacement = "&quot;";
+			} else if (chr == '\n' && !attribute) {
+				replacement = lineSeparator;
+			} else if (chr < 0x20 && (chr != '\t' || attribute)) {
+				replacement = "&#" + (int) chr + ";";
+			} else if (chr >= 0x7F && chr <= 0x9F && !attribute) {
+				replacement = "&#" + (int) chr + ";";
+			} else if (Character.isHighSurrogate(chr) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				replacement = "&#" + Character.toCodePoint(chr, text.charAt(i + 1)) + ";";
+				skip = 1;
+			} else {
+				continue;
+			}
+			writer.write(text, start, i - start);
+			writer.write(replacement);
+			i += skip;
+			start = i + 1;
+		}
+		writer.write(text, start, length - start);
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EventLoopTest {
+
+	@Test
+	void execute_taskFails() throws Exception {
+		try (EventLoop eventLoop = new EventLoop("test-event-loop")) {
+			eventLoop.start();
+
+			// test
+			CountDownLatch latch = new CountDownLatch(1);
+			eventLoop.execute(() -> {
+				throw new IllegalStateException("Test");
+			});
+			eventLoop.execute(latch::countDown);
+
+			// assert: event loop is still running
+			assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		}
+	}
+
+	@Test
+	void handle_handlerFails() throws Exception {
+		try (EventLoop eventLoop = new EventLoop("test-event-loop")) {
+			eventLoop.start();
+
+			// prepare: two channels, the handler of the first channel fails
+			Pipe pipe1 = Pipe.open();
+			Pipe pipe2 = Pipe.open();
+			pipe1.source().configureBlocking(false);
+			pipe2.source().configureBlocking(false);
+			CountDownLatch latch = new CountDownLatch(1);
+			eventLoop.register(pipe1.source(), SelectionKey.OP_READ, key -> {
+				throw new IllegalStateException("Test");
+			}, null);
+			eventLoop.register(pipe2.source(), SelectionKey.OP_READ, key -> {
+				pipe2.source().read(ByteBuffer.allocate(1));
+				latch.countDown();
+			}, null);
+
+			// test
+			write(pipe1);
+			awaitClosed(pipe1);
+			write(pipe2);
+
+			// assert: failed channel has been closed, but event loop is still running
+			assertThat(pipe1.source().isOpen()).isFalse();
+			assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(pipe2.source().isOpen()).isTrue();
+		}
+	}
+
+	private static void write(Pipe pipe) throws IOException {
+		pipe.sink().write(ByteBuffer.wrap(new byte[] { 42 }));
+	}
+
+	private static void awaitClosed(Pipe pipe) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (pipe.source().isOpen() && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+	}
+
+}
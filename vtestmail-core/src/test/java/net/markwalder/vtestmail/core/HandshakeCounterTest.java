@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.net.ssl.SSLSession;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class HandshakeCounterTest {
+
+	private static final long NOW = 1577836800000L;
+
+	private final HandshakeCounter counter = new HandshakeCounter();
+
+	@Test
+	void handshakeCompleted_sameSessionId() {
+
+		// test: full handshake, resumed in the same millisecond
+		counter.handshakeCompleted(mockSession(1, NOW), NOW);
+		counter.handshakeCompleted(mockSession(1, NOW), NOW);
+
+		// assert
+		assertThat(counter.getFullHandshakes()).isEqualTo(1);
+		assertThat(counter.getResumedHandshakes()).isEqualTo(1);
+	}
+
+	@Test
+	void handshakeCompleted_oldCreationTime() {
+
+		// test: full handshake, resumed with a new session ID (TLS 1.3)
+		counter.handshakeCompleted(mockSession(1, NOW), NOW);
+		counter.handshakeCompleted(mockSession(2, NOW), NOW + 1);
+
+		// assert
+		assertThat(counter.getFullHandshakes()).isEqualTo(1);
+		assertThat(counter.getResumedHandshakes()).isEqualTo(1);
+	}
+
+	@Test
+	void handshakeCompleted_concurrentFullHandshakes() {
+
+		// test: two full handshakes in the same millisecond
+		counter.handshakeCompleted(mockSession(1, NOW), NOW);
+		counter.handshakeCompleted(mockSession(2, NOW), NOW);
+
+		// assert
+		assertThat(counter.getFullHandshakes()).isEqualTo(2);
+		assertThat(counter.getResumedHandshakes()).isZero();
+	}
+
+	private static SSLSession mockSession(int id, long creationTime) {
+		SSLSession session = Mockito.mock(SSLSession.class);
+		Mockito.doReturn(new byte[] { 42, (byte) id }).when(session).getId();
+		Mockito.doReturn(creationTime).when(session).getCreationTime();
+		return session;
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLSession;
+import org.junit.jupiter.api.Test;
+
+class MailClientTest {
+
+	private final TestConnection connection = new TestConnection("QUIT\r\n");
+
+	@Test
+	void writeLine() throws IOException {
+
+		// prepare
+		MailClient client = new TestClient(connection);
+
+		// test
+		client.writeLine("+OK 1");
+		client.writeLine("+OK 2");
+
+		// assert: every line is sent immediately
+		assertThat(connection.output.toString(ISO_8859_1)).isEqualTo("+OK 1\r\n+OK 2\r\n");
+		assertThat(connection.output.flushes).isEqualTo(2);
+	}
+
+	@Test
+	void writeLine_data() throws IOException {
+
+		// prepare
+		MailClient client = new TestClient(connection);
+		ByteBuffer data = ByteBuffer.wrap(new byte[] { 'G', 'r', (byte) 0xFC, 0x00, (byte) 0xDF, 'e' });
+		data.position(1).limit(5);
+
+		// test
+		client.writeLine(".", data);
+		client.writeLine("\u20AC");
+
+		// assert: bytes are sent as is, text is encoded with ISO-8859-1
+		byte[] output = connection.output.toByteArray();
+		assertThat(output).containsExactly('.', 'r', 0xFC, 0x00, 0xDF, '\r', '\n', '?', '\r', '\n');
+		assertThat(data.position()).isEqualTo(5);
+	}
+
+	@Test
+	void beginResponse() throws IOException {
+
+		// prepare
+		MailClient client = new TestClient(connection);
+
+		// test
+		client.beginResponse();
+		for (int i = 1; i <= 1000; i++) {
+			client.writeLine(i + " 1234");
+		}
+
+		// assert: lines are not flushed before end of response
+		assertThat(connection.output.flushes).isZero();
+
+		// test
+		client.endResponse();
+
+		// assert: all lines have been sent with a single flush
+		assertThat(connection.output.flushes).isEqualTo(1);
+		String output = connection.output.toString(ISO_8859_1);
+		assertThat(output).startsWith("1 1234\r\n2 1234\r\n").endsWith("1000 1234\r\n");
+		assertThat(output.split("\r\n")).hasSize(1000);
+	}
+
+	@Test
+	void beginResponse_nested() throws IOException {
+
+		// prepare
+		MailClient client = new TestClient(connection);
+
+		// test
+		client.beginResponse();
+		client.writeLine("+OK");
+		client.beginResponse();
+		client.writeLine("1");
+		client.endResponse();
+
+		// assert: inner response does not flush
+		assertThat(connection.output.flushes).isZero();
+
+		// test
+		client.endResponse();
+
+		// assert
+		assertThat(connection.output.toString(ISO_8859_1)).isEqualTo("+OK\r\n1\r\n");
+		assertThat(connection.output.flushes).isEqualTo(1);
+	}
+
+	@Test
+	void endResponse_withoutBeginResponse() throws IOException {
+
+		// prepare
+		MailClient client = new TestClient(connection);
+
+		// test & assert
+		assertThatThrownBy(client::endResponse)
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("No response in progress");
+	}
+
+	@Test
+	void readLine_flushesPendingOutput() throws IOException {
+
+		// prepare
+		MailClient client = new TestClient(connection);
+		client.beginResponse();
+		client.writeLine("354 Send message content");
+
+		// test
+		String line = client.readLine();
+
+		// assert: response has been sent before reading from client
+		assertThat(line).isEqualTo("QUIT");
+		assertThat(connection.output.toString(ISO_8859_1)).isEqualTo("354 Send message content\r\n");
+		assertThat(connection.output.flushes).isEqualTo(1);
+
+		// test
+		client.endResponse();
+
+		// assert: nothing left to flush
+		assertThat(connection.output.flushes).isEqualTo(1);
+	}
+
+	private static class TestClient extends MailClient {
+
+		TestClient(MailConnection connection) throws IOException {
+			super(connection, "+ ", new MemorySessionLog(0, Clock.systemUTC()));
+		}
+
+	}
+
+	private static class TestConnection extends MailConnection {
+
+		private final InputStream input;
+		private final CountingOutputStream output = new CountingOutputStream();
+
+		TestConnection(String input) {
+			this.input = new ByteArrayInputStream(input.getBytes(ISO_8859_1));
+		}
+
+		@Override
+		InputStream getInputStream() {
+			return input;
+		}
+
+		@Override
+		OutputStream getOutputStream() {
+			return output;
+		}
+
+		@Override
+		void startTLS(String protocol, Consumer<SSLSession> callback) throws IOException {
+			throw new IOException("Not supported");
+		}
+
+		@Override
+		SSLSession getSSLSession() {
+			return null;
+		}
+
+		@Override
+		public InetSocketAddress getLocalAddress() {
+			return new InetSocketAddress("localhost", 25);
+		}
+
+		@Override
+		public InetSocketAddress getRemoteAddress() {
+			return new InetSocketAddress("localhost", 12345);
+		}
+
+		@Override
+		public boolean isClosed() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// nothing to do
+		}
+
+	}
+
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+
+		private int flushes = 0;
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+
+	}
+
+}
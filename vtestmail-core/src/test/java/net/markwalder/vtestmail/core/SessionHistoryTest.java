@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionHistoryTest {
+
+	private static final Instant NOW = Instant.parse("2020-01-01T00:00:00Z");
+
+	private final SessionHistory<MailSession> history = new SessionHistory<>();
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void getSessions() {
+
+		// prepare
+		MailSession session1 = addSession(NOW);
+		MailSession session2 = addSession(NOW);
+
+		// test
+		List<MailSession> sessions = history.getSessions(NOW);
+
+		// assert
+		assertThat(sessions).containsExactly(session1, session2);
+		assertThatThrownBy(() -> sessions.add(session1)).isInstanceOf(UnsupportedOperationException.class);
+
+		// assert: snapshot is reused as long as history does not change
+		assertThat(history.getSessions(NOW)).isSameAs(sessions);
+
+		// test
+		MailSession session3 = addSession(NOW);
+
+		// assert: new snapshot, old snapshot is unchanged
+		assertThat(history.getSessions(NOW)).containsExactly(session1, session2, session3);
+		assertThat(sessions).containsExactly(session1, session2);
+	}
+
+	@Test
+	void setMaxSessions() {
+
+		// prepare
+		history.setMaxSessions(2);
+		MailSession session1 = addSession(NOW);
+		MailSession session2 = addSession(NOW);
+		MailSession session3 = addSession(NOW);
+
+		// assert: sessions of connected clients are not evicted
+		assertThat(history.getSessions(NOW)).containsExactly(session1, session2, session3);
+
+		// test
+		endSession(session2, NOW);
+
+		// assert: oldest ended session has been evicted
+		assertThat(history.getSessions(NOW)).containsExactly(session1, session3);
+
+		// test
+		endSession(session1, NOW);
+		endSession(session3, NOW);
+		MailSession session4 = addSession(NOW);
+
+		// assert
+		assertThat(history.getSessions(NOW)).containsExactly(session3, session4);
+	}
+
+	@Test
+	void setMaxAge() {
+
+		// prepare
+		history.setMaxAge(Duration.ofMinutes(10));
+		MailSession session1 = addSession(NOW);
+		MailSession session2 = addSession(NOW);
+		endSession(session1, NOW);
+		endSession(session2, NOW.plusSeconds(60));
+
+		// test & assert
+		assertThat(history.getSessions(NOW.plusSeconds(600))).containsExactly(session1, session2);
+		assertThat(history.getSessions(NOW.plusSeconds(601))).containsExactly(session2);
+		assertThat(history.getSessions(NOW.plusSeconds(661))).isEmpty();
+	}
+
+	@Test
+	void setMaxAge_invalid() {
+		assertThatThrownBy(() -> history.setMaxAge(Duration.ZERO))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("maxAge must be positive");
+	}
+
+	@Test
+	void setMaxBytes() {
+
+		// prepare
+		history.setMaxBytes(100);
+		MailSession session1 = addSession(NOW, 40);
+		MailSession session2 = addSession(NOW, 40);
+		MailSession session3 = addSession(NOW, 40);
+
+		// assert: sessions of connected clients are not evicted
+		assertThat(history.getSessions(NOW)).containsExactly(session1, session2, session3);
+
+		// test
+		endSession(session1, NOW);
+
+		// assert
+		assertThat(history.getSessions(NOW)).containsExactly(session2, session3);
+	}
+
+	@Test
+	void setMaxBytes_sizeUpdatedOnEnd() {
+
+		// prepare
+		history.setMaxBytes(100);
+		MailSession session1 = addSession(NOW, 0);
+		MailSession session2 = addSession(NOW, 0);
+
+		// test: data exchanged after the session has been added
+		session1.getSessionLog().addData(SessionLog.Direction.CLIENT, "x".repeat(60));
+		session2.getSessionLog().addData(SessionLog.Direction.CLIENT, "x".repeat(60));
+		endSession(session2, NOW);
+
+		// assert: size of connected client is not updated yet
+		assertThat(history.getSessions(NOW)).containsExactly(session1, session2);
+
+		// test
+		endSession(session1, NOW);
+
+		// assert
+		assertThat(history.getSessions(NOW)).containsExactly(session2);
+	}
+
+	@Test
+	void setMaxSummaries() {
+
+		// prepare
+		history.setMaxSessions(1);
+		history.setMaxSummaries(2);
+		MailSession session1 = addSession(NOW, 10);
+		session1.incrementCommandCount();
+		endSession(session1, NOW.plusSeconds(5));
+
+		// test
+		for (int i = 0; i < 3; i++) {
+			MailSession session = addSession(NOW, 20);
+			endSession(session, NOW.plusSeconds(10));
+		}
+
+		// assert: only the most recent summaries are kept
+		List<MailSessionSummary> summaries = history.getSummaries();
+		assertThat(summaries).hasSize(2);
+		MailSessionSummary summary = summaries.get(1);
+		assertThat(summary.getStartTime()).isEqualTo(NOW);
+		assertThat(summary.getEndTime()).isEqualTo(NOW.plusSeconds(10));
+		assertThat(summary.getDuration()).isEqualTo(Duration.ofSeconds(10));
+		assertThat(summary.getCommandCount()).isZero();
+		assertThat(summary.getBytesReceived()).isEqualTo(20);
+		assertThat(summary.getBytesSent()).isEqualTo(2);
+	}
+
+	@Test
+	void noSummaries() {
+
+		// prepare
+		history.setMaxSessions(1);
+		MailSession session1 = addSession(NOW);
+		endSession(session1, NOW);
+		addSession(NOW);
+
+		// assert
+		assertThat(history.getSessions(NOW)).hasSize(1);
+		assertThat(history.getSummaries()).isEmpty();
+	}
+
+	@Test
+	void evict_deleteSessionLog() throws IOException {
+
+		// prepare
+		history.setMaxSessions(1);
+		FileSessionLog log = (FileSessionLog) SessionLogPolicy.file(directory).createLog("SMTP", Clock.systemUTC());
+		MailSession session1 = new MailSession() {
+		};
+		session1.setSessionLog(log);
+		history.add(session1, NOW);
+		endSession(session1, NOW);
+
+		// test
+		addSession(NOW);
+
+		// assert: log file of evicted session has been deleted
+		assertThat(history.getSessions(NOW)).doesNotContain(session1);
+		assertThat(log.getFile()).doesNotExist();
+	}
+
+	@Test
+	void deleteSessionLogs() throws IOException {
+
+		// prepare
+		FileSessionLog log = (FileSessionLog) SessionLogPolicy.file(directory).createLog("SMTP", Clock.systemUTC());
+		MailSession session = new MailSession() {
+		};
+		session.setSessionLog(log);
+		history.add(session, NOW);
+
+		// test
+		history.deleteSessionLogs();
+
+		// assert: session is kept, but log file has been deleted
+		assertThat(history.getSessions(NOW)).containsExactly(session);
+		assertThat(log.getFile()).doesNotExist();
+	}
+
+	private MailSession addSession(Instant startTime) {
+		return addSession(startTime, 0);
+	}
+
+	/**
+	 * Add a session to the history.
+	 *
+	 * @param startTime Start time of session.
+	 * @param bytes     Number of bytes received from the client.
+	 *                  In addition, an empty line (2 bytes) is sent to the client.
+	 * @return Session.
+	 */
+	private MailSession addSession(Instant startTime, int bytes) {
+		MailSession session = new MailSession() {
+		};
+		session.setStartTime(startTime);
+		SessionLog log = session.getSessionLog();
+		log.addData(SessionLog.Direction.CLIENT, "x".repeat(bytes));
+		log.addLine(SessionLog.Direction.SERVER, "");
+		history.add(session, startTime);
+		return session;
+	}
+
+	private void endSession(MailSession session, Instant endTime) {
+		session.setEndTime(endTime);
+		history.sessionEnded(session, endTime);
+	}
+
+}
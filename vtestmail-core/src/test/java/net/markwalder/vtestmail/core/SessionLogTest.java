@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.markwalder.vtestmail.core.SessionLog.Direction;
+import net.markwalder.vtestmail.core.SessionLog.Entry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionLogTest {
+
+	private static final Instant NOW = Instant.parse("2020-01-01T00:00:00Z");
+
+	private final Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void unbounded() throws IOException {
+
+		// prepare
+		SessionLog log = SessionLogPolicy.unbounded().createLog("SMTP", clock);
+
+		// test
+		addEntries(log);
+
+		// assert
+		assertThat(log).isInstanceOf(MemorySessionLog.class);
+		assertEntries(log.getEntries());
+		assertThat(log.toString()).isEqualTo("220 Ready\nDATA\nSubject: Test\r\n\r\nHello\r\n.\r\n250 OK \u00E4\n");
+	}
+
+	@Test
+	void ringBuffer() throws IOException {
+
+		// prepare
+		SessionLog log = SessionLogPolicy.ringBuffer(36).createLog("SMTP", clock);
+
+		// test
+		addEntries(log);
+
+		// assert: only the most recent entries are kept
+		List<Entry> entries = log.getEntries();
+		assertThat(entries).hasSize(2);
+		assertThat(entries.get(0).getText()).isEqualTo("Subject: Test\r\n\r\nHello\r\n.\r\n");
+		assertThat(entries.get(1).getText()).isEqualTo("250 OK \u00E4");
+		assertThat(log.toString()).isEqualTo("Subject: Test\r\n\r\nHello\r\n.\r\n250 OK \u00E4\n");
+	}
+
+	@Test
+	void ringBuffer_largeEntry() throws IOException {
+
+		// prepare
+		SessionLog log = SessionLogPolicy.ringBuffer(10).createLog("SMTP", clock);
+
+		// test
+		addEntries(log);
+
+		// assert: end of large entry is kept
+		List<Entry> entries = log.getEntries();
+		assertThat(entries).hasSize(1);
+		assertThat(entries.get(0).getText()).isEqualTo("250 OK \u00E4");
+
+		// test
+		log.addData(Direction.CLIENT, "Subject: Test\r\n\r\nHello\r\n.\r\n");
+
+		// assert
+		entries = log.getEntries();
+		assertThat(entries).hasSize(1);
+		assertThat(entries.get(0).getText()).isEqualTo("Hello\r\n.\r\n");
+		assertThat(entries.get(0).getBytes()).isEqualTo(27);
+	}
+
+	@Test
+	void file() throws IOException {
+
+		// prepare
+		SessionLog log = SessionLogPolicy.file(directory).createLog("SMTP", clock);
+
+		// test
+		addEntries(log);
+
+		// assert: entries are read back from file
+		assertThat(log).isInstanceOf(FileSessionLog.class);
+		assertEntries(log.getEntries());
+
+		// test
+		log.close();
+		log.addLine(Direction.CLIENT, "QUIT");
+
+		// assert: entries are still available after close
+		assertEntries(log.getEntries());
+		assertThat(log.toString()).isEqualTo("220 Ready\nDATA\nSubject: Test\r\n\r\nHello\r\n.\r\n250 OK \u00E4\n");
+
+		// assert: file has been created in directory
+		try (Stream<Path> files = Files.list(directory)) {
+			List<String> names = files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+			assertThat(names).hasSize(1);
+			assertThat(names.get(0)).startsWith("smtp-session-").endsWith(".log");
+		}
+	}
+
+	@Test
+	void file_delete() throws IOException {
+
+		// prepare
+		FileSessionLog log = (FileSessionLog) SessionLogPolicy.file(directory).createLog("SMTP", clock);
+		addEntries(log);
+
+		// test
+		log.delete();
+
+		// assert: file has been deleted
+		assertThat(log.getFile()).doesNotExist();
+		assertThat(log.getEntries()).isEmpty();
+	}
+
+	@Test
+	void file_keepFiles() throws IOException {
+
+		// prepare
+		FileSessionLog log = (FileSessionLog) SessionLogPolicy.file(directory, true).createLog("SMTP", clock);
+		addEntries(log);
+
+		// test
+		log.delete();
+
+		// assert: file has been kept
+		assertThat(log.getFile()).exists();
+		assertEntries(log.getEntries());
+	}
+
+	@Test
+	void disabled() throws IOException {
+
+		// prepare
+		SessionLog log = SessionLogPolicy.disabled().createLog("SMTP", clock);
+
+		// test
+		addEntries(log);
+
+		// assert
+		assertThat(log.getEntries()).isEmpty();
+		assertThat(log.toString()).isEmpty();
+	}
+
+	@Test
+	void close() throws IOException {
+
+		// prepare
+		SessionLog log = SessionLogPolicy.unbounded().createLog("SMTP", clock);
+		log.addLine(Direction.SERVER, "221 Bye");
+
+		// test
+		log.close();
+		log.addLine(Direction.CLIENT, "QUIT");
+
+		// assert: entries added after close are ignored
+		assertThat(log.toString()).isEqualTo("221 Bye\n");
+	}
+
+	private static void addEntries(SessionLog log) {
+		log.addLine(Direction.SERVER, "220 Ready");
+		log.addLine(Direction.CLIENT, "DATA");
+		log.addData(Direction.CLIENT, "Subject: Test\r\n\r\nHello\r\n.\r\n");
+		log.addLine(Direction.SERVER, "250 OK \u00E4");
+	}
+
+	private static void assertEntries(List<Entry> entries) {
+		assertThat(entries).hasSize(4);
+
+		Entry entry = entries.get(0);
+		assertThat(entry.getDirection()).isEqualTo(Direction.SERVER);
+		assertThat(entry.getTimestamp()).isEqualTo(NOW);
+		assertThat(entry.getText()).isEqualTo("220 Ready");
+		assertThat(entry.isLine()).isTrue();
+		assertThat(entry.getBytes()).isEqualTo(11);
+
+		entry = entries.get(1);
+		assertThat(entry.getDirection()).isEqualTo(Direction.CLIENT);
+		assertThat(entry.getText()).isEqualTo("DATA");
+
+		entry = entries.get(2);
+		assertThat(entry.getDirection()).isEqualTo(Direction.CLIENT);
+		assertThat(entry.getText()).isEqualTo("Subject: Test\r\n\r\nHello\r\n.\r\n");
+		assertThat(entry.isLine()).isFalse();
+		assertThat(entry.getBytes()).isEqualTo(27);
+
+		entry = entries.get(3);
+		assertThat(entry.getDirection()).isEqualTo(Direction.SERVER);
+		assertThat(entry.getText()).isEqualTo("250 OK \u00E4");
+		assertThat(entry.getBytes()).isEqualTo(10);
+	}
+
+}
@@ -19,6 +19,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.List;
+import net.markwalder.vtestmail.store.FlagDictionary;
 import net.markwalder.vtestmail.store.Mailbox;
 import net.markwalder.vtestmail.store.MailboxFolder;
 import net.markwalder.vtestmail.store.MailboxMessage;
@@ -596,6 +597,48 @@ class ImapCommonsNetTest {
 
 	}
 
+	@Test
+	void test_store_tooManyKeywords() throws IOException {
+
+		// LOGIN
+		boolean success = client.login(USERNAME, PASSWORD);
+		assertThat(success).isTrue();
+		assertReply(client, tag.next() + " OK [CAPABILITY IMAP4rev2 STARTTLS] LOGIN completed");
+
+		// SELECT INBOX
+		success = client.select("INBOX");
+		assertThat(success).isTrue();
+		tag.next();
+
+		ImapSession session = server.getActiveSession();
+		MailboxMessage message = session.getFolder().getMessage(1);
+		String keyword1 = "Keyword-" + System.nanoTime() + "-1";
+		String keyword2 = "Keyword-" + System.nanoTime() + "-2";
+		server.getStore().setMaxKeywords(1);
+
+		// STORE 1 +FLAGS (keyword1 keyword2)
+		success = client.store("1", "+FLAGS", "(" + keyword1 + " " + keyword2 + ")");
+		assertThat(success).isFalse();
+		assertReply(client, tag.next() + " NO [LIMIT] Too many keywords");
+
+		// assert: no flags added to message 1
+		assertThat(message.getFlags()).isEmpty();
+
+		// STORE 1 +FLAGS (keyword1)
+		success = client.store("1", "+FLAGS", "(" + keyword1 + ")");
+		assertThat(success).isTrue();
+		assertReply(client,
+				"* 1 FETCH (FLAGS (" + keyword1 + "))",
+				tag.next() + " OK STORE completed"
+		);
+
+		// STORE 1 +FLAGS (<too long>)
+		success = client.store("1", "+FLAGS", "(" + "x".repeat(FlagDictionary.MAX_FLAG_LENGTH + 1) + ")");
+		assertThat(success).isFalse();
+		assertReply(client, tag.next() + " NO [LIMIT] Flag too long");
+
+	}
+
 	private void assertReply(IMAPClient client, String... expectedReply) {
 		String[] reply = client.getReplyStrings();
 		assertThat(reply).containsExactly(expectedReply);
@@ -100,16 +100,22 @@ class ImapServerTest {
 		List<DynamicTest> tests = new ArrayList<>();
 		for (String sslProtocol : sslProtocols) {
 
-			DynamicTest test = DynamicTest.dynamicTest(sslProtocol, () -> testEncryption(sslProtocol, false));
+			DynamicTest test = DynamicTest.dynamicTest(sslProtocol, () -> testEncryption(sslProtocol, false, false));
 			tests.add(test);
 
-			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS)", () -> testEncryption(sslProtocol, true));
+			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS)", () -> testEncryption(sslProtocol, true, false));
+			tests.add(test);
+
+			test = DynamicTest.dynamicTest(sslProtocol + " (NIO)", () -> testEncryption(sslProtocol, false, true));
+			tests.add(test);
+
+			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS, NIO)", () -> testEncryption(sslProtocol, true, true));
 			tests.add(test);
 		}
 		return tests;
 	}
 
-	private void testEncryption(String sslProtocol, boolean useStartTLS) throws IOException, MessagingException, InterruptedException {
+	private void testEncryption(String sslProtocol, boolean useStartTLS, boolean useNIO) throws IOException, MessagingException, InterruptedException {
 
 		// STARTTLS not supported for SSLv3 in Java 14+
 		// see https://bugs.java.com/bugdatabase/view_bug.do?bug_id=JDK-8190492
@@ -126,6 +132,7 @@ class ImapServerTest {
 			server.setUseSSL(!useStartTLS);
 			server.setSSLProtocol(sslProtocol);
 			server.setCommandEnabled("STARTTLS", useStartTLS);
+			server.setUseNIO(useNIO);
 			// TODO: require encryption
 			server.start();
 
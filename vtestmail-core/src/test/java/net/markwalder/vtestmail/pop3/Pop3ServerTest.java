@@ -99,16 +99,22 @@ class Pop3ServerTest {
 		List<DynamicTest> tests = new ArrayList<>();
 		for (String sslProtocol : sslProtocols) {
 
-			DynamicTest test = DynamicTest.dynamicTest(sslProtocol, () -> testEncryption(sslProtocol, false));
+			DynamicTest test = DynamicTest.dynamicTest(sslProtocol, () -> testEncryption(sslProtocol, false, false));
 			tests.add(test);
 
-			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS)", () -> testEncryption(sslProtocol, true));
+			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS)", () -> testEncryption(sslProtocol, true, false));
+			tests.add(test);
+
+			test = DynamicTest.dynamicTest(sslProtocol + " (NIO)", () -> testEncryption(sslProtocol, false, true));
+			tests.add(test);
+
+			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS, NIO)", () -> testEncryption(sslProtocol, true, true));
 			tests.add(test);
 		}
 		return tests;
 	}
 
-	private void testEncryption(String sslProtocol, boolean useStartTLS) throws IOException, MessagingException, InterruptedException {
+	private void testEncryption(String sslProtocol, boolean useStartTLS, boolean useNIO) throws IOException, MessagingException, InterruptedException {
 
 		// STARTTLS not supported for SSLv3 in Java 14+
 		// see https://bugs.java.com/bugdatabase/view_bug.do?bug_id=JDK-8190492
@@ -125,6 +131,7 @@ class Pop3ServerTest {
 			server.setUseSSL(!useStartTLS);
 			server.setSSLProtocol(sslProtocol);
 			server.setCommandEnabled("STLS", useStartTLS);
+			server.setUseNIO(useNIO);
 			// TODO: require encryption
 			server.start();
 
@@ -18,6 +18,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import net.markwalder.vtestmail.store.MailboxMessage;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -98,7 +100,8 @@ class RETRTest extends CommandTest {
 		Mockito.doReturn(false).when(message).isDeleted();
 		Mockito.doReturn(false).when(session).isDeleted(1);
 		Mockito.doReturn(20).when(message).getSize();
-		Mockito.doReturn("Subject: Test\r\n\r\nThis is a test message.").when(message).getContent();
+		ByteBuffer content = ByteBuffer.wrap("Subject: Test\r\n\r\nThis is a test message.".getBytes(StandardCharsets.ISO_8859_1));
+		Mockito.doReturn(content).when(message).getContentBuffer();
 
 		// prepare
 		Pop3Command command = new RETR(1);
@@ -112,9 +115,9 @@ class RETRTest extends CommandTest {
 		Mockito.verify(message).isDeleted();
 		Mockito.verify(session).isDeleted(1);
 		Mockito.verify(message).getSize();
-		Mockito.verify(message).getContent();
+		Mockito.verify(message).getContentBuffer();
 		Mockito.verify(client).writeLine("+OK 20 octets");
-		Mockito.verify(client).writeMultiLines("Subject: Test\r\n\r\nThis is a test message.");
+		Mockito.verify(client).writeMultiLines(content);
 
 		Mockito.verifyNoMoreInteractions(server, session, client, message);
 	}
@@ -24,6 +24,7 @@ import java.time.ZoneId;
 import java.util.Collections;
 import net.markwalder.vtestmail.store.Mailbox;
 import net.markwalder.vtestmail.store.MailboxFolder;
+import net.markwalder.vtestmail.store.MailboxMessage;
 import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.testutils.TestUtils;
 import org.junit.jupiter.api.Test;
@@ -34,12 +35,13 @@ class DATATest extends CommandTest {
 	private final MailboxStore store = Mockito.mock(MailboxStore.class);
 	private final Mailbox mailbox = Mockito.mock(Mailbox.class);
 	private final MailboxFolder folder = Mockito.mock(MailboxFolder.class);
+	private final MailboxMessage message = Mockito.mock(MailboxMessage.class);
 
 	@Test
 	void execute() throws SmtpException, IOException {
 
 		// mock
-		Mockito.doReturn(false).when(server).isAuthenticationRequired();
+		Mockito.doReturn(false).when(server).isAuthenticationRequired(session);
 		Mockito.doReturn(
 				"Subject: Test",
 				"",
@@ -54,6 +56,7 @@ class DATATest extends CommandTest {
 		Mockito.doReturn(Collections.singletonList("alice@localhost")).when(session).getRecipients();
 		Mockito.doReturn(mailbox).when(store).findMailbox("alice@localhost");
 		Mockito.doReturn(folder).when(mailbox).getInbox();
+		Mockito.doReturn(message).when(folder).addMessage(Mockito.anyString());
 
 		// prepare
 		SmtpCommand command = new DATA();
@@ -62,7 +65,7 @@ class DATATest extends CommandTest {
 		command.execute(server, session, client);
 
 		// verify
-		Mockito.verify(server).isAuthenticationRequired();
+		Mockito.verify(server).isAuthenticationRequired(session);
 		Mockito.verify(client).writeLine("354 Send message, end with <CRLF>.<CRLF>");
 		Mockito.verify(client, Mockito.times(5)).readLine();
 		Mockito.verify(session).getClientAddress();
@@ -73,6 +76,7 @@ class DATATest extends CommandTest {
 		Mockito.verify(store).findMailbox("alice@localhost");
 		Mockito.verify(mailbox).getInbox();
 		Mockito.verify(folder).addMessage("Received: from client by server; Wed, 1 Jan 2020 00:00:00 +0000\r\nSubject: Test\r\n\r\nHello World!\r\n.");
+		Mockito.verify(server).fireMessageDelivered(session, mailbox, message);
 		Mockito.verify(session).endTransaction("Received: from client by server; Wed, 1 Jan 2020 00:00:00 +0000\r\nSubject: Test\r\n\r\nHello World!\r\n.");
 		Mockito.verify(client).writeLine("250 2.6.0 Message accepted");
 
@@ -83,7 +87,7 @@ class DATATest extends CommandTest {
 	void execute_notAuthenticated() {
 
 		// mock
-		Mockito.doReturn(true).when(server).isAuthenticationRequired();
+		Mockito.doReturn(true).when(server).isAuthenticationRequired(session);
 
 		// prepare
 		SmtpCommand command = new DATA();
@@ -95,7 +99,7 @@ class DATATest extends CommandTest {
 		assertThat(exception).hasMessage("530 5.7.0 Authentication required");
 
 		// verify
-		Mockito.verify(server).isAuthenticationRequired();
+		Mockito.verify(server).isAuthenticationRequired(session);
 
 		Mockito.verifyNoMoreInteractions(server, session, client, store, mailbox);
 	}
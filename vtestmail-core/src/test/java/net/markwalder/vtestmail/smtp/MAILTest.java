@@ -24,7 +24,7 @@ class MAILTest extends CommandTest {
 	void execute() throws SmtpException, IOException {
 
 		// mock
-		Mockito.doReturn(false).when(server).isAuthenticationRequired();
+		Mockito.doReturn(false).when(server).isAuthenticationRequired(session);
 
 		// prepare
 		SmtpCommand command = new MAIL("alice@localhost");
@@ -33,7 +33,7 @@ class MAILTest extends CommandTest {
 		command.execute(server, session, client);
 
 		// verify
-		Mockito.verify(server).isAuthenticationRequired();
+		Mockito.verify(server).isAuthenticationRequired(session);
 		Mockito.verify(session).startTransaction("alice@localhost");
 		Mockito.verify(client).writeLine("250 2.1.0 OK");
 
@@ -24,7 +24,7 @@ class RCPTTest extends CommandTest {
 	void execute() throws SmtpException, IOException {
 
 		// mock
-		Mockito.doReturn(false).when(server).isAuthenticationRequired();
+		Mockito.doReturn(false).when(server).isAuthenticationRequired(session);
 
 		// prepare
 		SmtpCommand command = new RCPT("alice@localhost");
@@ -33,7 +33,7 @@ class RCPTTest extends CommandTest {
 		command.execute(server, session, client);
 
 		// verify
-		Mockito.verify(server).isAuthenticationRequired();
+		Mockito.verify(server).isAuthenticationRequired(session);
 		Mockito.verify(client).writeLine("250 2.1.5 OK");
 		Mockito.verify(session).addRecipient("alice@localhost");
 
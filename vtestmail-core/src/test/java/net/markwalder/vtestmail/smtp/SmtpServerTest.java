@@ -18,19 +18,34 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import com.sun.mail.smtp.SMTPSendFailedException;
 import jakarta.mail.AuthenticationFailedException;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
 import net.markwalder.vtestmail.auth.AuthType;
+import net.markwalder.vtestmail.core.MailServer;
+import net.markwalder.vtestmail.core.MailSessionSummary;
+import net.markwalder.vtestmail.core.SessionLog;
+import net.markwalder.vtestmail.core.SessionLogPolicy;
 import net.markwalder.vtestmail.store.Mailbox;
 import net.markwalder.vtestmail.store.MailboxFolder;
 import net.markwalder.vtestmail.store.MailboxMessage;
@@ -38,6 +53,9 @@ import net.markwalder.vtestmail.store.MailboxStore;
 import net.markwalder.vtestmail.testutils.JavaUtils;
 import net.markwalder.vtestmail.testutils.SmtpClient;
 import net.markwalder.vtestmail.testutils.TestUtils;
+import org.apache.commons.net.smtp.SMTPClient;
+import org.apache.commons.net.smtp.SMTPSClient;
+import org.apache.commons.net.util.TrustManagerUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.DynamicTest;
@@ -91,6 +109,361 @@ class SmtpServerTest {
 		}
 	}
 
+	@Test
+	@DisplayName("Concurrent clients")
+	void testConcurrentClients() throws IOException, InterruptedException {
+
+		// prepare: executor for client connections
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setExecutor(executor);
+			server.setBacklog(10);
+			server.start();
+
+			// test
+			testConcurrentClients(server, 3);
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@DisplayName("Virtual threads")
+	void testVirtualThreads() throws IOException, InterruptedException {
+
+		// prepare: SMTP server
+		// note: falls back to a pool of platform threads on Java 20 or older
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setUseVirtualThreads(true);
+			server.setMaxThreads(5);
+			server.start();
+
+			// test
+			testConcurrentClients(server, 5);
+		}
+	}
+
+	@Test
+	@DisplayName("Non-blocking I/O")
+	void testNonBlockingIO() throws IOException, InterruptedException {
+
+		// prepare: SMTP server
+		// note: idle connections do not occupy a thread,
+		// so two threads are enough to serve many clients
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setUseNIO(true);
+			server.setEventLoops(2);
+			server.setMaxThreads(2);
+			server.setBacklog(20);
+			server.start();
+
+			// test
+			testConcurrentClients(server, 20);
+		}
+	}
+
+	@TestFactory
+	@DisplayName("Non-blocking I/O with TLS")
+	Collection<DynamicTest> testNonBlockingTLS() {
+		return Arrays.asList(
+				DynamicTest.dynamicTest("Implicit TLS", () -> testNonBlockingTLS(false)),
+				DynamicTest.dynamicTest("STARTTLS", () -> testNonBlockingTLS(true))
+		);
+	}
+
+	private void testNonBlockingTLS(boolean useStartTLS) throws Exception {
+
+		// prepare: SMTP server with a single worker thread
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setUseSSL(!useStartTLS);
+			server.setSSLProtocol("TLSv1.2");
+			server.setCommandEnabled("STARTTLS", useStartTLS);
+			server.setUseNIO(true);
+			server.setMaxThreads(1);
+			server.setHandshakeTimeout(1000);
+			server.start();
+
+			// prepare: client SSL context
+			SSLContext context = SSLContext.getInstance("TLSv1.2");
+			context.init(null, new TrustManager[] { TrustManagerUtils.getAcceptAllTrustManager() }, null);
+
+			// prepare: client which never sends a ClientHello
+			try (Socket socket = new Socket("localhost", server.getPort())) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+				if (useStartTLS) {
+					assertThat(reader.readLine()).isEqualTo("220 localhost SMTP server ready");
+					socket.getOutputStream().write("STARTTLS\r\n".getBytes(StandardCharsets.US_ASCII));
+					assertThat(reader.readLine()).isEqualTo("220 Ready to start TLS");
+				}
+
+				// test: other clients are served by the only worker thread
+				for (int i = 0; i < 3; i++) {
+					SMTPSClient client = new SMTPSClient(!useStartTLS, context);
+					client.connect("localhost", server.getPort());
+					if (useStartTLS) {
+						assertThat(client.execTLS()).isTrue();
+					}
+					assertThat(client.helo("localhost")).isEqualTo(250);
+					client.logout();
+					client.disconnect();
+				}
+
+				// assert: connection is closed after the handshake timeout
+				socket.setSoTimeout(10000);
+				assertThat(reader.read()).isEqualTo(-1);
+			}
+		}
+	}
+
+	@TestFactory
+	@DisplayName("Multiple listeners")
+	Collection<DynamicTest> testMultipleListeners() {
+		return Arrays.asList(
+				DynamicTest.dynamicTest("Blocking I/O", () -> testMultipleListeners(false)),
+				DynamicTest.dynamicTest("NIO", () -> testMultipleListeners(true))
+		);
+	}
+
+	private void testMultipleListeners(boolean useNIO) throws IOException, InterruptedException {
+		assumeTrue(MailServer.isReusePortSupported(), "SO_REUSEPORT not supported");
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setListeners(4);
+			server.setUseNIO(useNIO);
+			server.start();
+
+			// test: connect many short-lived clients
+			for (int i = 0; i < 40; i++) {
+				SMTPClient client = new SMTPClient();
+				client.connect("localhost", server.getPort());
+				assertThat(client.getReplyCode()).isEqualTo(220);
+				assertThat(client.logout()).isTrue();
+				client.disconnect();
+			}
+
+			// assert: all connections have been accepted by one of the listeners
+			long[] acceptCounts = server.getAcceptCounts();
+			assertThat(acceptCounts).hasSize(4);
+			assertThat(Arrays.stream(acceptCounts).sum()).isEqualTo(40);
+			assertThat(server.getSessions()).hasSize(40);
+		}
+	}
+
+	@TestFactory
+	@DisplayName("Line too long")
+	Collection<DynamicTest> testLineTooLong() {
+		return Arrays.asList(
+				DynamicTest.dynamicTest("Blocking I/O", () -> testLineTooLong(false)),
+				DynamicTest.dynamicTest("NIO", () -> testLineTooLong(true))
+		);
+	}
+
+	private void testLineTooLong(boolean useNIO) throws IOException, InterruptedException {
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setMaxLineLength(64);
+			server.setUseNIO(useNIO);
+			server.start();
+
+			// prepare: SMTP client
+			SMTPClient client = new SMTPClient();
+			client.connect("localhost", server.getPort());
+
+			// test: line with maximum length
+			String domain = "x".repeat(64 - 5);
+			assertThat(client.helo(domain)).isEqualTo(250);
+
+			// test: line which is one character too long
+			assertThat(client.helo(domain + "x")).isEqualTo(500);
+			assertThat(client.getReplyString()).isEqualTo("500 5.5.2 Line too long\r\n");
+
+			// assert: connection has been closed by server
+			List<SmtpSession> sessions = server.getSessions();
+			assertThat(sessions).hasSize(1);
+			SmtpSession session = sessions.get(0);
+			session.waitUntilClosed(5000);
+			assertThat(session.isClosed()).isTrue();
+			assertThat(session.getCommands()).containsExactly(
+					new HELO(domain)
+			);
+
+			client.disconnect();
+		}
+	}
+
+	@Test
+	@DisplayName("Session log policy")
+	void testSessionLogPolicy() throws IOException, InterruptedException {
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setSessionLogPolicy(SessionLogPolicy.ringBuffer(40));
+			server.start();
+
+			// prepare: SMTP client
+			SMTPClient client = new SMTPClient();
+			client.connect("localhost", server.getPort());
+
+			// test
+			assertThat(client.helo("localhost")).isEqualTo(250);
+			assertThat(client.noop()).isEqualTo(250);
+			assertThat(client.quit()).isEqualTo(221);
+			client.disconnect();
+
+			// assert: only the most recent entries have been kept
+			List<SmtpSession> sessions = server.getSessions();
+			assertThat(sessions).hasSize(1);
+			SmtpSession session = sessions.get(0);
+			session.waitUntilClosed(5000);
+			assertThat(session.getLog()).isEqualTo("250 OK\nNOOP\n250 OK\nQUIT\n221 2.0.0 Goodbye\n");
+
+			List<SessionLog.Entry> entries = session.getSessionLog().getEntries();
+			assertThat(entries).extracting(SessionLog.Entry::getDirection).containsExactly(
+					SessionLog.Direction.SERVER,
+					SessionLog.Direction.CLIENT,
+					SessionLog.Direction.SERVER,
+					SessionLog.Direction.CLIENT,
+					SessionLog.Direction.SERVER
+			);
+			assertThat(entries).extracting(SessionLog.Entry::getBytes).containsExactly(8L, 6L, 8L, 6L, 19L);
+		}
+	}
+
+	@Test
+	@DisplayName("Session history retention")
+	void testSessionHistoryRetention() throws Exception {
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setMaxSessions(2);
+			server.setMaxSessionSummaries(10);
+			server.start();
+
+			// test: clients connect one after another
+			for (int i = 0; i < 5; i++) {
+				CompletableFuture<SmtpSession> sessionClosed = server.nextSessionClosed();
+				SMTPClient client = new SMTPClient();
+				client.connect("localhost", server.getPort());
+				assertThat(client.helo("localhost")).isEqualTo(250);
+				assertThat(client.logout()).isTrue();
+				client.disconnect();
+
+				// wait until server has ended the session
+				sessionClosed.get(5, TimeUnit.SECONDS);
+			}
+
+			// assert: only the most recent sessions are kept
+			List<SmtpSession> sessions = server.getSessions();
+			assertThat(sessions).hasSize(2);
+			assertThat(server.getSessions()).isSameAs(sessions);
+
+			// assert: summaries of evicted sessions are kept
+			List<MailSessionSummary> summaries = server.getSessionSummaries();
+			assertThat(summaries).hasSize(3);
+			for (MailSessionSummary summary : summaries) {
+				assertThat(summary.getClientAddress()).isEqualTo("127.0.0.1");
+				assertThat(summary.getCommandCount()).isEqualTo(2);
+				assertThat(summary.getAuthType()).isNull();
+				assertThat(summary.getBytesReceived()).isEqualTo("HELO localhost\r\nQUIT\r\n".length());
+				assertThat(summary.getDuration()).isNotNull();
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Server events")
+	void testEvents() throws Exception {
+
+		// prepare: mailbox
+		MailboxStore store = new MailboxStore();
+		store.createMailbox(USERNAME, PASSWORD, TO);
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(store)) {
+			server.start();
+
+			// prepare: futures for server events
+			CompletableFuture<SmtpSession> sessionOpened = server.nextSessionOpened();
+			CompletableFuture<SmtpSession> sessionClosed = server.nextSessionClosed();
+			CompletableFuture<SmtpCommand> commandExecuted = server.nextCommand(command -> command instanceof DATA);
+			CompletableFuture<MailboxMessage> messageDelivered = server.nextMessageDelivered();
+
+			// prepare: SMTP client
+			SMTPClient client = new SMTPClient();
+			client.connect("localhost", server.getPort());
+
+			// assert: session has been opened
+			SmtpSession session = sessionOpened.get(5, TimeUnit.SECONDS);
+			CompletableFuture<Void> whenClosed = session.whenClosed();
+			assertThat(whenClosed).isNotDone();
+			assertThat(sessionClosed).isNotDone();
+
+			// test
+			assertThat(client.helo("localhost")).isEqualTo(250);
+			assertThat(client.setSender(FROM)).isTrue();
+			assertThat(client.addRecipient(TO)).isTrue();
+			assertThat(client.sendShortMessageData("Subject: Test\r\n\r\nHello")).isTrue();
+
+			// assert: command has been executed and message has been delivered
+			assertThat(commandExecuted.get(5, TimeUnit.SECONDS)).isEqualTo(new DATA());
+			MailboxMessage message = messageDelivered.get(5, TimeUnit.SECONDS);
+			assertThat(message.getContent()).endsWith("Subject: Test\r\n\r\nHello");
+			assertThat(store.getMailbox(USERNAME).getInbox().getMessages()).containsExactly(message);
+
+			// test
+			assertThat(client.logout()).isTrue();
+			client.disconnect();
+
+			// assert: session has been closed
+			whenClosed.get(5, TimeUnit.SECONDS);
+			assertThat(sessionClosed.get(5, TimeUnit.SECONDS)).isSameAs(session);
+			assertThat(session.isClosed()).isTrue();
+			assertThat(session.getEndTime()).isNotNull();
+		}
+	}
+
+	private void testConcurrentClients(SmtpServer server, int count) throws IOException, InterruptedException {
+
+		// test: connect all clients at the same time
+		List<SMTPClient> clients = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			SMTPClient client = new SMTPClient();
+			client.connect("localhost", server.getPort());
+			clients.add(client);
+
+			// assert: every client has been greeted
+			assertThat(client.getReplyCode()).isEqualTo(220);
+		}
+
+		// assert: all sessions are active
+		Collection<SmtpSession> activeSessions = server.getActiveSessions();
+		assertThat(activeSessions).hasSize(count);
+		assertThat(server.getActiveSession()).isIn(activeSessions);
+
+		// test: every client sends a command and disconnects
+		for (SMTPClient client : clients) {
+			assertThat(client.helo("localhost")).isEqualTo(250);
+			assertThat(client.logout()).isTrue();
+			client.disconnect();
+		}
+
+		// assert: all sessions have been closed
+		List<SmtpSession> sessions = server.getSessions();
+		assertThat(sessions).hasSize(count);
+		for (SmtpSession session : sessions) {
+			session.waitUntilClosed(5000);
+			assertThat(session.getCommands()).containsExactly(
+					new HELO("localhost"),
+					new QUIT()
+			);
+		}
+	}
+
 	@Test
 	@DisplayName("Data")
 	void testData() throws IOException, MessagingException, InterruptedException {
@@ -212,16 +585,69 @@ class SmtpServerTest {
 		List<DynamicTest> tests = new ArrayList<>();
 		for (String sslProtocol : sslProtocols) {
 
-			DynamicTest test = DynamicTest.dynamicTest(sslProtocol, () -> testEncryption(sslProtocol, false));
+			DynamicTest test = DynamicTest.dynamicTest(sslProtocol, () -> testEncryption(sslProtocol, false, false));
+			tests.add(test);
+
+			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS)", () -> testEncryption(sslProtocol, true, false));
+			tests.add(test);
+
+			test = DynamicTest.dynamicTest(sslProtocol + " (NIO)", () -> testEncryption(sslProtocol, false, true));
 			tests.add(test);
 
-			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS)", () -> testEncryption(sslProtocol, true));
+			test = DynamicTest.dynamicTest(sslProtocol + " (STARTTLS, NIO)", () -> testEncryption(sslProtocol, true, true));
 			tests.add(test);
 		}
 		return tests;
 	}
 
-	private void testEncryption(String sslProtocol, boolean useStartTLS) throws IOException, MessagingException, InterruptedException {
+	@TestFactory
+	@DisplayName("TLS session resumption")
+	Collection<DynamicTest> testSessionResumption() {
+		return Arrays.asList(
+				DynamicTest.dynamicTest("TLSv1.2, Blocking I/O", () -> testSessionResumption("TLSv1.2", false, false)),
+				DynamicTest.dynamicTest("TLSv1.2, STARTTLS", () -> testSessionResumption("TLSv1.2", true, false)),
+				DynamicTest.dynamicTest("TLSv1.2, NIO", () -> testSessionResumption("TLSv1.2", false, true)),
+				DynamicTest.dynamicTest("TLSv1.2, STARTTLS, NIO", () -> testSessionResumption("TLSv1.2", true, true)),
+				DynamicTest.dynamicTest("TLSv1.3, Blocking I/O", () -> testSessionResumption("TLSv1.3", false, false)),
+				DynamicTest.dynamicTest("TLSv1.3, STARTTLS", () -> testSessionResumption("TLSv1.3", true, false)),
+				DynamicTest.dynamicTest("TLSv1.3, NIO", () -> testSessionResumption("TLSv1.3", false, true)),
+				DynamicTest.dynamicTest("TLSv1.3, STARTTLS, NIO", () -> testSessionResumption("TLSv1.3", true, true))
+		);
+	}
+
+	private void testSessionResumption(String sslProtocol, boolean useStartTLS, boolean useNIO) throws Exception {
+
+		// prepare: SMTP server
+		try (SmtpServer server = new SmtpServer(new MailboxStore())) {
+			server.setUseSSL(!useStartTLS);
+			server.setSSLProtocol(sslProtocol);
+			server.setCommandEnabled("STARTTLS", useStartTLS);
+			server.setUseNIO(useNIO);
+			server.start();
+
+			// prepare: client SSL context (shared by all connections)
+			SSLContext context = SSLContext.getInstance(sslProtocol);
+			context.init(null, new TrustManager[] { TrustManagerUtils.getAcceptAllTrustManager() }, null);
+
+			// test: connect three times
+			for (int i = 0; i < 3; i++) {
+				SMTPSClient client = new SMTPSClient(!useStartTLS, context);
+				client.connect("localhost", server.getPort());
+				if (useStartTLS) {
+					assertThat(client.execTLS()).isTrue();
+				}
+				assertThat(client.helo("localhost")).isEqualTo(250);
+				client.logout();
+				client.disconnect();
+			}
+
+			// assert: only the first handshake is a full handshake
+			assertThat(server.getFullHandshakes()).isEqualTo(1);
+			assertThat(server.getResumedHandshakes()).isEqualTo(2);
+		}
+	}
+
+	private void testEncryption(String sslProtocol, boolean useStartTLS, boolean useNIO) throws IOException, MessagingException, InterruptedException {
 
 		// STARTTLS not supported for SSLv3 in Java 14+
 		// see https://bugs.java.com/bugdatabase/view_bug.do?bug_id=JDK-8190492
@@ -236,6 +662,7 @@ class SmtpServerTest {
 			server.setUseSSL(!useStartTLS);
 			server.setSSLProtocol(sslProtocol);
 			server.setCommandEnabled("STARTTLS", useStartTLS);
+			server.setUseNIO(useNIO);
 			// TODO: require encryption
 			server.start();
 
@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import net.markwalder.vtestmail.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+
+class BinaryStoreUtilsTest {
+
+	@Test
+	void storeAndLoad() throws IOException {
+
+		// prepare
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+
+		// test
+		byte[] data = toBytes(store);
+		MailboxStore result = BinaryStoreUtils.load(new ByteArrayInputStream(data));
+
+		// assert
+		assertThat(toXml(result)).isEqualTo(TestUtils.readResource("mailbox-store.xml"));
+	}
+
+	@Test
+	void storeAndLoad_rawContent() throws IOException {
+
+		// prepare: content with line endings and escape markers of the XML format
+		MailboxStore store = new MailboxStore();
+		MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+		String content1 = "Subject: Test\r\n\r\nLine 1 [CRLF]\rLine 2 [LF]\nLine 3";
+		String content2 = "Subject: Gr\u00FC\u00DFe\r\n\r\n\u20AC 100";
+		inbox.addMessage(content1).setFlags(Arrays.asList(MailboxMessage.FLAG_SEEN, "custom"));
+		inbox.addMessage(content2);
+		inbox.setUIDValidity(42);
+
+		// test
+		MailboxStore result = BinaryStoreUtils.load(new ByteArrayInputStream(toBytes(store)));
+
+		// assert
+		MailboxFolder folder = result.getMailbox("alice").getInbox();
+		assertThat(folder.getUIDNext()).isEqualTo(3);
+		assertThat(folder.getUIDValidity()).isEqualTo(42);
+		assertThat(folder.getMessage(1).getContent()).isEqualTo(content1);
+		assertThat(folder.getMessage(1).getFlags()).containsExactly("\\Seen", "custom");
+		assertThat(folder.getMessage(2).getContent()).isEqualTo(content2);
+		assertThat(folder.getMessage(2).getUID()).isEqualTo(2);
+	}
+
+	@Test
+	void store_sharedContent() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		String content = "Subject: Newsletter\r\n\r\n" + "Lorem ipsum dolor sit amet. ".repeat(1000);
+		for (int i = 0; i < 10; i++) {
+			store.createMailbox("user" + i, "password123", "user" + i + "@localhost").getInbox().addMessage(content);
+		}
+
+		// test
+		byte[] data = toBytes(store);
+
+		// assert: content has been written only once
+		assertThat(data.length).isBetween(content.length(), 2 * content.length());
+
+		MailboxStore result = BinaryStoreUtils.load(new ByteArrayInputStream(data));
+		assertThat(result.getMailbox("user9").getInbox().getMessage(1).getContent()).isEqualTo(content);
+		assertThat(result.getContentPool().size()).isEqualTo(1);
+	}
+
+	@Test
+	void load_incomplete() throws IOException {
+
+		// prepare
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+		byte[] data = toBytes(store);
+		byte[] truncated = Arrays.copyOf(data, data.length - 10);
+
+		// test & assert
+		assertThatThrownBy(() -> BinaryStoreUtils.load(new ByteArrayInputStream(truncated)))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Incomplete snapshot");
+	}
+
+	@Test
+	void load_corrupt() throws IOException {
+
+		// prepare
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+		byte[] data = toBytes(store);
+		data[data.length / 2]++;
+
+		// test & assert
+		assertThatThrownBy(() -> BinaryStoreUtils.load(new ByteArrayInputStream(data)))
+				.isInstanceOf(IOException.class)
+				.hasMessageStartingWith("Corrupt snapshot");
+	}
+
+	@Test
+	void load_invalidBlockLength() throws IOException {
+
+		// prepare: huge length of first block (mailbox)
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+		byte[] data = toBytes(store);
+		data[6] = 0x7F;
+
+		// test & assert
+		assertThatThrownBy(() -> BinaryStoreUtils.load(new ByteArrayInputStream(data)))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Corrupt snapshot: invalid block length");
+	}
+
+	@Test
+	void load_invalidContentLength() throws IOException {
+
+		// prepare: huge length of first content block
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+		byte[] data = toBytes(store);
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		int position = 5; // skip header
+		while (buffer.get(position) != 3) { // skip blocks until content block
+			position += 1 + 4 + buffer.getInt(position + 1) + 4;
+		}
+		buffer.putInt(position + 1, Integer.MAX_VALUE);
+
+		// test & assert: no attempt to allocate a huge buffer
+		assertThatThrownBy(() -> BinaryStoreUtils.load(new ByteArrayInputStream(data)))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Incomplete snapshot");
+	}
+
+	@Test
+	void load_unsupportedVersion() throws IOException {
+
+		// prepare
+		byte[] data = toBytes(new MailboxStore());
+		data[4] = 99;
+
+		// test & assert
+		assertThatThrownBy(() -> BinaryStoreUtils.load(new ByteArrayInputStream(data)))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Unsupported snapshot version: 99");
+	}
+
+	private static byte[] toBytes(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		BinaryStoreUtils.store(store, stream);
+		return stream.toByteArray();
+	}
+
+	private static String toXml(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import net.markwalder.vtestmail.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlobStoreTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void append() throws IOException {
+
+		// prepare: small regions to test region boundaries
+		try (BlobStore store = new BlobStore(tempDir.resolve("blobs.dat"), 16)) {
+
+			// test
+			MessageContent content1 = store.append(bytes("Hello World!"));
+			MessageContent content2 = store.append(bytes("Region 2"));
+			MessageContent content3 = store.append(bytes("Larger than a single region"));
+
+			// assert
+			assertThat(string(content1)).isEqualTo("Hello World!");
+			assertThat(string(content2)).isEqualTo("Region 2");
+			assertThat(string(content3)).isEqualTo("Larger than a single region");
+			assertThat(content2.get(7)).isEqualTo((byte) '2');
+			assertThat(content3.decode(0, 6, StandardCharsets.ISO_8859_1)).isEqualTo("Larger");
+			assertThat(content1.buffer().isReadOnly()).isTrue();
+			assertThat(store.getSize()).isEqualTo(12 + 8 + 27);
+			assertThatThrownBy(() -> content2.get(8)).isInstanceOf(IndexOutOfBoundsException.class);
+		}
+	}
+
+	@Test
+	void append_afterClose() throws IOException {
+
+		// prepare
+		BlobStore store = new BlobStore(tempDir.resolve("blobs.dat"));
+		MessageContent content = store.append(bytes("Hello World!"));
+
+		// test
+		store.close();
+
+		// assert: existing content is still readable
+		assertThat(string(content)).isEqualTo("Hello World!");
+		assertThatThrownBy(() -> store.append(bytes("Too late")))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("Blob store has been closed");
+	}
+
+	@Test
+	void mailboxStore() throws IOException {
+
+		// prepare
+		try (BlobStore blobStore = new BlobStore(tempDir.resolve("blobs.dat"))) {
+			MailboxStore store = new MailboxStore(blobStore);
+			Mailbox mailbox = store.createMailbox("alice", "password123", "alice@localhost");
+
+			// test
+			MailboxMessage message = mailbox.getInbox().addMessage("Subject: Test\r\n\r\nGr\u00FC\u00DFe");
+
+			// assert: content is kept in blob store
+			assertThat(blobStore.getSize()).isEqualTo(22);
+			assertThat(message.getSize()).isEqualTo(22);
+			assertThat(message.getContent()).isEqualTo("Subject: Test\r\n\r\nGr\u00FC\u00DFe");
+			assertThat(message.getHeader("Subject")).isEqualTo("Test");
+			assertThat(message.getTop(0)).isEqualTo("Subject: Test");
+
+			// assert: new folders use the blob store as well
+			mailbox.createFolder("Archive").addMessage("Archived");
+			assertThat(blobStore.getSize()).isEqualTo(30);
+		}
+	}
+
+	@Test
+	void mailboxStore_load() throws IOException {
+
+		// prepare
+		String xml = TestUtils.readResource("mailbox-store.xml");
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		BinaryStoreUtils.store(MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml")), binary);
+
+		try (BlobStore blobStore = new BlobStore(tempDir.resolve("blobs.dat"))) {
+			MailboxStore xmlStore = new MailboxStore(blobStore);
+			MailboxStore parallelStore = new MailboxStore(blobStore);
+			MailboxStore binaryStore = new MailboxStore(blobStore);
+
+			// test
+			MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"), xmlStore);
+			long size = blobStore.getSize();
+			MailboxStoreUtils.loadParallel(TestUtils.openResource("mailbox-store.xml"), parallelStore, ForkJoinPool.commonPool());
+			BinaryStoreUtils.load(new ByteArrayInputStream(binary.toByteArray()), binaryStore);
+
+			// assert: content is kept in blob store
+			assertThat(size).isPositive();
+			assertThat(blobStore.getSize()).isEqualTo(3 * size);
+			assertThat(toXml(xmlStore)).isEqualTo(xml);
+			assertThat(toXml(parallelStore)).isEqualTo(xml);
+			assertThat(toXml(binaryStore)).isEqualTo(xml);
+		}
+	}
+
+	private static String toXml(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static String string(MessageContent content) {
+		ByteBuffer buffer = content.buffer();
+		return StandardCharsets.ISO_8859_1.decode(buffer).toString();
+	}
+
+}
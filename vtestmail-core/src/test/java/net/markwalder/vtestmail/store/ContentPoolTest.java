@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class ContentPoolTest {
+
+	private final ContentPool pool = new ContentPool(null);
+
+	@Test
+	void acquire() {
+
+		// test
+		MessageContent content1 = pool.acquire("Hello World!", StandardCharsets.ISO_8859_1);
+		MessageContent content2 = pool.acquire(new String("Hello World!"), StandardCharsets.ISO_8859_1);
+		MessageContent content3 = pool.acquire("Hello Alice!", StandardCharsets.ISO_8859_1);
+		MessageContent content4 = pool.acquire("Hello World!", StandardCharsets.ISO_8859_1);
+
+		// assert
+		assertThat(content2).isSameAs(content1);
+		assertThat(content3).isNotSameAs(content1);
+		assertThat(content4).isSameAs(content1);
+		assertThat(content1.decode(0, content1.length(), StandardCharsets.ISO_8859_1)).isEqualTo("Hello World!");
+		assertThat(content3.decode(0, content3.length(), StandardCharsets.ISO_8859_1)).isEqualTo("Hello Alice!");
+		assertThat(pool.size()).isEqualTo(2);
+	}
+
+	@Test
+	void acquire_differentCharsets() {
+
+		// prepare: both strings are encoded to the same octets
+		String utf8 = "\u20AC";
+		String latin1 = new String(utf8.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+
+		// test
+		MessageContent content1 = pool.acquire(utf8, StandardCharsets.UTF_8);
+		MessageContent content2 = pool.acquire(latin1, StandardCharsets.ISO_8859_1);
+
+		// assert
+		assertThat(content2).isNotSameAs(content1);
+		assertThat(pool.size()).isEqualTo(2);
+	}
+
+}
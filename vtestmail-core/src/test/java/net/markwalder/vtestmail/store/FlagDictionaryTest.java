@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class FlagDictionaryTest {
+
+	@Test
+	void getId_systemFlags() {
+		assertThat(FlagDictionary.getId(MailboxMessage.FLAG_SEEN)).isEqualTo(FlagDictionary.SEEN);
+		assertThat(FlagDictionary.getId(MailboxMessage.FLAG_ANSWERED)).isEqualTo(FlagDictionary.ANSWERED);
+		assertThat(FlagDictionary.getId(MailboxMessage.FLAG_FLAGGED)).isEqualTo(FlagDictionary.FLAGGED);
+		assertThat(FlagDictionary.getId(MailboxMessage.FLAG_DELETED)).isEqualTo(FlagDictionary.DELETED);
+		assertThat(FlagDictionary.getId(MailboxMessage.FLAG_DRAFT)).isEqualTo(FlagDictionary.DRAFT);
+		assertThat(FlagDictionary.getId(MailboxMessage.FLAG_RECENT)).isEqualTo(FlagDictionary.RECENT);
+	}
+
+	@Test
+	void getId_keyword() {
+
+		// prepare
+		String keyword = "Keyword-" + System.nanoTime();
+		assertThat(FlagDictionary.findId(keyword)).isEqualTo(-1);
+
+		// test
+		int id = FlagDictionary.getId(keyword);
+
+		// assert
+		assertThat(id).isGreaterThanOrEqualTo(FlagDictionary.SYSTEM_FLAGS);
+		assertThat(FlagDictionary.getId(keyword)).isEqualTo(id);
+		assertThat(FlagDictionary.findId(keyword)).isEqualTo(id);
+		assertThat(FlagDictionary.getName(id)).isEqualTo(keyword);
+
+		// assert: flag names are case-sensitive
+		assertThat(FlagDictionary.getId(keyword.toUpperCase())).isNotEqualTo(id);
+	}
+
+	@Test
+	void getId_manyKeywords() {
+
+		// prepare
+		String prefix = "Keyword-" + System.nanoTime() + "-";
+		int[] ids = new int[200];
+
+		// test: names array grows several times
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = FlagDictionary.getId(prefix + i);
+		}
+
+		// assert: IDs and names are stable
+		for (int i = 0; i < ids.length; i++) {
+			assertThat(FlagDictionary.getId(prefix + i)).isEqualTo(ids[i]);
+			assertThat(FlagDictionary.getName(ids[i])).isEqualTo(prefix + i);
+		}
+	}
+
+	@Test
+	void intern() {
+		String flag = new String("$Important");
+		assertThat(FlagDictionary.intern(flag)).isSameAs(FlagDictionary.intern("$Important"));
+	}
+
+}
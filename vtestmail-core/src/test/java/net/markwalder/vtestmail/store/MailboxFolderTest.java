@@ -140,6 +140,67 @@ class MailboxFolderTest {
 
 	}
 
+	@Test
+	void getMessages_snapshot() {
+
+		// prepare
+		folder.addMessage("This is test message 1.");
+		folder.addMessage("This is test message 2.");
+		List<MailboxMessage> snapshot = folder.getMessages();
+
+		// test
+		folder.addMessage("This is test message 3.");
+		folder.removeMessage(1);
+
+		// assert: snapshot is not changed
+		Assertions.assertThat(snapshot).hasSize(2);
+		assertThat(snapshot.get(0).getContent()).isEqualTo("This is test message 1.");
+		assertThat(snapshot.get(1).getContent()).isEqualTo("This is test message 2.");
+		Assertions.assertThat(folder.getMessages()).hasSize(2);
+		assertThat(folder.getMessageCount()).isEqualTo(2);
+		assertThat(folder.getMessage(2).getContent()).isEqualTo("This is test message 3.");
+
+		// assert: snapshot is read-only
+		Assertions.assertThatThrownBy(() -> snapshot.remove(0)).isInstanceOf(UnsupportedOperationException.class);
+	}
+
+	@Test
+	void getMessages_appendToOldSnapshot() {
+
+		// prepare: two snapshots sharing the same array
+		folder.addMessage("This is test message 1.");
+		List<MailboxMessage> snapshot = folder.getMessages();
+		folder.addMessage("This is test message 2.");
+
+		// test: remove and add again, so that the list is rebuilt
+		folder.removeMessage(2);
+		folder.addMessage("This is test message 3.");
+
+		// assert
+		Assertions.assertThat(snapshot).hasSize(1);
+		List<MailboxMessage> messages = folder.getMessages();
+		Assertions.assertThat(messages).hasSize(2);
+		assertThat(messages.get(1).getContent()).isEqualTo("This is test message 3.");
+	}
+
+	@Test
+	void getMessageCount_flag() {
+
+		// prepare
+		folder.addMessage("This is test message 1.").setSeen(true);
+		folder.addMessage("This is test message 2.").setFlag("Important");
+		MailboxMessage message = folder.addMessage("This is test message 3.");
+		message.setSeen(true);
+		message.setFlag("Important");
+
+		// test & assert
+		assertThat(folder.getMessageCount(MailboxMessage.FLAG_SEEN, true)).isEqualTo(2);
+		assertThat(folder.getMessageCount(MailboxMessage.FLAG_SEEN, false)).isEqualTo(1);
+		assertThat(folder.getMessageCount(MailboxMessage.FLAG_DELETED, true)).isZero();
+		assertThat(folder.getMessageCount("Important", true)).isEqualTo(2);
+		assertThat(folder.getMessageCount("Unknown-Keyword-" + System.nanoTime(), false)).isEqualTo(3);
+	}
+
 	// TODO: add tests for uidnext and uidvalidity
 
 }
\ No newline at end of file
@@ -18,7 +18,15 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 
 class MailboxMessageTest {
@@ -49,6 +57,35 @@ class MailboxMessageTest {
 		assertThat(size).isEqualTo(23);
 	}
 
+	@Test
+	void getSize_nonLatin1() {
+
+		// prepare: content with characters outside of ISO-8859-1
+		MailboxMessage message = new MailboxMessage("Gr\u00FC\u00DFe \u20AC");
+
+		// test
+		int size = message.getSize();
+
+		// assert: size in octets (UTF-8)
+		assertThat(size).isEqualTo(11);
+		assertThat(message.getContent()).isEqualTo("Gr\u00FC\u00DFe \u20AC");
+	}
+
+	@Test
+	void getContentBuffer() {
+
+		// prepare
+		MailboxMessage message = new MailboxMessage("Gr\u00FC\u00DFe");
+
+		// test
+		ByteBuffer buffer = message.getContentBuffer();
+
+		// assert: ISO-8859-1 octets in a read-only buffer
+		assertThat(buffer.isReadOnly()).isTrue();
+		assertThat(buffer.remaining()).isEqualTo(5);
+		assertThat(buffer.get(2)).isEqualTo((byte) 0xFC);
+	}
+
 
 	@Test
 	void getFlags() {
@@ -123,6 +160,57 @@ class MailboxMessageTest {
 
 	}
 
+	@Test
+	void setFlags() {
+
+		// prepare
+		MailboxMessage message = new MailboxMessage("This is a test message.");
+		message.setFlag(MailboxMessage.FLAG_SEEN);
+		message.setFlag("custom");
+
+		// test
+		message.setFlags(Arrays.asList(MailboxMessage.FLAG_DELETED, "Important", MailboxMessage.KEYWORD_JUNK, MailboxMessage.KEYWORD_NOTJUNK));
+
+		// assert: old flags removed, $NotJunk replaced $Junk, natural order
+		assertThat(message.getFlags()).containsExactly(MailboxMessage.KEYWORD_NOTJUNK, "Important", MailboxMessage.FLAG_DELETED);
+		assertTrue(message.isDeleted());
+		assertFalse(message.isSeen());
+	}
+
+	@Test
+	void setFlag_concurrent() throws Exception {
+
+		// prepare
+		MailboxMessage message = new MailboxMessage("This is a test message.");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+
+			// test: set different flags from multiple threads
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 100; i++) {
+						message.setFlag("keyword" + thread + "-" + i);
+						message.setDeleted(thread % 2 == 0);
+					}
+					message.setFlag(thread % 2 == 0 ? MailboxMessage.FLAG_SEEN : MailboxMessage.FLAG_FLAGGED);
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+
+		// assert: no update has been lost
+		assertTrue(message.isSeen());
+		assertTrue(message.isFlagged());
+		assertThat(message.getFlags()).hasSize(400 + 2 + (message.isDeleted() ? 1 : 0));
+	}
+
 	@Test
 	void removeFlag() {
 
@@ -382,6 +470,47 @@ class MailboxMessageTest {
 		assertThat(top).isEqualTo("From: X\r\nTo: Y\r\nSubject: Test");
 	}
 
+	@Test
+	void getHeader() {
+
+		// prepare
+		MailboxMessage message = new MailboxMessage("From: X\r\nSubject: Long\r\n subject\r\nX-Empty:\r\n\r\nTo: not a header");
+
+		// test & assert
+		assertThat(message.getHeader("From")).isEqualTo("X");
+		assertThat(message.getHeader("SUBJECT")).isEqualTo("Long subject");
+		assertThat(message.getHeader("X-Empty")).isEmpty();
+		assertThat(message.getHeader("To")).isNull();
+		assertThat(message.getIndex()).isSameAs(message.getIndex());
+	}
+
+	@Test
+	void getIndex_sharedContent() {
+
+		// prepare: same message delivered to two recipients
+		MailboxStore store = new MailboxStore();
+		String content = "From: X\r\nSubject: Test\r\n\r\nHello";
+		MailboxMessage message1 = store.createMailbox("alice", "password123", "alice@localhost").getInbox().addMessage(content);
+		MailboxMessage message2 = store.createMailbox("bob", "password456", "bob@localhost").getInbox().addMessage(content);
+
+		// test & assert: index is built only once
+		assertThat(message2.getIndex()).isSameAs(message1.getIndex());
+	}
+
+	@Test
+	void getTopBuffer() {
+
+		// prepare
+		MailboxMessage message = new MailboxMessage("From: X\r\nTo: Y\r\n\r\nThis is a\r\ntest message.");
+
+		// test
+		ByteBuffer buffer = message.getTopBuffer(1);
+
+		// assert
+		assertThat(buffer.isReadOnly()).isTrue();
+		assertThat(StandardCharsets.ISO_8859_1.decode(buffer).toString()).isEqualTo("From: X\r\nTo: Y\r\n\r\nThis is a");
+	}
+
 	@Test
 	void getTop_ifMessageIsShorter() {
 
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MailboxStoreTest {
+
+	private final MailboxStore store = new MailboxStore();
+
+	@Test
+	void findMailbox() {
+
+		// prepare
+		Mailbox alice = store.createMailbox("alice", "password123", "alice@localhost");
+		Mailbox bob = store.createMailbox("bob", "password123", "Bob@Example.com");
+
+		// test & assert
+		assertThat(store.findMailbox("alice@localhost")).isSameAs(alice);
+		assertThat(store.findMailbox("Bob@Example.com")).isSameAs(bob);
+		assertThat(store.findMailbox("carol@localhost")).isNull();
+
+		// assert: domain is case-insensitive
+		assertThat(store.findMailbox("alice@LOCALHOST")).isSameAs(alice);
+		assertThat(store.findMailbox("Bob@example.com")).isSameAs(bob);
+
+		// assert: local part is case-sensitive
+		assertThat(store.findMailbox("Alice@localhost")).isNull();
+		assertThat(store.findMailbox("bob@example.com")).isNull();
+	}
+
+	@Test
+	void findMailbox_afterDelete() {
+
+		// prepare
+		store.createMailbox("alice", "password123", "alice@localhost");
+
+		// test
+		store.deleteMailbox("alice");
+
+		// assert
+		assertThat(store.findMailbox("alice@localhost")).isNull();
+	}
+
+	@Test
+	void findMailbox_sameEmail() {
+
+		// prepare
+		Mailbox bob = store.createMailbox("bob", "password123", "shared@localhost");
+		Mailbox alice = store.createMailbox("alice", "password123", "shared@localhost");
+
+		// assert: mailbox with first username is returned
+		assertThat(store.findMailbox("shared@localhost")).isSameAs(alice);
+
+		// test
+		store.deleteMailbox("alice");
+
+		// assert: other mailbox is returned
+		assertThat(store.findMailbox("shared@localhost")).isSameAs(bob);
+	}
+
+	@Test
+	void findMailbox_sameEmail_replacedMailbox() {
+
+		// prepare
+		store.createMailbox("carol", "password123", "shared@localhost");
+		Mailbox bob = store.createMailbox("bob", "password123", "shared@localhost");
+		store.createMailbox("alice", "password123", "shared@localhost");
+
+		// test: replace first mailbox with a mailbox for another email address
+		Mailbox alice = store.createMailbox("alice", "password123", "alice@localhost");
+
+		// assert
+		assertThat(store.findMailbox("shared@localhost")).isSameAs(bob);
+		assertThat(store.findMailbox("alice@localhost")).isSameAs(alice);
+
+		// test: delete all other mailboxes
+		store.deleteMailbox("bob");
+		store.deleteMailbox("carol");
+
+		// assert
+		assertThat(store.findMailbox("shared@localhost")).isNull();
+		assertThat(store.findMailbox("alice@localhost")).isSameAs(alice);
+	}
+
+	@Test
+	void findMailbox_replacedMailbox() {
+
+		// prepare
+		store.createMailbox("alice", "password123", "alice@localhost");
+
+		// test: replace mailbox with a mailbox for the same user
+		Mailbox mailbox = store.createMailbox("alice", "password123", "alice@example.com");
+
+		// assert
+		assertThat(store.findMailbox("alice@localhost")).isNull();
+		assertThat(store.findMailbox("alice@example.com")).isSameAs(mailbox);
+	}
+
+	@Test
+	void getUsernames() {
+
+		// prepare
+		store.createMailbox("bob", "password123", "bob@localhost");
+		store.createMailbox("Carol", "password123", "carol@localhost");
+		store.createMailbox("alice", "password123", "alice@localhost");
+
+		// test & assert: case-insensitive order
+		assertThat(store.getUsernames()).containsExactly("alice", "bob", "Carol");
+	}
+
+	@Test
+	void createMailbox_concurrent() throws Exception {
+
+		// prepare
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+
+			// test
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 250; i++) {
+						String username = "user" + thread + "-" + i;
+						store.createMailbox(username, "password123", username + "@localhost");
+						assertThat(store.findMailbox(username + "@localhost")).isNotNull();
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+
+		// assert
+		assertThat(store.getUsernames()).hasSize(1000);
+	}
+
+	@Test
+	void addMessage_sharesContent() {
+
+		// prepare
+		MailboxFolder inbox1 = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+		MailboxFolder inbox2 = store.createMailbox("bob", "password123", "bob@localhost").getInbox();
+		String content = "Subject: Newsletter\r\n\r\nHello World!";
+
+		// test
+		MailboxMessage message1 = inbox1.addMessage(content);
+		MailboxMessage message2 = inbox2.addMessage(content);
+		MailboxMessage message3 = inbox2.addMessage(new String(content)); // equal, but not the same string
+		message1.setFlag(MailboxMessage.FLAG_SEEN);
+
+		// assert: content is shared, flags and UIDs are not
+		assertThat(store.getContentPool().size()).isEqualTo(1);
+		assertThat(message2.getContent()).isEqualTo(content);
+		assertThat(message3.getContent()).isEqualTo(content);
+		assertThat(message2.isSeen()).isFalse();
+		assertThat(message2.getUID()).isEqualTo(1);
+		assertThat(message3.getUID()).isEqualTo(2);
+	}
+
+	@Test
+	void internClientFlag_tooManyKeywords() {
+
+		// prepare
+		String keyword1 = "Keyword-" + System.nanoTime() + "-1";
+		String keyword2 = "Keyword-" + System.nanoTime() + "-2";
+		store.setMaxKeywords(1);
+
+		// test
+		String flag = store.internClientFlag(keyword1);
+
+		// assert
+		assertThatThrownBy(() -> store.internClientFlag(keyword2))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("Too many keywords (max. 1)");
+		assertThat(FlagDictionary.findId(keyword2)).isEqualTo(-1);
+		assertThat(store.getKeywordCount()).isEqualTo(1);
+
+		// assert: known keywords and system flags can still be used
+		assertThat(store.internClientFlag(keyword1)).isSameAs(flag);
+		assertThat(store.internClientFlag(MailboxMessage.FLAG_SEEN)).isEqualTo(MailboxMessage.FLAG_SEEN);
+
+		// assert: limit does not apply to other stores
+		MailboxStore otherStore = new MailboxStore();
+		assertThat(otherStore.internClientFlag(keyword2)).isEqualTo(keyword2);
+		assertThat(otherStore.getKeywordCount()).isEqualTo(1);
+
+		// assert: limit does not apply to keywords added with the API
+		MailboxMessage message = new MailboxMessage("Subject: Test\r\n\r\nHello");
+		message.setFlag("Keyword-" + System.nanoTime() + "-3");
+		assertThat(message.getFlags()).hasSize(1);
+	}
+
+	@Test
+	void internClientFlag_flagTooLong() {
+
+		// prepare
+		String keyword = "Keyword-" + System.nanoTime() + "-" + "x".repeat(FlagDictionary.MAX_FLAG_LENGTH);
+
+		// test & assert
+		assertThatThrownBy(() -> store.internClientFlag(keyword))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessageStartingWith("Flag too long");
+		assertThat(FlagDictionary.findId(keyword)).isEqualTo(-1);
+
+		// test & assert: limit does not apply to flags added with the API
+		MailboxMessage message = new MailboxMessage("Subject: Test\r\n\r\nHello");
+		message.setFlag(keyword);
+		assertThat(message.hasFlag(keyword)).isTrue();
+	}
+
+	@Test
+	void normalizeEmail() {
+		assertThat(MailboxStore.normalizeEmail("Alice@Example.COM")).isEqualTo("Alice@example.com");
+		assertThat(MailboxStore.normalizeEmail("\"a@b\"@Localhost")).isEqualTo("\"a@b\"@localhost");
+		assertThat(MailboxStore.normalizeEmail("postmaster")).isEqualTo("postmaster");
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Compares the streaming and parallel XML reader/writer with the DOM-based one.
+ * <p>
+ * Run with {@code -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MailboxStoreUtilsBenchmark {
+
+	private static final int MAILBOXES = 100;
+	private static final int MESSAGES = 100; // per mailbox
+	private static final int ITERATIONS = 5;
+
+	@Test
+	void benchmark() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		for (int i = 0; i < MAILBOXES; i++) {
+			MailboxFolder inbox = store.createMailbox("user" + i, "secret" + i, "user" + i + "@localhost").getInbox();
+			for (int j = 0; j < MESSAGES; j++) {
+				String body = ("Message " + j + " for user " + i + " & <friends>\r\n").repeat(40);
+				inbox.addMessage("Subject: Test " + j + "\r\n\r\n" + body).setSeen(j % 2 == 0);
+			}
+		}
+		byte[] data = toBytes(store, false);
+		System.out.printf("XML size: %,d bytes, %,d messages%n", data.length, MAILBOXES * MESSAGES);
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			long storeDocument = measure(() -> toBytes(store, true));
+			long storeStream = measure(() -> toBytes(store, false));
+			long loadDocument = measure(() -> MailboxStoreUtils.loadDocument(new ByteArrayInputStream(data), new MailboxStore()));
+			long loadStream = measure(() -> MailboxStoreUtils.load(new ByteArrayInputStream(data), new MailboxStore()));
+			long loadParallel = measure(() -> MailboxStoreUtils.loadParallel(new ByteArrayInputStream(data)));
+			System.out.printf("store: DOM %,d ms, StAX %,d ms | load: DOM %,d ms, StAX %,d ms, parallel %,d ms%n", storeDocument, storeStream, loadDocument, loadStream, loadParallel);
+		}
+
+	}
+
+	private static long measure(Task task) throws IOException {
+		long start = System.nanoTime();
+		task.run();
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	private static byte[] toBytes(MailboxStore store, boolean document) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		if (document) {
+			MailboxStoreUtils.storeDocument(store, stream);
+		} else {
+			MailboxStoreUtils.store(store, stream);
+		}
+		return stream.toByteArray();
+	}
+
+	private interface Task {
+		void run() throws IOException;
+	}
+
+}
@@ -14,10 +14,12 @@
 
 package net.markwalder.vtestmail.store;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
 import net.markwalder.vtestmail.testutils.TestUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -42,6 +44,88 @@ class MailboxStoreUtilsTest {
 
 	}
 
+	@Test
+	void load_sharesContent() throws IOException {
+
+		// prepare
+		InputStream stream = TestUtils.openResource("mailbox-store.xml");
+
+		// test
+		MailboxStore store = MailboxStoreUtils.load(stream);
+
+		// assert: 6 messages with 4 distinct contents
+		Assertions.assertEquals(4, store.getContentPool().size());
+
+	}
+
+	@Test
+	void loadParallel() throws IOException {
+
+		// prepare
+		InputStream stream = TestUtils.openResource("mailbox-store.xml");
+
+		// test
+		MailboxStore store = MailboxStoreUtils.loadParallel(stream);
+
+		// assert
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, out);
+		String xml = out.toString(StandardCharsets.UTF_8);
+		String expectedXml = TestUtils.readResource("mailbox-store.xml");
+		Assertions.assertEquals(expectedXml, xml);
+		Assertions.assertEquals(4, store.getContentPool().size());
+
+	}
+
+	@Test
+	void loadParallel_sameAsLoad() throws IOException {
+
+		// prepare: more mailboxes and messages than tasks in the pool
+		MailboxStore store = new MailboxStore();
+		for (int i = 0; i < 30; i++) {
+			Mailbox mailbox = store.createMailbox("user" + i, "secret" + i, "user" + i + "@localhost");
+			MailboxFolder inbox = mailbox.getInbox();
+			for (int j = 0; j < 100; j++) {
+				MailboxMessage message = inbox.addMessage("Subject: Test " + j + "\r\n\r\nMessage " + j + " for user " + i + "\r\n");
+				message.setSeen(j % 2 == 0);
+				message.setFlagged(j % 3 == 0);
+			}
+			inbox.removeMessage(5);
+			mailbox.createFolder("Drafts").addMessage("Subject: Draft\r\n\r\nDraft for user " + i);
+			mailbox.createFolder("Trash");
+		}
+		byte[] data = toBytes(store, false);
+
+		// test
+		MailboxStore result;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			result = MailboxStoreUtils.loadParallel(new ByteArrayInputStream(data), pool);
+		} finally {
+			pool.shutdown();
+		}
+
+		// assert
+		MailboxStore expectedResult = MailboxStoreUtils.load(new ByteArrayInputStream(data));
+		Assertions.assertArrayEquals(toBytes(expectedResult, false), toBytes(result, false));
+		Assertions.assertEquals(101, result.getMailbox("user29").getInbox().getUIDNext());
+
+	}
+
+	@Test
+	void loadParallel_invalidMessage() {
+
+		// prepare
+		String xml = "<store><mailbox username=\"user1\" secret=\"secret1\" email=\"user1@localhost\">"
+				+ "<folder name=\"INBOX\" uidNext=\"2\" uidValidity=\"1\"><message uid=\"1\"><content></content></message></folder>"
+				+ "</mailbox></store>";
+		InputStream stream = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+
+		// test & assert
+		Assertions.assertThrows(IllegalArgumentException.class, () -> MailboxStoreUtils.loadParallel(stream));
+
+	}
+
 	@Test
 	void store() throws IOException {
 
@@ -90,4 +174,65 @@ class MailboxStoreUtilsTest {
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	void store_sameAsDocument() throws IOException {
+
+		// prepare: special characters in attributes and content
+		MailboxStore store = new MailboxStore();
+		Mailbox mailbox = store.createMailbox("a&b<c>\"d\"", "tab\there", "\u00E4\u20AC\uD83D\uDE00@localhost");
+		MailboxFolder inbox = mailbox.getInbox();
+		inbox.addMessage("Subject: <Test> & \"more\"\r\n\r\nTab\there\rCR\nLF\u0001\u007F\u0085 \u00FC\u20AC\uD83D\uDE00 [LF]");
+		inbox.addMessage("Subject: Test 2\r\n\r\n").setFlag("custom&<>");
+		mailbox.createFolder("Folder \"1\" & <2>");
+		store.addMailbox(new Mailbox("empty", "secret", "empty@localhost"));
+
+		// test
+		byte[] data = toBytes(store, false);
+
+		// assert
+		byte[] expectedData = toBytes(store, true);
+		Assertions.assertEquals(new String(expectedData, StandardCharsets.UTF_8), new String(data, StandardCharsets.UTF_8));
+		Assertions.assertArrayEquals(expectedData, data);
+
+	}
+
+	@Test
+	void load_sameAsDocument() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		Mailbox mailbox = store.createMailbox("a&b<c>\"d\"", "tab\there", "\u00E4\u20AC\uD83D\uDE00@localhost");
+		mailbox.getInbox().addMessage("Subject: <Test> & \"more\"\r\n\r\nTab\there\rCR\nLF \u00FC\u20AC\uD83D\uDE00").setFlag(MailboxMessage.FLAG_SEEN);
+		mailbox.createFolder("Drafts");
+		byte[] data = toBytes(store, false);
+
+		// test
+		MailboxStore result = new MailboxStore();
+		MailboxStoreUtils.load(new ByteArrayInputStream(data), result);
+
+		// assert
+		MailboxStore expectedResult = new MailboxStore();
+		MailboxStoreUtils.loadDocument(new ByteArrayInputStream(data), expectedResult);
+		Assertions.assertArrayEquals(toBytes(expectedResult, true), toBytes(result, true));
+		Assertions.assertEquals(mailbox.getInbox().getMessage(1).getContent(), result.getMailbox(mailbox.getUsername()).getInbox().getMessage(1).getContent());
+
+	}
+
+	@Test
+	void escapeContent() {
+		Assertions.assertEquals("a[CRLF]b[CR]c[LF]d[CR][CRLF][LF][CR]", MailboxStoreUtils.escapeContent("a\r\nb\rc\nd\r\r\n\n\r"));
+		Assertions.assertEquals("a\r\nb\rc\nd\r\r\n\n\r", MailboxStoreUtils.unescapeContent("a[CRLF]b[CR]c[LF]d[CR][CRLF][LF][CR]"));
+		Assertions.assertEquals("[x] [C\n", MailboxStoreUtils.unescapeContent("[x] [C[LF]"));
+	}
+
+	private static byte[] toBytes(MailboxStore store, boolean document) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		if (document) {
+			MailboxStoreUtils.storeDocument(store, stream);
+		} else {
+			MailboxStoreUtils.store(store, stream);
+		}
+		return stream.toByteArray();
+	}
+
+}
@@ -15,7 +15,9 @@
 package net.markwalder.vtestmail.store;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 class MailboxTest {
@@ -37,6 +39,65 @@ class MailboxTest {
 		assertThat(mailbox.getEmail()).isEqualTo("alice@localhost");
 	}
 
-	// TODO: add tests for folders
+	@Test
+	void getFolderNames() {
+
+		// prepare
+		mailbox.createFolder("b");
+		mailbox.createFolder("A");
+		mailbox.createFolder("INBOX");
+		mailbox.createFolder("a");
+		mailbox.createFolder("Archive");
+
+		// test
+		List<String> names = mailbox.getFolderNames();
+
+		// assert: INBOX first, then case-insensitive order
+		assertThat(names).containsExactly("INBOX", "A", "a", "Archive", "b");
+	}
+
+	@Test
+	void renameFolder() {
+
+		// prepare
+		MailboxFolder folder = mailbox.createFolder("Drafts");
+
+		// test
+		mailbox.renameFolder("Drafts", "Archive");
+
+		// assert
+		assertThat(mailbox.hasFolder("Drafts")).isFalse();
+		assertThat(mailbox.getFolder("Archive")).isSameAs(folder);
+		assertThat(folder.getName()).isEqualTo("Archive");
+		assertThat(mailbox.getFolderNames()).containsExactly("Archive");
+	}
+
+	@Test
+	void createFolder_alreadyExists() {
+
+		// prepare
+		mailbox.createFolder("Drafts");
+
+		// test & assert
+		assertThatThrownBy(() -> mailbox.createFolder("Drafts"))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("Folder already exists: Drafts");
+	}
+
+	@Test
+	void deleteFolder() {
+
+		// prepare
+		mailbox.createFolder("Drafts");
+
+		// test
+		mailbox.deleteFolder("Drafts");
+
+		// assert
+		assertThat(mailbox.hasFolder("Drafts")).isFalse();
+		assertThatThrownBy(() -> mailbox.deleteFolder("Drafts"))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("Folder not found: Drafts");
+	}
 
 }
\ No newline at end of file
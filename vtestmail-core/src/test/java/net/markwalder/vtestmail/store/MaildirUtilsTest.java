@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import net.markwalder.vtestmail.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MaildirUtilsTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void storeAndLoad() throws IOException {
+
+		// prepare
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+
+		// test
+		ForkJoinPool pool = new ForkJoinPool(4);
+		MailboxStore result = new MailboxStore();
+		try {
+			MaildirUtils.store(store, directory, pool);
+			for (String username : store.getUsernames()) {
+				Mailbox mailbox = store.getMailbox(username);
+				result.addMailbox(new Mailbox(username, mailbox.getSecret(), mailbox.getEmail()));
+			}
+			MaildirUtils.load(directory, result, pool);
+		} finally {
+			pool.shutdown();
+		}
+
+		// assert
+		assertThat(toXml(result)).isEqualTo(TestUtils.readResource("mailbox-store.xml"));
+	}
+
+	@Test
+	void store() throws IOException {
+
+		// prepare
+		Mailbox mailbox = new MailboxStore().createMailbox("alice", "password123", "alice@localhost");
+		MailboxFolder inbox = mailbox.getInbox();
+		inbox.addMessage("Subject: Test 1\r\n\r\nHello\r\nWorld\r\n").setRecent(true);
+		MailboxMessage message = inbox.addMessage("Subject: Test 2\r\n\r\nHello");
+		message.setSeen(true);
+		message.setFlag(MailboxMessage.KEYWORD_FORWARDED);
+		message.setFlag(MailboxMessage.KEYWORD_JUNK);
+		message.setFlag(MailboxMessage.FLAG_DRAFT);
+		mailbox.createFolder("Sent");
+
+		// test
+		MaildirUtils.store(mailbox, directory);
+
+		// assert
+		assertThat(listFiles(directory)).containsExactly(
+				".Sent/dovecot-uidlist",
+				"cur/1.2.vtestmail:2,DPSa",
+				"dovecot-keywords",
+				"dovecot-uidlist",
+				"new/1.1.vtestmail"
+		);
+		assertThat(Files.readString(directory.resolve("new/1.1.vtestmail"))).isEqualTo("Subject: Test 1\n\nHello\nWorld\n");
+		assertThat(Files.readString(directory.resolve("dovecot-uidlist"))).isEqualTo("3 V1 N3\n1 :1.1.vtestmail\n2 :1.2.vtestmail\n");
+		assertThat(Files.readString(directory.resolve("dovecot-keywords"))).isEqualTo("0 $Junk\n");
+		assertThat(directory.resolve(".Sent/cur")).isDirectory();
+		assertThat(directory.resolve(".Sent/tmp")).isDirectory();
+	}
+
+	@Test
+	void load() throws IOException {
+
+		// prepare: Maildir created by another server
+		write("dovecot-uidlist", "3 V1234 N10 Gabc\n5 :1001.b.host\n");
+		write("dovecot-keywords", "0 $Junk\n1 custom\n");
+		write("new/1000.a.host", "Subject: Test 1\n\nNew message\n");
+		write("cur/1001.b.host:2,RS", "Subject: Test 2\n\nOld message\n");
+		write("cur/1002.c.host:2,Sb", "Subject: Test 3\r\n\r\nCRLF message\r\n");
+		write("tmp/1003.d.host", "Subject: Test 4\n\nIncomplete message\n");
+		write(".Sent/cur/1004.e.host:2,S", "Subject: Test 5\n\nSent message\n");
+		Files.createDirectories(directory.resolve(".Sent/new"));
+
+		MailboxStore store = new MailboxStore();
+		Mailbox mailbox = store.createMailbox("alice", "password123", "alice@localhost");
+		mailbox.getInbox().addMessage("Subject: Replaced\r\n\r\nHello");
+
+		// test
+		MaildirUtils.load(directory, mailbox);
+
+		// assert
+		assertThat(mailbox.getFolderNames()).containsExactly("INBOX", "Sent");
+
+		MailboxFolder inbox = mailbox.getInbox();
+		assertThat(inbox.getUIDValidity()).isEqualTo(1234);
+		assertThat(inbox.getUIDNext()).isEqualTo(12);
+		assertThat(inbox.getMessageCount()).isEqualTo(3);
+
+		MailboxMessage message1 = inbox.getMessage(1);
+		assertThat(message1.getUID()).isEqualTo(5);
+		assertThat(message1.getContent()).isEqualTo("Subject: Test 2\r\n\r\nOld message\r\n");
+		assertThat(message1.getFlags()).containsExactlyInAnyOrder(MailboxMessage.FLAG_ANSWERED, MailboxMessage.FLAG_SEEN);
+
+		MailboxMessage message2 = inbox.getMessage(2);
+		assertThat(message2.getUID()).isEqualTo(10);
+		assertThat(message2.getContent()).isEqualTo("Subject: Test 1\r\n\r\nNew message\r\n");
+		assertThat(message2.getFlags()).containsExactly(MailboxMessage.FLAG_RECENT);
+
+		MailboxMessage message3 = inbox.getMessage(3);
+		assertThat(message3.getUID()).isEqualTo(11);
+		assertThat(message3.getContent()).isEqualTo("Subject: Test 3\r\n\r\nCRLF message\r\n");
+		assertThat(message3.getFlags()).containsExactlyInAnyOrder(MailboxMessage.FLAG_SEEN, "custom");
+
+		MailboxFolder sent = mailbox.getFolder("Sent");
+		assertThat(sent.getUIDNext()).isEqualTo(2);
+		assertThat(sent.getMessage(1).getContent()).isEqualTo("Subject: Test 5\r\n\r\nSent message\r\n");
+		assertThat(sent.getMessage(1).isSeen()).isTrue();
+	}
+
+	@Test
+	void load_invalidUIDList() throws IOException {
+
+		// prepare
+		write("dovecot-uidlist", "3 V1234 N10\nabc :1001.b.host\n");
+		write("cur/1001.b.host:2,S", "Subject: Test\n\nHello\n");
+		Mailbox mailbox = new MailboxStore().createMailbox("alice", "password123", "alice@localhost");
+
+		// test & assert
+		assertThatThrownBy(() -> MaildirUtils.load(directory, mailbox))
+				.isInstanceOf(IOException.class)
+				.hasMessageStartingWith("Invalid number in UID list: abc");
+	}
+
+	@Test
+	void toCRLF() {
+		assertThat(MaildirUtils.toCRLF(bytes("a\nb\r\nc\n\n"))).isEqualTo(bytes("a\r\nb\r\nc\r\n\r\n"));
+		assertThat(MaildirUtils.toLF(ByteBuffer.wrap(bytes("a\r\nb\rc\r\n\r\n")))).isEqualTo(bytes("a\nb\rc\n\n"));
+	}
+
+	private void write(String path, String content) throws IOException {
+		Path file = directory.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static List<String> listFiles(Path directory) throws IOException {
+		List<String> names = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.filter(Files::isRegularFile).forEach(file -> names.add(directory.relativize(file).toString().replace('\\', '/')));
+		}
+		names.sort(null);
+		return names;
+	}
+
+	private static String toXml(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+}
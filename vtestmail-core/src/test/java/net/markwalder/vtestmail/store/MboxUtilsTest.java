@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class MboxUtilsTest {
+
+	@Test
+	void load() throws IOException {
+
+		// prepare
+		String mbox = "\n"
+				+ "From alice@localhost Mon Jan  1 12:00:00 2024\n"
+				+ "Subject: Test 1\n"
+				+ "\n"
+				+ ">From the start\n"
+				+ ">>From quoted\n"
+				+ ">Fromage\n"
+				+ "\n"
+				+ "From bob@localhost Mon Jan  1 13:00:00 2024\r\n"
+				+ "Subject: Test 2\r\n"
+				+ "\r\n"
+				+ "Gr\u00FC\u00DFe\r\n"
+				+ "\r\n"
+				+ "From carol@localhost Mon Jan  1 14:00:00 2024\n"
+				+ "Subject: Test 3\n"
+				+ "\n"
+				+ "No line break at end";
+		MailboxFolder folder = new MailboxStore().createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+		// test
+		int count = MboxUtils.load(toStream(mbox), folder);
+
+		// assert
+		assertThat(count).isEqualTo(3);
+		assertThat(folder.getUIDNext()).isEqualTo(4);
+		assertThat(folder.getMessage(1).getContent()).isEqualTo("Subject: Test 1\r\n\r\nFrom the start\r\n>From quoted\r\n>Fromage\r\n");
+		assertThat(folder.getMessage(2).getContent()).isEqualTo("Subject: Test 2\r\n\r\nGr\u00FC\u00DFe\r\n");
+		assertThat(folder.getMessage(3).getContent()).isEqualTo("Subject: Test 3\r\n\r\nNo line break at end\r\n");
+	}
+
+	@Test
+	void load_longLines() throws IOException {
+
+		// prepare: lines longer than the read buffer
+		String line = "0123456789".repeat(10000);
+		String mbox = "From alice@localhost Mon Jan  1 12:00:00 2024\n" + line + "\n" + line + "\n\n";
+		MailboxFolder folder = new MailboxStore().createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+		// test
+		MboxUtils.load(toStream(mbox), folder);
+
+		// assert
+		assertThat(folder.getMessage(1).getContent()).isEqualTo(line + "\r\n" + line + "\r\n");
+	}
+
+	@Test
+	void load_invalid() {
+
+		// prepare
+		MailboxFolder folder = new MailboxStore().createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+		// test & assert
+		assertThatThrownBy(() -> MboxUtils.load(toStream("Subject: Test\n\nHello\n"), folder))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Not an mbox file: first line is not a From line");
+	}
+
+	@Test
+	void store() throws IOException {
+
+		// prepare
+		MailboxFolder folder = new MailboxStore().createMailbox("alice", "password123", "alice@localhost").getInbox();
+		folder.addMessage("Subject: Test 1\r\n\r\nFrom the start\r\n>From quoted\r\n");
+		folder.addMessage("Subject: Test 2\r\n\r\nNo line break at end");
+
+		// test
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MboxUtils.store(folder, stream);
+
+		// assert
+		assertThat(stream.toString(StandardCharsets.ISO_8859_1)).isEqualTo(""
+				+ "From MAILER-DAEMON Thu Jan  1 00:00:00 1970\n"
+				+ "Subject: Test 1\n"
+				+ "\n"
+				+ ">From the start\n"
+				+ ">>From quoted\n"
+				+ "\n"
+				+ "From MAILER-DAEMON Thu Jan  1 00:00:00 1970\n"
+				+ "Subject: Test 2\n"
+				+ "\n"
+				+ "No line break at end\n"
+				+ "\n"
+		);
+	}
+
+	@Test
+	void storeAndLoad() throws IOException {
+
+		// prepare
+		MailboxFolder folder = new MailboxStore().createMailbox("alice", "password123", "alice@localhost").getInbox();
+		folder.addMessage("Subject: Test 1\r\n\r\nFrom the start\r\n>>From quoted\r\n\r\n");
+		folder.addMessage("Subject: Gr\u00FC\u20AC\u00DFe\r\n\r\n\u20AC 100\r\n");
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MboxUtils.store(folder, stream);
+
+		// test
+		MailboxFolder result = new MailboxStore().createMailbox("bob", "password456", "bob@localhost").getInbox();
+		MboxUtils.load(new ByteArrayInputStream(stream.toByteArray()), result);
+
+		// assert
+		assertThat(result.getMessageCount()).isEqualTo(2);
+		assertThat(result.getMessage(1).getContent()).isEqualTo(folder.getMessage(1).getContent());
+		assertThat(result.getMessage(2).getContentBuffer()).isEqualTo(folder.getMessage(2).getContentBuffer());
+	}
+
+	private static InputStream toStream(String mbox) {
+		return new ByteArrayInputStream(mbox.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+}
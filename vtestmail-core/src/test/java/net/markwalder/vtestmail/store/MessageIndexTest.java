@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class MessageIndexTest {
+
+	private static final String CONTENT = "From: X\r\nSubject: Test\r\n  folded\r\n\r\nLine 1\r\nLine 2";
+
+	private final MessageIndex index = MessageIndex.build(MessageContent.of(CONTENT.getBytes(StandardCharsets.ISO_8859_1)));
+
+	@Test
+	void getLineCount() {
+		assertThat(index.getLineCount()).isEqualTo(6);
+	}
+
+	@Test
+	void getTopLength() {
+		assertThat(CONTENT.substring(0, index.getTopLength(0))).isEqualTo("From: X\r\nSubject: Test\r\n  folded");
+		assertThat(CONTENT.substring(0, index.getTopLength(1))).isEqualTo("From: X\r\nSubject: Test\r\n  folded\r\n\r\nLine 1");
+		assertThat(index.getTopLength(2)).isEqualTo(CONTENT.length());
+		assertThat(index.getTopLength(Integer.MAX_VALUE)).isEqualTo(CONTENT.length());
+	}
+
+	@Test
+	void getTopLength_noBody() {
+		MessageIndex index = MessageIndex.build(MessageContent.of("From: X\r\nTo: Y".getBytes(StandardCharsets.ISO_8859_1)));
+		assertThat(index.getTopLength(0)).isEqualTo(14);
+		assertThat(index.getTopLength(5)).isEqualTo(14);
+	}
+
+	@Test
+	void getFields() {
+
+		// assert
+		assertThat(index.getFieldCount()).isEqualTo(2);
+		assertThat(field(0)).isEqualTo("From=X");
+		assertThat(field(1)).isEqualTo("Subject=Test\r\n  folded");
+	}
+
+	private String field(int field) {
+		String name = CONTENT.substring(index.getFieldNameStart(field), index.getFieldNameEnd(field));
+		String value = CONTENT.substring(index.getFieldValueStart(field), index.getFieldValueEnd(field));
+		return name + "=" + value;
+	}
+
+}
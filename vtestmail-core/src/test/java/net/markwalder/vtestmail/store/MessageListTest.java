@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+class MessageListTest {
+
+	private final MailboxMessage message1 = new MailboxMessage("Message 1");
+	private final MailboxMessage message2 = new MailboxMessage("Message 2");
+	private final MailboxMessage message3 = new MailboxMessage("Message 3");
+
+	@Test
+	void append() {
+
+		// test
+		MessageList list1 = MessageList.EMPTY.append(message1);
+		MessageList list2 = list1.append(message2);
+
+		// assert
+		assertThat(MessageList.EMPTY).isEmpty();
+		assertThat(list1).containsExactly(message1);
+		assertThat(list2).containsExactly(message1, message2);
+	}
+
+	@Test
+	void append_twice() {
+
+		// prepare
+		MessageList list = MessageList.EMPTY.append(message1);
+
+		// test: append two different messages to the same list
+		MessageList list2 = list.append(message2);
+		MessageList list3 = list.append(message3);
+
+		// assert: second append does not overwrite the first one
+		assertThat(list).containsExactly(message1);
+		assertThat(list2).containsExactly(message1, message2);
+		assertThat(list3).containsExactly(message1, message3);
+	}
+
+	@Test
+	void append_manyMessages() {
+
+		// test
+		MessageList list = MessageList.EMPTY;
+		for (int i = 0; i < 100; i++) {
+			list = list.append(new MailboxMessage("Message " + i));
+		}
+
+		// assert
+		assertThat(list).hasSize(100);
+		assertThat(list.get(99).getContent()).isEqualTo("Message 99");
+	}
+
+	@Test
+	void removeAt() {
+
+		// prepare
+		MessageList list = MessageList.EMPTY.append(message1).append(message2).append(message3);
+
+		// test
+		MessageList result = list.removeAt(1);
+
+		// assert
+		assertThat(result).containsExactly(message1, message3);
+		assertThat(list).containsExactly(message1, message2, message3);
+		assertThatThrownBy(() -> list.removeAt(3)).isInstanceOf(IndexOutOfBoundsException.class);
+	}
+
+	@Test
+	void removeMatching() {
+
+		// prepare
+		MessageList list = MessageList.EMPTY.append(message1).append(message2).append(message3);
+
+		// test & assert
+		assertThat(list.removeMatching(message -> message == message2)).containsExactly(message1, message3);
+		assertThat(list.removeMatching(message -> false)).isSameAs(list);
+	}
+
+}
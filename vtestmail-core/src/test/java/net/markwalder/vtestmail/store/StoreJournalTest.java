@@ -0,0 +1,616 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import net.markwalder.vtestmail.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StoreJournalTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void replay() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		String expectedXml;
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.NEVER);
+		try {
+			Mailbox mailbox = store.createMailbox("alice", "password123", "alice@localhost");
+			MailboxFolder inbox = mailbox.getInbox();
+			MailboxMessage message1 = inbox.addMessage("Subject: Test 1\r\n\r\nHello World!");
+			MailboxMessage message2 = inbox.addMessage("Subject: Test 2\r\n\r\nGr\u00FC\u20AC\u00DFe");
+			MailboxMessage message3 = inbox.addMessage("Subject: Test 3\r\n\r\nDelete me");
+			message1.setFlag(MailboxMessage.FLAG_SEEN);
+			message1.setFlag(MailboxMessage.KEYWORD_JUNK);
+			message2.setFlags(Arrays.asList(MailboxMessage.FLAG_ANSWERED, "custom"));
+			message3.setDeleted(true);
+			inbox.removeDeletedMessages();
+			message3.setSeen(true); // ignored: message has been removed
+			inbox.setUIDValidity(42);
+
+			mailbox.createFolder("Drafts");
+			mailbox.createFolder("Trash").addMessage("Subject: Test 4\r\n\r\nSpam");
+			mailbox.renameFolder("Drafts", "Sent");
+			mailbox.deleteFolder("Trash");
+
+			store.createMailbox("bob", "password456", "bob@localhost").getInbox().addMessage("Subject: Test 5\r\n\r\nHi Bob!");
+			store.createMailbox("carol", "password789", "carol@localhost");
+			store.deleteMailbox("carol");
+
+			expectedXml = toXml(store);
+		} finally {
+			journal.close();
+		}
+
+		// test
+		MailboxStore newStore = reopen();
+		// assert
+		assertThat(toXml(newStore)).isEqualTo(expectedXml);
+		assertThat(newStore.getMailbox("alice").getInbox().getUIDNext()).isEqualTo(4);
+		assertThat(newStore.getMailbox("alice").getInbox().getMessage(2).getContent()).isEqualTo("Subject: Test 2\r\n\r\nGr\u00FC\u20AC\u00DFe");
+		assertThat(newStore.getMailbox("carol")).isNull();
+
+	}
+
+	@Test
+	void replay_afterRestart() throws IOException {
+
+		// prepare: record changes in multiple journal files
+		StoreJournal.open(directory, new MailboxStore()).close();
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store);
+		try {
+			store.createMailbox("alice", "password123", "alice@localhost").getInbox().addMessage("Subject: Test 1\r\n\r\nHello");
+		} finally {
+			journal.close();
+		}
+		store = new MailboxStore();
+		journal = StoreJournal.open(directory, store);
+		try {
+			store.getMailbox("alice").getInbox().getMessage(1).setSeen(true);
+		} finally {
+			journal.close();
+		}
+
+		// test
+		store = reopen();
+
+		// assert
+		MailboxMessage message = store.getMailbox("alice").getInbox().getMessage(1);
+		assertThat(message.getContent()).isEqualTo("Subject: Test 1\r\n\r\nHello");
+		assertThat(message.isSeen()).isTrue();
+		assertThat(listFiles()).containsExactly("journal-1.log", "journal-2.log", "journal-3.log", "journal-4.log");
+
+	}
+
+	@Test
+	void replay_incompleteRecord() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			store.createMailbox("alice", "password123", "alice@localhost").getInbox().addMessage("Subject: Test 1\r\n\r\nHello");
+		} finally {
+			journal.close();
+		}
+
+		// simulate a crash while writing a record
+		Path file = directory.resolve("journal-1.log");
+		long size = Files.size(file);
+		Files.write(file, new byte[] { 0, 0, 0, 100, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		// test
+		MailboxStore newStore = reopen();
+		// assert
+		assertThat(newStore.getMailbox("alice").getInbox().getMessageCount()).isEqualTo(1);
+
+		// assert: incomplete record has been removed
+		assertThat(Files.size(file)).isEqualTo(size);
+		MailboxStore reopenedStore = reopen();
+		assertThat(reopenedStore.getMailbox("alice").getInbox().getMessageCount()).isEqualTo(1);
+	}
+
+	@Test
+	void replay_invalidLength() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			store.createMailbox("alice", "password123", "alice@localhost");
+		} finally {
+			journal.close();
+		}
+
+		// simulate a crash which left garbage at the end of the file
+		Path file = directory.resolve("journal-1.log");
+		long size = Files.size(file);
+		Files.write(file, new byte[] { 127, -1, -1, -1, 1, 2, 3, 4, 5, 6, 7, 8 }, StandardOpenOption.APPEND);
+
+		// test
+		MailboxStore newStore = reopen();
+
+		// assert
+		assertThat(newStore.getUsernames()).containsExactly("alice");
+		assertThat(Files.size(file)).isEqualTo(size);
+	}
+
+	@Test
+	void replay_corruptRecord() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			store.createMailbox("alice", "password123", "alice@localhost");
+			store.createMailbox("bob", "password456", "bob@localhost");
+		} finally {
+			journal.close();
+		}
+
+		// corrupt the first record (username "alice" starts after header,
+		// record length, record type, and string length)
+		Path file = directory.resolve("journal-1.log");
+		byte[] data = Files.readAllBytes(file);
+		data[5 + 4 + 1 + 2] = 'X';
+		Files.write(file, data);
+
+		// test & assert
+		assertThatThrownBy(() -> StoreJournal.open(directory, new MailboxStore()))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Corrupt record in journal file: " + file);
+	}
+
+	@Test
+	void replay_incompleteRecordInOlderFile() throws IOException {
+
+		// prepare: two journal files
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			store.createMailbox("alice", "password123", "alice@localhost");
+		} finally {
+			journal.close();
+		}
+		store = new MailboxStore();
+		journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			store.createMailbox("bob", "password456", "bob@localhost");
+		} finally {
+			journal.close();
+		}
+
+		// damage the end of the older file
+		Path file = directory.resolve("journal-1.log");
+		Files.write(file, new byte[] { 0, 0, 0, 100, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		// test & assert
+		assertThatThrownBy(() -> StoreJournal.open(directory, new MailboxStore()))
+				.isInstanceOf(IOException.class)
+				.hasMessage("Incomplete record in journal file: " + file);
+	}
+
+	@Test
+	void checkpoint() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		String expectedXml;
+		try (StoreJournal journal = StoreJournal.open(directory, store)) {
+			Mailbox mailbox = store.createMailbox("alice", "password123", "alice@localhost");
+			mailbox.getInbox().addMessage("Subject: Test 1\r\n\r\nHello");
+
+			// test
+			journal.checkpoint();
+
+			// assert
+			assertThat(listFiles()).containsExactly("journal-2.log", "snapshot.bin");
+
+			// changes after the checkpoint
+			mailbox.getInbox().addMessage("Subject: Test 2\r\n\r\nWorld");
+			mailbox.getInbox().getMessage(1).setFlagged(true);
+			expectedXml = toXml(store);
+		}
+
+		MailboxStore newStore = reopen();
+		assertThat(toXml(newStore)).isEqualTo(expectedXml);
+
+	}
+
+	@Test
+	void open_xmlSnapshot() throws IOException {
+
+		// prepare
+		Files.copy(TestUtils.openResource("mailbox-store.xml"), directory.resolve("snapshot.xml"));
+		MailboxStore store = new MailboxStore();
+		try (StoreJournal journal = StoreJournal.open(directory, store)) {
+			store.getMailbox("user1").getInbox().getMessage(2).setSeen(true);
+
+			// test
+			journal.checkpoint();
+
+			// assert: XML snapshot has been replaced by binary snapshot
+			assertThat(listFiles()).containsExactly("journal-2.log", "snapshot.bin");
+		}
+
+		MailboxStore newStore = reopen();
+		assertThat(newStore.getUsernames()).containsExactly("user1", "user2", "user3");
+		assertThat(newStore.getMailbox("user1").getInbox().getMessage(2).isSeen()).isTrue();
+
+	}
+
+	@Test
+	void addMessage_sharedContent() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		String content = "Subject: Newsletter\r\n\r\n" + "Lorem ipsum dolor sit amet. ".repeat(1000);
+		StoreJournal journal = StoreJournal.open(directory, store);
+		try {
+			List<MailboxFolder> inboxes = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				inboxes.add(store.createMailbox("user" + i, "password123", "user" + i + "@localhost").getInbox());
+			}
+
+			// test
+			for (MailboxFolder inbox : inboxes) {
+				inbox.addMessage(content);
+			}
+		} finally {
+			journal.close();
+		}
+
+		// assert: content has been written only once
+		assertThat(Files.size(directory.resolve("journal-1.log"))).isBetween((long) content.length(), 2L * content.length());
+
+		MailboxStore newStore = reopen();
+		assertThat(newStore.getMailbox("user9").getInbox().getMessage(1).getContent()).isEqualTo(content);
+		assertThat(newStore.getContentPool().size()).isEqualTo(1);
+
+	}
+
+	@Test
+	void addMessage_largeContent() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		String content = "Subject: Newsletter\r\n\r\n" + "Lorem ipsum dolor sit amet.\r\n".repeat(200000);
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+			// test
+			inbox.addMessage(content);
+			inbox.addMessage("Subject: Test\r\n\r\nHello");
+		} finally {
+			journal.close();
+		}
+
+		// assert
+		MailboxStore newStore = reopen();
+		MailboxFolder inbox = newStore.getMailbox("alice").getInbox();
+		assertThat(inbox.getMessage(1).getContent()).isEqualTo(content);
+		assertThat(inbox.getMessage(2).getContent()).isEqualTo("Subject: Test\r\n\r\nHello");
+	}
+
+	@Test
+	void addMessage_concurrent() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+			// test
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t = 0; t < 4; t++) {
+					int thread = t;
+					futures.add(executor.submit(() -> {
+						for (int i = 0; i < 50; i++) {
+							inbox.addMessage("Subject: Message " + thread + "-" + i + "\r\n\r\nHello");
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get(10, TimeUnit.SECONDS);
+				}
+			} finally {
+				executor.shutdown();
+			}
+		} finally {
+			journal.close();
+		}
+
+		// assert
+		MailboxStore newStore = reopen();
+		assertThat(newStore.getMailbox("alice").getInbox().getMessageCount()).isEqualTo(200);
+		assertThat(newStore.getMailbox("alice").getInbox().getUIDNext()).isEqualTo(201);
+
+	}
+
+	@Test
+	void renameFolder_concurrent() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.NEVER);
+		try {
+			Mailbox mailbox = store.createMailbox("alice", "password123", "alice@localhost");
+			MailboxFolder folder = mailbox.createFolder("A");
+
+			// test: rename folder while messages are delivered and flagged
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<?> future = executor.submit(() -> {
+					for (int i = 0; i < 200; i++) {
+						MailboxMessage message = folder.addMessage("Subject: Message " + i + "\r\n\r\nHello");
+						message.setSeen(true);
+					}
+				});
+				while (!future.isDone()) {
+					String name = folder.getName();
+					mailbox.renameFolder(name, name.equals("A") ? "B" : "A");
+				}
+				future.get(10, TimeUnit.SECONDS);
+			} finally {
+				executor.shutdown();
+			}
+		} finally {
+			journal.close();
+		}
+
+		// assert
+		MailboxStore newStore = reopen();
+		Mailbox mailbox = newStore.getMailbox("alice");
+		MailboxFolder folder = mailbox.getFolder("A") != null ? mailbox.getFolder("A") : mailbox.getFolder("B");
+		assertThat(folder.getMessageCount()).isEqualTo(200);
+		assertThat(folder.getMessages()).allMatch(MailboxMessage::isSeen);
+	}
+
+	@Test
+	void setFlag_concurrent() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		List<String> expectedFlags = new ArrayList<>();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.NEVER);
+		try {
+			MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+			for (int i = 0; i < 20; i++) {
+				inbox.addMessage("Subject: Message " + i + "\r\n\r\nHello");
+			}
+
+			// test: set, remove, and set the same flag concurrently, while
+			// the journal is blocked, so that all changes are queued up
+			for (MailboxMessage message : inbox.getMessages()) {
+				List<Thread> threads = new ArrayList<>();
+				synchronized (journal) {
+					for (int t = 0; t < 3; t++) {
+						boolean set = t != 1;
+						Thread thread = new Thread(() -> {
+							if (set) {
+								message.setFlag(MailboxMessage.FLAG_SEEN);
+							} else {
+								message.removeFlag(MailboxMessage.FLAG_SEEN);
+							}
+						});
+						thread.start();
+						threads.add(thread);
+						awaitBlocked(thread);
+					}
+				}
+				for (Thread thread : threads) {
+					thread.join(10000);
+				}
+				expectedFlags.add(message.getFlags().toString());
+			}
+		} finally {
+			journal.close();
+		}
+
+		// assert: replayed flags are equal to the live flags
+		MailboxStore newStore = reopen();
+		List<String> actualFlags = new ArrayList<>();
+		for (MailboxMessage message : newStore.getMailbox("alice").getInbox().getMessages()) {
+			actualFlags.add(message.getFlags().toString());
+		}
+		assertThat(actualFlags).isEqualTo(expectedFlags);
+
+	}
+
+	private static void awaitBlocked(Thread thread) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (thread.getState() != Thread.State.BLOCKED) {
+			assertThat(System.currentTimeMillis()).isLessThan(timeout);
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	void checkpoint_concurrent() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		try (StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.NEVER)) {
+			MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+			// test: write checkpoints while messages are added and flagged
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<?> future = executor.submit(() -> {
+					for (int i = 0; i < 200; i++) {
+						MailboxMessage message = inbox.addMessage("Subject: Message " + i + "\r\n\r\nHello");
+						message.setSeen(true);
+					}
+				});
+				while (!future.isDone()) {
+					journal.checkpoint();
+				}
+				future.get(10, TimeUnit.SECONDS);
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		// assert
+		MailboxStore newStore = reopen();
+		MailboxFolder inbox = newStore.getMailbox("alice").getInbox();
+		assertThat(inbox.getMessageCount()).isEqualTo(200);
+		assertThat(inbox.getMessages()).allMatch(MailboxMessage::isSeen);
+
+	}
+
+	@Test
+	void sync_failure() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		try {
+			MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+			inbox.addMessage("Subject: Test 1\r\n\r\nHello");
+
+			// test: interrupt closes the journal file while writing a record
+			Thread.currentThread().interrupt();
+			try {
+				assertThatThrownBy(() -> inbox.addMessage("Subject: Test 2\r\n\r\nHello"))
+						.isInstanceOf(UncheckedIOException.class)
+						.hasMessage("Failed to write journal");
+			} finally {
+				Thread.interrupted();
+			}
+
+			// assert: further changes are rejected
+			assertThatThrownBy(() -> inbox.addMessage("Subject: Test 3\r\n\r\nHello"))
+					.isInstanceOf(IllegalStateException.class)
+					.hasMessage("Journal has failed");
+			assertThatThrownBy(journal::checkpoint)
+					.isInstanceOf(IllegalStateException.class)
+					.hasMessage("Journal has failed");
+			assertThat(inbox.getMessageCount()).isEqualTo(2);
+		} finally {
+			// test: records which could not be written are written on close
+			journal.close();
+		}
+
+		// assert
+		MailboxStore newStore = reopen();
+		MailboxFolder inbox = newStore.getMailbox("alice").getInbox();
+		assertThat(inbox.getMessageCount()).isEqualTo(2);
+		assertThat(inbox.getMessage(2).getContent()).isEqualTo("Subject: Test 2\r\n\r\nHello");
+
+	}
+
+	@Test
+	void close_concurrent() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store, StoreJournal.SyncPolicy.ALWAYS);
+		MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+
+		// test: close journal while a record is appended, but not yet written
+		MailboxMessage message = inbox.addMessage("Subject: Test 1\r\n\r\nHello");
+		long seq = journal.setFlag(inbox, message, MailboxMessage.FLAG_SEEN, true);
+		journal.close();
+
+		// assert: record has been written and forced to disk on close
+		journal.sync(seq);
+
+	}
+
+	@Test
+	void open_storeNotEmpty() {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		store.createMailbox("alice", "password123", "alice@localhost");
+
+		// test & assert
+		assertThatThrownBy(() -> StoreJournal.open(directory, store))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessage("Store is not empty");
+	}
+
+	@Test
+	void close() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		StoreJournal journal = StoreJournal.open(directory, store);
+
+		// test
+		journal.close();
+
+		// assert: changes are no longer recorded
+		store.createMailbox("alice", "password123", "alice@localhost");
+		assertThat(store.getJournal()).isNull();
+		assertThatThrownBy(journal::checkpoint)
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("Journal has been closed");
+	}
+
+	private List<String> listFiles() throws IOException {
+		List<String> names = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> names.add(file.getFileName().toString()));
+		}
+		names.sort(null);
+		return names;
+	}
+
+	/**
+	 * Open the journal, replay all recorded changes into a new store, and
+	 * close the journal again.
+	 */
+	private MailboxStore reopen() throws IOException {
+		MailboxStore store = new MailboxStore();
+		StoreJournal.open(directory, store).close();
+		return store;
+	}
+
+	private static String toXml(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class StoreSnapshotTest {
+
+	@Test
+	void captureSnapshot() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		Mailbox mailbox = store.createMailbox("alice", "password123", "alice@localhost");
+		MailboxFolder inbox = mailbox.getInbox();
+		MailboxMessage message1 = inbox.addMessage("Subject: Test 1\r\n\r\nHello");
+		MailboxMessage message2 = inbox.addMessage("Subject: Test 2\r\n\r\nWorld");
+		message1.setSeen(true);
+		message2.setFlag(MailboxMessage.KEYWORD_JUNK);
+		mailbox.createFolder("Drafts").addMessage("Subject: Test 3\r\n\r\nDraft");
+		store.createMailbox("bob", "password456", "bob@localhost").getInbox().addMessage("Subject: Test 4\r\n\r\nHi Bob!");
+		String expectedXml = toXml(store);
+
+		// test
+		try (StoreSnapshot snapshot = store.captureSnapshot()) {
+
+			// changes after the snapshot
+			message1.setSeen(false);
+			message1.setFlagged(true);
+			message2.removeFlag(MailboxMessage.KEYWORD_JUNK);
+			message2.setFlag("custom");
+			inbox.addMessage("Subject: Test 5\r\n\r\nNew");
+			inbox.setUIDValidity(42);
+			mailbox.renameFolder("Drafts", "Sent");
+			mailbox.createFolder("Trash");
+			MailboxMessage message4 = store.getMailbox("bob").getInbox().getMessage(1);
+			store.deleteMailbox("bob");
+			message4.setDeleted(true);
+			store.createMailbox("carol", "password789", "carol@localhost");
+
+			// assert
+			assertThat(toXml(load(snapshot))).isEqualTo(expectedXml);
+			assertThat(toXml(store)).isNotEqualTo(expectedXml);
+		}
+
+	}
+
+	@Test
+	void captureSnapshot_removedMessages() throws IOException {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+		MailboxMessage message1 = inbox.addMessage("Subject: Test 1\r\n\r\nHello");
+		MailboxMessage message2 = inbox.addMessage("Subject: Test 2\r\n\r\nWorld");
+		message1.setDeleted(true);
+		String expectedXml = toXml(store);
+
+		// test
+		try (StoreSnapshot snapshot = store.captureSnapshot()) {
+
+			// flags of removed messages can still be changed
+			inbox.removeDeletedMessages();
+			message1.setDeleted(false);
+			inbox.removeMessage(1);
+			message2.setSeen(true);
+
+			// assert
+			assertThat(inbox.getMessageCount()).isZero();
+			assertThat(toXml(load(snapshot))).isEqualTo(expectedXml);
+		}
+
+	}
+
+	@Test
+	void isChangedSince() {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+		MailboxMessage message = inbox.addMessage("Subject: Test\r\n\r\nHello");
+
+		// test
+		long number1;
+		try (StoreSnapshot snapshot = store.captureSnapshot()) {
+			number1 = snapshot.getNumber();
+		}
+		boolean changed1 = store.isChangedSince(number1);
+		message.setSeen(true);
+		boolean changed2 = store.isChangedSince(number1);
+		long number2;
+		try (StoreSnapshot snapshot = store.captureSnapshot()) {
+			number2 = snapshot.getNumber();
+		}
+		boolean changed3 = store.isChangedSince(number2);
+		inbox.addMessage("Subject: Test\r\n\r\nWorld");
+
+		// assert
+		assertThat(store.isChangedSince(0)).isTrue();
+		assertThat(changed1).isFalse();
+		assertThat(changed2).isTrue();
+		assertThat(number2).isGreaterThan(number1);
+		assertThat(changed3).isFalse();
+		assertThat(store.isChangedSince(number2)).isTrue();
+		assertThat(store.isChangedSince(number1)).isTrue();
+
+	}
+
+	@Test
+	void captureSnapshot_concurrent() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+		for (int i = 0; i < 100; i++) {
+			inbox.addMessage("Subject: Message " + i + "\r\n\r\nHello");
+		}
+
+		// test: set and clear the flag of all messages in order of UID,
+		// so the flag of a consistent snapshot changes at most once
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AtomicBoolean running = new AtomicBoolean(true);
+		try {
+			Future<?> future = executor.submit(() -> {
+				boolean flagged = true;
+				while (running.get()) {
+					for (MailboxMessage message : inbox.getMessages()) {
+						message.setFlagged(flagged);
+					}
+					flagged = !flagged;
+				}
+			});
+
+			for (int i = 0; i < 200; i++) {
+				try (StoreSnapshot snapshot = store.captureSnapshot()) {
+					List<MailboxMessage> messages = load(snapshot).getMailbox("alice").getInbox().getMessages();
+
+					// assert
+					assertThat(messages).hasSize(100);
+					int changes = 0;
+					for (int m = 1; m < messages.size(); m++) {
+						if (messages.get(m).isFlagged() != messages.get(m - 1).isFlagged()) {
+							changes++;
+						}
+					}
+					assertThat(changes).isLessThanOrEqualTo(1);
+				}
+			}
+
+			running.set(false);
+			future.get(10, TimeUnit.SECONDS);
+		} finally {
+			running.set(false);
+			executor.shutdown();
+		}
+
+	}
+
+	private static MailboxStore load(StoreSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		BinaryStoreUtils.store(snapshot, stream);
+		return BinaryStoreUtils.load(new ByteArrayInputStream(stream.toByteArray()));
+	}
+
+	private static String toXml(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+}
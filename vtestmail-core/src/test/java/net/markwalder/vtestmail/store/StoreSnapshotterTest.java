@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import net.markwalder.vtestmail.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StoreSnapshotterTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void snapshot() throws Exception {
+
+		// prepare
+		MailboxStore store = MailboxStoreUtils.load(TestUtils.openResource("mailbox-store.xml"));
+		String expectedXml = toXml(store);
+		Path file = directory.resolve("snapshot.bin");
+
+		try (StoreSnapshotter snapshotter = new StoreSnapshotter(store, file)) {
+
+			// test
+			snapshotter.snapshot().get(10, TimeUnit.SECONDS);
+
+			// changes after the snapshot
+			store.createMailbox("dave", "password000", "dave@localhost");
+		}
+
+		// assert
+		assertThat(toXml(load(file))).isEqualTo(expectedXml);
+		assertThat(directory.resolve("snapshot.bin.tmp")).doesNotExist();
+	}
+
+	@Test
+	void snapshot_closed() throws IOException {
+
+		// prepare
+		StoreSnapshotter snapshotter = new StoreSnapshotter(new MailboxStore(), directory.resolve("snapshot.bin"));
+		snapshotter.close();
+
+		// test & assert
+		assertThatThrownBy(snapshotter::snapshot)
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("Snapshotter has been closed");
+	}
+
+	@Test
+	void start() throws Exception {
+
+		// prepare
+		MailboxStore store = new MailboxStore();
+		MailboxFolder inbox = store.createMailbox("alice", "password123", "alice@localhost").getInbox();
+		Path file = directory.resolve("snapshot.bin");
+
+		try (StoreSnapshotter snapshotter = new StoreSnapshotter(store, file)) {
+
+			// test
+			snapshotter.start(Duration.ofMillis(10));
+
+			// assert: first snapshot is written
+			waitUntilExists(file);
+			assertThat(load(file).getMailbox("alice").getInbox().getMessageCount()).isZero();
+
+			// assert: no snapshot is written if the store has not been changed
+			Files.delete(file);
+			Thread.sleep(200);
+			assertThat(file).doesNotExist();
+
+			// assert: next snapshot is written after a change
+			inbox.addMessage("Subject: Test\r\n\r\nHello");
+			waitUntilExists(file);
+			assertThat(load(file).getMailbox("alice").getInbox().getMessageCount()).isEqualTo(1);
+		}
+
+	}
+
+	private static void waitUntilExists(Path file) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (!Files.exists(file) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertThat(file).exists();
+	}
+
+	private static MailboxStore load(Path file) throws IOException {
+		try (InputStream stream = Files.newInputStream(file)) {
+			return BinaryStoreUtils.load(stream);
+		}
+	}
+
+	private static String toXml(MailboxStore store) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		MailboxStoreUtils.store(store, stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.markwalder.vtestmail.utils;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+
+class LineScannerTest {
+
+	@Test
+	void readLine_fromEmptyStream() throws IOException {
+		LineScanner scanner = createLineScanner("");
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromCRLF() throws IOException {
+		LineScanner scanner = createLineScanner("\r\n");
+		assertEquals("", scanner.readLine());
+		assertEquals("", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromCRLFCRLF() throws IOException {
+		LineScanner scanner = createLineScanner("\r\n\r\n");
+		assertEquals("", scanner.readLine());
+		assertEquals("", scanner.readLine());
+		assertEquals("", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithSingleLine() throws IOException {
+		LineScanner scanner = createLineScanner("line1");
+		assertEquals("line1", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithMultipleLines() throws IOException {
+		LineScanner scanner = createLineScanner("line1\r\nline2\r\nline3");
+		assertEquals("line1", scanner.readLine());
+		assertEquals("line2", scanner.readLine());
+		assertEquals("line3", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithSingleCR() throws IOException {
+		LineScanner scanner = createLineScanner("line1\rline2");
+		assertEquals("line1\rline2", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithSingleLF() throws IOException {
+		LineScanner scanner = createLineScanner("line1\nline2");
+		assertEquals("line1\nline2", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithDoubleCR() throws IOException {
+		LineScanner scanner = createLineScanner("line1\r\rline2");
+		assertEquals("line1\r\rline2", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithCRCRLF() throws IOException {
+		LineScanner scanner = createLineScanner("line1\r\r\nline2");
+		assertEquals("line1\r", scanner.readLine());
+		assertEquals("line2", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamWithLFCR() throws IOException {
+		LineScanner scanner = createLineScanner("line1\n\rline2");
+		assertEquals("line1\n\rline2", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamEndingWithCRLF() throws IOException {
+		LineScanner scanner = createLineScanner("line1\r\n");
+		assertEquals("line1", scanner.readLine());
+		assertEquals("", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_fromStreamEndingWithCR() throws IOException {
+		LineScanner scanner = createLineScanner("line1\r");
+		assertEquals("line1\r", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_withNonAsciiCharacters() throws IOException {
+		LineScanner scanner = createLineScanner("\u00E4\u00F6\u00FC\r\n\u00FF");
+		assertEquals("\u00E4\u00F6\u00FC", scanner.readLine());
+		assertEquals("\u00FF", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_withCRLFSplitAcrossReads() throws IOException {
+		// stream returns a single byte per read
+		InputStream stream = new ByteArrayInputStream("line1\r\nline2\r\n".getBytes(ISO_8859_1)) {
+			@Override
+			public synchronized int read(byte[] buffer, int offset, int length) {
+				return super.read(buffer, offset, Math.min(length, 1));
+			}
+		};
+		LineScanner scanner = new LineScanner(stream, 16);
+		assertEquals("line1", scanner.readLine());
+		assertEquals("line2", scanner.readLine());
+		assertEquals("", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readLine_withLinesLongerThanBuffer() throws IOException {
+		String line1 = "x".repeat(100);
+		String line2 = "y".repeat(1000);
+		LineScanner scanner = new LineScanner(toStream(line1 + "\r\n" + line2 + "\r\nline3"), 16);
+		assertEquals(line1, scanner.readLine());
+		assertEquals(line2, scanner.readLine());
+		assertEquals("line3", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void nextLine_returnsSliceOfBuffer() throws IOException {
+		LineScanner scanner = createLineScanner("HELO localhost\r\nQUIT\r\n");
+
+		assertTrue(scanner.nextLine());
+		assertEquals(14, scanner.getLineLength());
+		assertEquals("HELO localhost", new String(scanner.getBuffer(), scanner.getLineOffset(), scanner.getLineLength(), ISO_8859_1));
+
+		assertTrue(scanner.nextLine());
+		assertEquals(4, scanner.getLineLength());
+		assertEquals("QUIT", scanner.getLine());
+	}
+
+	@Test
+	void hasLine() throws IOException {
+		LineScanner scanner = createLineScanner("line1\r\nline2");
+		assertFalse(scanner.hasLine()); // nothing read yet
+		assertEquals("line1", scanner.readLine());
+		assertFalse(scanner.hasLine()); // line2 is not complete
+		assertEquals("line2", scanner.readLine());
+		assertFalse(scanner.hasLine());
+	}
+
+	@Test
+	void readLine_withMaxLineLength() throws IOException {
+		LineScanner scanner = createLineScanner("12345\r\n123456\r\n");
+		scanner.setMaxLineLength(5);
+		assertEquals("12345", scanner.readLine());
+		LineTooLongException exception = assertThrows(LineTooLongException.class, scanner::readLine);
+		assertEquals(5, exception.getMaxLineLength());
+	}
+
+	@Test
+	void readLine_withMaxLineLength_withoutCRLF() {
+		LineScanner scanner = new LineScanner(toStream("x".repeat(1000)), 16);
+		scanner.setMaxLineLength(100);
+		assertThrows(LineTooLongException.class, scanner::readLine);
+	}
+
+	@Test
+	void readChars() throws IOException {
+		LineScanner scanner = createLineScanner("A001 LOGIN {5}\r\nalice password\r\n");
+		assertEquals("A001 LOGIN {5}", scanner.readLine());
+		assertEquals("alice", scanner.readChars(5));
+		assertEquals(" password", scanner.readLine());
+		assertEquals("", scanner.readLine());
+		assertEndOfStream(scanner);
+	}
+
+	@Test
+	void readChars_longerThanBuffer() throws IOException {
+		String literal = "z".repeat(1000);
+		LineScanner scanner = new LineScanner(toStream("{1000}\r\n" + literal + "\r\n"), 16);
+		scanner.setMaxLineLength(100); // does not apply to readChars
+		assertEquals("{1000}", scanner.readLine());
+		assertEquals(literal, scanner.readChars(1000));
+		assertEquals("", scanner.readLine());
+	}
+
+	@Test
+	void readChars_untilEndOfStream() throws IOException {
+		LineScanner scanner = createLineScanner("abc");
+		assertEquals("abc", scanner.readChars(10));
+		assertEndOfStream(scanner);
+	}
+
+	private void assertEndOfStream(LineScanner scanner) throws IOException {
+		assertNull(scanner.readLine());
+		assertNull(scanner.readLine());
+		assertNull(scanner.readLine());
+	}
+
+	private static LineScanner createLineScanner(String text) {
+		return new LineScanner(toStream(text));
+	}
+
+	private static InputStream toStream(String text) {
+		return new ByteArrayInputStream(text.getBytes(ISO_8859_1));
+	}
+
+}